@@ -6,6 +6,10 @@ import cc.blynk.server.api.http.HttpAPIServer;
 import cc.blynk.server.api.http.pojo.EmailPojo;
 import cc.blynk.server.api.http.pojo.PushMessagePojo;
 import cc.blynk.server.core.BaseServer;
+import cc.blynk.server.core.dao.ReportingDao;
+import cc.blynk.server.core.model.enums.GraphType;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
 import cc.blynk.utils.JsonParser;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -22,6 +26,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -152,6 +159,95 @@ public class HttpAPIPinsTest extends BaseTest {
         }
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetPinHistoryForTimeRange() throws Exception {
+        Path pinReportingDataPath = Paths.get(getDataFolder(), "data", "dmitriy@blynk.cc",
+                ReportingDao.generateFilename(125564119, PinType.DIGITAL, (byte) 20, GraphType.HOURLY));
+        Files.createDirectories(pinReportingDataPath.getParent());
+
+        try {
+            try (ReportingChannelCache cache = new ReportingChannelCache(1)) {
+                cache.append(pinReportingDataPath, 1.11D, 1111111);
+                cache.append(pinReportingDataPath, 2.22D, 2222222);
+                cache.append(pinReportingDataPath, 3.33D, 3333333);
+            }
+
+            HttpGet request = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/pin/d20/history?type=h&from=2000000&to=3000000");
+
+            try (CloseableHttpResponse response = httpclient.execute(request)) {
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                List<List<Number>> records = JsonParser.readAny(consumeText(response), List.class);
+                assertEquals(1, records.size());
+                assertEquals(2222222, records.get(0).get(0).longValue());
+                assertEquals(2.22D, records.get(0).get(1).doubleValue(), 0.001);
+            }
+
+            request = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/pin/d20/history?type=h&count=2");
+
+            try (CloseableHttpResponse response = httpclient.execute(request)) {
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                List<List<Number>> records = JsonParser.readAny(consumeText(response), List.class);
+                assertEquals(2, records.size());
+                assertEquals(2222222, records.get(0).get(0).longValue());
+                assertEquals(3333333, records.get(1).get(0).longValue());
+            }
+        } finally {
+            Files.deleteIfExists(pinReportingDataPath);
+        }
+    }
+
+    @Test
+    public void testGetPinHistoryWithWrongRange() throws Exception {
+        HttpGet request = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/pin/d20/history?count=0");
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+            assertEquals("Count should be positive.", consumeText(response));
+        }
+
+        request = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/pin/d20/history?from=3000000&to=2000000");
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+            assertEquals("'from' should not be after 'to'.", consumeText(response));
+        }
+    }
+
+    @Test
+    public void testGetPinHistoryWithNonFiniteValues() throws Exception {
+        Path pinReportingDataPath = Paths.get(getDataFolder(), "data", "dmitriy@blynk.cc",
+                ReportingDao.generateFilename(125564119, PinType.DIGITAL, (byte) 21, GraphType.HOURLY));
+        Files.createDirectories(pinReportingDataPath.getParent());
+
+        try {
+            try (ReportingChannelCache cache = new ReportingChannelCache(1)) {
+                cache.append(pinReportingDataPath, Double.NaN, 1111111);
+                cache.append(pinReportingDataPath, Double.POSITIVE_INFINITY, 2222222);
+                cache.append(pinReportingDataPath, 3.33D, 3333333);
+            }
+
+            HttpGet request = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/pin/d21/history?type=h");
+
+            try (CloseableHttpResponse response = httpclient.execute(request)) {
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                assertEquals("[[1111111,null],[2222222,null],[3333333,3.33]]", consumeText(response));
+            }
+        } finally {
+            Files.deleteIfExists(pinReportingDataPath);
+        }
+    }
+
+    @Test
+    public void testGetPinHistoryWithWrongPin() throws Exception {
+        HttpGet request = new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/pin/d/history");
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+            assertEquals("Wrong pin format.", consumeText(response));
+        }
+    }
+
 
 
 
@@ -51,7 +51,8 @@ public class AppProtocolCommandsTest extends IntegrationBase {
     public void init() throws Exception {
         this.appServer = new AppServer(holder).start(transportTypeHolder);
 
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, new DBManager(blockingIOProcessor));
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, new DBManager(blockingIOProcessor),
+                holder.stats, holder.userJournal, 1);
         new Thread(profileSaverWorker).start();
     }
 
@@ -23,10 +23,10 @@ import cc.blynk.server.core.protocol.model.messages.appllication.GetTokenMessage
 import cc.blynk.server.core.protocol.model.messages.appllication.LoadProfileGzippedBinaryMessage;
 import cc.blynk.server.core.protocol.model.messages.appllication.sharing.SyncMessage;
 import cc.blynk.server.core.protocol.model.messages.common.HardwareConnectedMessage;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
 import cc.blynk.server.hardware.HardwareServer;
 import cc.blynk.server.notifications.push.android.AndroidGCMMessage;
 import cc.blynk.server.notifications.push.enums.Priority;
-import cc.blynk.server.workers.StorageWorker;
 import cc.blynk.server.workers.timer.TimerWorker;
 import cc.blynk.utils.ByteUtils;
 import cc.blynk.utils.JsonParser;
@@ -535,8 +535,10 @@ public class MainWorkflowTest extends IntegrationBase {
 
         Path pinReportingDataPath = Paths.get(tempDir, "data", DEFAULT_TEST_USER, ReportingDao.generateFilename(1, PinType.DIGITAL, (byte) 8, GraphType.HOURLY));
 
-        StorageWorker.write(pinReportingDataPath, 1.11D, 1111111);
-        StorageWorker.write(pinReportingDataPath, 1.22D, 2222222);
+        try (ReportingChannelCache cache = new ReportingChannelCache(1)) {
+            cache.append(pinReportingDataPath, 1.11D, 1111111);
+            cache.append(pinReportingDataPath, 1.22D, 2222222);
+        }
 
         clientPair.appClient.send("getgraphdata 1 d 8 24 h");
 
@@ -557,6 +559,39 @@ public class MainWorkflowTest extends IntegrationBase {
 
     }
 
+    @Test
+    public void testGetGraphDataForTimeRange() throws Exception {
+        String tempDir = holder.props.getProperty("data.folder");
+
+        final Path userReportFolder = Paths.get(tempDir, "data", DEFAULT_TEST_USER);
+        if (Files.notExists(userReportFolder)) {
+            Files.createDirectories(userReportFolder);
+        }
+
+        Path pinReportingDataPath = Paths.get(tempDir, "data", DEFAULT_TEST_USER, ReportingDao.generateFilename(1, PinType.DIGITAL, (byte) 9, GraphType.HOURLY));
+
+        try (ReportingChannelCache cache = new ReportingChannelCache(1)) {
+            cache.append(pinReportingDataPath, 1.11D, 1111111);
+            cache.append(pinReportingDataPath, 1.22D, 2222222);
+            cache.append(pinReportingDataPath, 1.33D, 3333333);
+        }
+
+        clientPair.appClient.send("getgraphdata 1 r 2000000 3000000 d 9 24 h");
+
+        ArgumentCaptor<BinaryMessage> objectArgumentCaptor = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(clientPair.appClient.responseMock, timeout(1000)).channelRead(any(), objectArgumentCaptor.capture());
+        BinaryMessage graphDataResponse = objectArgumentCaptor.getValue();
+
+        assertNotNull(graphDataResponse);
+        byte[] decompressedGraphData = ByteUtils.decompress(graphDataResponse.getBytes());
+        ByteBuffer bb = ByteBuffer.wrap(decompressedGraphData);
+
+        assertEquals(1, bb.getInt());
+        assertEquals(1, bb.getInt());
+        assertEquals(1.22D, bb.getDouble(), 0.1);
+        assertEquals(2222222, bb.getLong());
+    }
+
     @Test
     public void testDeleteGraphCommandWorks() throws Exception {
         clientPair.appClient.send("getgraphdata 1 d 8 del");
@@ -1,13 +1,18 @@
 package cc.blynk.server;
 
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.GraphReadProcessor;
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.dao.UserJournal;
+import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.reporting.average.AverageAggregator;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
+import cc.blynk.server.handlers.common.FlushConsolidationHandlerFactory;
 import cc.blynk.server.notifications.mail.MailWrapper;
 import cc.blynk.server.notifications.push.GCMWrapper;
 import cc.blynk.server.notifications.sms.SMSWrapper;
@@ -15,6 +20,10 @@ import cc.blynk.server.notifications.twitter.TwitterWrapper;
 import cc.blynk.server.workers.ProfileSaverWorker;
 import cc.blynk.utils.FileLoaderUtil;
 import cc.blynk.utils.ServerProperties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ConcurrentMap;
 
 import static cc.blynk.utils.ReportingUtil.*;
 
@@ -27,12 +36,18 @@ import static cc.blynk.utils.ReportingUtil.*;
  */
 public class Holder {
 
+    private static final Logger log = LogManager.getLogger(Holder.class);
+
     public final FileManager fileManager;
 
     public final SessionDao sessionDao;
 
     public final UserDao userDao;
 
+    public final UserJournal userJournal;
+
+    public final PinStateDao pinStateDao;
+
     public final ReportingDao reportingDao;
 
     public final DBManager dbManager;
@@ -45,6 +60,10 @@ public class Holder {
 
     public final BlockingIOProcessor blockingIOProcessor;
 
+    public final GraphReadProcessor graphReadProcessor;
+
+    public final FlushConsolidationHandlerFactory flushConsolidation;
+
     public ProfileSaverWorker profileSaverWorker;
 
     public final TwitterWrapper twitterWrapper;
@@ -59,11 +78,18 @@ public class Holder {
 
         this.fileManager = new FileManager(dataFolder);
         this.sessionDao = new SessionDao();
-        this.userDao = new UserDao(fileManager.deserialize());
+        long start = System.currentTimeMillis();
+        ConcurrentMap<String, User> users = fileManager.deserialize();
+        this.userJournal = new UserJournal(fileManager.getDataDir(), serverProperties.getIntProperty("profile.journal.sync.period", 0) > 0);
+        this.userJournal.open(users, fileManager);
+        this.userDao = new UserDao(users);
+        log.info("User DB with {} users loaded in {} ms.", users.size(), System.currentTimeMillis() - start);
+        this.pinStateDao = new PinStateDao(fileManager.getDataDir(), serverProperties.getIntProperty("pin.state.max.slots", 100000));
+        this.pinStateDao.restore(userDao.getUsers());
         this.stats = new GlobalStats();
         final String reportingFolder = getReportingFolder(dataFolder);
         this.averageAggregator = new AverageAggregator(reportingFolder);
-        this.reportingDao = new ReportingDao(reportingFolder, averageAggregator, serverProperties);
+        this.reportingDao = new ReportingDao(reportingFolder, averageAggregator, serverProperties, stats);
 
         this.twitterWrapper = new TwitterWrapper();
         this.mailWrapper = new MailWrapper(new ServerProperties(MailWrapper.MAIL_PROPERTIES_FILENAME));
@@ -76,7 +102,15 @@ public class Holder {
                 FileLoaderUtil.readFileAsString(BlockingIOProcessor.TOKEN_MAIL_BODY)
         );
 
+        this.graphReadProcessor = new GraphReadProcessor(
+                serverProperties.getIntProperty("graph.read.thread.pool.limit", 4),
+                serverProperties.getIntProperty("graph.read.queue.limit", 1000),
+                stats
+        );
+
         this.dbManager = new DBManager(blockingIOProcessor);
+
+        this.flushConsolidation = new FlushConsolidationHandlerFactory(serverProperties);
     }
 
     //for tests only
@@ -87,11 +121,18 @@ public class Holder {
 
         this.fileManager = new FileManager(dataFolder);
         this.sessionDao = new SessionDao();
-        this.userDao = new UserDao(fileManager.deserialize());
+        long start = System.currentTimeMillis();
+        ConcurrentMap<String, User> users = fileManager.deserialize();
+        this.userJournal = new UserJournal(fileManager.getDataDir(), serverProperties.getIntProperty("profile.journal.sync.period", 0) > 0);
+        this.userJournal.open(users, fileManager);
+        this.userDao = new UserDao(users);
+        log.info("User DB with {} users loaded in {} ms.", users.size(), System.currentTimeMillis() - start);
+        this.pinStateDao = new PinStateDao(fileManager.getDataDir(), serverProperties.getIntProperty("pin.state.max.slots", 100000));
+        this.pinStateDao.restore(userDao.getUsers());
         this.stats = new GlobalStats();
         final String reportingFolder = getReportingFolder(dataFolder);
         this.averageAggregator = new AverageAggregator(reportingFolder);
-        this.reportingDao = new ReportingDao(reportingFolder, averageAggregator, serverProperties);
+        this.reportingDao = new ReportingDao(reportingFolder, averageAggregator, serverProperties, stats);
 
         this.twitterWrapper = twitterWrapper;
         this.mailWrapper = mailWrapper;
@@ -104,7 +145,15 @@ public class Holder {
                 FileLoaderUtil.readFileAsString(BlockingIOProcessor.TOKEN_MAIL_BODY)
         );
 
+        this.graphReadProcessor = new GraphReadProcessor(
+                serverProperties.getIntProperty("graph.read.thread.pool.limit", 4),
+                serverProperties.getIntProperty("graph.read.queue.limit", 1000),
+                stats
+        );
+
         this.dbManager = new DBManager(blockingIOProcessor);
+
+        this.flushConsolidation = new FlushConsolidationHandlerFactory(serverProperties);
     }
 
 }
@@ -7,12 +7,10 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.server.handlers.DefaultReregisterHandler;
 import cc.blynk.server.handlers.http.rest.HandlerHolder;
 import cc.blynk.server.handlers.http.rest.HandlerRegistry;
 import cc.blynk.server.handlers.http.rest.Response;
 import cc.blynk.server.handlers.http.rest.URIDecoder;
-import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.FullHttpResponse;
@@ -21,18 +19,34 @@ import io.netty.util.ReferenceCounted;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletionStage;
+
 /**
+ * Requests with token are executed within mailbox of token owner, see {@link Session#execute(Runnable)}.
+ * Channel stays on its own event loop, so one keep-alive connection may serve requests of different users.
+ *
+ * Every request gets slot in per channel queue of pending responses and responses are written
+ * from head of queue only, so pipelined requests are answered in order of requests even when they
+ * are completed by different mailboxes. Request is answered inline only when nothing is pending.
+ * Reading is paused while responses are pending.
+ *
+ * Handler method may return {@link CompletionStage} of response in case it completes request
+ * outside of event loop, for example with blocking read.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 24.12.15.
  */
-public class BaseHttpHandler extends ChannelInboundHandlerAdapter implements DefaultReregisterHandler, DefaultExceptionHandler {
+public class BaseHttpHandler extends ChannelInboundHandlerAdapter implements DefaultExceptionHandler {
 
     protected static final Logger log = LogManager.getLogger(BaseHttpHandler.class);
 
     private final UserDao userDao;
     private final SessionDao sessionDao;
     private final GlobalStats globalStats;
+    //responses in order of requests, touched only by channel event loop
+    private final ArrayDeque<PendingResponse> pending = new ArrayDeque<>();
 
     public BaseHttpHandler(UserDao userDao, SessionDao sessionDao, GlobalStats globalStats) {
         this.userDao = userDao;
@@ -68,7 +82,7 @@ public class BaseHttpHandler extends ChannelInboundHandlerAdapter implements Def
 
         if (handlerHolder == null) {
             log.error("Error resolving url. No path found. {} : {}", req.getMethod().name(), req.getUri());
-            ctx.writeAndFlush(Response.notFound());
+            respond(ctx, Response.notFound());
             return;
         }
 
@@ -81,39 +95,73 @@ public class BaseHttpHandler extends ChannelInboundHandlerAdapter implements Def
             params = handlerHolder.fetchParams(uriDecoder);
         } catch (StringIndexOutOfBoundsException stringE) {
             log.error("{} : '{}'. Error : ", req.getMethod().name(), req.getUri(), stringE.getMessage());
-            ctx.writeAndFlush(Response.serverError(stringE.getMessage()));
+            respond(ctx, Response.serverError(stringE.getMessage()));
             return;
         } catch (Exception e) {
-            ctx.writeAndFlush(Response.serverError(e.getMessage()));
+            respond(ctx, Response.serverError(e.getMessage()));
             return;
         }
 
         String tokenPathParam = uriDecoder.pathData.get("token");
         if (tokenPathParam == null) {
-            ctx.writeAndFlush(HandlerRegistry.invoke(handlerHolder, params));
+            respond(ctx, HandlerRegistry.invoke(handlerHolder, params));
             return;
         }
 
-        //reregister logic
         User user = userDao.tokenManager.getUserByToken(tokenPathParam);
         if (user == null) {
             log.error("Requested token {} not found.", tokenPathParam);
-            ctx.writeAndFlush(Response.badRequest("Invalid token."));
+            respond(ctx, Response.badRequest("Invalid token."));
             return;
         }
 
         Session session = sessionDao.getSessionByUser(user, ctx.channel().eventLoop());
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
-            log.debug("Re registering http channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), HandlerRegistry.invoke(handlerHolder, params)));
-        } else {
-            completeLogin(ctx.channel(), HandlerRegistry.invoke(handlerHolder, params));
+        if (pending.isEmpty() && session.inMailbox()) {
+            respond(ctx, HandlerRegistry.invoke(handlerHolder, params));
+            return;
         }
+
+        PendingResponse pendingResponse = new PendingResponse();
+        pending.add(pendingResponse);
+        ctx.channel().config().setAutoRead(false);
+        session.execute(() -> complete(ctx, pendingResponse, HandlerRegistry.invoke(handlerHolder, params)));
     }
 
-    private void completeLogin(Channel channel, FullHttpResponse response) {
-        channel.writeAndFlush(response);
-        log.debug("Re registering http channel finished.");
+    /**
+     * Writes response right away in case it is ready and nothing is pending, otherwise queues it after pending ones.
+     */
+    private void respond(ChannelHandlerContext ctx, Object result) {
+        if (pending.isEmpty() && !(result instanceof CompletionStage)) {
+            ctx.writeAndFlush(result);
+            return;
+        }
+        PendingResponse pendingResponse = new PendingResponse();
+        pending.add(pendingResponse);
+        ctx.channel().config().setAutoRead(false);
+        complete(ctx, pendingResponse, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(ChannelHandlerContext ctx, PendingResponse pendingResponse, Object result) {
+        if (result instanceof CompletionStage) {
+            ((CompletionStage<FullHttpResponse>) result).whenComplete((response, e) ->
+                    complete(ctx, pendingResponse, e == null ? response : Response.serverError(e.getMessage())));
+            return;
+        }
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(() -> complete(ctx, pendingResponse, result));
+            return;
+        }
+        pendingResponse.response = (FullHttpResponse) result;
+        PendingResponse head;
+        while ((head = pending.peek()) != null && head.response != null) {
+            pending.poll();
+            ctx.write(head.response);
+        }
+        ctx.flush();
+        if (pending.isEmpty()) {
+            ctx.channel().config().setAutoRead(true);
+        }
     }
 
     @Override
@@ -121,4 +169,8 @@ public class BaseHttpHandler extends ChannelInboundHandlerAdapter implements Def
         handleUnexpectedException(ctx, cause);
     }
 
+    private static final class PendingResponse {
+        FullHttpResponse response;
+    }
+
 }
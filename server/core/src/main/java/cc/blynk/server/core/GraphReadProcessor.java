@@ -0,0 +1,65 @@
+package cc.blynk.server.core;
+
+import cc.blynk.server.core.stats.GlobalStats;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Separate pool for graph data reads, so chart loads are not queued behind
+ * slow notifications sending within {@link BlockingIOProcessor} and vice versa.
+ * Queue is bounded, requests above limit are rejected right away.
+ *
+ * Latency of every request (queue wait + read) is recorded in {@link GlobalStats}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class GraphReadProcessor implements Closeable {
+
+    private final ThreadPoolExecutor executor;
+    private final GlobalStats stats;
+
+    public GraphReadProcessor(int poolSize, int maxQueueSize, GlobalStats stats) {
+        this.executor = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueueSize)
+        );
+        this.stats = stats;
+    }
+
+    /**
+     * @return - false in case queue is full and task was rejected.
+     */
+    public boolean execute(Runnable task) {
+        final long start = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    stats.markGraphRead(System.nanoTime() - start);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            stats.graphReadRejected.increment();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+}
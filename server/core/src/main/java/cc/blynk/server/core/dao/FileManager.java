@@ -7,13 +7,18 @@ import io.netty.util.CharsetUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
@@ -33,11 +38,24 @@ public class FileManager {
 
     private static final Logger log = LogManager.getLogger(FileManager.class);
 
+    private static final String USER_FILE_PREFIX = "u_";
+    private static final String USER_FILE_EXTENSION = ".user";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    public static final String SNAPSHOT_FILE_NAME = "users.snapshot";
+
     /**
      * Folder where all user profiles are stored locally.
      */
     private Path dataDir;
 
+    /**
+     * Snapshot exists only while user files weren't changed after it was written,
+     * so existing snapshot is never stale. Held while user files are changed,
+     * so snapshot is never written between its removal and change of files.
+     */
+    final Object snapshotLock = new Object();
+    private boolean snapshotExists;
+
     public FileManager(String dataFolder) {
         if (dataFolder == null || "".equals(dataFolder)) {
             dataFolder = Paths.get(System.getProperty("java.io.tmpdir"), "blynk").toString();
@@ -48,6 +66,8 @@ public class FileManager {
             this.dataDir = createDatadir(Paths.get(System.getProperty("java.io.tmpdir"), "blynk"));
         }
 
+        this.snapshotExists = Files.exists(snapshotFile());
+
         log.info("Using data dir '{}'", dataDir);
     }
 
@@ -71,29 +91,169 @@ public class FileManager {
     }
 
     public Path generateFileName(String userName) {
-        return Paths.get(dataDir.toString(), "u_" + userName + ".user");
+        return Paths.get(dataDir.toString(), USER_FILE_PREFIX + userName + USER_FILE_EXTENSION);
+    }
+
+    /**
+     * Temp file profile is written to before it is renamed over user file.
+     * Same naming as in {@link FileUtils#writeAtomically(Path, ByteBuffer)}.
+     */
+    static Path tempFile(Path file) {
+        return file.resolveSibling(file.getFileName() + TEMP_FILE_EXTENSION);
+    }
+
+    private static boolean isUserFile(File file) {
+        String name = file.getName();
+        return file.isFile() && name.startsWith(USER_FILE_PREFIX) && name.endsWith(USER_FILE_EXTENSION);
+    }
+
+    private Path snapshotFile() {
+        return dataDir.resolve(SNAPSHOT_FILE_NAME);
     }
 
     public boolean delete(String name) {
         Path file = generateFileName(name);
-        return FileUtils.deleteQuietly(file);
+        synchronized (snapshotLock) {
+            invalidateSnapshot();
+            return FileUtils.deleteQuietly(file);
+        }
     }
 
+    /**
+     * Replaces user file atomically, so crash during write never leaves truncated profile.
+     * Profile is fsynced on every call, for many profiles use {@link #newBatch()}.
+     */
     public void overrideUserFile(User user) throws IOException {
         Path file = generateFileName(user.name);
-        try (BufferedWriter writer = Files.newBufferedWriter(file, CharsetUtil.UTF_8)) {
-            String userString = user.toString();
+        ByteBuffer data = ByteBuffer.wrap(user.toString().getBytes(CharsetUtil.UTF_8));
+        synchronized (snapshotLock) {
+            invalidateSnapshot();
+            FileUtils.writeAtomically(file, data);
+        }
+    }
 
-            writer.write(userString);
+    /**
+     * @return - batch that writes profiles of one save cycle with single fsync per group of files.
+     */
+    public UserFileBatch newBatch() {
+        return new UserFileBatch(this);
+    }
+
+    /**
+     * Makes renames of committed profiles durable. Called once per save cycle.
+     */
+    public void syncDataDir() {
+        try (FileChannel channel = FileChannel.open(dataDir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //directory can't be opened on some platforms, renames are flushed by OS in that case
+            log.debug("Error syncing data dir.", e);
         }
     }
 
     /**
-     * Loads all user profiles one by one from disk using dataDir as starting point.
+     * Writes consolidated snapshot of all users, that is used on next start instead of user files
+     * in case no user file is changed till then.
+     *
+     * @return - number of users in snapshot.
+     */
+    public int writeSnapshot(Collection<User> users) throws IOException {
+        synchronized (snapshotLock) {
+            int count = UserSnapshot.write(snapshotFile(), users);
+            syncDataDir();
+            snapshotExists = true;
+            return count;
+        }
+    }
+
+    /**
+     * Removes snapshot before user files are changed. Removal is made durable before
+     * changed files, so crash never leaves snapshot older than user files.
+     */
+    void invalidateSnapshot() {
+        synchronized (snapshotLock) {
+            if (snapshotExists) {
+                FileUtils.deleteQuietly(snapshotFile());
+                syncDataDir();
+                snapshotExists = false;
+                log.debug("User DB snapshot removed.");
+            }
+        }
+    }
+
+    /**
+     * Resolves temp files left by crash during profile save. Temp file with valid profile was fully
+     * written and fsynced (or written right before crash and is still complete), so it replaces user file.
+     * Partially written temp file is removed, user file it was going to replace is untouched.
+     */
+    public void recover() {
+        int promoted = 0;
+        int removed = 0;
+        try (DirectoryStream<Path> tmpFiles = Files.newDirectoryStream(dataDir,
+                USER_FILE_PREFIX + "*" + USER_FILE_EXTENSION + TEMP_FILE_EXTENSION)) {
+            for (Path tmp : tmpFiles) {
+                String tmpName = tmp.getFileName().toString();
+                Path file = tmp.resolveSibling(tmpName.substring(0, tmpName.length() - TEMP_FILE_EXTENSION.length()));
+                try {
+                    JsonParser.parseUserFromFile(tmp.toFile());
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    promoted++;
+                } catch (IOException e) {
+                    log.warn("Removing incomplete profile '{}'.", tmp);
+                    FileUtils.deleteQuietly(tmp);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error scanning data dir for unfinished profile saves.", e);
+        }
+        if (promoted > 0) {
+            invalidateSnapshot();
+        }
+        if (promoted + removed > 0) {
+            syncDataDir();
+            log.info("Recovered {} and removed {} unfinished profile saves.", promoted, removed);
+        }
+    }
+
+    /**
+     * Loads all user profiles from snapshot, or in case there is no valid snapshot,
+     * one by one from disk using dataDir as starting point.
+     * Unfinished saves are resolved first, see {@link #recover()}.
      *
      * @return mapping between username and it's profile.
      */
     public ConcurrentMap<String, User> deserialize() {
+        recover();
+
+        long start = System.currentTimeMillis();
+        ConcurrentMap<String, User> users = null;
+        if (snapshotExists) {
+            users = deserializeSnapshot();
+        }
+        if (users == null) {
+            users = deserializeFiles();
+            log.info("Read {} users from user files in {} ms.", users.size(), System.currentTimeMillis() - start);
+        } else {
+            log.info("Read {} users from snapshot in {} ms.", users.size(), System.currentTimeMillis() - start);
+        }
+        return users;
+    }
+
+    /**
+     * @return - users from snapshot or null in case snapshot is broken.
+     */
+    ConcurrentMap<String, User> deserializeSnapshot() {
+        try {
+            return UserSnapshot.read(snapshotFile());
+        } catch (IOException e) {
+            log.error("Error reading user DB snapshot. Reading user files.", e);
+            invalidateSnapshot();
+            return null;
+        }
+    }
+
+    ConcurrentMap<String, User> deserializeFiles() {
         log.debug("Starting reading user DB.");
 
         File userDBFolder = dataDir.toFile();
@@ -101,7 +261,7 @@ public class FileManager {
 
         if (files != null) {
             ConcurrentMap<String, User> tempUsers = Arrays.stream(files).parallel()
-                    .filter(File::isFile)
+                    .filter(FileManager::isUserFile)
                     .flatMap(file -> {
                         try {
                             User user = JsonParser.parseUserFromFile(file);
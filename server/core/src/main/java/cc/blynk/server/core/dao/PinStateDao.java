@@ -0,0 +1,359 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.utils.BodyParser;
+import cc.blynk.utils.StringUtils;
+import io.netty.util.CharsetUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps latest widget values outside of user profile, so pin writes don't mark profile as changed
+ * and profile json is rewritten only on structural changes.
+ *
+ * Values are stored in memory mapped file of fixed size slots, one slot per (user, dashId, pinType, pin).
+ * Slot : int crc, short length and record "user\0dashId\0pinType\0pin\0value\0value...".
+ * Slot is overridden in place on every write, so write is just memory copy, OS flushes pages to disk,
+ * {@link #flush()} forces them explicitly. Slots with wrong crc (torn by OS crash) are skipped on restore.
+ *
+ * Value that doesn't fit slot or doesn't have free slot marks dashboard as updated,
+ * so it is persisted with profile as before. Slots of removed users, dashboards and widgets
+ * are released on removal, so value of removed account or widget is never applied to new one
+ * with same name or pin. Slots that still point to removed objects are released on restore.
+ *
+ * Slot of user is written only within user mailbox, so slots are never written concurrently.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class PinStateDao implements Closeable {
+
+    public static final String PIN_STATE_FILE_NAME = "pin_state.bin";
+    static final int SLOT_SIZE = 256;
+    private static final int HEADER_SIZE = 6;
+    private static final int MAX_RECORD_SIZE = SLOT_SIZE - HEADER_SIZE;
+    private static final int MAGIC = 0x42505331;
+
+    private static final Logger log = LogManager.getLogger(PinStateDao.class);
+
+    //user name -> (dashId, pinType, pin) key -> slot
+    private final Map<String, Map<String, Integer>> slots = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final int maxSlots;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * @param maxSlots - max number of stored pins, 0 - store is disabled and values are kept only in profile.
+     */
+    public PinStateDao(Path dataDir, int maxSlots) {
+        RandomAccessFile file = null;
+        MappedByteBuffer buffer = null;
+        int slotsNumber = 0;
+        if (maxSlots > 0) {
+            try {
+                file = new RandomAccessFile(dataDir.resolve(PIN_STATE_FILE_NAME).toFile(), "rw");
+                if (file.length() >= SLOT_SIZE && file.readInt() != MAGIC) {
+                    log.warn("Pin state file has unknown format. Resetting.");
+                    file.setLength(0);
+                }
+                //slot 0 is header
+                slotsNumber = (int) Math.max(maxSlots, file.length() / SLOT_SIZE - 1);
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) (slotsNumber + 1) * SLOT_SIZE);
+                buffer.putInt(0, MAGIC);
+            } catch (Exception e) {
+                log.error("Error opening pin state file. Pin values will be stored in profiles.", e);
+                close(file);
+                file = null;
+                buffer = null;
+                slotsNumber = 0;
+            }
+        }
+        this.file = file;
+        this.buffer = buffer;
+        this.maxSlots = slotsNumber;
+    }
+
+    private static void close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.error("Error closing pin state file.", e);
+            }
+        }
+    }
+
+    private static String key(int dashId, PinType pinType, byte pin) {
+        return String.valueOf(dashId) + StringUtils.BODY_SEPARATOR + pinType.pintTypeChar
+                + StringUtils.BODY_SEPARATOR + pin;
+    }
+
+    private static String dashPrefix(int dashId) {
+        return String.valueOf(dashId) + StringUtils.BODY_SEPARATOR;
+    }
+
+    private Map<String, Integer> userSlots(String userName) {
+        return slots.computeIfAbsent(userName, k -> new ConcurrentHashMap<>());
+    }
+
+    private static int offset(int slot) {
+        return (slot + 1) * SLOT_SIZE;
+    }
+
+    /**
+     * Applies stored values to user profiles. Should be called once, before server is started.
+     */
+    public void restore(Map<String, User> users) {
+        if (buffer == null) {
+            return;
+        }
+        BitSet used = new BitSet(maxSlots);
+        int lastUsed = -1;
+        byte[] record = new byte[MAX_RECORD_SIZE];
+        for (int slot = 0; slot < maxSlots; slot++) {
+            int length = readRecord(slot, record);
+            if (length == 0) {
+                continue;
+            }
+            BodyParser parser = BodyParser.get().parse(new String(record, 0, length, CharsetUtil.UTF_8));
+            String userName = parser.part(0);
+            String key = apply(users, parser);
+            if (key == null) {
+                clear(slot);
+            } else {
+                Integer previous = userSlots(userName).put(key, slot);
+                if (previous != null) {
+                    clear(previous);
+                    used.clear(previous);
+                }
+                used.set(slot);
+                lastUsed = slot;
+            }
+        }
+        for (int slot = 0; slot < lastUsed; slot++) {
+            if (!used.get(slot)) {
+                freeSlots.add(slot);
+            }
+        }
+        nextSlot.set(lastUsed + 1);
+        log.info("Restored {} pin values.", size());
+    }
+
+    /**
+     * @return - length of valid record in slot or 0 in case slot is empty or corrupted.
+     */
+    private int readRecord(int slot, byte[] record) {
+        int offset = offset(slot);
+        int crc = buffer.getInt(offset);
+        int length = buffer.getShort(offset + 4);
+        if (length <= 0 || length > MAX_RECORD_SIZE) {
+            return 0;
+        }
+        for (int i = 0; i < length; i++) {
+            record[i] = buffer.get(offset + HEADER_SIZE + i);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(record, 0, length);
+        return (int) crc32.getValue() == crc ? length : 0;
+    }
+
+    /**
+     * @return - key of applied record or null in case record points to removed user, dash or widget.
+     */
+    private static String apply(Map<String, User> users, BodyParser parser) {
+        if (parser.parts() < 5) {
+            return null;
+        }
+        User user = users.get(parser.part(0));
+        if (user == null) {
+            return null;
+        }
+        DashBoard dash;
+        PinType pinType;
+        byte pin;
+        try {
+            dash = user.profile.getDashById(parser.parseInt(1, 0));
+            pinType = parser.pinType(2);
+            pin = parser.parseByte(3, 0);
+        } catch (Exception e) {
+            return null;
+        }
+        if (dash == null || !dash.update(pin, pinType, parser.values(4))) {
+            return null;
+        }
+        return key(dash.id, pinType, pin);
+    }
+
+    /**
+     * Updates widgets of dashboard with pin values and stores them.
+     */
+    public void update(User user, DashBoard dash, byte pin, PinType pinType, String[] values) {
+        if (dash.update(pin, pinType, values) && !store(user.name, dash.id, pinType, pin, values)) {
+            dash.updatedAt = System.currentTimeMillis();
+            user.markModified();
+        }
+    }
+
+    /**
+     * Same as {@link #update(User, DashBoard, byte, PinType, String[])} for hardware body "vw\01\0100".
+     */
+    public void update(User user, DashBoard dash, String body, int msgId) {
+        BodyParser parser = BodyParser.get().parse(body);
+        final PinType pinType = parser.pinType();
+        final byte pin = parser.pin(msgId);
+        update(user, dash, pin, pinType, parser.values(2));
+    }
+
+    private boolean store(String userName, int dashId, PinType pinType, byte pin, String[] values) {
+        if (buffer == null) {
+            return false;
+        }
+        String key = key(dashId, pinType, pin);
+        byte[] record = (userName + StringUtils.BODY_SEPARATOR + key + StringUtils.BODY_SEPARATOR
+                + String.join(StringUtils.BODY_SEPARATOR_STRING, values)).getBytes(CharsetUtil.UTF_8);
+        Map<String, Integer> userSlots = userSlots(userName);
+        if (record.length > MAX_RECORD_SIZE) {
+            //value goes to profile, older stored value shouldn't override it on restore
+            release(userSlots, key);
+            return false;
+        }
+        Integer slot = userSlots.computeIfAbsent(key, k -> allocate());
+        if (slot == null) {
+            return false;
+        }
+        write(slot, record);
+        return true;
+    }
+
+    private Integer allocate() {
+        Integer slot = freeSlots.poll();
+        if (slot != null) {
+            return slot;
+        }
+        int next = nextSlot.getAndIncrement();
+        if (next < maxSlots) {
+            return next;
+        }
+        nextSlot.decrementAndGet();
+        log.warn("No free pin state slots. Pin values will be stored in profiles.");
+        return null;
+    }
+
+    private void write(int slot, byte[] record) {
+        int offset = offset(slot);
+        for (int i = 0; i < record.length; i++) {
+            buffer.put(offset + HEADER_SIZE + i, record[i]);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(record);
+        buffer.putShort(offset + 4, (short) record.length);
+        buffer.putInt(offset, (int) crc32.getValue());
+    }
+
+    private void release(Map<String, Integer> userSlots, String key) {
+        Integer slot = userSlots.remove(key);
+        if (slot != null) {
+            free(slot);
+        }
+    }
+
+    private void free(int slot) {
+        clear(slot);
+        freeSlots.add(slot);
+    }
+
+    private void clear(int slot) {
+        int offset = offset(slot);
+        buffer.putShort(offset + 4, (short) 0);
+        buffer.putInt(offset, 0);
+    }
+
+    /**
+     * Releases slots of removed dashboard.
+     */
+    public void remove(User user, int dashId) {
+        Map<String, Integer> userSlots = slots.get(user.name);
+        if (userSlots == null) {
+            return;
+        }
+        String prefix = dashPrefix(dashId);
+        for (String key : userSlots.keySet()) {
+            if (key.startsWith(prefix)) {
+                release(userSlots, key);
+            }
+        }
+    }
+
+    /**
+     * Releases slots of dashboard pins that have no widget anymore, after widgets were removed or changed.
+     */
+    public void removeUnused(User user, DashBoard dash) {
+        Map<String, Integer> userSlots = slots.get(user.name);
+        if (userSlots == null) {
+            return;
+        }
+        String prefix = dashPrefix(dash.id);
+        for (String key : userSlots.keySet()) {
+            if (key.startsWith(prefix)) {
+                String[] parts = key.split(StringUtils.BODY_SEPARATOR_STRING);
+                if (dash.findWidgetByPin(Byte.parseByte(parts[2]), PinType.getPinType(parts[1].charAt(0))) == null) {
+                    release(userSlots, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases slots of removed user.
+     */
+    public void remove(String userName) {
+        Map<String, Integer> userSlots = slots.remove(userName);
+        if (userSlots != null) {
+            for (Integer slot : userSlots.values()) {
+                free(slot);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, Integer> userSlots : slots.values()) {
+            size += userSlots.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forces stored values to disk.
+     */
+    public void flush() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        close(file);
+    }
+
+}
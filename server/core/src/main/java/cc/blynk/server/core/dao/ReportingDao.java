@@ -3,22 +3,30 @@ package cc.blynk.server.core.dao;
 import cc.blynk.server.core.model.enums.GraphType;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
+import cc.blynk.server.core.reporting.GraphCache;
 import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.server.core.reporting.PinWriteBatch;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
 import cc.blynk.server.core.reporting.average.AverageAggregator;
+import cc.blynk.server.core.reporting.raw.RawDataJournal;
+import cc.blynk.server.core.reporting.segment.SegmentFile;
+import cc.blynk.server.core.reporting.segment.SegmentSealer;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.ServerProperties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.logging.log4j.ThreadContext;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 
+import static cc.blynk.utils.ByteUtils.*;
 import static cc.blynk.utils.ReportingUtil.*;
 import static java.lang.String.*;
 
@@ -27,7 +35,7 @@ import static java.lang.String.*;
  * Created by Dmitriy Dumanskiy.
  * Created on 2/18/2015.
  */
-public class ReportingDao {
+public class ReportingDao implements Closeable {
 
     public static final String REPORTING_MINUTE_FILE_NAME = "history_%s_%c%d_minute.bin";
     public static final String REPORTING_HOURLY_FILE_NAME = "history_%s_%c%d_hourly.bin";
@@ -35,13 +43,31 @@ public class ReportingDao {
     private static final Logger log = LogManager.getLogger(ReportingDao.class);
     private final AverageAggregator averageAggregator;
     private final String dataFolder;
+    public final ReportingChannelCache channelCache;
+    public final GraphCache graphCache;
+    //when enabled full reporting files are moved to compressed segments
+    public final boolean segmentFormat;
 
-    private final boolean ENABLE_RAW_DATA_STORE;
+    //null in case raw data store is disabled
+    private final RawDataJournal rawDataJournal;
 
-    public ReportingDao(String reportingFolder, AverageAggregator averageAggregator, ServerProperties serverProperties) {
+    public ReportingDao(String reportingFolder, AverageAggregator averageAggregator, ServerProperties serverProperties,
+                        GlobalStats stats) {
         this.averageAggregator = averageAggregator;
         this.dataFolder = reportingFolder;
-        this.ENABLE_RAW_DATA_STORE = serverProperties.getBoolProperty("enable.raw.data.store");
+        this.rawDataJournal = serverProperties.getBoolProperty("enable.raw.data.store")
+                ? new RawDataJournal(reportingFolder,
+                        serverProperties.getIntProperty("raw.data.file.size.mb", 64) * 1024L * 1024L,
+                        serverProperties.getIntProperty("raw.data.queue.limit", 100_000),
+                        serverProperties.getIntProperty("raw.data.flush.period", 1000),
+                        stats)
+                : null;
+        this.segmentFormat = serverProperties.getBoolProperty("reporting.segment.format");
+        this.channelCache = new ReportingChannelCache(
+                serverProperties.getIntProperty("reporting.file.channel.cache.size", 512),
+                segmentFormat ? SegmentSealer.SEAL_THRESHOLD_BYTES : 0);
+        this.graphCache = new GraphCache(
+                serverProperties.getIntProperty("reporting.graph.cache.size.mb", 32) * 1024L * 1024L, stats);
     }
 
     public static String generateFilename(int dashId, PinType pinType, byte pin, GraphType type) {
@@ -57,21 +83,49 @@ public class ReportingDao {
 
     //todo move out from event loop
     public static byte[] getAllFromDisk(String dataFolder, String username, int dashId, PinType pinType, byte pin, int count, GraphType type) {
+        return getAllFromDisk(dataFolder, username, dashId, pinType, pin, count, type, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads last "count" records of pin with timestamps within [from, to] range.
+     */
+    public static byte[] getAllFromDisk(String dataFolder, String username, int dashId, PinType pinType, byte pin,
+                                        int count, GraphType type, long from, long to) {
         Path userDataFile = Paths.get(dataFolder, username, generateFilename(dashId, pinType, pin, type));
-        if (Files.notExists(userDataFile)) {
+        //raw tail is read before segments, as sealer appends segments before tail is replaced
+        byte[] tail = readTail(userDataFile, count, from, to);
+
+        try {
+            return SegmentFile.prependHistory(SegmentFile.getSegmentPath(userDataFile), tail, count, from, to);
+        } catch (IOException e) {
+            log.error(e);
+        }
+
+        return tail;
+    }
+
+    private static byte[] readTail(Path userDataFile, int count, long from, long to) {
+        if (Files.notExists(userDataFile) || from > to) {
             return EMPTY_ARRAY;
         }
 
-        try (SeekableByteChannel channel = Files.newByteChannel(userDataFile, StandardOpenOption.READ)) {
-            final int size = (int) Files.size(userDataFile);
-            final int dataSize = count * 16;
-            final int readDataSize = Math.min(dataSize, size);
+        try (FileChannel channel = FileChannel.open(userDataFile, StandardOpenOption.READ)) {
+            final long records = channel.size() / REPORTING_RECORD_SIZE_BYTES;
 
-            ByteBuffer buf = ByteBuffer.allocate(readDataSize);
-            channel.position(Math.max(0, size - dataSize));
-            channel.read(buf);
+            //records are appended in time order, so range is found with binary search
+            ByteBuffer tsBuf = ByteBuffer.allocate(8);
+            long startIndex = from == Long.MIN_VALUE ? 0 : lowerBound(channel, records, from, tsBuf);
+            long endIndex = to == Long.MAX_VALUE ? records : lowerBound(channel, records, to + 1, tsBuf);
+            startIndex = Math.max(startIndex, endIndex - count);
+            if (startIndex >= endIndex) {
+                return EMPTY_ARRAY;
+            }
 
-            //todo filter outdated records?
+            ByteBuffer buf = ByteBuffer.allocate((int) (endIndex - startIndex) * REPORTING_RECORD_SIZE_BYTES);
+            long position = startIndex * REPORTING_RECORD_SIZE_BYTES;
+            while (buf.hasRemaining() && channel.read(buf, position + buf.position()) != -1) {
+                //reading till buffer is full
+            }
 
             return buf.array();
         } catch (IOException e) {
@@ -96,9 +150,19 @@ public class ReportingDao {
         Path userDataMinuteFile = Paths.get(dataFolder, username, format(REPORTING_MINUTE_FILE_NAME, dashId, pinType.pintTypeChar, pin));
         Path userDataHourlyFile = Paths.get(dataFolder, username, format(REPORTING_HOURLY_FILE_NAME, dashId, pinType.pintTypeChar, pin));
         Path userDataDailyFile = Paths.get(dataFolder, username, format(REPORTING_DAILY_FILE_NAME, dashId, pinType.pintTypeChar, pin));
+        channelCache.invalidate(userDataMinuteFile);
+        channelCache.invalidate(userDataHourlyFile);
+        channelCache.invalidate(userDataDailyFile);
         FileUtils.deleteQuietly(userDataMinuteFile);
         FileUtils.deleteQuietly(userDataHourlyFile);
         FileUtils.deleteQuietly(userDataDailyFile);
+        FileUtils.deleteQuietly(SegmentFile.getSegmentPath(userDataMinuteFile));
+        FileUtils.deleteQuietly(SegmentFile.getSegmentPath(userDataHourlyFile));
+        FileUtils.deleteQuietly(SegmentFile.getSegmentPath(userDataDailyFile));
+        //invalidated after files are removed, so concurrent read can't put removed records back to cache
+        graphCache.invalidate(userDataMinuteFile);
+        graphCache.invalidate(userDataHourlyFile);
+        graphCache.invalidate(userDataDailyFile);
     }
 
     public void process(String username, int dashId, byte pin, PinType pinType, String[] bodyParts) {
@@ -106,22 +170,53 @@ public class ReportingDao {
         String value = bodyParts[0];
         long ts = System.currentTimeMillis();
 
-        if (ENABLE_RAW_DATA_STORE) {
-            ThreadContext.put("dashId", Integer.toString(dashId));
-            ThreadContext.put("pin", String.valueOf(pinType.pintTypeChar) + pin);
-            log.info("{},{}", value, ts);
+        if (rawDataJournal != null) {
+            rawDataJournal.append(username, dashId, pinType, pin, value, ts);
         }
 
         averageAggregator.collect(username, dashId, pinType, pin, ts, value);
     }
 
+    /**
+     * Same as {@link #process(String, int, byte, PinType, String[])} for value that is already
+     * numeric, so aggregator takes it as is without parsing.
+     *
+     * @param text - same value as string, for raw data store.
+     */
+    public void process(String username, int dashId, byte pin, PinType pinType, double value, String text) {
+        long ts = System.currentTimeMillis();
+
+        if (rawDataJournal != null) {
+            rawDataJournal.append(username, dashId, pinType, pin, text, ts);
+        }
+
+        averageAggregator.collect(username, dashId, pinType, pin, ts, value);
+    }
+
+    /**
+     * Same as {@link #process(String, int, byte, PinType, String[])} for all writes of batch,
+     * all writes get same timestamp and are aggregated with single aggregator call.
+     */
+    public void process(String username, int dashId, PinWriteBatch batch) {
+        long ts = System.currentTimeMillis();
+
+        if (rawDataJournal != null) {
+            for (int i = 0; i < batch.size; i++) {
+                rawDataJournal.append(username, dashId, batch.pinTypes[i], batch.pins[i], batch.values[i][0], ts);
+            }
+        }
+
+        averageAggregator.collect(username, dashId, ts, batch);
+    }
+
     public byte[][] getAllFromDisk(String username, GraphPinRequest[] requestedPins, int msgId) {
         byte[][] values = new byte[requestedPins.length][];
 
         for (int i = 0; i < requestedPins.length; i++) {
             values[i] = getAllFromDisk(username,
                     requestedPins[i].dashId, requestedPins[i].pinType,
-                    requestedPins[i].pin, requestedPins[i].count, requestedPins[i].type);
+                    requestedPins[i].pin, requestedPins[i].count, requestedPins[i].type,
+                    requestedPins[i].from, requestedPins[i].to);
         }
 
 
@@ -132,8 +227,31 @@ public class ReportingDao {
         return values;
     }
 
-    private byte[] getAllFromDisk(String username, int dashId, PinType pinType, byte pin, int count, GraphType type) {
-        return getAllFromDisk(dataFolder, username, dashId, pinType, pin, count, type);
+    /**
+     * Same as static version, but serves hot series from {@link GraphCache}.
+     */
+    public byte[] getAllFromDisk(String username, int dashId, PinType pinType, byte pin, int count,
+                                 GraphType type, long from, long to) {
+        if (!graphCache.isEnabled()) {
+            return getAllFromDisk(dataFolder, username, dashId, pinType, pin, count, type, from, to);
+        }
+
+        Path userDataFile = Paths.get(dataFolder, username, generateFilename(dashId, pinType, pin, type));
+        byte[] data = graphCache.get(userDataFile, count, from, to);
+        if (data == null) {
+            long version = graphCache.version();
+            data = getAllFromDisk(dataFolder, username, dashId, pinType, pin, count, type, from, to);
+            graphCache.put(userDataFile, data, count, from, to, version);
+        }
+        return data;
+    }
+
+    @Override
+    public void close() {
+        if (rawDataJournal != null) {
+            rawDataJournal.close();
+        }
+        channelCache.close();
     }
 
 }
@@ -4,6 +4,7 @@ import cc.blynk.server.core.model.auth.User;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -16,7 +17,7 @@ public class TokenManager extends TokenManagerBase {
 
     private static final Logger log = LogManager.getLogger(TokenManager.class);
 
-    public TokenManager(Iterable<User> users) {
+    public TokenManager(Collection<User> users) {
         super(users);
     }
 
@@ -2,6 +2,7 @@ package cc.blynk.server.core.dao;
 
 import cc.blynk.server.core.model.auth.User;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,7 +17,7 @@ public abstract class TokenManagerBase {
 
     protected final ConcurrentMap<String, User> cache;
 
-    public TokenManagerBase(Iterable<User> users) {
+    public TokenManagerBase(Collection<User> users) {
         this.cache = initTokenCache(users);
     }
 
@@ -24,14 +25,15 @@ public abstract class TokenManagerBase {
         return UUID.randomUUID().toString().replace("-", "");
     }
 
-    private ConcurrentMap<String, User> initTokenCache(Iterable<User> users) {
-        return new ConcurrentHashMap<String, User>() {{
-            for (User user : users) {
-                for (String userToken : getTokens(user).values()) {
-                    put(userToken, user);
-                }
+    private ConcurrentMap<String, User> initTokenCache(Collection<User> users) {
+        ConcurrentMap<String, User> cache = new ConcurrentHashMap<>(users.size() * 2);
+        //indexed in parallel, so large user DB doesn't slow down server start
+        users.parallelStream().forEach(user -> {
+            for (String userToken : getTokens(user).values()) {
+                cache.put(userToken, user);
             }
-        }};
+        });
+        return cache;
     }
 
     public String getToken(User user, Integer dashboardId) {
@@ -1,6 +1,7 @@
 package cc.blynk.server.core.dao;
 
 import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.DirtyUserQueue;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.protocol.exceptions.InvalidTokenException;
@@ -26,11 +27,16 @@ public class UserDao {
     private static final Logger log = LogManager.getLogger(UserDao.class);
     public final TokenManagerBase tokenManager;
     public final TokenManagerBase sharedTokenManager;
+    //users modified since last save
+    public final DirtyUserQueue dirtyUsers = new DirtyUserQueue();
     private final ConcurrentMap<String, User> users;
 
     public UserDao(ConcurrentMap<String, User> users) {
         //reading DB to RAM.
         this.users = users;
+        for (User user : users.values()) {
+            user.setDirtyQueue(dirtyUsers);
+        }
         this.tokenManager = new TokenManager(users.values());
         this.sharedTokenManager = new SharedTokenManager(users.values());
     }
@@ -70,10 +76,17 @@ public class UserDao {
     }
 
     public User delete(String name) {
-        return users.remove(name);
+        User user = users.remove(name);
+        if (user != null) {
+            //queued to journal deletion
+            user.markModified();
+        }
+        return user;
     }
 
     public User add(User user) {
+        user.setDirtyQueue(dirtyUsers);
+        user.markModified();
         return users.put(user.name, user);
     }
 
@@ -141,13 +154,12 @@ public class UserDao {
     public User addFacebookUser(String userName) {
         log.debug("Adding new facebook user {}.", userName);
         User newUser = new User(userName);
-        users.put(userName, newUser);
+        add(newUser);
         return newUser;
     }
 
     public void add(String userName, String pass) {
-        User newUser = new User(userName, pass);
-        users.put(userName, newUser);
+        add(new User(userName, pass));
     }
 
 }
@@ -0,0 +1,142 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.utils.FileUtils;
+import io.netty.util.CharsetUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes profiles of one save cycle with group commit.
+ *
+ * Every profile is written to own temp file without fsync. Once {@link #GROUP_SIZE} temp files
+ * are written (or on {@link #commit()}) all of them are fsynced concurrently and renamed over
+ * user files, so file system merges flushes of whole group to few journal commits
+ * instead of committing journal after every written profile.
+ * Renames are made durable by single {@link FileManager#syncDataDir()} per save cycle.
+ *
+ * Crash at any moment leaves either old or new profile plus may be temp file,
+ * that is resolved by {@link FileManager#recover()} on next start.
+ *
+ * Not thread safe, every writer uses own batch.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class UserFileBatch {
+
+    //max number of temp files kept open till fsync
+    static final int GROUP_SIZE = 128;
+
+    private static final Logger log = LogManager.getLogger(UserFileBatch.class);
+
+    private final FileManager fileManager;
+    private final List<Pending> pending = new ArrayList<>(GROUP_SIZE);
+    private final List<User> failed = new ArrayList<>();
+
+    UserFileBatch(FileManager fileManager) {
+        this.fileManager = fileManager;
+    }
+
+    /**
+     * Writes profile to temp file. Profile is committed later, with whole group.
+     */
+    public void write(User user) throws IOException {
+        Path file = fileManager.generateFileName(user.name);
+        Path tmp = FileManager.tempFile(file);
+        ByteBuffer data = ByteBuffer.wrap(user.toString().getBytes(CharsetUtil.UTF_8));
+        FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            close(channel);
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        pending.add(new Pending(user, file, tmp, channel));
+        if (pending.size() == GROUP_SIZE) {
+            commitGroup();
+        }
+    }
+
+    /**
+     * Commits all written profiles.
+     *
+     * @return - users which profiles were written, but failed to commit. Their old profiles are kept.
+     */
+    public List<User> commit() {
+        commitGroup();
+        return failed;
+    }
+
+    private void commitGroup() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        pending.parallelStream().forEach(p -> {
+            try {
+                p.channel.force(false);
+                p.channel.close();
+            } catch (IOException e) {
+                log.error("Error syncing profile of {}.", p.user.name, e);
+                close(p.channel);
+                p.failed = true;
+            }
+        });
+        synchronized (fileManager.snapshotLock) {
+            fileManager.invalidateSnapshot();
+            for (Pending p : pending) {
+                if (p.failed) {
+                    failed.add(p.user);
+                    FileUtils.deleteQuietly(p.tmp);
+                    continue;
+                }
+                try {
+                    Files.move(p.tmp, p.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    log.error("Error committing profile of {}.", p.user.name, e);
+                    failed.add(p.user);
+                }
+            }
+        }
+        pending.clear();
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            //nothing to do here
+        }
+    }
+
+    private static final class Pending {
+        final User user;
+        final Path file;
+        final Path tmp;
+        final FileChannel channel;
+        boolean failed;
+
+        Pending(User user, Path file, Path tmp, FileChannel channel) {
+            this.user = user;
+            this.file = file;
+            this.tmp = tmp;
+            this.channel = channel;
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.utils.FileUtils;
+import cc.blynk.utils.JsonParser;
+import io.netty.util.CharsetUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of user DB changes made between profile snapshots.
+ *
+ * Users modified within journal sync period are appended as one record per user (latest profile
+ * or deletion mark) followed by single fsync, so crash loses at most one sync period of account
+ * changes instead of one snapshot period. Record : int length, int crc32, byte type, payload.
+ * Upsert payload is user json, delete payload is long timestamp of deletion followed by user name.
+ * Torn record at the end of journal file is skipped on replay.
+ *
+ * Journal is rotated when snapshot of profile files starts. Once all users journaled before rotation
+ * are saved to their files, rotated journal files are removed.
+ *
+ * On start journal files left from previous run are replayed over loaded profiles,
+ * replayed profiles are saved to their files and journal files are removed. Records older than
+ * loaded profile (by {@link User#lastModifiedTs}) are skipped, as profile could be saved by snapshot
+ * after rotation and before rotated journal was removed.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class UserJournal implements Closeable {
+
+    public static final String JOURNAL_FILE_PREFIX = "users.journal.";
+    private static final byte UPSERT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_SIZE = 8;
+
+    private static final Logger log = LogManager.getLogger(UserJournal.class);
+
+    public final boolean enabled;
+    private final Path dataDir;
+
+    private FileChannel channel;
+    private boolean closed;
+    private long seq;
+    //journal files before this one are covered by running snapshot
+    private long snapshotSeq;
+    //names of users journaled since last rotation
+    private Set<String> journaled = new HashSet<>();
+
+    /**
+     * @param enabled - in case false, journal only replays files left from previous run.
+     */
+    public UserJournal(Path dataDir, boolean enabled) {
+        this.dataDir = dataDir;
+        this.enabled = enabled;
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    private static void record(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        byte[] data = new byte[payload.length + 1];
+        data[0] = type;
+        System.arraycopy(payload, 0, data, 1, payload.length);
+        out.writeInt(data.length);
+        out.writeInt(crc(data, 0, data.length));
+        out.write(data);
+    }
+
+    private Path journalFile(long seq) {
+        return dataDir.resolve(JOURNAL_FILE_PREFIX + seq);
+    }
+
+    /**
+     * @return - journal files sorted by sequence number.
+     */
+    private TreeMap<Long, Path> journalFiles() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDir, JOURNAL_FILE_PREFIX + "*")) {
+            for (Path file : stream) {
+                try {
+                    files.put(Long.parseLong(file.getFileName().toString().substring(JOURNAL_FILE_PREFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    log.warn("Skipping unknown journal file '{}'.", file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Replays journal files left from previous run over profiles loaded from files, saves replayed
+     * profiles and opens new journal. Should be called once, before user DB is used.
+     *
+     * @return - number of replayed records.
+     */
+    public int open(ConcurrentMap<String, User> users, FileManager fileManager) {
+        try {
+            TreeMap<Long, Path> files = journalFiles();
+            Map<String, User> replayed = new HashMap<>();
+            Map<String, Long> deleted = new HashMap<>();
+            int records = 0;
+            for (Path file : files.values()) {
+                records += replay(file, replayed, deleted);
+            }
+            if (records > 0) {
+                persist(replayed, deleted, users, fileManager);
+                log.info("Replayed {} journal records of {} users.", records, replayed.size() + deleted.size());
+            }
+            for (Path file : files.values()) {
+                Files.delete(file);
+            }
+            if (enabled) {
+                seq = files.isEmpty() ? 0 : files.lastKey() + 1;
+                snapshotSeq = seq;
+                channel = openChannel(seq);
+            }
+            return records;
+        } catch (IOException e) {
+            log.error("Error replaying user journal.", e);
+            throw new RuntimeException("Error replaying user journal in '" + dataDir + "'", e);
+        }
+    }
+
+    /**
+     * @param replayed - user name to latest journaled profile.
+     * @param deleted - user name to time of deletion, for users which latest record is deletion.
+     */
+    private static int replay(Path file, Map<String, User> replayed, Map<String, Long> deleted) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int records = 0;
+        int pos = 0;
+        while (pos + HEADER_SIZE < data.length) {
+            int length = buffer.getInt(pos);
+            int crc = buffer.getInt(pos + 4);
+            int start = pos + HEADER_SIZE;
+            if (length <= 0 || length > data.length - start || crc(data, start, length) != crc) {
+                log.warn("Journal '{}' is truncated at {}. Skipping rest of file.", file, pos);
+                break;
+            }
+            if (data[start] == UPSERT) {
+                User user = JsonParser.parseUser(data, start + 1, length - 1);
+                if (user.name != null) {
+                    replayed.put(user.name, user);
+                    deleted.remove(user.name);
+                }
+            } else if (data[start] == DELETE && length > 9) {
+                long ts = buffer.getLong(start + 1);
+                String name = new String(data, start + 9, length - 9, CharsetUtil.UTF_8);
+                deleted.put(name, ts);
+                replayed.remove(name);
+            }
+            records++;
+            pos = start + length;
+        }
+        return records;
+    }
+
+    private static boolean isNewer(User loaded, long ts) {
+        return loaded != null && loaded.lastModifiedTs > ts;
+    }
+
+    private static void persist(Map<String, User> replayed, Map<String, Long> deleted,
+                                ConcurrentMap<String, User> users, FileManager fileManager) throws IOException {
+        for (Map.Entry<String, Long> entry : deleted.entrySet()) {
+            if (!isNewer(users.get(entry.getKey()), entry.getValue())) {
+                users.remove(entry.getKey());
+                fileManager.delete(entry.getKey());
+            }
+        }
+        UserFileBatch batch = fileManager.newBatch();
+        for (User user : replayed.values()) {
+            if (!isNewer(users.get(user.name), user.lastModifiedTs)) {
+                users.put(user.name, user);
+                batch.write(user);
+            }
+        }
+        if (!batch.commit().isEmpty()) {
+            throw new IOException("Error saving replayed profiles.");
+        }
+        fileManager.syncDataDir();
+    }
+
+    private FileChannel openChannel(long seq) throws IOException {
+        return FileChannel.open(journalFile(seq),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Appends modified and deleted users and forces them to disk.
+     */
+    public synchronized void append(Collection<User> users, Collection<String> deleted) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed.");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(users.size() * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (User user : users) {
+            record(out, UPSERT, user.toString().getBytes(CharsetUtil.UTF_8));
+        }
+        long now = System.currentTimeMillis();
+        for (String name : deleted) {
+            byte[] nameBytes = name.getBytes(CharsetUtil.UTF_8);
+            record(out, DELETE, ByteBuffer.allocate(8 + nameBytes.length).putLong(now).put(nameBytes).array());
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            //torn record stops replay of file, so next records go to new file
+            roll();
+            throw e;
+        }
+
+        for (User user : users) {
+            journaled.add(user.name);
+        }
+        journaled.removeAll(deleted);
+    }
+
+    private void roll() throws IOException {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Error closing journal.", e);
+        }
+        seq++;
+        channel = openChannel(seq);
+    }
+
+    /**
+     * Starts new journal file for snapshot.
+     *
+     * @return - names of users journaled since previous rotation,
+     *           their profiles should be saved before {@link #deleteRotated()}.
+     */
+    public synchronized Set<String> rotate() throws IOException {
+        roll();
+        snapshotSeq = seq;
+        Set<String> names = journaled;
+        journaled = new HashSet<>();
+        return names;
+    }
+
+    /**
+     * Removes journal files covered by finished snapshot.
+     */
+    public synchronized void deleteRotated() throws IOException {
+        for (Map.Entry<Long, Path> entry : journalFiles().headMap(snapshotSeq).entrySet()) {
+            FileUtils.deleteQuietly(entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Error closing journal.", e);
+            }
+        }
+    }
+
+}
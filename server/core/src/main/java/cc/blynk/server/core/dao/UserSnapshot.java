@@ -0,0 +1,132 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.utils.JsonParser;
+import io.netty.util.CharsetUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Codec of consolidated snapshot of all user profiles, so server start reads one file
+ * instead of opening and parsing file per user.
+ *
+ * Format : int magic, records, int end mark. Record : int length, int crc32, profile json.
+ * Records are located with single sequential pass over lengths and decoded in parallel.
+ * Missing end mark or wrong crc means snapshot is broken and profiles should be read from user files.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+final class UserSnapshot {
+
+    private static final int MAGIC = 0x42555331;
+    private static final int END = -1;
+    private static final int HEADER_SIZE = 8;
+
+    private UserSnapshot() {
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * Writes snapshot to temp file, fsyncs it and renames it over snapshot file.
+     *
+     * @return - number of written users.
+     */
+    static int write(Path file, Collection<User> users) throws IOException {
+        Path tmp = FileManager.tempFile(file);
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            out.writeInt(MAGIC);
+            for (User user : users) {
+                byte[] data = user.toString().getBytes(CharsetUtil.UTF_8);
+                out.writeInt(data.length);
+                out.writeInt(crc(data, 0, data.length));
+                out.write(data);
+                count++;
+            }
+            out.writeInt(END);
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    static ConcurrentMap<String, User> read(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < 4 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Unknown snapshot format.");
+        }
+
+        int[] offsets = new int[1024];
+        int count = 0;
+        int pos = 4;
+        while (true) {
+            if (pos + 4 > data.length) {
+                throw new IOException("Snapshot is truncated.");
+            }
+            int length = buffer.getInt(pos);
+            if (length == END) {
+                break;
+            }
+            if (length < 0 || length > data.length - pos - HEADER_SIZE) {
+                throw new IOException("Snapshot is truncated.");
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = pos;
+            pos += HEADER_SIZE + length;
+        }
+
+        ConcurrentMap<String, User> users = new ConcurrentHashMap<>(count * 2);
+        int[] recordOffsets = offsets;
+        try {
+            IntStream.range(0, count).parallel().forEach(i -> {
+                int offset = recordOffsets[i];
+                int length = buffer.getInt(offset);
+                int start = offset + HEADER_SIZE;
+                if (crc(data, start, length) != buffer.getInt(offset + 4)) {
+                    throw new UncheckedIOException(new IOException("Snapshot record at " + offset + " is corrupted."));
+                }
+                try {
+                    User user = JsonParser.parseUser(data, start, length);
+                    if (user.name != null) {
+                        users.put(user.name, user);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return users;
+    }
+
+}
@@ -6,8 +6,8 @@ import cc.blynk.server.core.model.widgets.OnePinWidget;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.utils.BodyParser;
 import cc.blynk.utils.JsonParser;
-import cc.blynk.utils.ParseUtil;
 import cc.blynk.utils.StringUtils;
 
 import java.util.Arrays;
@@ -67,24 +67,30 @@ public class DashBoard {
                 .append(pinMode);
     }
 
-    public void update(String body, int msgId) {
-        update(body.split(StringUtils.BODY_SEPARATOR_STRING), msgId);
+    public boolean update(String body, int msgId) {
+        BodyParser parser = BodyParser.get().parse(body);
+        final PinType type = parser.pinType();
+        final byte pin = parser.pin(msgId);
+        return update(pin, type, parser.values(2));
     }
 
-    public void update(String[] splitted, int msgId) {
-        final PinType type = PinType.getPinType(splitted[0].charAt(0));
-        final byte pin = ParseUtil.parseByte(splitted[1], msgId);
-        final String[] values = Arrays.copyOfRange(splitted, 2, splitted.length);
-        update(pin, type, values);
-    }
-
-    public void update(final byte pin, final PinType type, final String[] values) {
+    /**
+     * Updates values of widgets assigned to pin. Doesn't change updatedAt, as values
+     * are persisted separately from profile, see {@link cc.blynk.server.core.dao.PinStateDao}.
+     *
+     * @return - true in case any widget has this pin.
+     */
+    public boolean update(final byte pin, final PinType type, final String[] values) {
+        boolean updated = false;
         if (values != null) {
             for (Widget widget : widgets) {
-                widget.updateIfSame(pin, type, values);
+                if (widget.isSame(pin, type)) {
+                    widget.updateIfSame(pin, type, values);
+                    updated = true;
+                }
             }
-            this.updatedAt = System.currentTimeMillis();
         }
+        return updated;
     }
 
     public void activate() {
@@ -97,9 +103,10 @@ public class DashBoard {
         updatedAt = System.currentTimeMillis();
     }
 
-    public Widget findWidgetByPin(String[] splitted, int msgId) {
-        final PinType type = PinType.getPinType(splitted[0].charAt(0));
-        final byte pin = ParseUtil.parseByte(splitted[1], msgId);
+    public Widget findWidgetByPin(String body, int msgId) {
+        BodyParser parser = BodyParser.get().parse(body);
+        final PinType type = parser.pinType();
+        final byte pin = parser.pin(msgId);
         return findWidgetByPin(pin, type);
     }
 
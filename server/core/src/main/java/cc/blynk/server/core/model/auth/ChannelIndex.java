@@ -0,0 +1,61 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copy-on-write index of channels by key. Channels of key are kept in immutable array,
+ * that is replaced on every add/remove, so lookup is single map get and returned array
+ * could be iterated without locks and allocations. Adds and removes are rare comparing
+ * to lookups, as they happen only on login and disconnect.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+final class ChannelIndex<K> {
+
+    static final Channel[] EMPTY = new Channel[0];
+
+    private final ConcurrentHashMap<K, Channel[]> index = new ConcurrentHashMap<>();
+
+    void add(K key, Channel channel) {
+        index.compute(key, (k, channels) -> {
+            if (channels == null) {
+                return new Channel[] {channel};
+            }
+            Channel[] result = Arrays.copyOf(channels, channels.length + 1);
+            result[channels.length] = channel;
+            return result;
+        });
+    }
+
+    void remove(K key, Channel channel) {
+        index.computeIfPresent(key, (k, channels) -> {
+            for (int i = 0; i < channels.length; i++) {
+                if (channels[i] == channel) {
+                    if (channels.length == 1) {
+                        //removes key
+                        return null;
+                    }
+                    Channel[] result = new Channel[channels.length - 1];
+                    System.arraycopy(channels, 0, result, 0, i);
+                    System.arraycopy(channels, i + 1, result, i, result.length - i);
+                    return result;
+                }
+            }
+            return channels;
+        });
+    }
+
+    /**
+     * @return - channels of key. Returned array shouldn't be modified.
+     */
+    Channel[] get(K key) {
+        Channel[] channels = index.get(key);
+        return channels == null ? EMPTY : channels;
+    }
+
+}
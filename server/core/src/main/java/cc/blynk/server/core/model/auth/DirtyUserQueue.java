@@ -0,0 +1,49 @@
+package cc.blynk.server.core.model.auth;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free queue of users modified since their last save, fed by {@link User#markModified()}.
+ *
+ * User is queued only once till it is polled, so many modifications between 2 saves
+ * are coalesced to single entry. User is unmarked on poll, before profile is serialized,
+ * so modifications made during saving queue user again.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class DirtyUserQueue {
+
+    private final ConcurrentLinkedQueue<User> queue = new ConcurrentLinkedQueue<>();
+    //ConcurrentLinkedQueue.size() iterates whole queue
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Queues user in case it is not queued yet.
+     */
+    public void add(User user) {
+        if (user.markDirty()) {
+            size.incrementAndGet();
+            queue.add(user);
+        }
+    }
+
+    /**
+     * @return - next modified user or null if queue is empty.
+     */
+    public User poll() {
+        User user = queue.poll();
+        if (user != null) {
+            size.decrementAndGet();
+            user.clearDirty();
+        }
+        return user;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+}
@@ -1,15 +1,24 @@
 package cc.blynk.server.core.model.auth;
 
+import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.enums.Response;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareValueMessage;
+import cc.blynk.server.core.reporting.PinWriteBatch;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.handlers.common.PinValueConflationHandler;
+import cc.blynk.utils.StringUtils;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
+import io.netty.util.CharsetUtil;
 import io.netty.util.internal.ConcurrentSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.utils.ByteBufUtil.*;
 import static cc.blynk.utils.StateHolderUtil.*;
@@ -20,15 +29,31 @@ import static cc.blynk.utils.StateHolderUtil.*;
  * Created on 2/1/2015.
  * 
  * DefaultChannelGroup.java too complicated. so doing in simple way for now.
- * 
+ *
+ * Messages sent to several channels are encoded only once. Every channel receives own
+ * duplicate of that buffer, see {@link #write(Channel, ByteBuf)}.
+ *
+ * Hardware channels are indexed by dashId and token, see {@link ChannelIndex}, so lookups
+ * don't iterate all devices of user. State of hardware channel is captured when channel
+ * is added, so indexes are updated on removal even when pipeline is already cleared.
+ *
+ * Event loop of first user connection is user mailbox - serial executor for all user state changes.
+ * Channels are not moved to that loop, they stay on loop that accepted them and handlers submit
+ * commands to mailbox, see {@link #execute(Runnable)}. Tasks are executed in order they were submitted,
+ * so commands of one channel are processed in order they came.
+ *
  */
 public class Session {
 
     private static final Logger log = LogManager.getLogger(Session.class);
+    //marks hardware channel added without state, map doesn't allow null values
+    private static final HardwareStateHolder NOT_INDEXED = new HardwareStateHolder(-1, null, null);
 
     public final EventLoop initialEventLoop;
     private final Set<Channel> appChannels = new ConcurrentSet<>();
-    private final Set<Channel> hardwareChannels = new ConcurrentSet<>();
+    private final Map<Channel, HardwareStateHolder> hardwareChannels = new ConcurrentHashMap<>();
+    private final ChannelIndex<Integer> hardwareByDash = new ChannelIndex<>();
+    private final ChannelIndex<String> hardwareByToken = new ChannelIndex<>();
 
     private final ChannelFutureListener appRemover = new ChannelFutureListener() {
         @Override
@@ -59,6 +84,21 @@ public class Session {
         return (int) sum;
     }
 
+    /**
+     * Runs task within user mailbox. Task is executed immediately when called from mailbox thread.
+     */
+    public void execute(Runnable task) {
+        if (initialEventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            initialEventLoop.execute(task);
+        }
+    }
+
+    public boolean inMailbox() {
+        return initialEventLoop.inEventLoop();
+    }
+
     public static boolean needSync(Channel channel, String sharedToken) {
         BaseSimpleChannelInboundHandler appHandler = channel.pipeline().get(BaseSimpleChannelInboundHandler.class);
         return appHandler != null && appHandler.state.contains(sharedToken);
@@ -76,32 +116,59 @@ public class Session {
         }
     }
 
+    /**
+     * Channel should have hardware handler in pipeline, otherwise it is not indexed.
+     */
     public void addHardChannel(Channel hardChannel) {
-        if (hardwareChannels.add(hardChannel)) {
+        HardwareStateHolder state = getHardState(hardChannel);
+        if (hardwareChannels.putIfAbsent(hardChannel, state == null ? NOT_INDEXED : state) == null) {
+            if (state != null) {
+                hardwareByDash.add(state.dashId, hardChannel);
+                hardwareByToken.add(state.token, hardChannel);
+            }
             hardChannel.closeFuture().addListener(hardRemover);
         }
     }
 
     public void removeHardChannel(Channel hardChannel) {
-        if (hardwareChannels.remove(hardChannel)) {
+        HardwareStateHolder state = hardwareChannels.remove(hardChannel);
+        if (state != null) {
+            if (state != NOT_INDEXED) {
+                hardwareByDash.remove(state.dashId, hardChannel);
+                hardwareByToken.remove(state.token, hardChannel);
+            }
             hardChannel.closeFuture().removeListener(hardRemover);
         }
     }
 
+    /**
+     * Writes shared message to channel. Duplicate has own indexes, but shares content and
+     * reference count with original, so it is retained for every channel and released by
+     * outbound pipeline once written. Caller releases original after fan-out.
+     */
+    private static void write(Channel channel, ByteBuf msg) {
+        channel.writeAndFlush(msg.duplicate().retain(), channel.voidPromise());
+    }
+
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body) {
-        boolean noActiveHardware = true;
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null) {
-                if (hardwareState.dashId == activeDashId) {
-                    noActiveHardware = false;
-                    log.trace("Sending {} to hardware {}", body, channel);
-                    channel.writeAndFlush(makeStringMessage(channel, cmd, msgId, body), channel.voidPromise());
-                }
+        ByteBuf msg = null;
+        for (Channel channel : hardwareByDash.get(activeDashId)) {
+            //closed channel stays in index till close listener is run on its event loop
+            if (!channel.isActive()) {
+                continue;
             }
+            if (msg == null) {
+                msg = makeStringMessage(channel, cmd, msgId, body);
+            }
+            log.trace("Sending {} to hardware {}", body, channel);
+            write(channel, msg);
         }
 
-        return noActiveHardware;
+        if (msg == null) {
+            return true;
+        }
+        msg.release();
+        return false;
     }
 
     public void sendMessageToHardware(ChannelHandlerContext ctx, int activeDashId, short cmd, int msgId, String body) {
@@ -112,40 +179,189 @@ public class Session {
     }
 
     public boolean hasHardwareOnline(int activeDashId) {
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null) {
-                if (hardwareState.dashId == activeDashId) {
-                    return true;
-                }
+        for (Channel channel : hardwareByDash.get(activeDashId)) {
+            if (channel.isActive()) {
+                return true;
             }
         }
         return false;
     }
 
+    /**
+     * @return - hardware channels of dashboard. Returned array shouldn't be modified.
+     */
+    public Channel[] getHardwareChannels(int dashId) {
+        return hardwareByDash.get(dashId);
+    }
+
+    /**
+     * @return - hardware channels logged in with given token. Returned array shouldn't be modified.
+     */
+    public Channel[] getHardwareChannelsByToken(String token) {
+        return hardwareByToken.get(token);
+    }
+
     public void sendToApps(short cmd, int msgId, String body) {
+        ByteBuf msg = null;
         for (Channel channel : appChannels) {
+            if (msg == null) {
+                msg = makeStringMessage(channel, cmd, msgId, body);
+            }
             log.trace("Sending {} to app {}", body, channel);
-            channel.writeAndFlush(makeStringMessage(channel, cmd, msgId, body), channel.voidPromise());
+            write(channel, msg);
+        }
+        release(msg);
+    }
+
+    /**
+     * Sends already encoded message to all apps. Message is released by this method.
+     */
+    public void sendToApps(ByteBuf msg) {
+        for (Channel channel : appChannels) {
+            write(channel, msg);
+        }
+        msg.release();
+    }
+
+    /**
+     * Forwards body to all apps prefixed with dashId. Body bytes are copied into outgoing
+     * buffer as is, so there is no String round trip for forwarded hardware messages.
+     * Pin values are passed through {@link PinValueConflationHandler} of app channel, if any.
+     */
+    public void sendToApps(short cmd, int msgId, int dashId, ByteBuf body) {
+        ByteBuf msg = null;
+        long key = PinValueConflationHandler.NO_KEY;
+        for (Channel channel : appChannels) {
+            if (msg == null) {
+                byte[] prefix = (dashId + StringUtils.BODY_SEPARATOR_STRING).getBytes(CharsetUtil.US_ASCII);
+                msg = makeForwardedMessage(channel, cmd, msgId, prefix, body);
+                key = PinValueConflationHandler.key(dashId, body);
+            }
+            log.trace("Forwarding message {} to app {}", msgId, channel);
+            writePinValue(channel, key, msg);
+        }
+        release(msg);
+    }
+
+    /**
+     * Sends numeric pin value to all apps. Apps that support binary values receive compact
+     * HARDWARE_VALUE message, others receive regular HARDWARE text message.
+     * Each form is encoded only once and only in case there is app that needs it.
+     */
+    public void sendToApps(int msgId, int dashId, HardwareValueMessage value) {
+        ByteBuf binary = null;
+        ByteBuf text = null;
+        long key = PinValueConflationHandler.key(dashId, value.pinType.pintTypeChar, value.pin);
+        for (Channel channel : appChannels) {
+            ByteBuf msg;
+            if (supportsBinaryValues(channel)) {
+                if (binary == null) {
+                    binary = makeValueMessage(channel, msgId, dashId, value);
+                }
+                msg = binary;
+            } else {
+                if (text == null) {
+                    text = makeStringMessage(channel, Command.HARDWARE, msgId,
+                            dashId + StringUtils.BODY_SEPARATOR_STRING + value.getBody());
+                }
+                msg = text;
+            }
+            writePinValue(channel, key, msg);
+        }
+        release(binary);
+        release(text);
+    }
+
+    /**
+     * Sends batch of pin writes to all apps. Apps that support batches receive it as single
+     * HARDWARE_BATCH message, others receive HARDWARE message per write, passed through
+     * {@link PinValueConflationHandler} of app channel, if any.
+     *
+     * @param body - batch body as received from hardware.
+     */
+    public void sendBatchToApps(int msgId, int dashId, String body, PinWriteBatch batch) {
+        ByteBuf batchMsg = null;
+        ByteBuf[] writes = null;
+        for (Channel channel : appChannels) {
+            if (supportsBatch(channel)) {
+                if (batchMsg == null) {
+                    batchMsg = makeStringMessage(channel, Command.HARDWARE_BATCH, msgId,
+                            dashId + StringUtils.BODY_SEPARATOR_STRING + body);
+                }
+                write(channel, batchMsg);
+            } else {
+                if (writes == null) {
+                    writes = makeWriteMessages(channel, msgId, dashId, batch);
+                }
+                for (int i = 0; i < batch.size; i++) {
+                    writePinValue(channel, PinValueConflationHandler.key(dashId, batch.pinTypes[i].pintTypeChar, batch.pins[i]), writes[i]);
+                }
+            }
+        }
+        release(batchMsg);
+        if (writes != null) {
+            for (ByteBuf msg : writes) {
+                msg.release();
+            }
+        }
+    }
+
+    private static ByteBuf[] makeWriteMessages(Channel channel, int msgId, int dashId, PinWriteBatch batch) {
+        ByteBuf[] writes = new ByteBuf[batch.size];
+        for (int i = 0; i < batch.size; i++) {
+            String body = dashId + StringUtils.BODY_SEPARATOR_STRING
+                    + batch.pinTypes[i].pintTypeChar + "w" + StringUtils.BODY_SEPARATOR_STRING
+                    + batch.pins[i] + StringUtils.BODY_SEPARATOR_STRING
+                    + String.join(StringUtils.BODY_SEPARATOR_STRING, batch.values[i]);
+            writes[i] = makeStringMessage(channel, Command.HARDWARE, msgId, body);
+        }
+        return writes;
+    }
+
+    private static boolean supportsBatch(Channel channel) {
+        BaseSimpleChannelInboundHandler handler = channel.pipeline().get(BaseSimpleChannelInboundHandler.class);
+        return handler != null && handler.state.supportsBatch();
+    }
+
+    private static boolean supportsBinaryValues(Channel channel) {
+        BaseSimpleChannelInboundHandler handler = channel.pipeline().get(BaseSimpleChannelInboundHandler.class);
+        return handler != null && handler.state.supportsBinaryValues();
+    }
+
+    /**
+     * Same as {@link #write(Channel, ByteBuf)}, but passes pin value through
+     * {@link PinValueConflationHandler} of channel, if any.
+     */
+    private static void writePinValue(Channel channel, long key, ByteBuf msg) {
+        PinValueConflationHandler conflation = channel.pipeline().get(PinValueConflationHandler.class);
+        if (conflation == null) {
+            write(channel, msg);
+        } else {
+            conflation.write(key, msg.duplicate().retain());
         }
     }
 
     public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
+        ByteBuf msg = null;
         for (Channel appChannel : appChannels) {
             if (appChannel != sendingChannel && needSync(appChannel, sharedToken)) {
-                appChannel.writeAndFlush(makeStringMessage(appChannel, cmd, msgId, body), appChannel.voidPromise());
+                if (msg == null) {
+                    msg = makeStringMessage(appChannel, cmd, msgId, body);
+                }
+                write(appChannel, msg);
             }
         }
+        release(msg);
     }
 
-    public boolean isHardwareConnected(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.dashId == dashId) {
-                return true;
-            }
+    private static void release(ByteBuf msg) {
+        if (msg != null) {
+            msg.release();
         }
-        return false;
+    }
+
+    public boolean isHardwareConnected(int dashId) {
+        return hasHardwareOnline(dashId);
     }
 
 
@@ -158,7 +374,7 @@ public class Session {
     }
 
     public int getHardRequestRate() {
-        return getRequestRate(hardwareChannels);
+        return getRequestRate(hardwareChannels.keySet());
     }
 
     public Set<Channel> getAppChannels() {
@@ -166,11 +382,11 @@ public class Session {
     }
 
     public Set<Channel> getHardwareChannels() {
-        return hardwareChannels;
+        return hardwareChannels.keySet();
     }
 
     public void closeAll() {
-        hardwareChannels.forEach(io.netty.channel.Channel::close);
+        hardwareChannels.keySet().forEach(io.netty.channel.Channel::close);
         appChannels.forEach(io.netty.channel.Channel::close);
     }
 
@@ -9,6 +9,7 @@ import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * User: ddumanskiy
@@ -21,6 +22,8 @@ public class User implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+    private static final AtomicIntegerFieldUpdater<User> DIRTY = AtomicIntegerFieldUpdater.newUpdater(User.class, "dirty");
+
     public Map<Integer, String> dashShareTokens;
     public Map<Integer, String> dashTokens;
 
@@ -36,6 +39,11 @@ public class User implements Serializable {
     private int energy;
     public boolean isFacebookUser;
 
+    //queue of users to save, set when user is added to UserDao
+    private transient DirtyUserQueue dirtyQueue;
+    //1 - user is in dirtyQueue
+    private transient volatile int dirty;
+
     public User() {
         this.lastModifiedTs = System.currentTimeMillis();
         this.profile = new Profile();
@@ -70,7 +78,33 @@ public class User implements Serializable {
         }
 
         this.profile = profile;
+        markModified();
+    }
+
+    /**
+     * Attaches user to queue of modified users, see {@link DirtyUserQueue}.
+     */
+    public void setDirtyQueue(DirtyUserQueue dirtyQueue) {
+        this.dirtyQueue = dirtyQueue;
+    }
+
+    /**
+     * Should be called on every profile change that has to be persisted.
+     */
+    public void markModified() {
         this.lastModifiedTs = System.currentTimeMillis();
+        DirtyUserQueue queue = this.dirtyQueue;
+        if (queue != null) {
+            queue.add(this);
+        }
+    }
+
+    boolean markDirty() {
+        return DIRTY.compareAndSet(this, 0, 1);
+    }
+
+    void clearDirty() {
+        this.dirty = 0;
     }
 
     public boolean hasActive() {
@@ -87,7 +121,7 @@ public class User implements Serializable {
     public void putToken(Integer dashId, String token, Map<Integer, String> tokens) {
         cleanTokensForNonExistentDashes(tokens);
         tokens.put(dashId, token);
-        this.lastModifiedTs = System.currentTimeMillis();
+        markModified();
     }
 
     private void cleanTokensForNonExistentDashes(Map<Integer, String> tokens) {
@@ -132,17 +166,17 @@ public class User implements Serializable {
     public void subtractEnergy(int price, int msgId) {
         checkPrice(price, msgId);
         this.energy -= price;
-        this.lastModifiedTs = System.currentTimeMillis();
+        markModified();
     }
 
     public void recycleEnergy(int price) {
         this.energy += RECYCLE_PRICE_RESTORE * price;
-        this.lastModifiedTs = System.currentTimeMillis();
+        markModified();
     }
 
     public void purchaseEnergy(int price) {
         this.energy += price;
-        this.lastModifiedTs = System.currentTimeMillis();
+        markModified();
     }
 
     public int getEnergy() {
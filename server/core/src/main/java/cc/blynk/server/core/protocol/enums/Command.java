@@ -34,6 +34,8 @@ public final class Command {
     public static final short HARDWARE_SYNC = 16;
     public static final short HARDWARE_INFO = 17;
     public static final short SMS = 18;
+    //multiple pin writes within one message
+    public static final short HARDWARE_BATCH = 19;
     public static final short HARDWARE = 20;
     //app commands
     public static final short CREATE_DASH = 21;
@@ -56,6 +58,8 @@ public final class Command {
     //energy commands
     public static final short GET_ENERGY = 36;
     public static final short ADD_ENERGY = 37;
+    //compact binary numeric pin write, negotiated at hardware login
+    public static final short HARDWARE_VALUE = 38;
     //------------------------------------------
 
     //http codes. Used only for stats
@@ -66,7 +70,8 @@ public final class Command {
     public static final short HTTP_NOTIFY = 46;
     public static final short HTTP_EMAIL = 47;
     public static final short HTTP_GET_PROJECT = 48;
-    public static final short HTTP_TOTAL = 49;
+    public static final short HTTP_GET_PIN_HISTORY = 49;
+    public static final short HTTP_TOTAL = 50;
 
 
     //all this code just to make logging more user-friendly
@@ -90,6 +95,8 @@ public final class Command {
                 put(GET_GRAPH_DATA_RESPONSE, "GetGraphDataResponse");
                 put(BRIDGE, "Bridge");
                 put(HARDWARE, "Hardware");
+                put(HARDWARE_BATCH, "HardwareBatch");
+                put(HARDWARE_VALUE, "HardwareValue");
                 put(GET_SHARED_DASH, "GetSharedDash");
                 put(GET_SHARE_TOKEN, "GetShareToken");
                 put(REFRESH_SHARE_TOKEN, "RefreshShareToken");
@@ -119,6 +126,7 @@ public final class Command {
                 put(HTTP_NOTIFY, "HttpNotify");
                 put(HTTP_EMAIL, "HttpEmail");
                 put(HTTP_GET_PROJECT, "HttpGetProject");
+                put(HTTP_GET_PIN_HISTORY, "HttpGetPinHistory");
                 put(HTTP_TOTAL, "HttpTotal");
             }
     });
@@ -23,7 +23,7 @@ public interface DefaultExceptionHandler {
 
     Logger log = LogManager.getLogger(DefaultExceptionHandler.class);
 
-    default void handleGeneralException(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    default void handleGeneralException(ChannelHandlerContext ctx, Throwable cause) {
         if (cause instanceof BaseServerException) {
             BaseServerException baseServerException = (BaseServerException) cause;
             //no need for stack trace for known exceptions
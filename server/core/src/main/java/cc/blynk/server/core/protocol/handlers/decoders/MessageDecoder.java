@@ -4,6 +4,8 @@ import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareValueMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -19,6 +21,10 @@ import static cc.blynk.server.core.protocol.model.messages.MessageFactory.*;
 /**
  * Decodes input byte array into java message.
  *
+ * In case retainHardwareBody is enabled hardware messages are not decoded to String,
+ * but hold retained slice of incoming buffer, see {@link HardwareMessage}.
+ * Binary value messages are never decoded to String, see {@link HardwareValueMessage}.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/1/2015.
@@ -28,9 +34,15 @@ public class MessageDecoder extends ByteToMessageDecoder implements DefaultExcep
     protected static final Logger log = LogManager.getLogger(MessageDecoder.class);
 
     private final GlobalStats stats;
+    private final boolean retainHardwareBody;
 
     public MessageDecoder(GlobalStats stats) {
+        this(stats, false);
+    }
+
+    public MessageDecoder(GlobalStats stats, boolean retainHardwareBody) {
         this.stats = stats;
+        this.retainHardwareBody = retainHardwareBody;
     }
 
     @Override
@@ -54,7 +66,13 @@ public class MessageDecoder extends ByteToMessageDecoder implements DefaultExcep
                 return;
             }
 
-            message = produce(messageId, command, in.readSlice(codeOrLength).toString(CharsetUtil.UTF_8));
+            if (command == Command.HARDWARE_VALUE) {
+                message = HardwareValueMessage.decode(messageId, in.readSlice(codeOrLength));
+            } else if (command == Command.HARDWARE && retainHardwareBody) {
+                message = new HardwareMessage(messageId, in.readSlice(codeOrLength).retain());
+            } else {
+                message = produce(messageId, command, in.readSlice(codeOrLength).toString(CharsetUtil.UTF_8));
+            }
         }
 
         log.trace("Incoming {}", message);
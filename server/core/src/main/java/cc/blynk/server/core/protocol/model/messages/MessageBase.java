@@ -31,6 +31,13 @@ public abstract class MessageBase {
 
     public abstract byte[] getBytes();
 
+    /**
+     * @return - number of messages this one is counted as within user quota.
+     */
+    public int getQuotaWeight() {
+        return 1;
+    }
+
     @Override
     public String toString() {
         return "id=" + id +
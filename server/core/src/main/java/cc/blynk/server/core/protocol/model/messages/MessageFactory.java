@@ -63,6 +63,8 @@ public class MessageFactory {
                 return new GetSharedDashMessage(messageId, body);
             case HARDWARE :
                 return new HardwareMessage(messageId, body);
+            case HARDWARE_BATCH :
+                return new HardwareBatchMessage(messageId, body);
             case HARDWARE_CONNECTED :
                 return new HardwareConnectedMessage(messageId, body);
             case REDEEM :
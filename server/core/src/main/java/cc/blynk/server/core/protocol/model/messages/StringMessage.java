@@ -16,9 +16,13 @@ public abstract class StringMessage extends MessageBase {
         this.body = body;
     }
 
+    public String getBody() {
+        return body;
+    }
+
     @Override
     public byte[] getBytes() {
-        return body.getBytes(CharsetUtil.UTF_8);
+        return getBody().getBytes(CharsetUtil.UTF_8);
     }
 
     @Override
@@ -34,13 +38,16 @@ public abstract class StringMessage extends MessageBase {
 
         StringMessage that = (StringMessage) o;
 
-        return !(body != null ? !body.equals(that.body) : that.body != null);
+        String body = getBody();
+        String thatBody = that.getBody();
+        return !(body != null ? !body.equals(thatBody) : thatBody != null);
 
     }
 
     @Override
     public int hashCode() {
         int result = super.hashCode();
+        String body = getBody();
         result = 31 * result + (body != null ? body.hashCode() : 0);
         return result;
     }
@@ -1,22 +1,107 @@
 package cc.blynk.server.core.protocol.model.messages.common;
 
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCounted;
 
 import static cc.blynk.server.core.protocol.enums.Command.*;
 
 /**
+ * Hardware message could be backed by retained slice of incoming frame instead of String.
+ * In that case body is decoded to String only on first {@link #getBody()} call and original
+ * bytes could be forwarded further without UTF-8 decoding/encoding via {@link #bodyBuf()}.
+ *
+ * Frame backed message holds reference to the frame, so it should be handled within channelRead
+ * and released after it, as all handlers derived from SimpleChannelInboundHandler do.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/1/2015.
  */
-public class HardwareMessage extends StringMessage {
+public class HardwareMessage extends StringMessage implements ReferenceCounted {
+
+    //null in case message was created from String
+    private final ByteBuf bodyBuf;
 
     public HardwareMessage(int messageId, String body) {
         super(messageId, HARDWARE, body.length(), body);
+        this.bodyBuf = null;
+    }
+
+    public HardwareMessage(int messageId, ByteBuf bodyBuf) {
+        super(messageId, HARDWARE, bodyBuf.readableBytes(), null);
+        this.bodyBuf = bodyBuf;
+    }
+
+    @Override
+    public String getBody() {
+        if (body == null) {
+            body = bodyBuf.toString(CharsetUtil.UTF_8);
+        }
+        return body;
+    }
+
+    /**
+     * @return - body bytes. For frame backed message it is frame slice itself, so it shouldn't
+     * be modified or released by caller.
+     */
+    public ByteBuf bodyBuf() {
+        return bodyBuf == null ? Unpooled.wrappedBuffer(body.getBytes(CharsetUtil.UTF_8)) : bodyBuf;
+    }
+
+    /**
+     * Reads ASCII char of body without decoding it, used for command type checks.
+     */
+    public char charAt(int index) {
+        return bodyBuf == null ? body.charAt(index) : (char) bodyBuf.getByte(bodyBuf.readerIndex() + index);
+    }
+
+    @Override
+    public byte[] getBytes() {
+        if (bodyBuf == null) {
+            return super.getBytes();
+        }
+        byte[] bytes = new byte[bodyBuf.readableBytes()];
+        bodyBuf.getBytes(bodyBuf.readerIndex(), bytes);
+        return bytes;
+    }
+
+    @Override
+    public int refCnt() {
+        return bodyBuf == null ? 1 : bodyBuf.refCnt();
+    }
+
+    @Override
+    public HardwareMessage retain() {
+        if (bodyBuf != null) {
+            bodyBuf.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public HardwareMessage retain(int increment) {
+        if (bodyBuf != null) {
+            bodyBuf.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return bodyBuf != null && bodyBuf.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return bodyBuf != null && bodyBuf.release(decrement);
     }
 
     @Override
     public String toString() {
+        getBody();
         return "HardwareMessage{" + super.toString() + "}";
     }
 }
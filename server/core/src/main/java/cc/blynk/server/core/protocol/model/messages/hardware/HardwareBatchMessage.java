@@ -0,0 +1,49 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+
+import static cc.blynk.server.core.protocol.enums.Command.*;
+
+/**
+ * Several pin writes within one message. Writes have same format as HARDWARE write command body
+ * and are separated with {@link #WRITE_SEPARATOR}. For example "vw\01\0100" + RS + "vw\02\0200".
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class HardwareBatchMessage extends StringMessage {
+
+    //ASCII record separator, as '\0' already separates parts of single write
+    public static final char WRITE_SEPARATOR = '\u001E';
+
+    public final int writes;
+
+    public HardwareBatchMessage(int messageId, String body) {
+        super(messageId, HARDWARE_BATCH, body.length(), body);
+        this.writes = countWrites(body);
+    }
+
+    private static int countWrites(String body) {
+        int writes = 1;
+        for (int i = 0; i < body.length(); i++) {
+            if (body.charAt(i) == WRITE_SEPARATOR) {
+                writes++;
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Every write is counted separately, so batching doesn't bypass user quota.
+     */
+    @Override
+    public int getQuotaWeight() {
+        return writes;
+    }
+
+    @Override
+    public String toString() {
+        return "HardwareBatchMessage{" + super.toString() + "}";
+    }
+}
@@ -0,0 +1,136 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.utils.ByteBufUtil;
+import cc.blynk.utils.StringUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import static cc.blynk.server.core.protocol.enums.Command.*;
+
+/**
+ * Compact binary form of numeric pin write. Used by clients that negotiated binary values at login.
+ *
+ * Body : byte pin type char ('v', 'd', 'a'), byte pin, byte encoding and value.
+ * Value is zigzag varint for {@link #VARINT} encoding and IEEE754 double for {@link #DOUBLE}.
+ * So "vw\05\023.456" takes 11 bytes and "vw\05\01" only 4 bytes.
+ *
+ * Value is parsed once by decoder, text form "vw\0pin\0value" is built only when requested
+ * via {@link #getBody()}, for clients that don't support binary values.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class HardwareValueMessage extends StringMessage {
+
+    public static final byte VARINT = 0;
+    public static final byte DOUBLE = 1;
+
+    public final PinType pinType;
+    public final byte pin;
+    public final byte encoding;
+    public final long longValue;
+    public final double value;
+
+    public HardwareValueMessage(int messageId, PinType pinType, byte pin, long value) {
+        this(messageId, pinType, pin, VARINT, value, value);
+    }
+
+    public HardwareValueMessage(int messageId, PinType pinType, byte pin, double value) {
+        this(messageId, pinType, pin, DOUBLE, (long) value, value);
+    }
+
+    private HardwareValueMessage(int messageId, PinType pinType, byte pin, byte encoding, long longValue, double value) {
+        super(messageId, HARDWARE_VALUE, 3 + (encoding == VARINT ? ByteBufUtil.varLongSize(zigzag(longValue)) : 8), null);
+        this.pinType = pinType;
+        this.pin = pin;
+        this.encoding = encoding;
+        this.longValue = longValue;
+        this.value = value;
+    }
+
+    /**
+     * Decodes message from frame body. Body is fully consumed.
+     */
+    public static HardwareValueMessage decode(int messageId, ByteBuf body) {
+        if (body.readableBytes() < 4) {
+            throw new IllegalCommandException("Binary value body too short.", messageId);
+        }
+        final PinType pinType;
+        try {
+            pinType = PinType.getPinType((char) body.readByte());
+        } catch (NumberFormatException e) {
+            throw new IllegalCommandException("Binary value has invalid pin type.", messageId);
+        }
+        byte pin = body.readByte();
+        byte encoding = body.readByte();
+        switch (encoding) {
+            case VARINT :
+                long zigzag;
+                try {
+                    zigzag = ByteBufUtil.readVarLong(body);
+                } catch (CorruptedFrameException e) {
+                    throw new IllegalCommandException("Binary value has invalid varint.", messageId);
+                }
+                if (body.isReadable()) {
+                    throw new IllegalCommandException("Binary value has invalid varint.", messageId);
+                }
+                return new HardwareValueMessage(messageId, pinType, pin, (zigzag >>> 1) ^ -(zigzag & 1));
+            case DOUBLE :
+                if (body.readableBytes() != 8) {
+                    throw new IllegalCommandException("Binary value has invalid double.", messageId);
+                }
+                return new HardwareValueMessage(messageId, pinType, pin, body.readDouble());
+            default :
+                throw new IllegalCommandException("Binary value has unknown encoding.", messageId);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public void writeBody(ByteBuf out) {
+        out.writeByte(pinType.pintTypeChar);
+        out.writeByte(pin);
+        out.writeByte(encoding);
+        if (encoding == VARINT) {
+            ByteBufUtil.writeVarLong(out, zigzag(longValue));
+        } else {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * @return - value as it would be sent by text clients.
+     */
+    public String valueString() {
+        return encoding == VARINT ? Long.toString(longValue) : Double.toString(value);
+    }
+
+    @Override
+    public String getBody() {
+        if (body == null) {
+            body = pinType.pintTypeChar + "w" + StringUtils.BODY_SEPARATOR_STRING
+                    + pin + StringUtils.BODY_SEPARATOR_STRING + valueString();
+        }
+        return body;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] bytes = new byte[length];
+        writeBody(Unpooled.wrappedBuffer(bytes).writerIndex(0));
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        getBody();
+        return "HardwareValueMessage{" + super.toString() + "}";
+    }
+}
@@ -0,0 +1,195 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.stats.GlobalStats;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import static cc.blynk.utils.ByteUtils.*;
+
+/**
+ * Bytes bounded LRU cache of latest records of reporting files, so apps that request same
+ * graphs over and over are served from memory. Key is reporting file path, so it is unique per
+ * (user, dashId, pin, graph type).
+ *
+ * Cached series are kept up to date by {@link #append(Path, double, long)} that is called by
+ * storage worker for every record that was flushed to disk. Entry keeps fixed number of latest
+ * records, so oldest record is dropped on append when entry is full.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class GraphCache {
+
+    //minimum number of records entry keeps, so small requests don't cause reloads
+    private static final int MIN_ENTRY_RECORDS = 64;
+
+    private final long maxBytes;
+    private final GlobalStats stats;
+    //access ordered, so first entry is always least recently used one
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    //incremented on every append, so disk reads that raced with storage are not cached
+    private long version;
+
+    public GraphCache(long maxBytes, GlobalStats stats) {
+        this.maxBytes = maxBytes;
+        this.stats = stats;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * @return - last "count" cached records within [from, to] range or null in case
+     * cache has not enough records to answer.
+     */
+    public byte[] get(Path path, int count, long from, long to) {
+        byte[] result = null;
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null) {
+                result = entry.get(count, from, to);
+            }
+        }
+        if (result == null) {
+            stats.graphCacheMisses.increment();
+        } else {
+            stats.graphCacheHits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Caches result of disk read. Only reads that include latest records (no upper range bound)
+     * could be cached, as entries are extended by appends.
+     *
+     * @param version - {@link #version()} captured before disk read.
+     */
+    public void put(Path path, byte[] data, int count, long from, long to, long version) {
+        int maxRecords = Math.max(count, MIN_ENTRY_RECORDS);
+        if (!isEnabled() || count <= 0 || to != Long.MAX_VALUE || (long) maxRecords * REPORTING_RECORD_SIZE_BYTES > maxBytes) {
+            return;
+        }
+
+        int records = data.length / REPORTING_RECORD_SIZE_BYTES;
+        //data holds all records after "from" in case there are less records than requested
+        long coveredFrom = records == 0 || records < count ? from : ByteBuffer.wrap(data).getLong(8);
+        Entry entry = new Entry(data, maxRecords, coveredFrom);
+
+        synchronized (this) {
+            if (this.version != version) {
+                return;
+            }
+            Entry previous = entries.put(path, entry);
+            if (previous != null) {
+                bytes -= previous.capacity();
+            }
+            bytes += entry.capacity();
+            evict();
+        }
+    }
+
+    /**
+     * Adds record to cached series. Does nothing in case series isn't cached.
+     */
+    public synchronized void append(Path path, double value, long ts) {
+        version++;
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            entry.append(value, ts);
+        }
+    }
+
+    public synchronized void invalidate(Path path) {
+        version++;
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            bytes -= entry.capacity();
+        }
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().capacity();
+            iterator.remove();
+            stats.graphCacheEvictions.increment();
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] data;
+        private final ByteBuffer buf;
+        private int size;
+        //all records with ts >= coveredFrom are within entry
+        private long coveredFrom;
+
+        Entry(byte[] records, int maxRecords, long coveredFrom) {
+            this.data = new byte[Math.max(maxRecords * REPORTING_RECORD_SIZE_BYTES, records.length)];
+            this.buf = ByteBuffer.wrap(data);
+            System.arraycopy(records, 0, data, 0, records.length);
+            this.size = records.length / REPORTING_RECORD_SIZE_BYTES;
+            this.coveredFrom = coveredFrom;
+        }
+
+        int capacity() {
+            return data.length;
+        }
+
+        long ts(int index) {
+            return buf.getLong(index * REPORTING_RECORD_SIZE_BYTES + 8);
+        }
+
+        void append(double value, long ts) {
+            //record could be already loaded from disk
+            if (size > 0 && ts <= ts(size - 1)) {
+                return;
+            }
+            if ((size + 1) * REPORTING_RECORD_SIZE_BYTES > data.length) {
+                System.arraycopy(data, REPORTING_RECORD_SIZE_BYTES, data, 0, (size - 1) * REPORTING_RECORD_SIZE_BYTES);
+                size--;
+                coveredFrom = ts(0);
+            }
+            buf.putDouble(size * REPORTING_RECORD_SIZE_BYTES, value);
+            buf.putLong(size * REPORTING_RECORD_SIZE_BYTES + 8, ts);
+            size++;
+        }
+
+        byte[] get(int count, long from, long to) {
+            int end = size;
+            while (end > 0 && ts(end - 1) > to) {
+                end--;
+            }
+            int start = end;
+            while (start > 0 && end - start < count && ts(start - 1) >= from) {
+                start--;
+            }
+            //not enough records in cache and older records may exist on disk
+            if (end - start < count && from < coveredFrom) {
+                return null;
+            }
+            byte[] result = new byte[(end - start) * REPORTING_RECORD_SIZE_BYTES];
+            System.arraycopy(data, start * REPORTING_RECORD_SIZE_BYTES, result, 0, result.length);
+            return result;
+        }
+    }
+
+}
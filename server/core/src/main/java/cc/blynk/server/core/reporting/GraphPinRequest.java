@@ -20,4 +20,9 @@ public abstract class GraphPinRequest {
 
     public GraphType type;
 
+    //time range of requested records, by default all records
+    public long from = Long.MIN_VALUE;
+
+    public long to = Long.MAX_VALUE;
+
 }
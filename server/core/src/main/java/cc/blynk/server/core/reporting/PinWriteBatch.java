@@ -0,0 +1,32 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.enums.PinType;
+
+/**
+ * Pin writes of one batch message, already parsed and validated.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class PinWriteBatch {
+
+    public final PinType[] pinTypes;
+    public final byte[] pins;
+    public final String[][] values;
+    public int size;
+
+    public PinWriteBatch(int capacity) {
+        this.pinTypes = new PinType[capacity];
+        this.pins = new byte[capacity];
+        this.values = new String[capacity][];
+    }
+
+    public void add(PinType pinType, byte pin, String[] values) {
+        this.pinTypes[size] = pinType;
+        this.pins[size] = pin;
+        this.values[size] = values;
+        size++;
+    }
+
+}
@@ -0,0 +1,289 @@
+package cc.blynk.server.core.reporting;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of open reporting file channels.
+ *
+ * Allows to keep per-pin reporting files open between storage runs, so every record append
+ * doesn't cost open/write/close syscalls. Records are accumulated in per-file buffers and
+ * written + fsynced once per {@link #flush()}. Least recently used channel is flushed
+ * and closed when cache exceeds it's limit.
+ *
+ * Cache also tracks size of written files, so files that reached seal threshold could be
+ * moved to compressed segments, see {@link #drainFull()}.
+ *
+ * Records with timestamp not greater than last record of file are skipped, so file stays
+ * sorted by time even when aggregation state restored from checkpoint contains already stored periods.
+ *
+ * {@link #append(Path, double, long)}, {@link #flush()} and {@link #drainFull()} should be called from
+ * single storage thread, {@link #invalidate(Path)} is safe to call from any thread.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class ReportingChannelCache implements Closeable {
+
+    public static final int RECORD_SIZE = 16;
+
+    private static final Logger log = LogManager.getLogger(ReportingChannelCache.class);
+
+    public final LongAdder hits = new LongAdder();
+    public final LongAdder misses = new LongAdder();
+    public final LongAdder evictions = new LongAdder();
+
+    private final int maxOpenChannels;
+    //0 means files are never reported as full
+    private final long sealThresholdBytes;
+    //access ordered, so first entry is always least recently used one
+    private final LinkedHashMap<Path, CachedChannel> channels;
+
+    //touched only by storage thread
+    private final List<CachedChannel> dirty = new ArrayList<>();
+    private final Set<Path> failed = new HashSet<>();
+    private final Set<Path> full = new HashSet<>();
+
+    public ReportingChannelCache(int maxOpenChannels) {
+        this(maxOpenChannels, 0);
+    }
+
+    public ReportingChannelCache(int maxOpenChannels, long sealThresholdBytes) {
+        this.maxOpenChannels = Math.max(1, maxOpenChannels);
+        this.sealThresholdBytes = sealThresholdBytes;
+        this.channels = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Adds reporting entry (value + timestamp, 16 bytes) to the write buffer of file.
+     * Nothing is written to disk until {@link #flush()}.
+     *
+     * @param path - path to user specific reporting file
+     * @param value - sensor data
+     * @param ts - time when entry was created
+     * @throws IOException in case file couldn't be opened
+     */
+    public void append(Path path, double value, long ts) throws IOException {
+        CachedChannel cached = acquire(path);
+        if (cached.put(value, ts) && !cached.dirty) {
+            cached.dirty = true;
+            dirty.add(cached);
+        }
+    }
+
+    /**
+     * Writes all buffered records to disk and fsyncs every touched file once.
+     *
+     * @return - paths that failed to be stored since previous flush. Never null.
+     */
+    public Set<Path> flush() {
+        for (CachedChannel cached : dirty) {
+            if (cached.dirty) {
+                try {
+                    cached.writeAndForce();
+                    checkFull(cached);
+                } catch (IOException e) {
+                    log.error("Error writing reporting file {}. Reason : {}", cached.path, e.getMessage());
+                    failed.add(cached.path);
+                    invalidate(cached.path);
+                }
+            }
+        }
+        dirty.clear();
+
+        if (failed.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<Path> result = new HashSet<>(failed);
+        failed.clear();
+        return result;
+    }
+
+    /**
+     * @return - paths of files that reached seal threshold since previous call. Never null.
+     */
+    public Set<Path> drainFull() {
+        if (full.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<Path> result = new HashSet<>(full);
+        full.clear();
+        return result;
+    }
+
+    private void checkFull(CachedChannel cached) {
+        if (sealThresholdBytes > 0 && cached.size >= sealThresholdBytes) {
+            full.add(cached.path);
+        }
+    }
+
+    /**
+     * Closes cached channel of file without flushing pending records.
+     * Should be called before file is deleted or rewritten.
+     */
+    public void invalidate(Path path) {
+        CachedChannel cached;
+        synchronized (channels) {
+            cached = channels.remove(path);
+        }
+        if (cached != null) {
+            cached.close();
+        }
+    }
+
+    public int size() {
+        synchronized (channels) {
+            return channels.size();
+        }
+    }
+
+    private CachedChannel acquire(Path path) throws IOException {
+        CachedChannel cached;
+        synchronized (channels) {
+            cached = channels.get(path);
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        Path userFolder = path.getParent();
+        if (Files.notExists(userFolder)) {
+            Files.createDirectories(userFolder);
+        }
+        //not APPEND, as last record should be readable. Writes are done at the end as only storage thread writes
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        cached = new CachedChannel(path, channel, channel.size());
+        try {
+            channel.position(cached.size);
+            cached.readLastTs();
+        } catch (IOException e) {
+            cached.close();
+            throw e;
+        }
+
+        CachedChannel evicted = null;
+        synchronized (channels) {
+            channels.put(path, cached);
+            if (channels.size() > maxOpenChannels) {
+                Iterator<CachedChannel> iterator = channels.values().iterator();
+                evicted = iterator.next();
+                iterator.remove();
+            }
+        }
+
+        if (evicted != null) {
+            evictions.increment();
+            evict(evicted);
+        }
+
+        return cached;
+    }
+
+    private void evict(CachedChannel evicted) {
+        if (evicted.dirty) {
+            try {
+                evicted.writeAndForce();
+                checkFull(evicted);
+            } catch (IOException e) {
+                log.error("Error writing reporting file {}. Reason : {}", evicted.path, e.getMessage());
+                failed.add(evicted.path);
+            }
+        }
+        evicted.close();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        synchronized (channels) {
+            for (CachedChannel cached : channels.values()) {
+                cached.close();
+            }
+            channels.clear();
+        }
+    }
+
+    private static final class CachedChannel {
+
+        final Path path;
+        final FileChannel channel;
+        ByteBuffer buffer;
+        boolean dirty;
+        long size;
+        long lastTs = Long.MIN_VALUE;
+
+        CachedChannel(Path path, FileChannel channel, long size) {
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        void readLastTs() throws IOException {
+            long records = size / RECORD_SIZE;
+            if (records > 0) {
+                ByteBuffer tsBuf = ByteBuffer.allocate(8);
+                channel.read(tsBuf, (records - 1) * RECORD_SIZE + 8);
+                if (!tsBuf.hasRemaining()) {
+                    lastTs = tsBuf.getLong(0);
+                }
+            }
+        }
+
+        /**
+         * @return - false in case record is older than last record of file and was skipped.
+         */
+        boolean put(double value, long ts) {
+            if (ts <= lastTs) {
+                return false;
+            }
+            lastTs = ts;
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(RECORD_SIZE * 2);
+            } else if (buffer.remaining() < RECORD_SIZE) {
+                ByteBuffer extended = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                extended.put(buffer);
+                buffer = extended;
+            }
+            buffer.putDouble(value);
+            buffer.putLong(ts);
+            return true;
+        }
+
+        void writeAndForce() throws IOException {
+            dirty = false;
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    size += channel.write(buffer);
+                }
+                channel.force(false);
+            } finally {
+                buffer.clear();
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Error closing reporting file {}. Reason : {}", path, e.getMessage());
+            }
+        }
+    }
+
+}
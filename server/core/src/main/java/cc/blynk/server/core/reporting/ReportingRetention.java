@@ -0,0 +1,84 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.reporting.segment.SegmentFile;
+import cc.blynk.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static cc.blynk.utils.ByteUtils.*;
+import static cc.blynk.utils.ReportingUtil.*;
+
+/**
+ * Removes reporting records older than retention period from per-pin reporting files.
+ * Raw reporting file is truncated from head (rewritten with records that are still within
+ * retention), compressed segments that are fully outdated are dropped.
+ *
+ * Should be called from storage thread, so files aren't appended during compaction.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public final class ReportingRetention {
+
+    private ReportingRetention() {
+    }
+
+    /**
+     * @param tailFile - raw reporting file, compressed segments of same pin are compacted as well.
+     * @param cutoffTs - records with timestamp before it are removed.
+     * @return - number of reclaimed bytes.
+     */
+    public static long compact(Path tailFile, long cutoffTs, ReportingChannelCache channelCache) throws IOException {
+        long reclaimed = 0;
+        Path segmentFile = SegmentFile.getSegmentPath(tailFile);
+        if (Files.exists(segmentFile)) {
+            reclaimed += SegmentFile.dropOlderThan(segmentFile, cutoffTs);
+        }
+        if (Files.exists(tailFile)) {
+            reclaimed += truncateHead(tailFile, cutoffTs, channelCache);
+        }
+        return reclaimed;
+    }
+
+    private static long truncateHead(Path tailFile, long cutoffTs, ReportingChannelCache channelCache) throws IOException {
+        long size;
+        long firstIndex;
+        ByteBuffer remaining;
+        try (FileChannel channel = FileChannel.open(tailFile, StandardOpenOption.READ)) {
+            size = channel.size();
+            long records = size / REPORTING_RECORD_SIZE_BYTES;
+            firstIndex = lowerBound(channel, records, cutoffTs, ByteBuffer.allocate(8));
+            if (firstIndex == 0) {
+                return 0;
+            }
+            if (firstIndex == records) {
+                remaining = null;
+            } else {
+                remaining = ByteBuffer.allocate((int) ((records - firstIndex) * REPORTING_RECORD_SIZE_BYTES));
+                long position = firstIndex * REPORTING_RECORD_SIZE_BYTES;
+                while (remaining.hasRemaining()) {
+                    if (channel.read(remaining, position + remaining.position()) == -1) {
+                        throw new IOException("Unexpected end of reporting file " + tailFile);
+                    }
+                }
+                remaining.flip();
+            }
+        }
+
+        //file is replaced, so cached channel should be reopened
+        channelCache.invalidate(tailFile);
+        if (remaining == null) {
+            FileUtils.deleteQuietly(tailFile);
+            return size;
+        }
+        FileUtils.writeAtomically(tailFile, remaining);
+        return size - remaining.capacity();
+    }
+
+}
@@ -0,0 +1,244 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.GraphType;
+import cc.blynk.server.core.model.enums.PinType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary checkpoint of in-flight aggregation state (minute, hourly and daily maps).
+ *
+ * File layout :
+ *  header  - int magic, byte version, long creation ts
+ *  users   - int count, UTF usernames. Entries refer users by index within this table
+ *  periods - byte count, per period : byte graph type, int entries count,
+ *            entries of (int user, int dashId, byte pinType, byte pin, long bucket, double sum, long count)
+ *  trailer - int CRC32 of everything before it
+ *
+ * Checkpoint is written to temp file, fsynced and atomically moved over previous one,
+ * so crash during write keeps previous checkpoint intact. CRC is verified before
+ * anything is loaded, so partially written or corrupted file is never applied.
+ *
+ * Stored-through watermarks are kept next to checkpoint in {@link #STORED_FILENAME} :
+ * int magic, per graph type long bucket, int CRC32. All buckets below watermark of period are
+ * already stored, so checkpoint entries below it are skipped on restore. Watermarks are small
+ * and rewritten after every storage run, while checkpoint itself is written only once per period.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public final class AggregationCheckpoint {
+
+    public static final String CHECKPOINT_FILENAME = "aggregation.checkpoint";
+    public static final String STORED_FILENAME = "aggregation.checkpoint.stored";
+    static final int MAGIC = 0x424C4350;
+    static final byte VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final PinType[] PIN_TYPES = PinType.values();
+    private static final GraphType[] GRAPH_TYPES = GraphType.values();
+
+    private AggregationCheckpoint() {
+    }
+
+    private static void writeAtomically(Path path, byte[] data) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param storedThrough - stored-through bucket per graph type ordinal.
+     */
+    public static void writeStoredThrough(Path path, long[] storedThrough) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4 + storedThrough.length * 8 + 4);
+        buf.putInt(MAGIC);
+        for (long bucket : storedThrough) {
+            buf.putLong(bucket);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        writeAtomically(path, buf.array());
+    }
+
+    /**
+     * @return - stored-through bucket per graph type ordinal.
+     * @throws IOException in case file is corrupted.
+     */
+    public static long[] readStoredThrough(Path path) throws IOException {
+        byte[] data = Files.readAllBytes(path);
+        long[] storedThrough = new long[GRAPH_TYPES.length];
+        int length = 4 + storedThrough.length * 8;
+        if (data.length != length + 4) {
+            throw new IOException("Stored watermarks " + path + " are truncated.");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        if (buf.getInt() != MAGIC || (int) crc.getValue() != buf.getInt(length)) {
+            throw new IOException("Stored watermarks " + path + " are corrupted.");
+        }
+        for (int i = 0; i < storedThrough.length; i++) {
+            storedThrough[i] = buf.getLong();
+        }
+        return storedThrough;
+    }
+
+    /**
+     * @param periods - aggregation maps by graph type.
+     * @return - number of written entries.
+     */
+    public static int write(Path path, Map<GraphType, AggregationMap> periods) throws IOException {
+        //snapshots are taken upfront, so map locks are not held during disk writes
+        Map<GraphType, Map<AggregationKey, AggregationValue>> snapshots = new HashMap<>();
+        Map<String, Integer> userIndexes = new HashMap<>();
+        for (Map.Entry<GraphType, AggregationMap> period : periods.entrySet()) {
+            Map<AggregationKey, AggregationValue> snapshot = period.getValue().snapshot();
+            snapshots.put(period.getKey(), snapshot);
+            for (AggregationKey key : snapshot.keySet()) {
+                userIndexes.putIfAbsent(key.username, userIndexes.size());
+            }
+        }
+
+        String[] users = new String[userIndexes.size()];
+        for (Map.Entry<String, Integer> user : userIndexes.entrySet()) {
+            users[user.getValue()] = user.getKey();
+        }
+
+        int entries = 0;
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(Channels.newOutputStream(channel), new CRC32());
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(checked, BUFFER_SIZE));
+
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+            dos.writeLong(System.currentTimeMillis());
+
+            dos.writeInt(users.length);
+            for (String user : users) {
+                dos.writeUTF(user);
+            }
+
+            dos.writeByte(snapshots.size());
+            for (Map.Entry<GraphType, Map<AggregationKey, AggregationValue>> snapshot : snapshots.entrySet()) {
+                dos.writeByte(snapshot.getKey().ordinal());
+                dos.writeInt(snapshot.getValue().size());
+                for (Map.Entry<AggregationKey, AggregationValue> entry : snapshot.getValue().entrySet()) {
+                    AggregationKey key = entry.getKey();
+                    AggregationValue value = entry.getValue();
+                    dos.writeInt(userIndexes.get(key.username));
+                    dos.writeInt(key.dashId);
+                    dos.writeByte(key.pinType.ordinal());
+                    dos.writeByte(key.pin);
+                    dos.writeLong(key.ts);
+                    dos.writeDouble(value.getSum());
+                    dos.writeLong(value.getCount());
+                }
+                entries += snapshot.getValue().size();
+            }
+
+            dos.flush();
+            dos.writeInt((int) checked.getChecksum().getValue());
+            dos.flush();
+            channel.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return entries;
+    }
+
+    /**
+     * Merges checkpoint entries into given maps. Periods without map are skipped.
+     *
+     * @return - number of loaded entries.
+     * @throws IOException in case checkpoint is corrupted or has unknown version. Nothing is loaded in that case.
+     */
+    public static int read(Path path, Map<GraphType, AggregationMap> periods) throws IOException {
+        long size = Files.size(path);
+        if (size < 4) {
+            throw new IOException("Checkpoint " + path + " is truncated.");
+        }
+        verifyChecksum(path, size - 4);
+
+        int entries = 0;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("File " + path + " is not aggregation checkpoint.");
+            }
+            byte version = dis.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported aggregation checkpoint version " + version + ".");
+            }
+            dis.readLong();
+
+            String[] users = new String[dis.readInt()];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = dis.readUTF();
+            }
+
+            int periodsCount = dis.readByte();
+            for (int p = 0; p < periodsCount; p++) {
+                AggregationMap map = periods.get(GRAPH_TYPES[dis.readByte()]);
+                int count = dis.readInt();
+                for (int i = 0; i < count; i++) {
+                    AggregationKey key = new AggregationKey(users[dis.readInt()], dis.readInt(),
+                            PIN_TYPES[dis.readByte()], dis.readByte(), dis.readLong());
+                    AggregationValue value = new AggregationValue(dis.readDouble(), dis.readLong());
+                    if (map != null) {
+                        map.merge(key, value);
+                        entries++;
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static void verifyChecksum(Path path, long dataLength) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream is = new DataInputStream(Files.newInputStream(path))) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long remaining = dataLength;
+            while (remaining > 0) {
+                int read = is.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (read == -1) {
+                    throw new EOFException();
+                }
+                crc.update(buf, 0, read);
+                remaining -= read;
+            }
+            if ((int) crc.getValue() != is.readInt()) {
+                throw new IOException("Checkpoint " + path + " is corrupted.");
+            }
+        }
+    }
+
+}
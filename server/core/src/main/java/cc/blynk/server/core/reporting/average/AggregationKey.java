@@ -11,6 +11,8 @@ import java.io.Serializable;
  */
 public class AggregationKey implements Serializable {
 
+    private static final long serialVersionUID = 6773012941339695041L;
+
     public String username;
     public int dashId;
     public PinType pinType;
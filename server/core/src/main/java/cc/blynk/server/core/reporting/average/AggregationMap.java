@@ -0,0 +1,261 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open addressing hash map that holds average aggregation state for one reporting period.
+ * Specialized for (userId, dashId, pinType, pin, bucket) keys with primitive sum/count values,
+ * so aggregation of already existing key doesn't allocate anything.
+ *
+ * Key is packed into 2 longs as dashId is arbitrary int defined by application :
+ *  hi - userId (32 bits) | dashId (32 bits)
+ *  lo - bucket (54 bits) | pinType (2 bits) | pin (8 bits)
+ *
+ * Map is split into segments guarded by own locks, as aggregation is performed from all event loops.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class AggregationMap {
+
+    private static final int SEGMENTS = 16;
+    private static final PinType[] PIN_TYPES = PinType.values();
+
+    private final UserIdTable userIds;
+    private final Segment[] segments;
+
+    public AggregationMap(UserIdTable userIds) {
+        this.userIds = userIds;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    private static long packHi(int userId, int dashId) {
+        return ((long) userId << 32) | (dashId & 0xFFFFFFFFL);
+    }
+
+    private static long packLo(PinType pinType, byte pin, long bucket) {
+        return (bucket << 10) | (pinType.ordinal() << 8) | (pin & 0xFF);
+    }
+
+    private static long hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L + lo;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    private static Segment segmentFor(Segment[] segments, long hash) {
+        return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+    }
+
+    public void aggregate(int userId, int dashId, PinType pinType, byte pin, long bucket, double value) {
+        add(packHi(userId, dashId), packLo(pinType, pin, bucket), value, 1);
+    }
+
+    private void add(long hi, long lo, double sum, long count) {
+        long hash = hash(hi, lo);
+        Segment segment = segmentFor(segments, hash);
+        synchronized (segment) {
+            segment.add(hi, lo, (int) hash, sum, count);
+        }
+    }
+
+    /**
+     * Adds already aggregated value to the map. In case key exists values are summed.
+     */
+    public void merge(AggregationKey key, AggregationValue value) {
+        merge(key, key.ts, value);
+    }
+
+    /**
+     * Same as {@link #merge(AggregationKey, AggregationValue)} but puts value to the given bucket
+     * instead of key one. Used to fold smaller period into bigger one.
+     */
+    public void merge(AggregationKey key, long bucket, AggregationValue value) {
+        if (value.getCount() == 0) {
+            return;
+        }
+        add(packHi(userIds.intern(key.username), key.dashId), packLo(key.pinType, key.pin, bucket),
+                value.getSum(), value.getCount());
+    }
+
+    /**
+     * @return - aggregated value for key or null if there is no such key. Allocates result.
+     */
+    public AggregationValue get(String username, int dashId, PinType pinType, byte pin, long bucket) {
+        long hi = packHi(userIds.intern(username), dashId);
+        long lo = packLo(pinType, pin, bucket);
+        long hash = hash(hi, lo);
+        Segment segment = segmentFor(segments, hash);
+        synchronized (segment) {
+            int index = segment.indexOf(hi, lo, (int) hash);
+            if (index == -1) {
+                return null;
+            }
+            return new AggregationValue(segment.sums[index], segment.counts[index]);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes all entries that belong to buckets before given one.
+     *
+     * @return - removed entries.
+     */
+    public Map<AggregationKey, AggregationValue> removeOlderThan(long bucket) {
+        return collect(bucket, true);
+    }
+
+    /**
+     * @return - copy of all entries within map.
+     */
+    public Map<AggregationKey, AggregationValue> snapshot() {
+        return collect(Long.MAX_VALUE, false);
+    }
+
+    private Map<AggregationKey, AggregationValue> collect(long bucket, boolean remove) {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.collect(bucket, remove, this, result);
+            }
+        }
+        return result;
+    }
+
+    private void materialize(Segment segment, int index, Map<AggregationKey, AggregationValue> result) {
+        long hi = segment.his[index];
+        long lo = segment.los[index];
+        AggregationKey key = new AggregationKey(
+                userIds.getName((int) (hi >>> 32)),
+                (int) hi,
+                PIN_TYPES[(int) (lo >>> 8) & 0x3],
+                (byte) lo,
+                lo >> 10
+        );
+        result.put(key, new AggregationValue(segment.sums[index], segment.counts[index]));
+    }
+
+    /**
+     * Linear probing table. Slot is empty when it's count is 0.
+     */
+    private static final class Segment {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        long[] his = new long[INITIAL_CAPACITY];
+        long[] los = new long[INITIAL_CAPACITY];
+        double[] sums = new double[INITIAL_CAPACITY];
+        long[] counts = new long[INITIAL_CAPACITY];
+        int size;
+
+        int indexOf(long hi, long lo, int hash) {
+            int mask = counts.length - 1;
+            for (int i = hash & mask; counts[i] != 0; i = (i + 1) & mask) {
+                if (his[i] == hi && los[i] == lo) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void add(long hi, long lo, int hash, double sum, long count) {
+            int mask = counts.length - 1;
+            int i = hash & mask;
+            for (; counts[i] != 0; i = (i + 1) & mask) {
+                if (his[i] == hi && los[i] == lo) {
+                    sums[i] += sum;
+                    counts[i] += count;
+                    return;
+                }
+            }
+
+            his[i] = hi;
+            los[i] = lo;
+            sums[i] = sum;
+            counts[i] = count;
+            if (++size > (counts.length >> 1)) {
+                resize();
+            }
+        }
+
+        void collect(long bucket, boolean remove, AggregationMap map, Map<AggregationKey, AggregationValue> result) {
+            int i = 0;
+            while (i < counts.length) {
+                if (counts[i] != 0 && (los[i] >> 10) < bucket) {
+                    map.materialize(this, i, result);
+                    if (remove) {
+                        //slot is filled with shifted entry, so it should be checked again
+                        removeAt(i);
+                        continue;
+                    }
+                }
+                i++;
+            }
+        }
+
+        /**
+         * Backward shift deletion, so no tombstones are required.
+         */
+        private void removeAt(int hole) {
+            int mask = counts.length - 1;
+            int i = (hole + 1) & mask;
+            for (; counts[i] != 0; i = (i + 1) & mask) {
+                int ideal = (int) hash(his[i], los[i]) & mask;
+                boolean canMove = hole <= i ? (ideal <= hole || ideal > i) : (ideal <= hole && ideal > i);
+                if (canMove) {
+                    his[hole] = his[i];
+                    los[hole] = los[i];
+                    sums[hole] = sums[i];
+                    counts[hole] = counts[i];
+                    hole = i;
+                }
+            }
+            counts[hole] = 0;
+            size--;
+        }
+
+        private void resize() {
+            long[] oldHis = his;
+            long[] oldLos = los;
+            double[] oldSums = sums;
+            long[] oldCounts = counts;
+
+            int capacity = oldCounts.length << 1;
+            his = new long[capacity];
+            los = new long[capacity];
+            sums = new double[capacity];
+            counts = new long[capacity];
+
+            int mask = capacity - 1;
+            for (int j = 0; j < oldCounts.length; j++) {
+                if (oldCounts[j] != 0) {
+                    int i = (int) hash(oldHis[j], oldLos[j]) & mask;
+                    while (counts[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    his[i] = oldHis[j];
+                    los[i] = oldLos[j];
+                    sums[i] = oldSums[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
+    }
+
+}
@@ -9,10 +9,21 @@ import java.io.Serializable;
  */
 public class AggregationValue implements Serializable {
 
+    //kept as it was before adding constructors, so old aggregation temp files are still readable
+    private static final long serialVersionUID = -445006968633062412L;
+
     //todo consider case for reporting when few hardware using same token and same pin
     private double values = 0;
     private long count = 0;
 
+    public AggregationValue() {
+    }
+
+    public AggregationValue(double values, long count) {
+        this.values = values;
+        this.count = count;
+    }
+
     public void update(double val) {
         values += val;
         count++;
@@ -21,4 +32,12 @@ public class AggregationValue implements Serializable {
     public double calcAverage() {
         return values / count;
     }
+
+    public double getSum() {
+        return values;
+    }
+
+    public long getCount() {
+        return count;
+    }
 }
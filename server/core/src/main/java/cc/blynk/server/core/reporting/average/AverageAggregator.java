@@ -1,17 +1,36 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.model.enums.GraphType;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.PinWriteBatch;
 import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.utils.ReportingUtil.*;
 
 /**
+ * Aggregates numeric pin values into minute, hourly and daily averages.
+ * Aggregation of already known key doesn't allocate anything.
+ *
+ * Only minute period is updated on income values. Hourly and daily periods are
+ * filled by folding closed minutes and hours via {@link #rollUp(Map, GraphType)}.
+ *
+ * State is periodically saved with {@link #checkpoint()} (see {@link AggregationCheckpoint})
+ * and restored on start, so crash loses only values collected since last checkpoint.
+ * Storage reports buckets it stored with {@link #stored(GraphType, long, long)} and persists them
+ * with {@link #stored()}, checkpoint entries of stored buckets are skipped on restore,
+ * so they are not stored twice.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
@@ -21,74 +40,209 @@ public class AverageAggregator implements Closeable {
     public static final long MINUTE = 1000 * 60;
     public static final long HOUR = 1000 * 60 * 60;
     public static final long DAY = 24 * HOUR;
+    //temp files of previous server versions, only read on start
     public static final String MINUTE_TEMP_FILENAME = "minute_temp.bin";
     public static final String HOURLY_TEMP_FILENAME = "hourly_temp.bin";
     public static final String DAILY_TEMP_FILENAME = "daily_temp.bin";
+    private static final Logger log = LogManager.getLogger(AverageAggregator.class);
     private final String dataFolder;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> minute;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+    private final UserIdTable userIds;
+    private final AggregationMap minute;
+    private final AggregationMap hourly;
+    private final AggregationMap daily;
+    private final Map<GraphType, AggregationMap> periods;
+    //per graph type ordinal, all buckets below are stored
+    private final long[] storedThrough = new long[GraphType.values().length];
+    //per graph type ordinal, all buckets below are stored or wait for retry within period map
+    private final long[] closedThrough = new long[GraphType.values().length];
 
     public AverageAggregator(String dataFolder) {
         this.dataFolder = dataFolder;
+        this.userIds = new UserIdTable();
+        this.minute = new AggregationMap(userIds);
+        this.hourly = new AggregationMap(userIds);
+        this.daily = new AggregationMap(userIds);
+        this.periods = new EnumMap<>(GraphType.class);
+        this.periods.put(GraphType.MINUTE, minute);
+        this.periods.put(GraphType.HOURLY, hourly);
+        this.periods.put(GraphType.DAILY, daily);
+
+        Arrays.fill(storedThrough, Long.MIN_VALUE);
+        Path path = Paths.get(dataFolder, AggregationCheckpoint.STORED_FILENAME);
+        if (Files.exists(path)) {
+            try {
+                System.arraycopy(AggregationCheckpoint.readStoredThrough(path), 0, storedThrough, 0, storedThrough.length);
+            } catch (Exception e) {
+                log.error("Error reading stored aggregation buckets {}. Reason : {}", path, e.getMessage());
+            }
+        }
+        System.arraycopy(storedThrough, 0, closedThrough, 0, closedThrough.length);
+
+        path = Paths.get(dataFolder, AggregationCheckpoint.CHECKPOINT_FILENAME);
+        if (Files.exists(path)) {
+            long start = System.currentTimeMillis();
+            try {
+                int entries = AggregationCheckpoint.read(path, periods);
+                int skipped = 0;
+                for (Map.Entry<GraphType, AggregationMap> period : periods.entrySet()) {
+                    skipped += period.getValue().removeOlderThan(storedThrough[period.getKey().ordinal()]).size();
+                }
+                log.info("Loaded {} aggregation entries from checkpoint, {} already stored skipped. Time : {} ms.",
+                        entries - skipped, skipped, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("Error reading aggregation checkpoint {}. Reason : {}", path, e.getMessage());
+            }
+        }
 
-        Path path;
-
-        //todo move this logic to separate class?
         path = Paths.get(dataFolder, MINUTE_TEMP_FILENAME);
-        this.minute = read(path);
+        read(path, minute);
         FileUtils.deleteQuietly(path);
 
         path = Paths.get(dataFolder, HOURLY_TEMP_FILENAME);
-        this.hourly = read(path);
+        read(path, hourly);
         FileUtils.deleteQuietly(path);
 
         path = Paths.get(dataFolder, DAILY_TEMP_FILENAME);
-        this.daily = read(path);
+        read(path, daily);
         FileUtils.deleteQuietly(path);
     }
 
-    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
-        AggregationValue aggregationValue = map.get(key);
-        if (aggregationValue == null) {
-            final AggregationValue aggregationValueTmp = new AggregationValue();
-            aggregationValue = map.putIfAbsent(key, aggregationValueTmp);
-            if (aggregationValue == null) {
-                aggregationValue = aggregationValueTmp;
-            }
-        }
-
-        aggregationValue.update(value);
-    }
-
     public void collect(String username, int dashId, PinType pinType, byte pin, long ts, String value) {
         try {
-            double val = Double.parseDouble(value);
-            aggregate(minute, new AggregationKey(username, dashId, pinType, pin, ts / MINUTE), val);
-            aggregate(hourly, new AggregationKey(username, dashId, pinType, pin, ts / HOUR), val);
-            aggregate(daily, new AggregationKey(username, dashId, pinType, pin, ts / DAY), val);
+            collect(username, dashId, pinType, pin, ts, Double.parseDouble(value));
         } catch (NumberFormatException e) {
             //value not a number so ignore. no way to make average aggregation
         }
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getMinute() {
+    public void collect(String username, int dashId, PinType pinType, byte pin, long ts, double value) {
+        minute.aggregate(userIds.intern(username), dashId, pinType, pin, ts / MINUTE, value);
+    }
+
+    /**
+     * Collects all numeric values of batch. User is resolved and bucket is calculated once for whole batch.
+     */
+    public void collect(String username, int dashId, long ts, PinWriteBatch batch) {
+        int userId = userIds.intern(username);
+        long bucket = ts / MINUTE;
+        for (int i = 0; i < batch.size; i++) {
+            try {
+                minute.aggregate(userId, dashId, batch.pinTypes[i], batch.pins[i], bucket,
+                        Double.parseDouble(batch.values[i][0]));
+            } catch (NumberFormatException e) {
+                //value not a number so ignore. no way to make average aggregation
+            }
+        }
+    }
+
+    /**
+     * Folds entries of closed buckets into next bigger period. Minutes go to hourly, hours go to daily.
+     * Target bucket that was already stored can't be reopened, as it would be stored twice, so
+     * entry is merged only in case target bucket waits for retry, otherwise it is dropped.
+     *
+     * @param closed - entries removed from period map and already stored.
+     * @param type - period of closed entries.
+     */
+    public void rollUp(Map<AggregationKey, AggregationValue> closed, GraphType type) {
+        AggregationMap target;
+        long bucketsPerTarget;
+        switch (type) {
+            case MINUTE :
+                target = hourly;
+                bucketsPerTarget = HOUR / MINUTE;
+                break;
+            case HOURLY :
+                target = daily;
+                bucketsPerTarget = DAY / HOUR;
+                break;
+            default :
+                return;
+        }
+
+        long targetClosedThrough = closedThrough[type.ordinal() + 1];
+        for (Map.Entry<AggregationKey, AggregationValue> entry : closed.entrySet()) {
+            AggregationKey key = entry.getKey();
+            long bucket = key.ts / bucketsPerTarget;
+            if (bucket < targetClosedThrough
+                    && target.get(key.username, key.dashId, key.pinType, key.pin, bucket) == null) {
+                log.debug("Dropping late {} value of stored bucket {}.", type, bucket);
+                continue;
+            }
+            target.merge(key, bucket, entry.getValue());
+        }
+    }
+
+    public AggregationMap getMinute() {
         return minute;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getHourly() {
+    public AggregationMap getHourly() {
         return hourly;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getDaily() {
+    public AggregationMap getDaily() {
         return daily;
     }
 
+    /**
+     * Saves current aggregation state. Should be called from storage thread between storage runs,
+     * so checkpoint never contains entries that were already stored.
+     * Stored buckets are written first, so checkpoint is never restored with older ones.
+     */
+    public synchronized void checkpoint() {
+        Path path = Paths.get(dataFolder, AggregationCheckpoint.CHECKPOINT_FILENAME);
+        if (!writeStored()) {
+            FileUtils.deleteQuietly(path);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            int entries = AggregationCheckpoint.write(path, periods);
+            log.debug("Aggregation checkpoint with {} entries saved. Time : {} ms.",
+                    entries, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.error("Error writing aggregation checkpoint {}. Reason : {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Should be called from storage thread once entries of period are stored.
+     *
+     * @param closed - all buckets of period below this one are stored or returned back for retry.
+     * @param stored - all buckets of period below this one are stored.
+     */
+    public void stored(GraphType type, long closed, long stored) {
+        closedThrough[type.ordinal()] = closed;
+        storedThrough[type.ordinal()] = stored;
+    }
+
+    /**
+     * Persists buckets reported by {@link #stored(GraphType, long, long)}, so checkpoint entries that were
+     * stored after checkpoint was written are not restored. Should be called after every storage run, as
+     * failed writes lower stored buckets. Does nothing when there is no checkpoint. In case write fails
+     * checkpoint is removed, as it would be stored again.
+     */
+    public synchronized void stored() {
+        Path path = Paths.get(dataFolder, AggregationCheckpoint.CHECKPOINT_FILENAME);
+        if (Files.exists(path) && !writeStored()) {
+            FileUtils.deleteQuietly(path);
+        }
+    }
+
+    private boolean writeStored() {
+        Path path = Paths.get(dataFolder, AggregationCheckpoint.STORED_FILENAME);
+        try {
+            AggregationCheckpoint.writeStoredThrough(path, storedThrough);
+            return true;
+        } catch (IOException e) {
+            log.error("Error writing stored aggregation buckets {}. Reason : {}", path, e.getMessage());
+            return false;
+        }
+    }
+
     @Override
     public void close() {
-        write(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
-        write(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
-        write(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
+        checkpoint();
     }
 
 }
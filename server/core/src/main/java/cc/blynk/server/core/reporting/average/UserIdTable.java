@@ -0,0 +1,59 @@
+package cc.blynk.server.core.reporting.average;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns usernames into compact sequential int ids, so aggregation keys
+ * could be packed into primitives instead of holding username string.
+ *
+ * Ids are never released, so table grows up to number of users that
+ * ever reported data since server start.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class UserIdTable {
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[1024];
+    private int size;
+
+    /**
+     * Returns id of user. Doesn't allocate in case user was already interned.
+     */
+    public int intern(String username) {
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+        return register(username);
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int register(String username) {
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+
+        String[] names = this.names;
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        names[size] = username;
+        this.names = names;
+
+        ids.put(username, size);
+        return size++;
+    }
+
+}
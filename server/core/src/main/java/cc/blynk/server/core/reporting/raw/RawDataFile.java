@@ -0,0 +1,118 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.lang.String.*;
+
+/**
+ * Binary format of raw data journal files. Every pin of user has own file
+ * "<dashId>_<pinType><pin>.raw" within user reporting folder. Once file reaches size limit
+ * it is renamed to "<dashId>_<pinType><pin>.<rotationTs>_<seq>.raw" and new file is started.
+ * Sequence number distinguishes files rotated within same millisecond.
+ * Rotated files are not removed by server nor by reporting retention, operator is expected
+ * to export and remove them.
+ *
+ * Record is : long ts, unsigned short value length, value in UTF-8.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public final class RawDataFile {
+
+    public static final String RAW_FILE_NAME = "%d_%c%d.raw";
+    public static final String ROTATED_RAW_FILE_NAME = "%d_%c%d.%d_%d.raw";
+    public static final String RAW_FILE_EXTENSION = ".raw";
+    public static final int RECORD_HEADER_SIZE = 8 + 2;
+    //values longer than that are truncated on char boundary
+    public static final int MAX_VALUE_LENGTH = 0xFFFF;
+
+    private RawDataFile() {
+    }
+
+    public static String generateFilename(int dashId, PinType pinType, byte pin) {
+        return format(RAW_FILE_NAME, dashId, pinType.pintTypeChar, pin);
+    }
+
+    public static String generateRotatedFilename(int dashId, PinType pinType, byte pin, long ts, int seq) {
+        return format(ROTATED_RAW_FILE_NAME, dashId, pinType.pintTypeChar, pin, ts, seq);
+    }
+
+    public static byte[] encodeValue(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_VALUE_LENGTH) {
+            int length = MAX_VALUE_LENGTH;
+            //first dropped byte is continuation of multi byte char, so drop whole char
+            while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+            byte[] truncated = new byte[length];
+            System.arraycopy(bytes, 0, truncated, 0, length);
+            return truncated;
+        }
+        return bytes;
+    }
+
+    public static void write(ByteBuffer buf, long ts, byte[] value) {
+        buf.putLong(ts)
+           .putShort((short) value.length)
+           .put(value);
+    }
+
+    /**
+     * Converts raw journal file to CSV in "value,ts" format, same as old log based raw store.
+     * Incomplete last record (in case of crash during append) is ignored.
+     *
+     * @return - number of exported records.
+     */
+    public static int toCSV(Path rawFile, Writer out) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(rawFile));
+        int records = 0;
+        while (buf.remaining() >= RECORD_HEADER_SIZE) {
+            long ts = buf.getLong();
+            int length = buf.getShort() & 0xFFFF;
+            if (buf.remaining() < length) {
+                break;
+            }
+            String value = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            out.write(value);
+            out.write(',');
+            out.write(Long.toString(ts));
+            out.write('\n');
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Exports every raw file of user folder into CSV file with same name within output folder.
+     *
+     * @return - number of exported files.
+     */
+    public static int exportFolder(Path userFolder, Path outFolder) throws IOException {
+        int files = 0;
+        Files.createDirectories(outFolder);
+        try (DirectoryStream<Path> rawFiles = Files.newDirectoryStream(userFolder, "*" + RAW_FILE_EXTENSION)) {
+            for (Path rawFile : rawFiles) {
+                String fileName = rawFile.getFileName().toString();
+                String csvName = fileName.substring(0, fileName.length() - RAW_FILE_EXTENSION.length()) + ".csv";
+                try (BufferedWriter writer = Files.newBufferedWriter(outFolder.resolve(csvName), StandardCharsets.UTF_8)) {
+                    toCSV(rawFile, writer);
+                }
+                files++;
+            }
+        }
+        return files;
+    }
+
+}
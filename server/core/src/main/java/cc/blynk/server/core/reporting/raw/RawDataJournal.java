@@ -0,0 +1,194 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.stats.GlobalStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append only journal of raw values sent by hardware.
+ *
+ * Event loop only puts value into lock free queue, all encoding and disk writes are done
+ * in batches by single writer thread. Every batch is grouped by pin file, so every file
+ * is opened and written once per batch. See {@link RawDataFile} for file format.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class RawDataJournal implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(RawDataJournal.class);
+
+    private final String dataFolder;
+    private final long maxFileSize;
+    private final int maxQueueSize;
+    private final GlobalStats stats;
+    private final ConcurrentLinkedQueue<RawEntry> queue = new ConcurrentLinkedQueue<>();
+    //ConcurrentLinkedQueue.size() is O(n), so size is tracked separately
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final ScheduledExecutorService writer;
+
+    public RawDataJournal(String dataFolder, long maxFileSize, int maxQueueSize, long flushPeriodMillis,
+                          GlobalStats stats) {
+        this.dataFolder = dataFolder;
+        this.maxFileSize = maxFileSize;
+        this.maxQueueSize = maxQueueSize;
+        this.stats = stats;
+        //daemon, as remaining values are written on close() anyway
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "RawDataJournal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer.scheduleWithFixedDelay(this::flush, flushPeriodMillis, flushPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void append(String username, int dashId, PinType pinType, byte pin, String value, long ts) {
+        if (queueSize.incrementAndGet() > maxQueueSize) {
+            queueSize.decrementAndGet();
+            stats.rawJournalDropped.increment();
+            return;
+        }
+        queue.offer(new RawEntry(username, dashId, pinType, pin, value, ts));
+    }
+
+    /**
+     * Writes all queued values to disk. Not thread safe, so called only by writer thread or after it is stopped.
+     */
+    public void flush() {
+        Map<RawEntry, List<RawEntry>> batch = new HashMap<>();
+        RawEntry entry;
+        while ((entry = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+            batch.computeIfAbsent(entry, k -> new ArrayList<>()).add(entry);
+        }
+
+        for (List<RawEntry> entries : batch.values()) {
+            RawEntry first = entries.get(0);
+            try {
+                write(first, entries);
+                stats.rawJournalRecords.add(entries.size());
+            } catch (Exception e) {
+                log.error("Error writing raw data for user {}. Reason : {}", first.username, e.getMessage());
+            }
+        }
+    }
+
+    private void write(RawEntry pinKey, List<RawEntry> entries) throws IOException {
+        int size = 0;
+        List<byte[]> values = new ArrayList<>(entries.size());
+        for (RawEntry entry : entries) {
+            byte[] value = RawDataFile.encodeValue(entry.value);
+            values.add(value);
+            size += RawDataFile.RECORD_HEADER_SIZE + value.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (int i = 0; i < entries.size(); i++) {
+            RawDataFile.write(buf, entries.get(i).ts, values.get(i));
+        }
+        buf.flip();
+
+        Path userFolder = Paths.get(dataFolder, pinKey.username);
+        Path rawFile = userFolder.resolve(RawDataFile.generateFilename(pinKey.dashId, pinKey.pinType, pinKey.pin));
+        if (Files.notExists(userFolder)) {
+            Files.createDirectories(userFolder);
+        } else if (Files.exists(rawFile) && Files.size(rawFile) + size > maxFileSize) {
+            Files.move(rawFile, rotatedFile(userFolder, pinKey));
+        }
+
+        try (FileChannel channel = FileChannel.open(rawFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Files are rotated only by writer thread, so free name can't be taken before move.
+     */
+    private static Path rotatedFile(Path userFolder, RawEntry pinKey) {
+        long ts = System.currentTimeMillis();
+        int seq = 0;
+        Path rotated;
+        do {
+            rotated = userFolder.resolve(RawDataFile.generateRotatedFilename(
+                    pinKey.dashId, pinKey.pinType, pinKey.pin, ts, seq++));
+        } while (Files.exists(rotated));
+        return rotated;
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //writer thread is stopped, so remaining values could be written from here
+        flush();
+    }
+
+    /**
+     * Queued value. Equality is defined by pin only, so entries are grouped by file within batch.
+     */
+    private static final class RawEntry {
+
+        final String username;
+        final int dashId;
+        final PinType pinType;
+        final byte pin;
+        final String value;
+        final long ts;
+
+        RawEntry(String username, int dashId, PinType pinType, byte pin, String value, long ts) {
+            this.username = username;
+            this.dashId = dashId;
+            this.pinType = pinType;
+            this.pin = pin;
+            this.value = value;
+            this.ts = ts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RawEntry)) {
+                return false;
+            }
+            RawEntry that = (RawEntry) o;
+            return dashId == that.dashId && pin == that.pin
+                    && pinType == that.pinType && username.equals(that.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, dashId, pinType, pin);
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package cc.blynk.server.core.reporting.segment;
+
+/**
+ * Reads values written with {@link BitWriter}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+class BitReader {
+
+    private final byte[] data;
+    private long bitPosition;
+
+    BitReader(byte[] data) {
+        this.data = data;
+    }
+
+    boolean readBit() {
+        return readBits(1) == 1;
+    }
+
+    long readBits(int bits) {
+        long value = 0;
+        while (bits > 0) {
+            int byteIndex = (int) (bitPosition >>> 3);
+            int availableInByte = 8 - (int) (bitPosition & 7);
+            int toRead = Math.min(availableInByte, bits);
+            int chunk = (data[byteIndex] >>> (availableInByte - toRead)) & ((1 << toRead) - 1);
+            value = (value << toRead) | chunk;
+            bits -= toRead;
+            bitPosition += toRead;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,48 @@
+package cc.blynk.server.core.reporting.segment;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of arbitrary bit length into growing byte array. Most significant bits first.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+class BitWriter {
+
+    private byte[] data;
+    private long bitPosition;
+
+    BitWriter(int initialSizeInBytes) {
+        this.data = new byte[Math.max(16, initialSizeInBytes)];
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * @param value - value to write, only lowest bits are taken.
+     * @param bits - number of bits to write, from 0 to 64.
+     */
+    void writeBits(long value, int bits) {
+        while (bits > 0) {
+            int byteIndex = (int) (bitPosition >>> 3);
+            if (byteIndex == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int freeInByte = 8 - (int) (bitPosition & 7);
+            int toWrite = Math.min(freeInByte, bits);
+            int chunk = (int) (value >>> (bits - toWrite)) & ((1 << toWrite) - 1);
+            data[byteIndex] |= chunk << (freeInByte - toWrite);
+            bits -= toWrite;
+            bitPosition += toWrite;
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(data, (int) ((bitPosition + 7) >>> 3));
+    }
+
+}
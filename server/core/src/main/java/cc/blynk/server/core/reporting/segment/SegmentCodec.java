@@ -0,0 +1,160 @@
+package cc.blynk.server.core.reporting.segment;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses reporting records (double value + long timestamp) in columnar way.
+ * Timestamps are delta-of-delta encoded and values are XOR encoded with previous value,
+ * the same way Facebook Gorilla TSDB does. Reporting records have regular timestamps
+ * and often repeated values, so most records take just 2 bits.
+ *
+ * First record is stored as is. Timestamp delta-of-delta (zigzag encoded) :
+ *  '0'                      - dod is 0
+ *  '10'   + 14 bits         - dod fits 14 bits
+ *  '110'  + 24 bits         - dod fits 24 bits
+ *  '1110' + 34 bits         - dod fits 34 bits
+ *  '1111' + 64 bits         - any other dod
+ *
+ * Value XOR with previous value :
+ *  '0'                                           - same value
+ *  '10' + meaningful bits                        - meaningful bits fit into previous window
+ *  '11' + 5 bits leading zeros + 6 bits length + meaningful bits
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public final class SegmentCodec {
+
+    private SegmentCodec() {
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @param records - buffer with 16 bytes records (double value, long ts) between position and limit.
+     * @return - encoded records. Number of records is not stored within result.
+     */
+    public static byte[] encode(ByteBuffer records) {
+        int count = records.remaining() / 16;
+        BitWriter writer = new BitWriter(count * 2 + 16);
+
+        long prevTs = 0;
+        long prevDelta = 0;
+        long prevValueBits = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+
+        for (int i = 0; i < count; i++) {
+            long valueBits = Double.doubleToRawLongBits(records.getDouble());
+            long ts = records.getLong();
+
+            if (i == 0) {
+                writer.writeBits(ts, 64);
+                writer.writeBits(valueBits, 64);
+            } else {
+                long delta = ts - prevTs;
+                long dod = zigZag(delta - prevDelta);
+                prevDelta = delta;
+                if (dod == 0) {
+                    writer.writeBit(false);
+                } else if (dod < (1L << 14)) {
+                    writer.writeBits(0b10, 2);
+                    writer.writeBits(dod, 14);
+                } else if (dod < (1L << 24)) {
+                    writer.writeBits(0b110, 3);
+                    writer.writeBits(dod, 24);
+                } else if (dod < (1L << 34)) {
+                    writer.writeBits(0b1110, 4);
+                    writer.writeBits(dod, 34);
+                } else {
+                    writer.writeBits(0b1111, 4);
+                    writer.writeBits(dod, 64);
+                }
+
+                long xor = valueBits ^ prevValueBits;
+                if (xor == 0) {
+                    writer.writeBit(false);
+                } else {
+                    int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (prevLeading != -1 && leading >= prevLeading && trailing >= prevTrailing) {
+                        writer.writeBits(0b10, 2);
+                        writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                    } else {
+                        int meaningful = 64 - leading - trailing;
+                        writer.writeBits(0b11, 2);
+                        writer.writeBits(leading, 5);
+                        //64 meaningful bits doesn't fit 6 bits, stored as 0
+                        writer.writeBits(meaningful & 0x3F, 6);
+                        writer.writeBits(xor >>> trailing, meaningful);
+                        prevLeading = leading;
+                        prevTrailing = trailing;
+                    }
+                }
+            }
+
+            prevTs = ts;
+            prevValueBits = valueBits;
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes records into output buffer as 16 bytes records (double value, long ts).
+     */
+    public static void decode(byte[] data, int count, ByteBuffer out) {
+        BitReader reader = new BitReader(data);
+
+        long ts = 0;
+        long delta = 0;
+        long valueBits = 0;
+        int leading = 0;
+        int trailing = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                ts = reader.readBits(64);
+                valueBits = reader.readBits(64);
+            } else {
+                long dod;
+                if (!reader.readBit()) {
+                    dod = 0;
+                } else if (!reader.readBit()) {
+                    dod = reader.readBits(14);
+                } else if (!reader.readBit()) {
+                    dod = reader.readBits(24);
+                } else if (!reader.readBit()) {
+                    dod = reader.readBits(34);
+                } else {
+                    dod = reader.readBits(64);
+                }
+                delta += unZigZag(dod);
+                ts += delta;
+
+                if (reader.readBit()) {
+                    if (reader.readBit()) {
+                        leading = (int) reader.readBits(5);
+                        int meaningful = (int) reader.readBits(6);
+                        if (meaningful == 0) {
+                            meaningful = 64;
+                        }
+                        trailing = 64 - leading - meaningful;
+                    }
+                    valueBits ^= reader.readBits(64 - leading - trailing) << trailing;
+                }
+            }
+
+            out.putDouble(Double.longBitsToDouble(valueBits));
+            out.putLong(ts);
+        }
+    }
+
+}
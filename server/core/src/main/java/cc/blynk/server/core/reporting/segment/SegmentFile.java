@@ -0,0 +1,307 @@
+package cc.blynk.server.core.reporting.segment;
+
+import cc.blynk.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static cc.blynk.utils.ByteUtils.*;
+
+/**
+ * Compressed history file of single pin. Holds sealed records, while latest records
+ * are appended to raw reporting file (tail) and are moved here once tail is full.
+ *
+ * File format :
+ *  header  - magic (int), version (byte)
+ *  segment - records count (int), first ts (long), last ts (long), payload length (int), payload
+ *  segment - ...
+ *
+ * Segment headers form an index, so reader may find required segments without decoding
+ * whole file.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public final class SegmentFile {
+
+    public static final String SEGMENT_FILE_EXTENSION = ".seg";
+    public static final int MAGIC = 0x424C5453;
+    public static final byte VERSION = 1;
+
+    static final int FILE_HEADER_SIZE = 5;
+    static final int SEGMENT_HEADER_SIZE = 24;
+
+    private SegmentFile() {
+    }
+
+    /**
+     * @param tailFile - raw reporting file, for example history_1_a1_minute.bin
+     * @return - path of compressed history file of same pin, for example history_1_a1_minute.seg
+     */
+    public static Path getSegmentPath(Path tailFile) {
+        String fileName = tailFile.getFileName().toString();
+        int dotIndex = fileName.lastIndexOf('.');
+        String baseName = dotIndex == -1 ? fileName : fileName.substring(0, dotIndex);
+        return tailFile.resolveSibling(baseName + SEGMENT_FILE_EXTENSION);
+    }
+
+    /**
+     * Encodes records into segments of given size and appends them to the file, creating file if necessary.
+     * File is fsynced once before return.
+     *
+     * @param records - 16 bytes records between position and limit.
+     * @param segmentRecords - maximum number of records within single segment.
+     */
+    public static void append(Path segmentFile, ByteBuffer records, int segmentRecords) throws IOException {
+        if (records.remaining() < REPORTING_RECORD_SIZE_BYTES) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(segmentFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).put(VERSION).flip();
+                writeFully(channel, header);
+            }
+
+            while (records.remaining() >= REPORTING_RECORD_SIZE_BYTES) {
+                int count = Math.min(segmentRecords, records.remaining() / REPORTING_RECORD_SIZE_BYTES);
+                ByteBuffer chunk = records.slice();
+                chunk.limit(count * REPORTING_RECORD_SIZE_BYTES);
+                records.position(records.position() + chunk.limit());
+
+                long firstTs = chunk.getLong(8);
+                long lastTs = chunk.getLong(chunk.limit() - 8);
+                byte[] payload = SegmentCodec.encode(chunk);
+
+                ByteBuffer buf = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + payload.length);
+                buf.putInt(count).putLong(firstTs).putLong(lastTs).putInt(payload.length).put(payload);
+                buf.flip();
+                writeFully(channel, buf);
+            }
+            channel.force(false);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * @return - timestamp of last sealed record or Long.MIN_VALUE if there are no sealed records.
+     */
+    public static long lastSealedTs(Path segmentFile) throws IOException {
+        List<SegmentInfo> index = readIndex(segmentFile);
+        return index.isEmpty() ? Long.MIN_VALUE : index.get(index.size() - 1).lastTs;
+    }
+
+    /**
+     * Removes segments that hold only records older than cutoff. Segment that holds
+     * both old and new records is kept as is, so retention is precise up to segment size.
+     *
+     * @return - number of reclaimed bytes.
+     */
+    public static long dropOlderThan(Path segmentFile, long cutoffTs) throws IOException {
+        List<SegmentInfo> index = readIndex(segmentFile);
+        int first = 0;
+        while (first < index.size() && index.get(first).lastTs < cutoffTs) {
+            first++;
+        }
+        if (first == 0) {
+            return 0;
+        }
+
+        long size = Files.size(segmentFile);
+        if (first == index.size()) {
+            FileUtils.deleteQuietly(segmentFile);
+            return size;
+        }
+
+        SegmentInfo last = index.get(index.size() - 1);
+        long keepFrom = index.get(first).payloadOffset - SEGMENT_HEADER_SIZE;
+        long keepTo = last.payloadOffset + last.payloadLength;
+        ByteBuffer buf = ByteBuffer.allocate(FILE_HEADER_SIZE + (int) (keepTo - keepFrom));
+        buf.putInt(MAGIC).put(VERSION);
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, keepFrom + buf.position() - FILE_HEADER_SIZE) == -1) {
+                    throw new IOException("Unexpected end of reporting segment file.");
+                }
+            }
+        }
+        buf.flip();
+        FileUtils.writeAtomically(segmentFile, buf);
+        return size - (FILE_HEADER_SIZE + keepTo - keepFrom);
+    }
+
+    /**
+     * Reads segment headers of the file. Returns empty list in case there is no file.
+     */
+    public static List<SegmentInfo> readIndex(Path segmentFile) throws IOException {
+        if (Files.notExists(segmentFile)) {
+            return Collections.emptyList();
+        }
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+            return readIndex(channel, segmentFile);
+        }
+    }
+
+    private static List<SegmentInfo> readIndex(FileChannel channel, Path segmentFile) throws IOException {
+        long size = channel.size();
+        List<SegmentInfo> index = new ArrayList<>();
+        if (size < FILE_HEADER_SIZE) {
+            return index;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        readFully(channel, header, 0, FILE_HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.get() != VERSION) {
+            throw new IOException("Unknown reporting segment file format. " + segmentFile);
+        }
+
+        long position = FILE_HEADER_SIZE;
+        //incomplete trailing segment (crash during write) is ignored
+        while (position + SEGMENT_HEADER_SIZE <= size) {
+            readFully(channel, header, position, SEGMENT_HEADER_SIZE);
+            SegmentInfo info = new SegmentInfo(position + SEGMENT_HEADER_SIZE,
+                    header.getInt(), header.getLong(), header.getLong(), header.getInt());
+            if (info.payloadOffset + info.payloadLength > size) {
+                break;
+            }
+            index.add(info);
+            position = info.payloadOffset + info.payloadLength;
+        }
+        return index;
+    }
+
+    /**
+     * Adds records from compressed history before raw tail records, so result holds last
+     * "count" records of the pin within [from, to] range. Tail records that are already within
+     * compressed history are skipped. Only segments that overlap range are decoded.
+     *
+     * @param tail - last records of raw reporting file within range.
+     * @param count - maximum number of records in result.
+     * @return - last records in ascending order, 16 bytes per record.
+     */
+    public static byte[] prependHistory(Path segmentFile, byte[] tail, int count, long from, long to) throws IOException {
+        if (Files.notExists(segmentFile)) {
+            return tail;
+        }
+
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+            List<SegmentInfo> index = readIndex(channel, segmentFile);
+            if (index.isEmpty()) {
+                return tail;
+            }
+
+            long lastSealedTs = index.get(index.size() - 1).lastTs;
+            int tailStart = 0;
+            while (tailStart < tail.length && ByteBuffer.wrap(tail, tailStart + 8, 8).getLong() <= lastSealedTs) {
+                tailStart += REPORTING_RECORD_SIZE_BYTES;
+            }
+            int tailCount = (tail.length - tailStart) / REPORTING_RECORD_SIZE_BYTES;
+
+            int needed = count - tailCount;
+            if (needed <= 0) {
+                return tailStart == 0 ? tail : copyOfRange(tail, tailStart, tail.length);
+            }
+
+            //collecting matching records from the latest segments, till we have enough records
+            List<ByteBuffer> chunks = new ArrayList<>();
+            int collected = 0;
+            for (int i = index.size() - 1; i >= 0 && collected < needed; i--) {
+                SegmentInfo info = index.get(i);
+                if (info.lastTs < from) {
+                    break;
+                }
+                if (info.firstTs > to) {
+                    continue;
+                }
+
+                ByteBuffer payload = ByteBuffer.allocate(info.payloadLength);
+                readFully(channel, payload, info.payloadOffset, info.payloadLength);
+                ByteBuffer decoded = ByteBuffer.allocate(info.count * REPORTING_RECORD_SIZE_BYTES);
+                SegmentCodec.decode(payload.array(), info.count, decoded);
+
+                ByteBuffer matched = slice(decoded, from, to);
+                collected += matched.remaining() / REPORTING_RECORD_SIZE_BYTES;
+                chunks.add(matched);
+            }
+
+            int fromHistory = Math.min(needed, collected);
+            byte[] result = new byte[(fromHistory + tailCount) * REPORTING_RECORD_SIZE_BYTES];
+            int position = fromHistory * REPORTING_RECORD_SIZE_BYTES;
+            //chunks are in reverse order, filling result from the end
+            for (ByteBuffer chunk : chunks) {
+                int length = Math.min(position, chunk.remaining());
+                position -= length;
+                System.arraycopy(chunk.array(), chunk.limit() - length, result, position, length);
+            }
+            System.arraycopy(tail, tailStart, result, fromHistory * REPORTING_RECORD_SIZE_BYTES, tail.length - tailStart);
+            return result;
+        }
+    }
+
+    /**
+     * @return - view over decoded records with timestamps within [from, to] range.
+     */
+    private static ByteBuffer slice(ByteBuffer decoded, long from, long to) {
+        int start = 0;
+        int end = decoded.capacity();
+        while (start < end && decoded.getLong(start + 8) < from) {
+            start += REPORTING_RECORD_SIZE_BYTES;
+        }
+        while (end > start && decoded.getLong(end - 8) > to) {
+            end -= REPORTING_RECORD_SIZE_BYTES;
+        }
+        decoded.limit(end).position(start);
+        return decoded;
+    }
+
+    private static byte[] copyOfRange(byte[] data, int from, int to) {
+        byte[] result = new byte[to - from];
+        System.arraycopy(data, from, result, 0, result.length);
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + buf.position());
+            if (read == -1) {
+                throw new IOException("Unexpected end of reporting segment file.");
+            }
+        }
+        buf.flip();
+    }
+
+    public static final class SegmentInfo {
+
+        public final long payloadOffset;
+        public final int count;
+        public final long firstTs;
+        public final long lastTs;
+        public final int payloadLength;
+
+        SegmentInfo(long payloadOffset, int count, long firstTs, long lastTs, int payloadLength) {
+            this.payloadOffset = payloadOffset;
+            this.count = count;
+            this.firstTs = firstTs;
+            this.lastTs = lastTs;
+            this.payloadLength = payloadLength;
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package cc.blynk.server.core.reporting.segment;
+
+import cc.blynk.server.core.reporting.ReportingChannelCache;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static cc.blynk.utils.ByteUtils.*;
+
+/**
+ * Moves full chunks of records from raw reporting file (tail) into compressed segment file.
+ * Segments are appended and fsynced first and only after that tail is atomically replaced
+ * with remaining records. In case of crash in between, records that are already
+ * sealed are skipped during next seal and during reads.
+ *
+ * Should be called from storage thread, so tail isn't appended during sealing.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public final class SegmentSealer {
+
+    public static final int SEGMENT_RECORDS = 256;
+    public static final long SEAL_THRESHOLD_BYTES = 2L * SEGMENT_RECORDS * REPORTING_RECORD_SIZE_BYTES;
+
+    private static final Logger log = LogManager.getLogger(SegmentSealer.class);
+
+    private SegmentSealer() {
+    }
+
+    /**
+     * Seals all full chunks of records of raw reporting file.
+     *
+     * @return - number of sealed records.
+     */
+    public static int seal(Path tailFile, ReportingChannelCache channelCache) throws IOException {
+        //tail is rewritten, so cached channel should be reopened
+        channelCache.invalidate(tailFile);
+
+        if (Files.notExists(tailFile)) {
+            return 0;
+        }
+
+        Path segmentFile = SegmentFile.getSegmentPath(tailFile);
+        long lastSealedTs = SegmentFile.lastSealedTs(segmentFile);
+
+        byte[] data = Files.readAllBytes(tailFile);
+        //ignoring partially written last record
+        int limit = data.length - data.length % REPORTING_RECORD_SIZE_BYTES;
+        ByteBuffer records = ByteBuffer.wrap(data, 0, limit);
+        //skipping records that were sealed before crash
+        while (records.hasRemaining() && records.getLong(records.position() + 8) <= lastSealedTs) {
+            records.position(records.position() + REPORTING_RECORD_SIZE_BYTES);
+        }
+
+        int fullChunksBytes = (records.remaining() / (SEGMENT_RECORDS * REPORTING_RECORD_SIZE_BYTES))
+                * SEGMENT_RECORDS * REPORTING_RECORD_SIZE_BYTES;
+        if (fullChunksBytes == 0 && records.position() == 0 && limit == data.length) {
+            return 0;
+        }
+
+        int remainderStart = records.position() + fullChunksBytes;
+        records.limit(remainderStart);
+        SegmentFile.append(segmentFile, records, SEGMENT_RECORDS);
+
+        FileUtils.writeAtomically(tailFile, ByteBuffer.wrap(data, remainderStart, limit - remainderStart));
+        return fullChunksBytes / REPORTING_RECORD_SIZE_BYTES;
+    }
+
+    /**
+     * Converts existing raw reporting files of all users to segment format.
+     * Files with less than {@link #SEGMENT_RECORDS} records are left as is.
+     */
+    public static void migrate(Path reportingFolder, ReportingChannelCache channelCache) {
+        if (Files.notExists(reportingFolder)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int files = 0;
+        long records = 0;
+        try (DirectoryStream<Path> userFolders = Files.newDirectoryStream(reportingFolder, Files::isDirectory)) {
+            for (Path userFolder : userFolders) {
+                try (DirectoryStream<Path> tailFiles = Files.newDirectoryStream(userFolder, "*.bin")) {
+                    for (Path tailFile : tailFiles) {
+                        if (Files.size(tailFile) < SEGMENT_RECORDS * REPORTING_RECORD_SIZE_BYTES) {
+                            continue;
+                        }
+                        try {
+                            records += seal(tailFile, channelCache);
+                            files++;
+                        } catch (IOException e) {
+                            log.error("Error migrating reporting file {}. Reason : {}", tailFile, e.getMessage());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error migrating reporting folder {}. Reason : {}", reportingFolder, e.getMessage());
+        }
+
+        log.info("Migrated {} reporting files ({} records) to segment format. Time : {} ms.",
+                files, records, System.currentTimeMillis() - start);
+    }
+
+}
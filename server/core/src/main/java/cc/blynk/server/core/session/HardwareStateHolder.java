@@ -2,6 +2,8 @@ package cc.blynk.server.core.session;
 
 import cc.blynk.server.core.model.auth.User;
 
+import java.util.Map;
+
 /**
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -9,13 +11,31 @@ import cc.blynk.server.core.model.auth.User;
  */
 public class HardwareStateHolder extends StateHolder {
 
+    public static final int NOTIFICATION_TYPES = 4;
+
     public final int dashId;
     public final String token;
+    //negotiated at login
+    public final boolean binaryValues;
+    //time of last sent notification per notification type, see NotificationBase
+    public final long[] notificationsLastSentTs = new long[NOTIFICATION_TYPES];
+    //bridge pin -> target token. Created on first bridge init, as most devices don't use bridge
+    public Map<String, String> bridgeTokens;
 
     public HardwareStateHolder(int dashId, User user, String token) {
+        this(dashId, user, token, false);
+    }
+
+    public HardwareStateHolder(int dashId, User user, String token, boolean binaryValues) {
         super(user);
         this.dashId = dashId;
         this.token = token;
+        this.binaryValues = binaryValues;
+    }
+
+    @Override
+    public boolean supportsBinaryValues() {
+        return binaryValues;
     }
 
     @Override
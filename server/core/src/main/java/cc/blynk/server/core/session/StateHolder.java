@@ -17,4 +17,18 @@ public abstract class StateHolder {
 
     public abstract boolean contains(String sharedToken);
 
+    /**
+     * @return - true in case client accepts numeric pin values as binary HARDWARE_VALUE messages.
+     */
+    public boolean supportsBinaryValues() {
+        return false;
+    }
+
+    /**
+     * @return - true in case client accepts pin writes batch as single HARDWARE_BATCH message.
+     */
+    public boolean supportsBatch() {
+        return false;
+    }
+
 }
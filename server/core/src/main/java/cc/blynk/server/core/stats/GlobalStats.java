@@ -1,5 +1,6 @@
 package cc.blynk.server.core.stats;
 
+import java.util.concurrent.atomic.LongAccumulator;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -9,10 +10,41 @@ import java.util.concurrent.atomic.LongAdder;
  */
 public class GlobalStats {
 
-    private static final int LAST_COMMAND_INDEX = 50;
+    private static final int LAST_COMMAND_INDEX = 51;
     public final Meter incomeMessages;
     public final LongAdder[] specificCounters;
 
+    //reporting files retention progress
+    public final LongAdder retentionUsers = new LongAdder();
+    public final LongAdder retentionFiles = new LongAdder();
+    public final LongAdder retentionReclaimedBytes = new LongAdder();
+    public final LongAdder retentionCycles = new LongAdder();
+
+    //graph series cache
+    public final LongAdder graphCacheHits = new LongAdder();
+    public final LongAdder graphCacheMisses = new LongAdder();
+    public final LongAdder graphCacheEvictions = new LongAdder();
+
+    //graph reads latency, in micros
+    public final LongAdder graphReads = new LongAdder();
+    public final LongAdder graphReadTotalLatency = new LongAdder();
+    public final LongAccumulator graphReadMaxLatency = new LongAccumulator(Long::max, 0);
+    public final LongAdder graphReadRejected = new LongAdder();
+
+    //raw data journal
+    public final LongAdder rawJournalRecords = new LongAdder();
+    public final LongAdder rawJournalDropped = new LongAdder();
+
+    //pin values for slow app channels
+    public final LongAdder appConflationCoalesced = new LongAdder();
+    public final LongAdder appConflationDropped = new LongAdder();
+
+    //profile saving, latency in micros
+    public final LongAdder profileSaves = new LongAdder();
+    public final LongAdder profileSaveErrors = new LongAdder();
+    public final LongAdder profileSaveTotalLatency = new LongAdder();
+    public final LongAccumulator profileSaveMaxLatency = new LongAccumulator(Long::max, 0);
+
     public GlobalStats() {
         this.incomeMessages = new Meter();
 
@@ -23,6 +55,20 @@ public class GlobalStats {
         }
     }
 
+    public void markGraphRead(long latencyNanos) {
+        long latencyMicros = latencyNanos / 1000;
+        graphReads.increment();
+        graphReadTotalLatency.add(latencyMicros);
+        graphReadMaxLatency.accumulate(latencyMicros);
+    }
+
+    public void markProfileSave(long latencyNanos) {
+        long latencyMicros = latencyNanos / 1000;
+        profileSaves.increment();
+        profileSaveTotalLatency.add(latencyMicros);
+        profileSaveMaxLatency.accumulate(latencyMicros);
+    }
+
     public void mark(final short cmd) {
         incomeMessages.mark(1);
         specificCounters[cmd].increment();
@@ -26,6 +26,9 @@ public class Stat {
 
     public final Map<String, Long> messages = new HashMap<>();
     public final Map<String, Long> http = new HashMap<>();
+    public final Map<String, Long> reporting = new HashMap<>();
+    public final Map<String, Long> appConflation = new HashMap<>();
+    public final Map<String, Long> profiles = new HashMap<>();
 
     long oneMinRate;
     long total;
@@ -53,6 +56,41 @@ public class Stat {
             }
         }
 
+        stat.reporting.put("retentionUsers", sum(localStats.retentionUsers, reset));
+        stat.reporting.put("retentionFiles", sum(localStats.retentionFiles, reset));
+        stat.reporting.put("retentionReclaimedBytes", sum(localStats.retentionReclaimedBytes, reset));
+        stat.reporting.put("retentionCycles", sum(localStats.retentionCycles, reset));
+
+        long hits = sum(localStats.graphCacheHits, reset);
+        long misses = sum(localStats.graphCacheMisses, reset);
+        stat.reporting.put("graphCacheHits", hits);
+        stat.reporting.put("graphCacheMisses", misses);
+        stat.reporting.put("graphCacheHitRatio", hits + misses == 0 ? 0 : hits * 100 / (hits + misses));
+        stat.reporting.put("graphCacheEvictions", sum(localStats.graphCacheEvictions, reset));
+
+        long reads = sum(localStats.graphReads, reset);
+        long totalLatency = sum(localStats.graphReadTotalLatency, reset);
+        stat.reporting.put("graphReads", reads);
+        stat.reporting.put("graphReadAvgLatencyMicros", reads == 0 ? 0 : totalLatency / reads);
+        stat.reporting.put("graphReadMaxLatencyMicros",
+                reset ? localStats.graphReadMaxLatency.getThenReset() : localStats.graphReadMaxLatency.get());
+        stat.reporting.put("graphReadRejected", sum(localStats.graphReadRejected, reset));
+
+        stat.reporting.put("rawJournalRecords", sum(localStats.rawJournalRecords, reset));
+        stat.reporting.put("rawJournalDropped", sum(localStats.rawJournalDropped, reset));
+
+        stat.appConflation.put("coalesced", sum(localStats.appConflationCoalesced, reset));
+        stat.appConflation.put("dropped", sum(localStats.appConflationDropped, reset));
+
+        long saves = sum(localStats.profileSaves, reset);
+        long saveLatency = sum(localStats.profileSaveTotalLatency, reset);
+        stat.profiles.put("saveQueue", (long) userDao.dirtyUsers.size());
+        stat.profiles.put("saves", saves);
+        stat.profiles.put("saveErrors", sum(localStats.profileSaveErrors, reset));
+        stat.profiles.put("saveAvgLatencyMicros", saves == 0 ? 0 : saveLatency / saves);
+        stat.profiles.put("saveMaxLatencyMicros",
+                reset ? localStats.profileSaveMaxLatency.getThenReset() : localStats.profileSaveMaxLatency.get());
+
         int connectedSessions = 0;
 
         int hardActive = 0;
@@ -101,6 +139,10 @@ public class Stat {
         return stat;
     }
 
+    private static long sum(LongAdder longAdder, boolean reset) {
+        return reset ? longAdder.sumThenReset() : longAdder.sum();
+    }
+
     public String toJson() {
         return JsonParser.toJson(statWriter, this);
     }
@@ -35,6 +35,11 @@ public class InstanceLoadMeter {
         count++;
     }
 
+    public void mark(int n) {
+        tickIfNecessary();
+        count += n;
+    }
+
     private void tickIfNecessary() {
         final long newTick = System.currentTimeMillis();
         final long age = newTick - lastTick;
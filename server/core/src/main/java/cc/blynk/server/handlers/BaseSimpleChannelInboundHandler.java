@@ -1,5 +1,6 @@
 package cc.blynk.server.handlers;
 
+import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.protocol.exceptions.QuotaLimitException;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
@@ -14,6 +15,11 @@ import io.netty.util.internal.TypeParameterMatcher;
 import org.apache.logging.log4j.ThreadContext;
 
 /**
+ * Messages are processed within user mailbox, see {@link Session#execute(Runnable)},
+ * so handler state is touched only by mailbox thread.
+ * Quota is checked and marked on IO thread before message is passed to mailbox,
+ * so messages above quota are released right away and never queued.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/3/2015.
@@ -21,17 +27,19 @@ import org.apache.logging.log4j.ThreadContext;
 public abstract class BaseSimpleChannelInboundHandler<I extends MessageBase> extends ChannelInboundHandlerAdapter implements DefaultExceptionHandler {
 
     public final StateHolder state;
+    protected final Session session;
     protected final int USER_QUOTA_LIMIT_WARN_PERIOD;
     protected final int USER_QUOTA_LIMIT;
     private final TypeParameterMatcher matcher;
     private final InstanceLoadMeter quotaMeter;
     private long lastQuotaExceededTime;
 
-    protected BaseSimpleChannelInboundHandler(ServerProperties props, StateHolder state) {
+    protected BaseSimpleChannelInboundHandler(ServerProperties props, Session session, StateHolder state) {
         this.matcher = TypeParameterMatcher.find(this, BaseSimpleChannelInboundHandler.class, "I");
         this.USER_QUOTA_LIMIT = props.getIntProperty("user.message.quota.limit");
         this.USER_QUOTA_LIMIT_WARN_PERIOD = props.getIntProperty("user.message.quota.limit.exceeded.warning.period");
         this.quotaMeter = new InstanceLoadMeter();
+        this.session = session;
         this.state = state;
     }
 
@@ -40,19 +48,29 @@ public abstract class BaseSimpleChannelInboundHandler<I extends MessageBase> ext
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (matcher.match(msg)) {
             final I typedMsg = (I) msg;
-            try {
-                if (quotaMeter.getOneMinuteRate() > USER_QUOTA_LIMIT) {
+            if (quotaMeter.getOneMinuteRate() > USER_QUOTA_LIMIT) {
+                try {
                     sendErrorResponseIfTicked(typedMsg.id);
-                    return;
+                } catch (Exception e) {
+                    handleGeneralException(ctx, e);
+                } finally {
+                    ReferenceCountUtil.release(msg);
                 }
-                quotaMeter.mark();
-                messageReceived(ctx, typedMsg);
-            } catch (Exception e) {
-                handleGeneralException(ctx, e);
-            } finally {
-                ThreadContext.clearMap();
-                ReferenceCountUtil.release(msg);
+                return;
             }
+            quotaMeter.mark(typedMsg.getQuotaWeight());
+            session.execute(() -> process(ctx, typedMsg));
+        }
+    }
+
+    private void process(ChannelHandlerContext ctx, I msg) {
+        try {
+            messageReceived(ctx, msg);
+        } catch (Exception e) {
+            handleGeneralException(ctx, e);
+        } finally {
+            ThreadContext.clearMap();
+            ReferenceCountUtil.release(msg);
         }
     }
 
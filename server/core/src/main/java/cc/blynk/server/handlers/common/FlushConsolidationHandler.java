@@ -0,0 +1,136 @@
+package cc.blynk.server.handlers.common;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Consolidates flushes, so many small messages written one after another
+ * are sent to socket with single write syscall.
+ *
+ * While read is in progress flushes are delayed till channelReadComplete, so all responses
+ * produced by one read cycle are flushed once. Flushes outside of read cycle (for example
+ * messages forwarded from other channels) are delayed till next event loop iteration in case
+ * consolidateWhenNoReadInProgress is enabled. In both cases data is flushed immediately when
+ * number of pending flushes reaches explicitFlushAfterFlushes, so latency is bounded.
+ *
+ * Netty 4.1 has same handler, this one follows its semantics for 4.0.
+ * Should be placed close to the head of pipeline, right after SSL handler if any.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class FlushConsolidationHandler extends ChannelDuplexHandler {
+
+    private final int explicitFlushAfterFlushes;
+    private final boolean consolidateWhenNoReadInProgress;
+    private final Runnable flushTask;
+    private ChannelHandlerContext ctx;
+    private int flushPendingCount;
+    private boolean readInProgress;
+    private boolean flushScheduled;
+
+    /**
+     * @param explicitFlushAfterFlushes - max number of consolidated flushes, 1 - every flush is passed as is.
+     * @param consolidateWhenNoReadInProgress - consolidate flushes that happen outside of read cycle.
+     */
+    public FlushConsolidationHandler(int explicitFlushAfterFlushes, boolean consolidateWhenNoReadInProgress) {
+        if (explicitFlushAfterFlushes <= 0) {
+            throw new IllegalArgumentException("explicitFlushAfterFlushes should be positive.");
+        }
+        this.explicitFlushAfterFlushes = explicitFlushAfterFlushes;
+        this.consolidateWhenNoReadInProgress = consolidateWhenNoReadInProgress;
+        this.flushTask = () -> {
+            flushScheduled = false;
+            if (flushPendingCount > 0 && !readInProgress) {
+                flushNow(ctx);
+            }
+        };
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (readInProgress) {
+            //flushed on channelReadComplete
+            if (++flushPendingCount == explicitFlushAfterFlushes) {
+                flushNow(ctx);
+            }
+        } else if (consolidateWhenNoReadInProgress) {
+            if (++flushPendingCount == explicitFlushAfterFlushes) {
+                flushNow(ctx);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                ctx.channel().eventLoop().execute(flushTask);
+            }
+        } else {
+            flushNow(ctx);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        resetReadAndFlushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        resetReadAndFlushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        resetReadAndFlushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        resetReadAndFlushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        //outbound buffer is full, so pending data should go to socket
+        if (!ctx.channel().isWritable()) {
+            flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushIfNeeded(ctx);
+    }
+
+    private void resetReadAndFlushIfNeeded(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+    }
+
+    private void flushIfNeeded(ChannelHandlerContext ctx) {
+        if (flushPendingCount > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        flushPendingCount = 0;
+        ctx.flush();
+    }
+
+}
@@ -0,0 +1,27 @@
+package cc.blynk.server.handlers.common;
+
+import cc.blynk.utils.ServerProperties;
+
+/**
+ * Creates {@link FlushConsolidationHandler} for every new channel with settings read once
+ * from server properties, so all server pipelines share same configuration.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class FlushConsolidationHandlerFactory {
+
+    private final int maxFlushes;
+    private final boolean consolidateWhenNoRead;
+
+    public FlushConsolidationHandlerFactory(ServerProperties props) {
+        this.maxFlushes = props.getIntProperty("flush.consolidation.max.flushes", 256);
+        this.consolidateWhenNoRead = props.getBoolProperty("flush.consolidation.when.no.read");
+    }
+
+    public FlushConsolidationHandler create() {
+        return new FlushConsolidationHandler(maxFlushes, consolidateWhenNoRead);
+    }
+
+}
@@ -0,0 +1,222 @@
+package cc.blynk.server.handlers.common;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.StringUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protects slow application channels from being flooded with pin values forwarded from hardware.
+ *
+ * Pin values are written directly while channel is writable. When channel became unwritable
+ * (outbound buffer is above high water mark) only latest value per (dashId, pin) is kept
+ * and pending values are written once channel is writable again. In case max update rate
+ * is set, values for same pin that come faster are conflated the same way and sent once
+ * period of that pin is passed.
+ *
+ * All state is accessed only within channel event loop.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class PinValueConflationHandler extends ChannelInboundHandlerAdapter {
+
+    public static final long NO_KEY = -1;
+
+    private final GlobalStats stats;
+    //min period between 2 values of same pin in nanos, 0 - no limit
+    private final long minPeriodNanos;
+
+    //insertion order is kept, so pending pins are written in order they were updated
+    private final Map<Long, ByteBuf> pending = new LinkedHashMap<>();
+    private final Map<Long, Long> lastSent = new HashMap<>();
+    private ChannelHandlerContext ctx;
+    private boolean drainScheduled;
+
+    /**
+     * @param maxUpdateRate - max number of values per second for one pin, 0 - no limit.
+     */
+    public PinValueConflationHandler(GlobalStats stats, int maxUpdateRate) {
+        this.stats = stats;
+        this.minPeriodNanos = maxUpdateRate > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / maxUpdateRate) : 0;
+    }
+
+    /**
+     * Builds conflation key from hardware body ("vw\01\0100").
+     *
+     * @return - key of pin or {@link #NO_KEY} if body is not pin write command.
+     */
+    public static long key(int dashId, ByteBuf body) {
+        int i = body.readerIndex();
+        int end = body.writerIndex();
+        if (end - i < 4 || body.getByte(i + 1) != 'w' || body.getByte(i + 2) != StringUtils.BODY_SEPARATOR) {
+            return NO_KEY;
+        }
+        byte pinType = body.getByte(i);
+        int pin = 0;
+        int digits = 0;
+        for (i += 3; i < end; i++) {
+            byte b = body.getByte(i);
+            if (b == StringUtils.BODY_SEPARATOR) {
+                break;
+            }
+            if (b < '0' || b > '9' || ++digits > 3) {
+                return NO_KEY;
+            }
+            pin = pin * 10 + b - '0';
+        }
+        if (digits == 0) {
+            return NO_KEY;
+        }
+        return key(dashId, pinType, pin);
+    }
+
+    public static long key(int dashId, int pinType, int pin) {
+        return ((long) dashId << 24) | (pinType & 0xFF) << 16 | (pin & 0xFFFF);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Writes or conflates message. Ownership of message is passed to this handler.
+     * May be called from any thread.
+     */
+    public void write(long key, ByteBuf msg) {
+        if (ctx.executor().inEventLoop()) {
+            write0(key, msg);
+        } else {
+            ctx.executor().execute(() -> write0(key, msg));
+        }
+    }
+
+    private void write0(long key, ByteBuf msg) {
+        if (!ctx.channel().isActive()) {
+            msg.release();
+            stats.appConflationDropped.increment();
+            return;
+        }
+
+        if (key == NO_KEY) {
+            ctx.writeAndFlush(msg, ctx.voidPromise());
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (ctx.channel().isWritable() && !pending.containsKey(key) && isAllowed(key, now)) {
+            send(key, msg, now);
+            ctx.flush();
+            return;
+        }
+
+        ByteBuf previous = pending.put(key, msg);
+        if (previous != null) {
+            previous.release();
+            stats.appConflationCoalesced.increment();
+        }
+        if (ctx.channel().isWritable()) {
+            if (minPeriodNanos == 0) {
+                drain();
+            } else {
+                scheduleDrain(now);
+            }
+        }
+    }
+
+    private boolean isAllowed(long key, long now) {
+        if (minPeriodNanos == 0) {
+            return true;
+        }
+        Long last = lastSent.get(key);
+        return last == null || now - last >= minPeriodNanos;
+    }
+
+    private void send(long key, ByteBuf msg, long now) {
+        if (minPeriodNanos > 0) {
+            lastSent.put(key, now);
+        }
+        ctx.write(msg, ctx.voidPromise());
+    }
+
+    private void scheduleDrain(long now) {
+        if (drainScheduled) {
+            return;
+        }
+        long delay = minPeriodNanos;
+        for (Long key : pending.keySet()) {
+            Long last = lastSent.get(key);
+            delay = Math.min(delay, last == null ? 0 : last + minPeriodNanos - now);
+        }
+        drainScheduled = true;
+        ctx.executor().schedule(() -> {
+            drainScheduled = false;
+            drain();
+        }, Math.max(delay, 1), TimeUnit.NANOSECONDS);
+    }
+
+    private void drain() {
+        if (pending.isEmpty() || !ctx.channel().isActive()) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean written = false;
+        Iterator<Map.Entry<Long, ByteBuf>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext() && ctx.channel().isWritable()) {
+            Map.Entry<Long, ByteBuf> entry = iterator.next();
+            if (isAllowed(entry.getKey(), now)) {
+                iterator.remove();
+                send(entry.getKey(), entry.getValue(), now);
+                written = true;
+            }
+        }
+        if (written) {
+            ctx.flush();
+        }
+        if (!pending.isEmpty() && ctx.channel().isWritable()) {
+            scheduleDrain(now);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            drain();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releasePending();
+    }
+
+    private void releasePending() {
+        for (ByteBuf msg : pending.values()) {
+            msg.release();
+            stats.appConflationDropped.increment();
+        }
+        pending.clear();
+        lastSent.clear();
+    }
+
+    public int pendingSize() {
+        return pending.size();
+    }
+
+}
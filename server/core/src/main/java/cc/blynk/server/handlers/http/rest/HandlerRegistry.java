@@ -105,9 +105,12 @@ public class HandlerRegistry {
         return null;
     }
 
-    public static FullHttpResponse invoke(HandlerHolder handlerHolder, Object[] params) {
+    /**
+     * @return - {@link FullHttpResponse} or {@link java.util.concurrent.CompletionStage} of it.
+     */
+    public static Object invoke(HandlerHolder handlerHolder, Object[] params) {
         try {
-            return (FullHttpResponse) handlerHolder.method.invoke(handlerHolder.handler, params);
+            return handlerHolder.method.invoke(handlerHolder.handler, params);
         } catch (Exception e) {
             log.error("Error invoking handler.", e.getMessage());
             return Response.serverError(e.getMessage());
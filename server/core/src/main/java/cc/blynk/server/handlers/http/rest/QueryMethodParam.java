@@ -16,7 +16,7 @@ public class QueryMethodParam extends MethodParam {
     //todo better way via method reference?
     //Function<String, Integer> stringToInt = x -> Integer.valueOf(x);
     public static Object convertTo(Class type, String value) {
-        if (type == long.class) {
+        if (type == long.class || type == Long.class) {
             return Long.valueOf(value);
         }
         if (type == int.class || type == Integer.class) {
@@ -65,6 +65,10 @@ public class Response extends DefaultFullHttpResponse {
         return new Response(HTTP_1_1, INTERNAL_SERVER_ERROR, message, PLAIN_TEXT);
     }
 
+    public static Response serviceUnavailable(String message) {
+        return new Response(HTTP_1_1, SERVICE_UNAVAILABLE, message, PLAIN_TEXT);
+    }
+
     public static Response ok(String data) {
         return new Response(HTTP_1_1, OK, data, JSON);
     }
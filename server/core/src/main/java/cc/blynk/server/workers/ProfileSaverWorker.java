@@ -2,8 +2,11 @@ package cc.blynk.server.workers;
 
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.UserDao;
-import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.dao.UserFileBatch;
+import cc.blynk.server.core.dao.UserJournal;
+import cc.blynk.server.core.model.auth.DirtyUserQueue;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,10 +14,25 @@ import org.apache.logging.log4j.Logger;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Background thread that once a minute stores all user DB to disk in case profile was changed since last saving.
+ * Background thread that once a minute stores modified user profiles to disk.
+ *
+ * Only users from {@link UserDao#dirtyUsers} queue are saved, so idle users cost nothing.
+ * Profiles are written in parallel by writer pool, each writer takes own part of drained users
+ * and commits it with {@link UserFileBatch}. Data dir is synced once per run.
+ *
+ * With enabled {@link UserJournal} modified users are drained by {@link #journal()} every journal
+ * sync period instead, and run only snapshots users journaled since previous run to their files.
+ * Journal appends are guarded by separate lock, so snapshot doesn't delay journal sync.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -24,85 +42,196 @@ public class ProfileSaverWorker implements Runnable, Closeable {
 
     private static final Logger log = LogManager.getLogger(ProfileSaverWorker.class);
 
-    //1 min
     private final UserDao userDao;
     private final FileManager fileManager;
     private final DBManager dbManager;
-    private long lastStart;
-
-    public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager) {
+    private final GlobalStats stats;
+    private final UserJournal journal;
+    private final int writers;
+    private final ExecutorService writerPool;
+    private final Object journalLock = new Object();
+
+    public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager, GlobalStats stats,
+                              UserJournal journal, int writers) {
         this.userDao = userDao;
         this.fileManager = fileManager;
         this.dbManager = dbManager;
-        this.lastStart = System.currentTimeMillis();
-    }
-
-    private static boolean isUpdated(long lastStart, User user) {
-        return (lastStart <= user.lastModifiedTs) || isDashUpdated(lastStart, user);
-    }
-
-    private static boolean isDashUpdated(long lastStart, User user) {
-        for (DashBoard dashBoard : user.profile.dashBoards) {
-            if (lastStart <= dashBoard.updatedAt) {
-                return true;
-            }
-        }
-        return false;
+        this.stats = stats;
+        this.journal = journal;
+        this.writers = Math.max(1, writers);
+        this.writerPool = Executors.newFixedThreadPool(this.writers, r -> {
+            Thread thread = new Thread(r, "profile-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
-    public void run() {
+    public synchronized void run() {
         try {
             log.debug("Starting saving user db.");
 
-            long newStart = System.currentTimeMillis();
-
-            List<User> users = saveModified();
+            List<User> users = journal.enabled ? snapshot() : saveModified();
 
             dbManager.saveUsers(users);
 
-            lastStart = newStart;
-
             log.debug("Saving user db finished. Modified {} users.", users.size());
         } catch (Throwable t) {
             log.error("Error saving users.", t);
         }
     }
 
-    private List<User> saveModified() {
-        List<User> users = new ArrayList<>();
-
-        for (User user : userDao.getUsers().values()) {
-            if (isUpdated(lastStart, user)) {
-                try {
-                    fileManager.overrideUserFile(user);
-                    users.add(user);
-                } catch (IOException e) {
-                    log.error("Error saving : {}.", user);
-                }
+    /**
+     * Appends users modified since previous call to journal.
+     *
+     * @return - false in case journal write failed, users are queued again in that case.
+     */
+    public boolean journal() {
+        synchronized (journalLock) {
+            return journalModified();
+        }
+    }
+
+    private boolean journalModified() {
+        List<User> users = drain();
+        if (users.isEmpty()) {
+            return true;
+        }
+        List<User> modified = new ArrayList<>(users.size());
+        List<String> deleted = new ArrayList<>();
+        for (User user : users) {
+            User current = userDao.getByName(user.name);
+            if (current == null) {
+                deleted.add(user.name);
+            } else if (current == user) {
+                modified.add(user);
+            }
+            //replaced user is queued by itself
+        }
+        try {
+            journal.append(modified, deleted);
+            return true;
+        } catch (IOException e) {
+            log.error("Error writing user journal.", e);
+            stats.profileSaveErrors.increment();
+            for (User user : users) {
+                userDao.dirtyUsers.add(user);
             }
+            return false;
         }
+    }
 
+    /**
+     * Saves users journaled since previous snapshot to their files.
+     * Failed users are journaled again before rotated journal is removed.
+     */
+    private List<User> snapshot() throws Exception {
+        if (!journal()) {
+            return Collections.emptyList();
+        }
+        Set<String> names = journal.rotate();
+        List<User> users = new ArrayList<>(names.size());
+        for (String name : names) {
+            User user = userDao.getByName(name);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        List<User> saved = saveParallel(users);
+        if (journal()) {
+            journal.deleteRotated();
+        }
+        return saved;
+    }
+
+    /**
+     * Drains only users queued before run started, so constantly modified users don't keep run forever.
+     */
+    private List<User> drain() {
+        DirtyUserQueue dirtyUsers = userDao.dirtyUsers;
+        int queued = dirtyUsers.size();
+        List<User> users = new ArrayList<>(queued);
+        User user;
+        while (users.size() < queued && (user = dirtyUsers.poll()) != null) {
+            users.add(user);
+        }
         return users;
     }
 
-    public List<User> saveAll() {
-        List<User> users = new ArrayList<>(userDao.getUsers().size());
+    private List<User> saveModified() throws Exception {
+        return saveParallel(drain());
+    }
+
+    private List<User> saveParallel(List<User> users) throws Exception {
+        if (users.isEmpty()) {
+            return users;
+        }
+
+        int partSize = (users.size() + writers - 1) / writers;
+        List<Future<List<User>>> parts = new ArrayList<>(writers);
+        for (int from = 0; from < users.size(); from += partSize) {
+            List<User> part = users.subList(from, Math.min(from + partSize, users.size()));
+            parts.add(writerPool.submit(() -> save(part, true)));
+        }
+
+        List<User> saved = new ArrayList<>(users.size());
+        for (Future<List<User>> part : parts) {
+            saved.addAll(part.get());
+        }
+        fileManager.syncDataDir();
+        return saved;
+    }
 
-        for (User user : userDao.getUsers().values()) {
+    /**
+     * @param retry - in case true, user that failed to save is queued again.
+     */
+    private List<User> save(Collection<User> users, boolean retry) {
+        UserFileBatch batch = fileManager.newBatch();
+        List<User> saved = new ArrayList<>(users.size());
+        for (User user : users) {
+            //deleted or replaced, replaced user is queued by itself
+            if (userDao.getByName(user.name) != user) {
+                continue;
+            }
+            long start = System.nanoTime();
             try {
-                fileManager.overrideUserFile(user);
-                users.add(user);
+                batch.write(user);
+                stats.markProfileSave(System.nanoTime() - start);
+                saved.add(user);
             } catch (IOException e) {
                 log.error("Error saving : {}.", user);
+                failed(user, retry);
             }
         }
+        for (User user : batch.commit()) {
+            saved.remove(user);
+            failed(user, retry);
+        }
+        return saved;
+    }
 
-        return users;
+    private void failed(User user, boolean retry) {
+        stats.profileSaveErrors.increment();
+        if (retry) {
+            userDao.dirtyUsers.add(user);
+        }
+    }
+
+    public synchronized List<User> saveAll() {
+        List<User> saved = save(userDao.getUsers().values(), false);
+        fileManager.syncDataDir();
+        return saved;
     }
 
     @Override
     public void close() {
         run();
+        journal.close();
+        writerPool.shutdown();
+        try {
+            writerPool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for profile writers.");
+        }
     }
 }
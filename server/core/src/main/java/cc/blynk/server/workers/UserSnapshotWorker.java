@@ -0,0 +1,39 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.UserDao;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes consolidated snapshot of all users, so next server start doesn't parse file per user.
+ * Runs periodically and on shutdown. Snapshot is used only in case no profile is saved after it.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class UserSnapshotWorker implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(UserSnapshotWorker.class);
+
+    private final UserDao userDao;
+    private final FileManager fileManager;
+
+    public UserSnapshotWorker(UserDao userDao, FileManager fileManager) {
+        this.userDao = userDao;
+        this.fileManager = fileManager;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long start = System.currentTimeMillis();
+            int count = fileManager.writeSnapshot(userDao.getUsers().values());
+            log.info("Snapshot of {} users written in {} ms.", count, System.currentTimeMillis() - start);
+        } catch (Throwable t) {
+            log.error("Error writing user DB snapshot.", t);
+        }
+    }
+
+}
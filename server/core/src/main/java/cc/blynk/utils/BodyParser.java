@@ -0,0 +1,235 @@
+package cc.blynk.utils;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Response;
+import cc.blynk.server.core.protocol.exceptions.BaseServerException;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Arrays;
+
+/**
+ * Cursor style parser of message bodies, replaces String.split on hot paths.
+ *
+ * Parser only remembers bounds of body parts, so pin type, operation and numbers are read
+ * directly from body chars and nothing is allocated until part is explicitly requested as String.
+ * Instance is reused by all messages of event loop, see {@link #get()}. As result, parsed state is valid
+ * only till next {@link #parse(String)} call within same thread, so it shouldn't be kept.
+ *
+ * For hardware body "vw\01\0100" : part 0 is "vw" (pin type + operation), part 1 is pin, part 2.. are values.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public final class BodyParser {
+
+    private static final FastThreadLocal<BodyParser> PARSERS = new FastThreadLocal<BodyParser>() {
+        @Override
+        protected BodyParser initialValue() {
+            return new BodyParser();
+        }
+    };
+
+    private static final long INVALID = Long.MAX_VALUE;
+    //longer numbers are out of int range anyway
+    private static final int MAX_INT_DIGITS = 10;
+    private static final int MAX_LONG_DIGITS = 19;
+
+    private String body;
+    //start index of every part, end of part is start of next one - 1
+    private int[] starts = new int[8];
+    private int parts;
+    //end of last part, trailing separators are excluded
+    private int bodyEnd;
+    //end of parsed region
+    private int regionEnd;
+
+    public static BodyParser get() {
+        return PARSERS.get();
+    }
+
+    public BodyParser parse(String body) {
+        return parse(body, false);
+    }
+
+    /**
+     * @param spaceIsSeparator - in case true both '\0' and ' ' separate parts.
+     */
+    public BodyParser parse(String body, boolean spaceIsSeparator) {
+        return parse(body, 0, body.length(), spaceIsSeparator);
+    }
+
+    /**
+     * Parses only [from, to) region of body, so sub commands of batch could be parsed without substring.
+     */
+    public BodyParser parse(String body, int from, int to) {
+        return parse(body, from, to, false);
+    }
+
+    private BodyParser parse(String body, int from, int to, boolean spaceIsSeparator) {
+        this.body = body;
+        this.parts = 0;
+        this.regionEnd = to;
+        addPart(from);
+        for (int i = from; i < to; i++) {
+            char c = body.charAt(i);
+            if (c == StringUtils.BODY_SEPARATOR || (spaceIsSeparator && c == ' ')) {
+                addPart(i + 1);
+            }
+        }
+        //trailing empty parts are dropped, same as String.split does
+        bodyEnd = to;
+        while (parts > 1 && starts[parts - 1] == bodyEnd) {
+            bodyEnd = starts[--parts] - 1;
+        }
+        return this;
+    }
+
+    private void addPart(int start) {
+        if (parts == starts.length) {
+            starts = Arrays.copyOf(starts, parts * 2);
+        }
+        starts[parts++] = start;
+    }
+
+    public int parts() {
+        return parts;
+    }
+
+    public int start(int part) {
+        return starts[part];
+    }
+
+    public int end(int part) {
+        return part + 1 < parts ? starts[part + 1] - 1 : bodyEnd;
+    }
+
+    public int length(int part) {
+        return end(part) - start(part);
+    }
+
+    public char charAt(int part, int index) {
+        return body.charAt(starts[part] + index);
+    }
+
+    /**
+     * @return - pin type of hardware body, first char of part 0.
+     */
+    public PinType pinType() {
+        return pinType(0);
+    }
+
+    public PinType pinType(int part) {
+        return PinType.getPinType(charAt(part, 0));
+    }
+
+    /**
+     * @return - operation of hardware body ('w', 'r', 'm'), second char of part 0.
+     */
+    public char operation() {
+        return charAt(0, 1);
+    }
+
+    /**
+     * @return - pin of hardware body, part 1.
+     */
+    public byte pin(int msgId) {
+        return parseByte(1, msgId);
+    }
+
+    public byte parseByte(int part, int msgId) {
+        long pin = parseNumber(part, MAX_INT_DIGITS);
+        if (pin < Byte.MIN_VALUE || pin > Byte.MAX_VALUE) {
+            throw new BaseServerException("Pin is not a number.", msgId, Response.ILLEGAL_COMMAND);
+        }
+        return (byte) pin;
+    }
+
+    public int parseInt(int part, int msgId) {
+        long value = parseNumber(part, MAX_INT_DIGITS);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new BaseServerException(String.format("'%s' not valid number.", part(part)), msgId, Response.ILLEGAL_COMMAND);
+        }
+        return (int) value;
+    }
+
+    public long parseLong(int part, int msgId) {
+        long value = parseNumber(part, MAX_LONG_DIGITS);
+        if (value == INVALID) {
+            //Long.MAX_VALUE is same as INVALID marker, so rare case is left to Long.parseLong
+            try {
+                return Long.parseLong(part(part));
+            } catch (NumberFormatException e) {
+                throw new BaseServerException(String.format("'%s' not valid number.", part(part)), msgId, Response.ILLEGAL_COMMAND);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Same rules as Long.parseLong, but without substring.
+     * Returns {@link #INVALID} for invalid numbers, so callers could validate range only.
+     * Numbers longer than maxDigits or out of long range are treated as invalid.
+     */
+    private long parseNumber(int part, int maxDigits) {
+        int i = start(part);
+        int end = end(part);
+        if (i == end) {
+            return INVALID;
+        }
+        boolean negative = false;
+        char first = body.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == end) {
+                return INVALID;
+            }
+        }
+        if (end - i > maxDigits) {
+            return INVALID;
+        }
+        //accumulated negatively, same as Long.parseLong, so Long.MIN_VALUE is parsed too
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multMin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = body.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < multMin) {
+                return INVALID;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return INVALID;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    public boolean partEquals(int part, String value) {
+        return length(part) == value.length() && body.regionMatches(start(part), value, 0, value.length());
+    }
+
+    public String part(int part) {
+        return body.substring(start(part), end(part));
+    }
+
+    /**
+     * @return - body starting from given part till the end, including separators.
+     */
+    public String from(int part) {
+        return body.substring(start(part), regionEnd);
+    }
+
+    /**
+     * @return - parts starting from given one as separate strings. Used for pin values.
+     */
+    public String[] values(int fromPart) {
+        String[] values = new String[Math.max(0, parts - fromPart)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = part(fromPart + i);
+        }
+        return values;
+    }
+
+}
@@ -2,10 +2,12 @@ package cc.blynk.utils;
 
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareValueMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.util.CharsetUtil;
 
 import static cc.blynk.server.core.protocol.enums.Response.*;
@@ -43,6 +45,17 @@ public class ByteBufUtil {
                 .writeShort(response);
     }
 
+    /**
+     * Response followed by dashId, same as encoded ResponseWithBodyMessage.
+     */
+    public static ByteBuf makeResponse(ChannelHandlerContext ctx, int msgId, int response, int dashId) {
+        return ctx.alloc().ioBuffer(MessageBase.HEADER_LENGTH + 4)
+                .writeByte(Command.RESPONSE)
+                .writeShort(msgId)
+                .writeShort(response)
+                .writeInt(dashId);
+    }
+
     public static ByteBuf makeStringMessage(ChannelHandlerContext ctx, short cmd, int msgId, String data) {
         return makeBinaryMessage(ctx.alloc(), cmd, msgId, data.getBytes(CharsetUtil.UTF_8));
     }
@@ -51,6 +64,68 @@ public class ByteBufUtil {
         return makeBinaryMessage(channel.alloc(), cmd, msgId, data.getBytes(CharsetUtil.UTF_8));
     }
 
+    /**
+     * Creates message with body prefix + body. Body bytes are copied as is, without any decoding.
+     */
+    public static ByteBuf makeForwardedMessage(Channel channel, short cmd, int msgId, byte[] prefix, ByteBuf body) {
+        int bodyLength = body.readableBytes();
+        return channel.alloc().ioBuffer(MessageBase.HEADER_LENGTH + prefix.length + bodyLength)
+                .writeByte(cmd)
+                .writeShort(msgId)
+                .writeShort(prefix.length + bodyLength)
+                .writeBytes(prefix)
+                .writeBytes(body, body.readerIndex(), bodyLength);
+    }
+
+    /**
+     * Creates compact value message for apps, body is varint dashId + value body.
+     */
+    public static ByteBuf makeValueMessage(Channel channel, int msgId, int dashId, HardwareValueMessage value) {
+        int bodyLength = varLongSize(dashId) + value.length;
+        ByteBuf msg = channel.alloc().ioBuffer(MessageBase.HEADER_LENGTH + bodyLength)
+                .writeByte(Command.HARDWARE_VALUE)
+                .writeShort(msgId)
+                .writeShort(bodyLength);
+        writeVarLong(msg, dashId);
+        value.writeBody(msg);
+        return msg;
+    }
+
+    /**
+     * Writes unsigned varint, 7 bits per byte, least significant group first.
+     */
+    public static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * @throws CorruptedFrameException in case varint is truncated or longer than 10 bytes.
+     */
+    public static long readVarLong(ByteBuf in) {
+        long result = 0;
+        for (int shift = 0; shift < 64 && in.isReadable(); shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varint.");
+    }
+
+    public static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
     public static ByteBuf makeBinaryMessage(ChannelHandlerContext ctx, short cmd, int msgId, byte[] byteData) {
         return makeBinaryMessage(ctx.alloc(), cmd, msgId, byteData);
     }
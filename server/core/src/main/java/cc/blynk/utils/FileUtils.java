@@ -1,6 +1,12 @@
 package cc.blynk.utils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * The Blynk Project.
@@ -17,4 +23,21 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Replaces file content with given data. Data is written and fsynced to temp file
+     * first and after that temp file is atomically moved over target, so readers
+     * always see either old or new content.
+     */
+    public static void writeAtomically(Path path, ByteBuffer data) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
 }
@@ -101,6 +101,10 @@ public final class JsonParser {
         return userReader.readValue(userFile);
     }
 
+    public static User parseUser(byte[] data, int offset, int length) throws IOException {
+        return userReader.readValue(data, offset, length);
+    }
+
     public static DashBoard parseDashboard(String reader, int id) {
         try {
             return dashboardReader.readValue(reader);
@@ -1,17 +1,20 @@
 package cc.blynk.utils;
 
+import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationMap;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Blynk Project.
@@ -21,32 +24,72 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ReportingUtil {
 
     public static final byte[] EMPTY_ARRAY = {};
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+    private static final PinType[] PIN_TYPES = PinType.values();
     private final static Logger log = LogManager.getLogger(ReportingUtil.class);
 
     public static String getReportingFolder(String dataFolder) {
         return Paths.get(dataFolder, "data").toString();
     }
 
-    public static ConcurrentHashMap<AggregationKey, AggregationValue> read(Path path) {
+    /**
+     * Binary search over reporting file records. Records are appended in time order,
+     * so file is sorted by timestamp.
+     *
+     * @param records - number of 16 bytes records within file.
+     * @param tsBuf - 8 bytes buffer, reused between calls.
+     * @return - index of first record with timestamp greater or equal to ts.
+     */
+    public static long lowerBound(FileChannel channel, long records, long ts, ByteBuffer tsBuf) throws IOException {
+        long low = 0;
+        long high = records;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            tsBuf.clear();
+            channel.read(tsBuf, mid * ByteUtils.REPORTING_RECORD_SIZE_BYTES + 8);
+            if (tsBuf.getLong(0) < ts) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads aggregation temp file of previous server versions into map.
+     * Files created with java serialization are supported as well.
+     */
+    public static void read(Path path, AggregationMap map) {
         if (Files.exists(path)) {
-            try (InputStream is = Files.newInputStream(path);
-                 ObjectInputStream objectinputstream = new ObjectInputStream(is)) {
-                return (ConcurrentHashMap<AggregationKey, AggregationValue>) objectinputstream.readObject();
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                dis.mark(2);
+                if (dis.readUnsignedShort() == JAVA_SERIALIZATION_MAGIC) {
+                    dis.reset();
+                    readLegacy(dis, map);
+                    return;
+                }
+                dis.reset();
+
+                int size = dis.readInt();
+                for (int i = 0; i < size; i++) {
+                    AggregationKey key = new AggregationKey(dis.readUTF(), dis.readInt(),
+                            PIN_TYPES[dis.readByte()], dis.readByte(), dis.readLong());
+                    map.merge(key, new AggregationValue(dis.readDouble(), dis.readLong()));
+                }
             } catch (Exception e) {
                 log.error(e);
             }
         }
-
-        return new ConcurrentHashMap<>();
     }
 
-    public static void write(Path path, Map<AggregationKey, AggregationValue> map) {
-        if (map.size() > 0) {
-            try (OutputStream os = Files.newOutputStream(path);
-                 ObjectOutputStream oos = new ObjectOutputStream(os)) {
-                oos.writeObject(map);
-            } catch (Exception e) {
-                log.error(e);
+    @SuppressWarnings("unchecked")
+    private static void readLegacy(InputStream is, AggregationMap map) throws Exception {
+        try (ObjectInputStream objectinputstream = new ObjectInputStream(is)) {
+            Map<AggregationKey, AggregationValue> legacy =
+                    (Map<AggregationKey, AggregationValue>) objectinputstream.readObject();
+            for (Map.Entry<AggregationKey, AggregationValue> entry : legacy.entrySet()) {
+                map.merge(entry.getKey(), entry.getValue());
             }
         }
     }
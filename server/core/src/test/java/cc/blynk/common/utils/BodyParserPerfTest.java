@@ -0,0 +1,66 @@
+package cc.blynk.common.utils;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.utils.BodyParser;
+import cc.blynk.utils.ParseUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares String.split based parsing of hardware write command with {@link BodyParser}.
+ * Run with -prof gc to see allocation rate per operation.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class BodyParserPerfTest {
+
+    @Param({"vw 1 2", "aw 100 200", "vw 10 123.45 678.9 -1"})
+    public String s;
+
+    @Setup
+    public void setup() {
+        s = s.replaceAll(" ", "\0");
+    }
+
+    @Benchmark
+    public void split(Blackhole bh) {
+        String[] split = s.split("\0");
+        bh.consume(PinType.getPinType(split[0].charAt(0)));
+        bh.consume(ParseUtil.parseByte(split[1], 1));
+        bh.consume(Arrays.copyOfRange(split, 2, split.length));
+    }
+
+    @Benchmark
+    public void bodyParser(Blackhole bh) {
+        BodyParser parser = BodyParser.get().parse(s);
+        bh.consume(parser.pinType());
+        bh.consume(parser.pin(1));
+        bh.consume(parser.values(2));
+    }
+
+    @Benchmark
+    public void splitPinOnly(Blackhole bh) {
+        String[] split = s.split("\0");
+        bh.consume(PinType.getPinType(split[0].charAt(0)));
+        bh.consume(ParseUtil.parseByte(split[1], 1));
+    }
+
+    @Benchmark
+    public void bodyParserPinOnly(Blackhole bh) {
+        BodyParser parser = BodyParser.get().parse(s);
+        bh.consume(parser.pinType());
+        bh.consume(parser.pin(1));
+    }
+
+}
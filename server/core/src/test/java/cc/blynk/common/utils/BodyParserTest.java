@@ -0,0 +1,84 @@
+package cc.blynk.common.utils;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.exceptions.BaseServerException;
+import cc.blynk.utils.BodyParser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class BodyParserTest {
+
+    @Test
+    public void testPartsSameAsSplit() {
+        String[] bodies = {"vw 1 100", "vw 1 100  ", "vw 1  100", "ar 1", "1", "", " vw 1", "vw 1 1 2 3 4 5 6 7 8 9 10"};
+        for (String in : bodies) {
+            String body = in.replaceAll(" ", "\0");
+            BodyParser parser = BodyParser.get().parse(body);
+            assertArrayEquals(body, body.split("\0"), parser.values(0));
+            assertEquals(body.split("\0", 2)[0], parser.part(0));
+            if (parser.parts() > 1) {
+                assertEquals(body.split("\0", 2)[1], parser.from(1));
+            }
+        }
+    }
+
+    @Test
+    public void testHardwareBody() {
+        BodyParser parser = BodyParser.get().parse("vw -12 1.5 abc".replaceAll(" ", "\0"));
+        assertEquals(PinType.VIRTUAL, parser.pinType());
+        assertEquals('w', parser.operation());
+        assertEquals(-12, parser.pin(1));
+        assertArrayEquals(new String[] {"1.5", "abc"}, parser.values(2));
+        assertTrue(parser.partEquals(3, "abc"));
+        assertFalse(parser.partEquals(3, "ab"));
+    }
+
+    @Test
+    public void testNumbers() {
+        BodyParser parser = BodyParser.get().parse("1 2147483647 -2147483648 2147483648 1486549000000 1a", true);
+        assertEquals(1, parser.parseInt(0, 1));
+        assertEquals(Integer.MAX_VALUE, parser.parseInt(1, 1));
+        assertEquals(Integer.MIN_VALUE, parser.parseInt(2, 1));
+        assertEquals(1486549000000L, parser.parseLong(4, 1));
+        assertInvalid(parser, 3);
+        assertInvalid(parser, 5);
+    }
+
+    @Test
+    public void testLongs() {
+        BodyParser parser = BodyParser.get().parse("9223372036854775807 -9223372036854775808 1234567890123456789 "
+                + "9223372036854775808 -9223372036854775809 12345678901234567890", true);
+        assertEquals(Long.MAX_VALUE, parser.parseLong(0, 1));
+        assertEquals(Long.MIN_VALUE, parser.parseLong(1, 1));
+        assertEquals(1234567890123456789L, parser.parseLong(2, 1));
+        for (int part = 3; part < 6; part++) {
+            try {
+                parser.parseLong(part, 1);
+                fail();
+            } catch (BaseServerException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test(expected = BaseServerException.class)
+    public void testPinOutOfRange() {
+        BodyParser.get().parse("vw 128 1".replaceAll(" ", "\0")).pin(1);
+    }
+
+    private static void assertInvalid(BodyParser parser, int part) {
+        try {
+            parser.parseInt(part, 1);
+            fail();
+        } catch (BaseServerException e) {
+            //expected
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package cc.blynk.server.core;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class GraphReadProcessorTest {
+
+    @Test
+    public void testRequestsAboveQueueLimitRejected() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        GraphReadProcessor processor = new GraphReadProcessor(1, 1, stats);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable task = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+
+        assertTrue(processor.execute(task));
+        assertTrue(processor.execute(task));
+        assertFalse(processor.execute(task));
+        assertEquals(1, stats.graphReadRejected.sum());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        processor.close();
+
+        //latency is recorded right after task completion
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stats.graphReads.sum() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, stats.graphReads.sum());
+        assertTrue(stats.graphReadMaxLatency.get() > 0);
+    }
+
+}
@@ -0,0 +1,245 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class PinStateDaoTest {
+
+    private Path dataDir;
+
+    private static User user(String name) {
+        Button button = new Button();
+        button.pin = 1;
+        button.pinType = PinType.VIRTUAL;
+
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        dash.widgets = new Widget[] {button};
+
+        User user = new User(name, "pass");
+        user.profile.dashBoards = new DashBoard[] {dash};
+        return user;
+    }
+
+    private static Map<String, User> users(User... users) {
+        Map<String, User> result = new HashMap<>();
+        for (User user : users) {
+            result.put(user.name, user);
+        }
+        return result;
+    }
+
+    private static String value(User user) {
+        return ((Button) user.profile.dashBoards[0].widgets[0]).value;
+    }
+
+    @Before
+    public void init() throws Exception {
+        dataDir = Files.createTempDirectory("pin_state");
+    }
+
+    @After
+    public void clean() throws Exception {
+        Files.deleteIfExists(dataDir.resolve(PinStateDao.PIN_STATE_FILE_NAME));
+        Files.deleteIfExists(dataDir);
+    }
+
+    @Test
+    public void testValuesRestoredWithoutProfileUpdate() {
+        User user = user("test@test.com");
+        DashBoard dash = user.profile.dashBoards[0];
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 10);
+        pinStateDao.update(user, dash, (byte) 1, PinType.VIRTUAL, new String[] {"100"});
+        pinStateDao.update(user, dash, (byte) 1, PinType.VIRTUAL, new String[] {"101"});
+        //no widget for pin
+        pinStateDao.update(user, dash, (byte) 2, PinType.VIRTUAL, new String[] {"1"});
+        pinStateDao.close();
+
+        assertEquals("101", value(user));
+        assertEquals(0, dash.updatedAt);
+        assertEquals(1, pinStateDao.size());
+
+        User restored = user("test@test.com");
+        pinStateDao = new PinStateDao(dataDir, 10);
+        pinStateDao.restore(users(restored));
+        pinStateDao.close();
+
+        assertEquals("101", value(restored));
+        assertEquals(1, pinStateDao.size());
+    }
+
+    @Test
+    public void testValueNotFittingSlotStoredInProfile() {
+        User user = user("test@test.com");
+        DashBoard dash = user.profile.dashBoards[0];
+
+        char[] longValue = new char[PinStateDao.SLOT_SIZE];
+        Arrays.fill(longValue, 'a');
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 10);
+        pinStateDao.update(user, dash, (byte) 1, PinType.VIRTUAL, new String[] {new String(longValue)});
+        pinStateDao.close();
+
+        assertEquals(0, pinStateDao.size());
+        assertTrue(dash.updatedAt > 0);
+    }
+
+    @Test
+    public void testStoredValueReleasedWhenNewValueDoesntFit() {
+        User user = user("test@test.com");
+        DashBoard dash = user.profile.dashBoards[0];
+
+        char[] longValue = new char[PinStateDao.SLOT_SIZE];
+        Arrays.fill(longValue, 'a');
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 10);
+        pinStateDao.update(user, dash, (byte) 1, PinType.VIRTUAL, new String[] {"1"});
+        pinStateDao.update(user, dash, (byte) 1, PinType.VIRTUAL, new String[] {new String(longValue)});
+        pinStateDao.close();
+
+        assertEquals(0, pinStateDao.size());
+        assertTrue(dash.updatedAt > 0);
+
+        //profile saved with long value, stale stored value shouldn't override it
+        User restored = user("test@test.com");
+        ((Button) restored.profile.dashBoards[0].widgets[0]).value = new String(longValue);
+        pinStateDao = new PinStateDao(dataDir, 10);
+        pinStateDao.restore(users(restored));
+        pinStateDao.close();
+
+        assertEquals(new String(longValue), value(restored));
+        assertEquals(0, pinStateDao.size());
+    }
+
+    @Test
+    public void testNoFreeSlotStoredInProfile() {
+        User user1 = user("1");
+        User user2 = user("2");
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 1);
+        pinStateDao.update(user1, user1.profile.dashBoards[0], (byte) 1, PinType.VIRTUAL, new String[] {"1"});
+        pinStateDao.update(user2, user2.profile.dashBoards[0], (byte) 1, PinType.VIRTUAL, new String[] {"2"});
+
+        assertEquals(0, user1.profile.dashBoards[0].updatedAt);
+        assertTrue(user2.profile.dashBoards[0].updatedAt > 0);
+
+        //slot of removed dash is reused
+        pinStateDao.remove(user1, 1);
+        user2.profile.dashBoards[0].updatedAt = 0;
+        pinStateDao.update(user2, user2.profile.dashBoards[0], (byte) 1, PinType.VIRTUAL, new String[] {"3"});
+        pinStateDao.close();
+
+        assertEquals(0, user2.profile.dashBoards[0].updatedAt);
+
+        User restored1 = user("1");
+        User restored2 = user("2");
+        pinStateDao = new PinStateDao(dataDir, 1);
+        pinStateDao.restore(users(restored1, restored2));
+        pinStateDao.close();
+
+        assertNull(value(restored1));
+        assertEquals("3", value(restored2));
+    }
+
+    @Test
+    public void testSlotsOfRemovedUsersReleasedOnRestore() {
+        User user1 = user("1");
+        User user2 = user("2");
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 2);
+        pinStateDao.update(user1, user1.profile.dashBoards[0], (byte) 1, PinType.VIRTUAL, new String[] {"1"});
+        pinStateDao.update(user2, user2.profile.dashBoards[0], (byte) 1, PinType.VIRTUAL, new String[] {"2"});
+        pinStateDao.close();
+
+        User restored2 = user("2");
+        pinStateDao = new PinStateDao(dataDir, 2);
+        pinStateDao.restore(users(restored2));
+        assertEquals(1, pinStateDao.size());
+        assertEquals("2", value(restored2));
+
+        User user3 = user("3");
+        pinStateDao.update(user3, user3.profile.dashBoards[0], (byte) 1, PinType.VIRTUAL, new String[] {"3"});
+        pinStateDao.close();
+        assertEquals(0, user3.profile.dashBoards[0].updatedAt);
+    }
+
+    @Test
+    public void testSlotsOfDeletedUserReleased() {
+        User user = user("1");
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 1);
+        pinStateDao.update(user, user.profile.dashBoards[0], (byte) 1, PinType.VIRTUAL, new String[] {"1"});
+        pinStateDao.remove(user.name);
+        assertEquals(0, pinStateDao.size());
+        pinStateDao.close();
+
+        //account registered again with same name
+        User registered = user("1");
+        pinStateDao = new PinStateDao(dataDir, 1);
+        pinStateDao.restore(users(registered));
+        pinStateDao.close();
+
+        assertNull(value(registered));
+        assertEquals(0, pinStateDao.size());
+    }
+
+    @Test
+    public void testSlotOfDeletedWidgetReleased() {
+        User user = user("1");
+        DashBoard dash = user.profile.dashBoards[0];
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 1);
+        pinStateDao.update(user, dash, (byte) 1, PinType.VIRTUAL, new String[] {"1"});
+        pinStateDao.removeUnused(user, dash);
+        assertEquals(1, pinStateDao.size());
+
+        dash.widgets = new Widget[0];
+        pinStateDao.removeUnused(user, dash);
+        assertEquals(0, pinStateDao.size());
+        pinStateDao.close();
+
+        //new widget on same pin
+        User restored = user("1");
+        pinStateDao = new PinStateDao(dataDir, 1);
+        pinStateDao.restore(users(restored));
+        pinStateDao.close();
+
+        assertNull(value(restored));
+    }
+
+    @Test
+    public void testDisabledStoreUsesProfile() {
+        User user = user("test@test.com");
+        DashBoard dash = user.profile.dashBoards[0];
+
+        PinStateDao pinStateDao = new PinStateDao(dataDir, 0);
+        pinStateDao.update(user, dash, (byte) 1, PinType.VIRTUAL, new String[] {"1"});
+        pinStateDao.restore(users(user));
+        pinStateDao.close();
+
+        assertEquals("1", value(user));
+        assertTrue(dash.updatedAt > 0);
+        assertFalse(Files.exists(dataDir.resolve(PinStateDao.PIN_STATE_FILE_NAME)));
+    }
+
+}
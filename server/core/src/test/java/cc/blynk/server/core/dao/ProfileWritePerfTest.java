@@ -0,0 +1,90 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cost of one save cycle of modified profiles : old in place rewrite (not crash safe),
+ * atomic rename with fsync per profile and {@link UserFileBatch} group commit.
+ * Uses java.io.tmpdir, so run it with tmpdir on disk, not tmpfs.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ProfileWritePerfTest {
+
+    @Param({"100", "1000"})
+    public int usersNumber;
+
+    private FileManager fileManager;
+    private User[] users;
+
+    @Setup
+    public void setup() throws IOException {
+        fileManager = new FileManager(Files.createTempDirectory("profile_write").toString());
+        users = new User[usersNumber];
+        for (int i = 0; i < usersNumber; i++) {
+            User user = new User("user" + i + "@blynk.cc", "pass");
+            DashBoard dash = new DashBoard();
+            dash.id = 1;
+            dash.name = "My Dashboard";
+            user.profile.dashBoards = new DashBoard[] {dash};
+            users[i] = user;
+        }
+    }
+
+    @TearDown
+    public void clean() {
+        File[] files = fileManager.getDataDir().toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        fileManager.getDataDir().toFile().delete();
+    }
+
+    @Benchmark
+    public void inPlace() throws IOException {
+        for (User user : users) {
+            Path file = fileManager.generateFileName(user.name);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, CharsetUtil.UTF_8)) {
+                writer.write(user.toString());
+            }
+        }
+    }
+
+    @Benchmark
+    public void atomicEach() throws IOException {
+        for (User user : users) {
+            fileManager.overrideUserFile(user);
+        }
+    }
+
+    @Benchmark
+    public void groupCommit() throws IOException {
+        UserFileBatch batch = fileManager.newBatch();
+        for (User user : users) {
+            batch.write(user);
+        }
+        batch.commit();
+        fileManager.syncDataDir();
+    }
+
+}
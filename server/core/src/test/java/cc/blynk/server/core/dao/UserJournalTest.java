@@ -0,0 +1,158 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class UserJournalTest {
+
+    private Path dataDir;
+    private FileManager fileManager;
+
+    @Before
+    public void init() throws Exception {
+        dataDir = Files.createTempDirectory("user_journal");
+        fileManager = new FileManager(dataDir.toString());
+    }
+
+    @After
+    public void clean() throws Exception {
+        File[] files = dataDir.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Files.deleteIfExists(dataDir);
+    }
+
+    private UserJournal open(boolean enabled) {
+        UserJournal journal = new UserJournal(dataDir, enabled);
+        journal.open(fileManager.deserialize(), fileManager);
+        return journal;
+    }
+
+    private Path journalFile(long seq) {
+        return dataDir.resolve(UserJournal.JOURNAL_FILE_PREFIX + seq);
+    }
+
+    @Test
+    public void testJournalReplayedOnOpen() throws Exception {
+        User deleted = new User("deleted", "pass");
+        fileManager.overrideUserFile(deleted);
+
+        UserJournal journal = open(true);
+        User user = new User("test@test.com", "pass");
+        user.purchaseEnergy(100);
+        journal.append(Collections.singletonList(user), Collections.emptyList());
+        user.purchaseEnergy(100);
+        journal.append(Collections.singletonList(user), Collections.singletonList(deleted.name));
+        //crash, no snapshot
+
+        ConcurrentMap<String, User> users = fileManager.deserialize();
+        assertNull(users.get(user.name));
+
+        UserJournal reopened = new UserJournal(dataDir, true);
+        assertEquals(3, reopened.open(users, fileManager));
+        reopened.close();
+
+        assertEquals(user.getEnergy(), users.get(user.name).getEnergy());
+        assertNull(users.get(deleted.name));
+        assertFalse(Files.exists(journalFile(0)));
+        //replayed profiles are saved to files
+        users = fileManager.deserialize();
+        assertEquals(user.getEnergy(), users.get(user.name).getEnergy());
+        assertNull(users.get(deleted.name));
+    }
+
+    @Test
+    public void testTornRecordSkipped() throws Exception {
+        UserJournal journal = open(true);
+        User user1 = new User("1", "pass");
+        User user2 = new User("2", "pass");
+        journal.append(Collections.singletonList(user1), Collections.emptyList());
+        journal.append(Collections.singletonList(user2), Collections.emptyList());
+        journal.close();
+
+        Path file = journalFile(0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        ConcurrentMap<String, User> users = fileManager.deserialize();
+        assertEquals(1, new UserJournal(dataDir, false).open(users, fileManager));
+        assertNotNull(users.get(user1.name));
+        assertNull(users.get(user2.name));
+    }
+
+    @Test
+    public void testRotatedJournalDeleted() throws Exception {
+        UserJournal journal = open(true);
+        User user1 = new User("1", "pass");
+        User user2 = new User("2", "pass");
+        journal.append(Collections.singletonList(user1), Collections.emptyList());
+
+        Set<String> names = journal.rotate();
+        assertEquals(Collections.singleton(user1.name), names);
+        journal.append(Collections.singletonList(user2), Collections.emptyList());
+
+        fileManager.overrideUserFile(user1);
+        journal.deleteRotated();
+        journal.close();
+
+        assertFalse(Files.exists(journalFile(0)));
+        assertTrue(Files.exists(journalFile(1)));
+    }
+
+    @Test
+    public void testRecordsOlderThanSavedProfileSkipped() throws Exception {
+        UserJournal journal = open(true);
+        User user = new User("test@test.com", "pass");
+        User deleted = new User("deleted", "pass");
+        user.lastModifiedTs = 1;
+        journal.append(Collections.singletonList(user), Collections.singletonList(deleted.name));
+        journal.rotate();
+
+        //crash after snapshot saved newer profiles, before rotated journal removed
+        user.purchaseEnergy(100);
+        user.lastModifiedTs = 2;
+        deleted.lastModifiedTs = System.currentTimeMillis() + 60_000;
+        fileManager.overrideUserFile(user);
+        fileManager.overrideUserFile(deleted);
+        journal.close();
+
+        ConcurrentMap<String, User> users = fileManager.deserialize();
+        assertEquals(2, new UserJournal(dataDir, false).open(users, fileManager));
+        assertEquals(user.getEnergy(), users.get(user.name).getEnergy());
+        assertNotNull(users.get(deleted.name));
+        assertFalse(Files.exists(journalFile(0)));
+    }
+
+    @Test
+    public void testDisabledJournalNotCreated() throws Exception {
+        UserJournal journal = open(false);
+        journal.close();
+
+        File[] files = dataDir.toFile().listFiles();
+        assertNotNull(files);
+        assertEquals(0, files.length);
+    }
+
+}
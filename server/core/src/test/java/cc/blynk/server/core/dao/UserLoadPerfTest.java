@@ -0,0 +1,84 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares server start reading user file per user with reading consolidated snapshot,
+ * both followed by token caches construction.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class UserLoadPerfTest {
+
+    @Param({"10000", "50000"})
+    public int usersNumber;
+
+    private FileManager fileManager;
+
+    @Setup
+    public void setup() throws IOException {
+        fileManager = new FileManager(Files.createTempDirectory("user_load").toString());
+        List<User> users = new ArrayList<>(usersNumber);
+        UserFileBatch batch = fileManager.newBatch();
+        for (int i = 0; i < usersNumber; i++) {
+            User user = new User("user" + i + "@blynk.cc", "pass");
+            DashBoard[] dashes = new DashBoard[2];
+            for (int dashId = 0; dashId < dashes.length; dashId++) {
+                Button button = new Button();
+                button.pin = 1;
+                DashBoard dash = new DashBoard();
+                dash.id = dashId;
+                dash.name = "My Dashboard";
+                dash.widgets = new Widget[] {button};
+                dashes[dashId] = dash;
+                user.putToken(dashId, "token" + i + "_" + dashId, user.dashTokens);
+            }
+            user.profile.dashBoards = dashes;
+            batch.write(user);
+            users.add(user);
+        }
+        batch.commit();
+        fileManager.writeSnapshot(users);
+    }
+
+    @TearDown
+    public void clean() {
+        File[] files = fileManager.getDataDir().toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        fileManager.getDataDir().toFile().delete();
+    }
+
+    @Benchmark
+    public UserDao files() {
+        return new UserDao(fileManager.deserializeFiles());
+    }
+
+    @Benchmark
+    public UserDao snapshot() {
+        return new UserDao(fileManager.deserializeSnapshot());
+    }
+
+}
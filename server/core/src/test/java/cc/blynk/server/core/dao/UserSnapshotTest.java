@@ -0,0 +1,99 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class UserSnapshotTest {
+
+    private Path dataDir;
+    private FileManager fileManager;
+
+    @Before
+    public void init() throws Exception {
+        dataDir = Files.createTempDirectory("user_snapshot");
+        fileManager = new FileManager(dataDir.toString());
+    }
+
+    @After
+    public void clean() throws Exception {
+        File[] files = dataDir.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Files.deleteIfExists(dataDir);
+    }
+
+    private Path snapshotFile() {
+        return dataDir.resolve(FileManager.SNAPSHOT_FILE_NAME);
+    }
+
+    @Test
+    public void testSnapshotReadInsteadOfFiles() throws Exception {
+        User user1 = new User("1", "pass");
+        User user2 = new User("2", "pass");
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+
+        //not saved to file yet
+        user1.purchaseEnergy(100);
+        assertEquals(2, fileManager.writeSnapshot(Arrays.asList(user1, user2)));
+
+        Map<String, User> users = new FileManager(dataDir.toString()).deserialize();
+        assertEquals(2, users.size());
+        assertEquals(user1.getEnergy(), users.get(user1.name).getEnergy());
+    }
+
+    @Test
+    public void testSnapshotRemovedOnProfileSave() throws Exception {
+        User user = new User("1", "pass");
+        fileManager.writeSnapshot(Arrays.asList(user));
+        assertTrue(Files.exists(snapshotFile()));
+
+        UserFileBatch batch = fileManager.newBatch();
+        batch.write(user);
+        batch.commit();
+        assertFalse(Files.exists(snapshotFile()));
+
+        fileManager.writeSnapshot(Arrays.asList(user));
+        fileManager.delete(user.name);
+        assertFalse(Files.exists(snapshotFile()));
+        assertTrue(new FileManager(dataDir.toString()).deserialize().isEmpty());
+    }
+
+    @Test
+    public void testBrokenSnapshotFallsBackToFiles() throws Exception {
+        User user1 = new User("1", "pass");
+        User user2 = new User("2", "pass");
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+        fileManager.writeSnapshot(Arrays.asList(user1, user2));
+
+        try (FileChannel channel = FileChannel.open(snapshotFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        Map<String, User> users = new FileManager(dataDir.toString()).deserialize();
+        assertEquals(2, users.size());
+        assertFalse(Files.exists(snapshotFile()));
+    }
+
+}
@@ -0,0 +1,270 @@
+package cc.blynk.server.core.model.auth;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareValueMessage;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.core.session.StateHolder;
+import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
+import cc.blynk.utils.ServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class SessionTest {
+
+    private static ResourceLeakDetector.Level level;
+    private static final ServerProperties props = new ServerProperties();
+
+    @BeforeClass
+    public static void init() {
+        level = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    }
+
+    @AfterClass
+    public static void restore() {
+        ResourceLeakDetector.setLevel(level);
+    }
+
+    private static EmbeddedChannel hardChannel(int dashId) {
+        return channel(new HardwareStateHolder(dashId, new User("test", "pass"), "token"));
+    }
+
+    private static EmbeddedChannel channel(StateHolder state) {
+        return new EmbeddedChannel(new BaseSimpleChannelInboundHandler<MessageBase>(props, null, state) {
+            @Override
+            protected void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+            }
+        });
+    }
+
+    private static List<ByteBuf> readAll(EmbeddedChannel... channels) {
+        List<ByteBuf> result = new ArrayList<>();
+        for (EmbeddedChannel channel : channels) {
+            Object msg;
+            while ((msg = channel.readOutbound()) != null) {
+                result.add((ByteBuf) msg);
+            }
+        }
+        return result;
+    }
+
+    private static void assertBody(ByteBuf buf, short cmd, String body) {
+        assertEquals(cmd, buf.readUnsignedByte());
+        assertEquals(1, buf.readUnsignedShort());
+        assertEquals(body.length(), buf.readUnsignedShort());
+        assertEquals(body, buf.toString(CharsetUtil.UTF_8));
+    }
+
+    //duplicates share reference count, so content is freed with the last written one
+    private static void releaseAndCheck(List<ByteBuf> bufs) {
+        for (int i = 0; i < bufs.size(); i++) {
+            assertEquals(i == bufs.size() - 1, bufs.get(i).release());
+        }
+        for (ByteBuf buf : bufs) {
+            assertEquals(0, buf.refCnt());
+        }
+    }
+
+    @Test
+    public void testAppsShareOneEncodedBuffer() {
+        Session session = new Session(null);
+        EmbeddedChannel app1 = new EmbeddedChannel();
+        EmbeddedChannel app2 = new EmbeddedChannel();
+        EmbeddedChannel closed = new EmbeddedChannel();
+        session.addAppChannel(app1);
+        session.addAppChannel(app2);
+        session.getAppChannels().add(closed);
+        closed.close();
+
+        session.sendToApps(Command.HARDWARE, 1, "1\0vw\01\0100");
+
+        List<ByteBuf> written = readAll(app1, app2, closed);
+        assertEquals(2, written.size());
+        //same content for all channels, but own indexes
+        assertEquals(written.get(0).unwrap(), written.get(1).unwrap());
+        assertBody(written.get(0), Command.HARDWARE, "1\0vw\01\0100");
+        assertBody(written.get(1), Command.HARDWARE, "1\0vw\01\0100");
+        releaseAndCheck(written);
+    }
+
+    @Test
+    public void testForwardedBodyEncodedOnce() {
+        Session session = new Session(null);
+        EmbeddedChannel app1 = new EmbeddedChannel();
+        EmbeddedChannel app2 = new EmbeddedChannel();
+        session.addAppChannel(app1);
+        session.addAppChannel(app2);
+
+        ByteBuf body = Unpooled.copiedBuffer("vw\0" + "1\0" + "100", CharsetUtil.UTF_8);
+        session.sendToApps(Command.HARDWARE, 1, 10, body);
+        assertEquals(1, body.refCnt());
+        body.release();
+
+        List<ByteBuf> written = readAll(app1, app2);
+        assertEquals(2, written.size());
+        assertBody(written.get(0), Command.HARDWARE, "10\0vw\0" + "1\0" + "100");
+        assertBody(written.get(1), Command.HARDWARE, "10\0vw\0" + "1\0" + "100");
+        releaseAndCheck(written);
+    }
+
+    @Test
+    public void testBinaryValueSentInFormSupportedByApp() {
+        Session session = new Session(null);
+        EmbeddedChannel binaryApp = channel(new HardwareStateHolder(1, new User("test", "pass"), "token", true));
+        EmbeddedChannel textApp1 = new EmbeddedChannel();
+        EmbeddedChannel textApp2 = new EmbeddedChannel();
+        session.addAppChannel(binaryApp);
+        session.addAppChannel(textApp1);
+        session.addAppChannel(textApp2);
+
+        HardwareValueMessage value = new HardwareValueMessage(1, PinType.VIRTUAL, (byte) 5, 42L);
+        session.sendToApps(1, 10, value);
+
+        ByteBuf binary = (ByteBuf) binaryApp.readOutbound();
+        assertEquals(Command.HARDWARE_VALUE, binary.readUnsignedByte());
+        assertEquals(1, binary.readUnsignedShort());
+        //varint dashId + pin type + pin + encoding + varint value
+        assertEquals(5, binary.readUnsignedShort());
+        assertEquals(10, binary.readByte());
+        assertEquals('v', binary.readByte());
+        assertEquals(5, binary.readByte());
+        assertEquals(HardwareValueMessage.VARINT, binary.readByte());
+        assertEquals(84, binary.readByte());
+        assertTrue(binary.release());
+
+        List<ByteBuf> written = readAll(textApp1, textApp2);
+        assertEquals(2, written.size());
+        assertBody(written.get(0), Command.HARDWARE, "10\0vw\0" + "5\0" + "42");
+        assertBody(written.get(1), Command.HARDWARE, "10\0vw\0" + "5\0" + "42");
+        releaseAndCheck(written);
+    }
+
+    @Test
+    public void testHardwareOfActiveDashOnly() {
+        Session session = new Session(null);
+        EmbeddedChannel hard1 = hardChannel(1);
+        EmbeddedChannel hard2 = hardChannel(1);
+        EmbeddedChannel otherDash = hardChannel(2);
+        session.addHardChannel(hard1);
+        session.addHardChannel(hard2);
+        session.addHardChannel(otherDash);
+
+        assertFalse(session.sendMessageToHardware(1, Command.HARDWARE, 1, "vw\0" + "1\0" + "1"));
+        assertNull(otherDash.readOutbound());
+
+        List<ByteBuf> written = readAll(hard1, hard2);
+        assertEquals(2, written.size());
+        assertBody(written.get(0), Command.HARDWARE, "vw\0" + "1\0" + "1");
+        releaseAndCheck(written);
+
+        //nothing is allocated when there is no receiver
+        assertTrue(session.sendMessageToHardware(3, Command.HARDWARE, 1, "vw\0" + "1\0" + "1"));
+    }
+
+    @Test
+    public void testHardwareIndexedByDashAndToken() {
+        Session session = new Session(null);
+        EmbeddedChannel hard1 = channel(new HardwareStateHolder(1, new User("test", "pass"), "token1"));
+        EmbeddedChannel hard2 = channel(new HardwareStateHolder(1, new User("test", "pass"), "token2"));
+        EmbeddedChannel hard3 = channel(new HardwareStateHolder(2, new User("test", "pass"), "token2"));
+        session.addHardChannel(hard1);
+        session.addHardChannel(hard2);
+        session.addHardChannel(hard3);
+        session.addHardChannel(hard3);
+
+        assertArrayEquals(new Channel[] {hard1, hard2}, session.getHardwareChannels(1));
+        assertArrayEquals(new Channel[] {hard2, hard3}, session.getHardwareChannelsByToken("token2"));
+        assertTrue(session.isHardwareConnected(2));
+        assertFalse(session.hasHardwareOnline(3));
+
+        //pipeline is cleared before removal, index still should be updated
+        hard2.pipeline().removeFirst();
+        hard2.close();
+        assertArrayEquals(new Channel[] {hard1}, session.getHardwareChannels(1));
+        assertArrayEquals(new Channel[] {hard3}, session.getHardwareChannelsByToken("token2"));
+
+        hard3.close();
+        assertFalse(session.isHardwareConnected(2));
+        assertEquals(0, session.getHardwareChannelsByToken("token2").length);
+        assertEquals(1, session.getHardwareChannels().size());
+    }
+
+    @Test
+    public void testPreEncodedMessageReleasedWithoutApps() {
+        Session session = new Session(null);
+        ByteBuf msg = Unpooled.buffer().writeInt(1);
+        session.sendToApps(msg);
+        assertEquals(0, msg.refCnt());
+    }
+
+    @Test
+    public void testMailboxKeepsOrderAndThread() throws Exception {
+        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            EventLoop mailbox = group.next();
+            Session session = new Session(mailbox);
+            assertFalse(session.inMailbox());
+
+            List<Integer> executed = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(100);
+            for (int i = 0; i < 100; i++) {
+                final int task = i;
+                session.execute(() -> {
+                    executed.add(task);
+                    threads.add(Thread.currentThread());
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, executed.get(i).intValue());
+                assertTrue(mailbox.inEventLoop(threads.get(i)));
+            }
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testMailboxExecutesInlineWithinLoop() throws Exception {
+        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            Session session = new Session(group.next());
+            boolean inline = session.initialEventLoop.submit(() -> {
+                boolean[] executed = new boolean[1];
+                session.execute(() -> executed[0] = true);
+                return executed[0];
+            }).get(5, TimeUnit.SECONDS);
+            assertTrue(inline);
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+}
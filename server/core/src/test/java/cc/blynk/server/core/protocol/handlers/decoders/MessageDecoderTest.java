@@ -0,0 +1,120 @@
+package cc.blynk.server.core.protocol.handlers.decoders;
+
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareValueMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class MessageDecoderTest {
+
+    private static ByteBuf frame(short command, int msgId, String body) {
+        byte[] bytes = body.getBytes(CharsetUtil.UTF_8);
+        return Unpooled.buffer()
+                .writeByte(command)
+                .writeShort(msgId)
+                .writeShort(bytes.length)
+                .writeBytes(bytes);
+    }
+
+    @Test
+    public void testHardwareBodyForwardedWithoutDecoding() {
+        EmbeddedChannel hardChannel = new EmbeddedChannel(new MessageDecoder(new GlobalStats(), true));
+        ByteBuf frame = frame(Command.HARDWARE, 7, "vw\u00001\u0000100");
+        hardChannel.writeInbound(frame);
+
+        HardwareMessage message = (HardwareMessage) hardChannel.readInbound();
+        assertEquals(7, message.id);
+        assertEquals(8, message.length);
+        assertEquals('w', message.charAt(1));
+        //frame is retained by message
+        assertEquals(1, frame.refCnt());
+
+        EmbeddedChannel appChannel = new EmbeddedChannel();
+        Session session = new Session(null);
+        session.addAppChannel(appChannel);
+        session.sendToApps(Command.HARDWARE, message.id, 10, message.bodyBuf());
+
+        ByteBuf out = (ByteBuf) appChannel.readOutbound();
+        assertEquals(Command.HARDWARE, out.readUnsignedByte());
+        assertEquals(7, out.readUnsignedShort());
+        assertEquals(11, out.readUnsignedShort());
+        assertEquals("10\u0000vw\u00001\u0000100", out.toString(CharsetUtil.UTF_8));
+        out.release();
+
+        assertEquals("vw\u00001\u0000100", message.getBody());
+        assertTrue(message.release());
+        assertEquals(0, frame.refCnt());
+    }
+
+    @Test
+    public void testHardwareBodyDecodedToStringByDefault() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(new GlobalStats()));
+        ByteBuf frame = frame(Command.HARDWARE, 1, "ar\u00001");
+        channel.writeInbound(frame);
+
+        HardwareMessage message = (HardwareMessage) channel.readInbound();
+        assertEquals("ar\u00001", message.body);
+        assertEquals(0, frame.refCnt());
+        assertFalse(message.release());
+    }
+
+    @Test
+    public void testBinaryValueDecoded() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(new GlobalStats()));
+
+        HardwareValueMessage doubleValue = new HardwareValueMessage(1, PinType.VIRTUAL, (byte) 5, 23.456);
+        HardwareValueMessage longValue = new HardwareValueMessage(2, PinType.DIGITAL, (byte) 7, -1000L);
+        //pin type + pin + encoding + 8 bytes of double
+        assertEquals(11, doubleValue.getBytes().length);
+        //-1000 zigzag encoded takes 2 bytes
+        assertEquals(5, longValue.getBytes().length);
+
+        channel.writeInbound(binaryFrame(Command.HARDWARE_VALUE, 1, doubleValue.getBytes()));
+        channel.writeInbound(binaryFrame(Command.HARDWARE_VALUE, 2, longValue.getBytes()));
+
+        HardwareValueMessage message = (HardwareValueMessage) channel.readInbound();
+        assertEquals(PinType.VIRTUAL, message.pinType);
+        assertEquals(5, message.pin);
+        assertEquals(23.456, message.value, 0);
+        assertEquals("vw\u00005\u000023.456", message.getBody());
+
+        message = (HardwareValueMessage) channel.readInbound();
+        assertEquals(PinType.DIGITAL, message.pinType);
+        assertEquals(-1000L, message.longValue);
+        assertEquals(-1000D, message.value, 0);
+        assertEquals("dw\u00007\u0000-1000", message.getBody());
+    }
+
+    @Test
+    public void testMalformedBinaryValueClosesChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(new GlobalStats()));
+        //varint with continuation bit set, but without next byte
+        channel.writeInbound(binaryFrame(Command.HARDWARE_VALUE, 1, new byte[] {'v', 1, HardwareValueMessage.VARINT, (byte) 0x80}));
+
+        assertNull(channel.readInbound());
+        assertFalse(channel.isOpen());
+    }
+
+    private static ByteBuf binaryFrame(short command, int msgId, byte[] body) {
+        return Unpooled.buffer()
+                .writeByte(command)
+                .writeShort(msgId)
+                .writeShort(body.length)
+                .writeBytes(body);
+    }
+
+}
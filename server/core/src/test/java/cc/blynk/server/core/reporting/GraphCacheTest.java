@@ -0,0 +1,106 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class GraphCacheTest {
+
+    private final Path path = Paths.get("test", "history_1_a1_minute.bin");
+
+    private static byte[] records(int from, int to) {
+        ByteBuffer buf = ByteBuffer.allocate((to - from + 1) * 16);
+        for (int i = from; i <= to; i++) {
+            buf.putDouble(i).putLong(i);
+        }
+        return buf.array();
+    }
+
+    @Test
+    public void testAppendKeepsSeriesUpToDate() {
+        GlobalStats stats = new GlobalStats();
+        GraphCache cache = new GraphCache(1024 * 1024, stats);
+
+        assertNull(cache.get(path, 10, Long.MIN_VALUE, Long.MAX_VALUE));
+        cache.put(path, records(91, 100), 10, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+
+        cache.append(path, 101, 101);
+        //already loaded record is ignored
+        cache.append(path, 101, 101);
+
+        assertArrayEquals(records(92, 101), cache.get(path, 10, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertArrayEquals(records(97, 101), cache.get(path, 5, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertArrayEquals(records(95, 98), cache.get(path, 10, 95, 98));
+        //older records may exist on disk
+        assertNull(cache.get(path, 100, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        assertEquals(3, stats.graphCacheHits.sum());
+        assertEquals(2, stats.graphCacheMisses.sum());
+    }
+
+    @Test
+    public void testCompleteSeriesServesAnyCount() {
+        GraphCache cache = new GraphCache(1024 * 1024, new GlobalStats());
+
+        //less records than requested, so file holds only these records
+        cache.put(path, records(1, 5), 10, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+        assertArrayEquals(records(1, 5), cache.get(path, 100, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testEmptyReads() {
+        GraphCache cache = new GraphCache(1024 * 1024, new GlobalStats());
+
+        //reads without records to return are not cached
+        cache.put(path, new byte[0], 0, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+        cache.put(path, new byte[0], -1, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+        assertEquals(0, cache.size());
+
+        //empty file
+        cache.put(path, new byte[0], 10, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+        assertArrayEquals(new byte[0], cache.get(path, 10, Long.MIN_VALUE, Long.MAX_VALUE));
+        cache.append(path, 1, 1);
+        assertArrayEquals(records(1, 1), cache.get(path, 10, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testReadRacedWithAppendIsNotCached() {
+        GraphCache cache = new GraphCache(1024 * 1024, new GlobalStats());
+
+        long version = cache.version();
+        cache.append(path, 101, 101);
+        cache.put(path, records(91, 100), 10, Long.MIN_VALUE, Long.MAX_VALUE, version);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        GlobalStats stats = new GlobalStats();
+        //64 records per entry minimum, 1024 bytes each
+        GraphCache cache = new GraphCache(2 * 1024, stats);
+        Path path2 = Paths.get("test", "history_1_a2_minute.bin");
+        Path path3 = Paths.get("test", "history_1_a3_minute.bin");
+
+        cache.put(path, records(1, 10), 10, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+        cache.put(path2, records(1, 10), 10, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+        assertNotNull(cache.get(path, 10, Long.MIN_VALUE, Long.MAX_VALUE));
+        cache.put(path3, records(1, 10), 10, Long.MIN_VALUE, Long.MAX_VALUE, cache.version());
+
+        assertEquals(2, cache.size());
+        assertEquals(2 * 1024, cache.bytes());
+        assertEquals(1, stats.graphCacheEvictions.sum());
+        assertNull(cache.get(path2, 10, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+}
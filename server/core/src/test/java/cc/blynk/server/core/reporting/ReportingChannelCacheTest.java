@@ -0,0 +1,99 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import static cc.blynk.utils.ReportingUtil.*;
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class ReportingChannelCacheTest {
+
+    private final String reportingFolder = getReportingFolder(System.getProperty("java.io.tmpdir"));
+    private final Path userFolder = Paths.get(reportingFolder, "cache_test");
+
+    @Before
+    public void cleanup() throws IOException {
+        if (Files.exists(userFolder)) {
+            try (Stream<Path> files = Files.list(userFolder)) {
+                files.forEach(FileUtils::deleteQuietly);
+            }
+        }
+    }
+
+    @Test
+    public void testRecordsWrittenOnlyOnFlush() throws IOException {
+        ReportingChannelCache cache = new ReportingChannelCache(10);
+        Path path = userFolder.resolve("file1.bin");
+
+        cache.append(path, 1.1, 1);
+        cache.append(path, 2.2, 2);
+        cache.append(path, 3.3, 3);
+
+        assertEquals(0, Files.size(path));
+        assertTrue(cache.flush().isEmpty());
+        assertEquals(48, Files.size(path));
+
+        cache.append(path, 4.4, 4);
+        cache.flush();
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i * 1.1, data.getDouble(), 0.0001);
+            assertEquals(i, data.getLong());
+        }
+
+        assertEquals(3, cache.hits.sum());
+        assertEquals(1, cache.misses.sum());
+        cache.close();
+    }
+
+    @Test
+    public void testEvictionFlushesPendingRecords() throws IOException {
+        ReportingChannelCache cache = new ReportingChannelCache(1);
+        Path path1 = userFolder.resolve("file1.bin");
+        Path path2 = userFolder.resolve("file2.bin");
+
+        cache.append(path1, 1, 1);
+        cache.append(path2, 2, 2);
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.evictions.sum());
+        assertEquals(16, Files.size(path1));
+
+        cache.flush();
+        assertEquals(16, Files.size(path2));
+        cache.close();
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        ReportingChannelCache cache = new ReportingChannelCache(10);
+        Path path = userFolder.resolve("file1.bin");
+
+        cache.append(path, 1, 1);
+        cache.flush();
+        cache.invalidate(path);
+        Files.delete(path);
+
+        assertEquals(0, cache.size());
+        cache.append(path, 2, 2);
+        cache.flush();
+        assertEquals(16, Files.size(path));
+        assertEquals(2, cache.misses.sum());
+        cache.close();
+    }
+
+}
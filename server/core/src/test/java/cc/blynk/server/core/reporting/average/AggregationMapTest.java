@@ -0,0 +1,75 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class AggregationMapTest {
+
+    @Test
+    public void testKeyIsUnpackedCorrectly() {
+        UserIdTable userIds = new UserIdTable();
+        AggregationMap map = new AggregationMap(userIds);
+
+        map.aggregate(userIds.intern("test@test.com"), -125564119, PinType.ANALOG, (byte) 200, 24_000_000L, 10);
+        map.aggregate(userIds.intern("test@test.com"), -125564119, PinType.ANALOG, (byte) 200, 24_000_000L, 20);
+
+        Map<AggregationKey, AggregationValue> removed = map.removeOlderThan(24_000_001L);
+        assertEquals(1, removed.size());
+        assertEquals(0, map.size());
+
+        Map.Entry<AggregationKey, AggregationValue> entry = removed.entrySet().iterator().next();
+        assertEquals(new AggregationKey("test@test.com", -125564119, PinType.ANALOG, (byte) 200, 24_000_000L), entry.getKey());
+        assertEquals(15, entry.getValue().calcAverage(), 0);
+        assertEquals(2, entry.getValue().getCount());
+    }
+
+    @Test
+    public void testRemoveOlderThanMatchesHashMap() {
+        UserIdTable userIds = new UserIdTable();
+        AggregationMap map = new AggregationMap(userIds);
+        Map<AggregationKey, AggregationValue> expected = new HashMap<>();
+        Random random = new Random(1);
+
+        for (int bucket = 0; bucket < 20; bucket++) {
+            for (int i = 0; i < 5000; i++) {
+                String username = "user" + random.nextInt(100);
+                int dashId = random.nextInt(10);
+                PinType pinType = PinType.values()[random.nextInt(3)];
+                byte pin = (byte) random.nextInt(128);
+                double value = random.nextDouble();
+
+                map.aggregate(userIds.intern(username), dashId, pinType, pin, bucket, value);
+                expected.computeIfAbsent(new AggregationKey(username, dashId, pinType, pin, bucket),
+                        key -> new AggregationValue()).update(value);
+            }
+
+            if (bucket % 3 == 0) {
+                Map<AggregationKey, AggregationValue> removed = map.removeOlderThan(bucket);
+                for (Map.Entry<AggregationKey, AggregationValue> entry : removed.entrySet()) {
+                    AggregationValue expectedValue = expected.remove(entry.getKey());
+                    assertNotNull(expectedValue);
+                    assertEquals(expectedValue.getCount(), entry.getValue().getCount());
+                    assertEquals(expectedValue.getSum(), entry.getValue().getSum(), 0.000001);
+                }
+                for (AggregationKey key : expected.keySet()) {
+                    assertTrue(key.ts >= bucket);
+                }
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        assertEquals(expected.keySet(), map.snapshot().keySet());
+    }
+
+}
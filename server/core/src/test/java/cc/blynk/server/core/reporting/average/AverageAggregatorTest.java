@@ -1,5 +1,6 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.model.enums.GraphType;
 import cc.blynk.server.core.model.enums.PinType;
 import org.junit.Test;
 
@@ -28,6 +29,15 @@ public class AverageAggregatorTest {
         return dateTime.toInstant(ZoneOffset.ofTotalSeconds(0)).toEpochMilli();
     }
 
+    //emulates storage worker run when all collected minutes are closed
+    private static void closeMinutes(AverageAggregator averageAggregator) {
+        averageAggregator.rollUp(averageAggregator.getMinute().removeOlderThan(Long.MAX_VALUE), GraphType.MINUTE);
+    }
+
+    private static void closeHours(AverageAggregator averageAggregator, long beforeHour) {
+        averageAggregator.rollUp(averageAggregator.getHourly().removeOlderThan(beforeHour), GraphType.HOURLY);
+    }
+
     @Test
     public void testAverageWorksOkForOnePin() {
         AverageAggregator averageAggregator = new AverageAggregator("");
@@ -47,11 +57,20 @@ public class AverageAggregatorTest {
         }
         expectedAverage /= COUNT;
 
+        assertEquals(1, averageAggregator.getMinute().size());
+        assertEquals(0, averageAggregator.getHourly().size());
+        assertEquals(0, averageAggregator.getDaily().size());
+        assertEquals(expectedAverage, averageAggregator.getMinute().get(username, dashId, pinType, pin, ts / MINUTE).calcAverage(), 0);
+
+        closeMinutes(averageAggregator);
+        assertEquals(0, averageAggregator.getMinute().size());
         assertEquals(1, averageAggregator.getHourly().size());
-        assertEquals(1, averageAggregator.getDaily().size());
+        assertEquals(expectedAverage, averageAggregator.getHourly().get(username, dashId, pinType, pin, ts / HOUR).calcAverage(), 0);
 
-        assertEquals(expectedAverage, averageAggregator.getHourly().get(new AggregationKey(username, dashId, pinType, pin, ts / HOUR)).calcAverage(), 0);
-        assertEquals(expectedAverage, averageAggregator.getDaily().get(new AggregationKey(username, dashId, pinType, pin, ts / DAY)).calcAverage(), 0);
+        closeHours(averageAggregator, Long.MAX_VALUE);
+        assertEquals(0, averageAggregator.getHourly().size());
+        assertEquals(1, averageAggregator.getDaily().size());
+        assertEquals(expectedAverage, averageAggregator.getDaily().get(username, dashId, pinType, pin, ts / DAY).calcAverage(), 0);
     }
 
     @Test
@@ -77,15 +96,17 @@ public class AverageAggregatorTest {
             expectedDailyAverage += expectedAverage;
             expectedAverage /= COUNT;
 
+            closeMinutes(averageAggregator);
             assertEquals(hour + 1, averageAggregator.getHourly().size());
 
-            assertEquals(expectedAverage, averageAggregator.getHourly().get(new AggregationKey(username, dashId, pinType, pin, ts / HOUR)).calcAverage(), 0);
+            assertEquals(expectedAverage, averageAggregator.getHourly().get(username, dashId, pinType, pin, ts / HOUR).calcAverage(), 0);
         }
         expectedDailyAverage /= COUNT * 24;
 
         assertEquals(24, averageAggregator.getHourly().size());
+        closeHours(averageAggregator, Long.MAX_VALUE);
         assertEquals(1, averageAggregator.getDaily().size());
-        assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(username, dashId, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
+        assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(username, dashId, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY).calcAverage(), 0);
     }
 
     @Test
@@ -117,30 +138,66 @@ public class AverageAggregatorTest {
             expectedDailyAverage += expectedAverage;
             expectedAverage /= COUNT;
 
+            closeMinutes(averageAggregator);
             assertEquals(hour + 1, averageAggregator.getHourly().size());
 
-            assertEquals(expectedAverage, averageAggregator.getHourly().get(new AggregationKey(username, dashId, pinType, pin, ts / HOUR)).calcAverage(), 0);
+            assertEquals(expectedAverage, averageAggregator.getHourly().get(username, dashId, pinType, pin, ts / HOUR).calcAverage(), 0);
         }
         expectedDailyAverage /= COUNT * 24;
 
         assertEquals(24, averageAggregator.getHourly().size());
+        //all hours except last one are closed
+        closeHours(averageAggregator, getMillis(2015, 8, 1, 23, 0) / HOUR);
+        assertEquals(1, averageAggregator.getHourly().size());
         assertEquals(1, averageAggregator.getDaily().size());
-        assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(username, dashId, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
+        assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(username, dashId, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY).calcAverage(), 0);
 
 
         averageAggregator.close();
 
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregator.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregator.DAILY_TEMP_FILENAME)));
+        Path checkpoint = Paths.get(reportingFolder, AggregationCheckpoint.CHECKPOINT_FILENAME);
+        assertTrue(Files.exists(checkpoint));
 
         averageAggregator = new AverageAggregator(reportingFolder);
 
-        assertEquals(24, averageAggregator.getHourly().size());
+        assertEquals(1, averageAggregator.getHourly().size());
         assertEquals(1, averageAggregator.getDaily().size());
-        assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(username, dashId, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
+        assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(username, dashId, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY).calcAverage(), 0);
+
+        Files.delete(checkpoint);
+        Files.delete(Paths.get(reportingFolder, AggregationCheckpoint.STORED_FILENAME));
+    }
 
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregator.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregator.DAILY_TEMP_FILENAME)));
+    @Test
+    public void testCorruptedCheckpointIsNotLoaded() throws IOException {
+        Path folder = Files.createTempDirectory("checkpoint");
+        Path checkpoint = folder.resolve(AggregationCheckpoint.CHECKPOINT_FILENAME);
+
+        AverageAggregator averageAggregator = new AverageAggregator(folder.toString());
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        for (int i = 0; i < 10; i++) {
+            averageAggregator.collect("test" + i, 1, PinType.VIRTUAL, (byte) i, ts, i);
+        }
+        closeMinutes(averageAggregator);
+        averageAggregator.collect("test", 1, PinType.VIRTUAL, (byte) 1, ts, 1);
+        averageAggregator.checkpoint();
+
+        averageAggregator = new AverageAggregator(folder.toString());
+        assertEquals(1, averageAggregator.getMinute().size());
+        assertEquals(10, averageAggregator.getHourly().size());
+        assertEquals(5, averageAggregator.getHourly().get("test5", 1, PinType.VIRTUAL, (byte) 5, ts / HOUR).calcAverage(), 0);
+
+        byte[] data = Files.readAllBytes(checkpoint);
+        data[data.length / 2]++;
+        Files.write(checkpoint, data);
+
+        averageAggregator = new AverageAggregator(folder.toString());
+        assertEquals(0, averageAggregator.getMinute().size());
+        assertEquals(0, averageAggregator.getHourly().size());
+
+        Files.delete(checkpoint);
+        Files.delete(folder.resolve(AggregationCheckpoint.STORED_FILENAME));
+        Files.delete(folder);
     }
 
 }
@@ -0,0 +1,130 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.stats.GlobalStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class RawDataJournalTest {
+
+    private Path dataFolder;
+
+    @Before
+    public void init() throws Exception {
+        dataFolder = Files.createTempDirectory("raw");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        Files.walk(dataFolder).forEach(paths::add);
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(paths.get(i));
+        }
+    }
+
+    @Test
+    public void testValuesWrittenPerPinAndExportedToCSV() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        RawDataJournal journal = new RawDataJournal(dataFolder.toString(), 1024 * 1024, 100, 60_000, stats);
+
+        journal.append("user", 1, PinType.VIRTUAL, (byte) 1, "1.5", 1000);
+        journal.append("user", 1, PinType.ANALOG, (byte) 2, "hello", 1001);
+        journal.append("user", 1, PinType.VIRTUAL, (byte) 1, "2.5", 1002);
+        journal.close();
+
+        assertEquals(3, stats.rawJournalRecords.sum());
+
+        Path userFolder = dataFolder.resolve("user");
+        StringWriter virtual = new StringWriter();
+        assertEquals(2, RawDataFile.toCSV(userFolder.resolve("1_v1.raw"), virtual));
+        assertEquals("1.5,1000\n2.5,1002\n", virtual.toString());
+
+        StringWriter analog = new StringWriter();
+        assertEquals(1, RawDataFile.toCSV(userFolder.resolve("1_a2.raw"), analog));
+        assertEquals("hello,1001\n", analog.toString());
+
+        assertEquals(2, RawDataFile.exportFolder(userFolder, dataFolder.resolve("out")));
+        assertEquals("1.5,1000\n2.5,1002\n",
+                new String(Files.readAllBytes(dataFolder.resolve("out").resolve("1_v1.csv"))));
+    }
+
+    @Test
+    public void testFileRotatedAndQueueLimited() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        //every record is 10 + 3 bytes
+        RawDataJournal journal = new RawDataJournal(dataFolder.toString(), 30, 2, 60_000, stats);
+
+        journal.append("user", 1, PinType.VIRTUAL, (byte) 1, "1.0", 1000);
+        journal.append("user", 1, PinType.VIRTUAL, (byte) 1, "2.0", 1001);
+        journal.append("user", 1, PinType.VIRTUAL, (byte) 1, "3.0", 1002);
+        assertEquals(1, stats.rawJournalDropped.sum());
+        journal.flush();
+
+        journal.append("user", 1, PinType.VIRTUAL, (byte) 1, "3.0", 1002);
+        journal.close();
+
+        int files = 0;
+        try (DirectoryStream<Path> rawFiles = Files.newDirectoryStream(dataFolder.resolve("user"), "1_v1.*")) {
+            for (Path rawFile : rawFiles) {
+                files++;
+            }
+        }
+        assertEquals(2, files);
+        assertEquals(13, Files.size(dataFolder.resolve("user").resolve("1_v1.raw")));
+    }
+
+    @Test
+    public void testEveryRotationKeptWithinSameMillisecond() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        //every record is 10 + 3 bytes, so every flush rotates file
+        RawDataJournal journal = new RawDataJournal(dataFolder.toString(), 13, 10, 60_000, stats);
+
+        for (int i = 0; i < 10; i++) {
+            journal.append("user", 1, PinType.VIRTUAL, (byte) 1, "1.0", 1000 + i);
+            journal.flush();
+        }
+        journal.close();
+
+        int files = 0;
+        try (DirectoryStream<Path> rawFiles = Files.newDirectoryStream(dataFolder.resolve("user"), "1_v1.*")) {
+            for (Path rawFile : rawFiles) {
+                files++;
+            }
+        }
+        assertEquals(10, files);
+        assertEquals(10, stats.rawJournalRecords.sum());
+    }
+
+    @Test
+    public void testLongValueTruncatedOnCharBoundary() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < RawDataFile.MAX_VALUE_LENGTH - 1; i++) {
+            value.append('a');
+        }
+        String ascii = value.toString();
+        //2 bytes char crosses limit
+        value.append('\u00e9');
+
+        byte[] encoded = RawDataFile.encodeValue(value.toString());
+        assertEquals(RawDataFile.MAX_VALUE_LENGTH - 1, encoded.length);
+        assertEquals(ascii, new String(encoded, StandardCharsets.UTF_8));
+    }
+
+}
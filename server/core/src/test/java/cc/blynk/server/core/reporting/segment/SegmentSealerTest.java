@@ -0,0 +1,161 @@
+package cc.blynk.server.core.reporting.segment;
+
+import cc.blynk.server.core.dao.ReportingDao;
+import cc.blynk.server.core.model.enums.GraphType;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class SegmentSealerTest {
+
+    private Path reportingFolder;
+    private ReportingChannelCache channelCache;
+
+    @Before
+    public void init() throws Exception {
+        reportingFolder = Files.createTempDirectory("segments");
+        channelCache = new ReportingChannelCache(16, SegmentSealer.SEAL_THRESHOLD_BYTES);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        channelCache.close();
+        Files.walk(reportingFolder)
+                .sorted((o1, o2) -> o2.compareTo(o1))
+                .forEach(FileUtils::deleteQuietly);
+    }
+
+    @Test
+    public void testCodecRoundTrip() {
+        ByteBuffer records = ByteBuffer.allocate(1000 * 16);
+        Random random = new Random(1);
+        long ts = 1_476_000_000_000L;
+        double value = 0;
+        for (int i = 0; i < 1000; i++) {
+            //mix of repeated, random and irregular values/timestamps
+            if (i % 7 == 0) {
+                value = random.nextDouble() * 1000;
+            } else if (i % 11 == 0) {
+                value = i;
+            }
+            ts += i % 13 == 0 ? random.nextInt(1_000_000) : 60_000;
+            records.putDouble(value).putLong(ts);
+        }
+        records.flip();
+
+        byte[] encoded = SegmentCodec.encode(records.duplicate());
+        assertTrue(encoded.length < records.remaining() / 2);
+
+        ByteBuffer decoded = ByteBuffer.allocate(records.remaining());
+        SegmentCodec.decode(encoded, 1000, decoded);
+        assertArrayEquals(records.array(), decoded.array());
+    }
+
+    @Test
+    public void testSealedFileReadsSameAsRaw() throws Exception {
+        Path userFolder = reportingFolder.resolve("test@test.com");
+        Path tailFile = userFolder.resolve(ReportingDao.generateFilename(1, PinType.ANALOG, (byte) 1, GraphType.MINUTE));
+
+        int total = 1000;
+        long ts = 1_476_000_000_000L;
+        for (int i = 0; i < total; i++) {
+            channelCache.append(tailFile, i % 10, ts + i * 60_000L);
+        }
+        channelCache.flush();
+        byte[] expected = Files.readAllBytes(tailFile);
+
+        assertTrue(channelCache.drainFull().contains(tailFile));
+        assertEquals(768, SegmentSealer.seal(tailFile, channelCache));
+        assertEquals((total - 768) * 16, Files.size(tailFile));
+        assertEquals(3, SegmentFile.readIndex(SegmentFile.getSegmentPath(tailFile)).size());
+        assertTrue(Files.size(SegmentFile.getSegmentPath(tailFile)) < expected.length / 4);
+
+        //appends after seal go to new tail
+        channelCache.append(tailFile, 42, ts + total * 60_000L);
+        channelCache.flush();
+
+        byte[] all = ReportingDao.getAllFromDisk(reportingFolder.toString(), "test@test.com",
+                1, PinType.ANALOG, (byte) 1, total + 1, GraphType.MINUTE);
+        assertEquals((total + 1) * 16, all.length);
+        ByteBuffer allBuf = ByteBuffer.wrap(all);
+        assertEquals(ByteBuffer.wrap(expected), ByteBuffer.wrap(all, 0, expected.length));
+        assertEquals(42, allBuf.getDouble(total * 16), 0);
+
+        byte[] last = ReportingDao.getAllFromDisk(reportingFolder.toString(), "test@test.com",
+                1, PinType.ANALOG, (byte) 1, 300, GraphType.MINUTE);
+        assertEquals(ByteBuffer.wrap(all, all.length - 300 * 16, 300 * 16), ByteBuffer.wrap(last));
+    }
+
+    @Test
+    public void testTimeRangeRead() throws Exception {
+        Path tailFile = reportingFolder.resolve("test@test.com").resolve("history_1_a1_hourly.bin");
+        for (int i = 0; i < 600; i++) {
+            channelCache.append(tailFile, i, i * 3_600_000L);
+        }
+        channelCache.flush();
+        //records 0..511 are sealed, 512..599 stay in tail
+        SegmentSealer.seal(tailFile, channelCache);
+
+        assertRange(0, 599, 1000, 0, 599);
+        assertRange(100, 199, 1000, 100, 199);
+        assertRange(500, 520, 1000, 500, 520);
+        assertRange(550, 560, 1000, 550, 560);
+        //last 10 records of range
+        assertRange(100, 300, 10, 291, 300);
+        assertRange(400, 580, 100, 481, 580);
+
+        byte[] empty = ReportingDao.getAllFromDisk(reportingFolder.toString(), "test@test.com",
+                1, PinType.ANALOG, (byte) 1, 1000, GraphType.HOURLY, 700 * 3_600_000L, 800 * 3_600_000L);
+        assertEquals(0, empty.length);
+    }
+
+    private void assertRange(int from, int to, int count, int expectedFirst, int expectedLast) {
+        byte[] data = ReportingDao.getAllFromDisk(reportingFolder.toString(), "test@test.com",
+                1, PinType.ANALOG, (byte) 1, count, GraphType.HOURLY, from * 3_600_000L, to * 3_600_000L);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        assertEquals((expectedLast - expectedFirst + 1) * 16, data.length);
+        for (int i = expectedFirst; i <= expectedLast; i++) {
+            assertEquals(i, buf.getDouble(), 0);
+            assertEquals(i * 3_600_000L, buf.getLong());
+        }
+    }
+
+    @Test
+    public void testMigrateSkipsAlreadySealedRecords() throws Exception {
+        Path tailFile = reportingFolder.resolve("test@test.com").resolve("history_1_a1_hourly.bin");
+        Files.createDirectories(tailFile.getParent());
+        ByteBuffer records = ByteBuffer.allocate(300 * 16);
+        for (int i = 0; i < 300; i++) {
+            records.putDouble(i).putLong(i * 3_600_000L);
+        }
+        Files.write(tailFile, records.array());
+
+        //simulates crash after segment append, but before tail replace
+        ByteBuffer sealed = ByteBuffer.wrap(records.array(), 0, SegmentSealer.SEGMENT_RECORDS * 16);
+        SegmentFile.append(SegmentFile.getSegmentPath(tailFile), sealed, SegmentSealer.SEGMENT_RECORDS);
+
+        SegmentSealer.migrate(reportingFolder, channelCache);
+
+        assertEquals((300 - SegmentSealer.SEGMENT_RECORDS) * 16, Files.size(tailFile));
+        assertEquals(1, SegmentFile.readIndex(SegmentFile.getSegmentPath(tailFile)).size());
+        byte[] all = ReportingDao.getAllFromDisk(reportingFolder.toString(), "test@test.com",
+                1, PinType.ANALOG, (byte) 1, 1000, GraphType.HOURLY);
+        assertArrayEquals(records.array(), all);
+    }
+
+}
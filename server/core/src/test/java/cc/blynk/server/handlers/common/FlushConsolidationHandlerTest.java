@@ -0,0 +1,138 @@
+package cc.blynk.server.handlers.common;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class FlushConsolidationHandlerTest {
+
+    /**
+     * Counts flushes that reach socket, every flush is write syscall for real transport.
+     */
+    static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        int flushes;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes++;
+            super.flush(ctx);
+        }
+    }
+
+    /**
+     * Responds with given number of messages to every read, each one flushed separately.
+     */
+    static class BurstResponder extends ChannelInboundHandlerAdapter {
+        private final int burst;
+
+        BurstResponder(int burst) {
+            this.burst = burst;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            for (int i = 0; i < burst; i++) {
+                ctx.writeAndFlush(Unpooled.wrappedBuffer(new byte[] {20, 0, 1, 0, 0}));
+            }
+        }
+    }
+
+    private static void read(EmbeddedChannel channel) {
+        channel.pipeline().fireChannelRead(new Object());
+        channel.pipeline().fireChannelReadComplete();
+    }
+
+    private static int drain(EmbeddedChannel channel) {
+        int messages = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+            messages++;
+        }
+        return messages;
+    }
+
+    @Test
+    public void testFlushesWithinReadConsolidated() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(256, false), new BurstResponder(20));
+
+        read(channel);
+        assertEquals(1, counter.flushes);
+        assertEquals(20, drain(channel));
+    }
+
+    @Test
+    public void testWithoutConsolidationEveryMessageFlushed() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new BurstResponder(20));
+
+        read(channel);
+        assertEquals(20, counter.flushes);
+        assertEquals(20, drain(channel));
+    }
+
+    @Test
+    public void testExplicitFlushAfterLimit() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(8, false), new BurstResponder(20));
+
+        read(channel);
+        //2 flushes on limit and 1 on read complete
+        assertEquals(3, counter.flushes);
+        assertEquals(20, drain(channel));
+    }
+
+    @Test
+    public void testFlushesOutsideOfReadConsolidatedTillNextLoopIteration() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(256, true));
+        int flushesAfterRegistration = counter.flushes;
+
+        for (int i = 0; i < 10; i++) {
+            channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[] {1}));
+        }
+        assertEquals(flushesAfterRegistration, counter.flushes);
+
+        channel.runPendingTasks();
+        assertEquals(flushesAfterRegistration + 1, counter.flushes);
+        assertEquals(10, drain(channel));
+    }
+
+    @Test
+    public void testFlushesOutsideOfReadPassedWhenDisabled() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(256, false));
+        int flushesAfterRegistration = counter.flushes;
+
+        for (int i = 0; i < 10; i++) {
+            channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[] {1}));
+        }
+        assertEquals(flushesAfterRegistration + 10, counter.flushes);
+        assertEquals(10, drain(channel));
+    }
+
+    @Test
+    public void testPendingFlushedOnClose() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidationHandler(256, false));
+
+        channel.pipeline().fireChannelRead(new Object());
+        channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[] {1}));
+        int before = counter.flushes;
+        channel.close();
+        assertEquals(before + 1, counter.flushes);
+    }
+
+}
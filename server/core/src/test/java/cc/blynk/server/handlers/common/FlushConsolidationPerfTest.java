@@ -0,0 +1,71 @@
+package cc.blynk.server.handlers.common;
+
+import cc.blynk.server.handlers.common.FlushConsolidationHandlerTest.BurstResponder;
+import cc.blynk.server.handlers.common.FlushConsolidationHandlerTest.FlushCounter;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Burst of small responses to single read, with and without flush consolidation.
+ * "flushes" counter shows number of flushes that reach transport per read,
+ * every such flush is separate write syscall for real socket.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class FlushConsolidationPerfTest {
+
+    @Param({"1", "5", "20"})
+    public int burst;
+
+    @Param({"true", "false"})
+    public boolean consolidate;
+
+    private EmbeddedChannel channel;
+    private FlushCounter counter;
+
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Flushes {
+        public long flushes;
+    }
+
+    @Setup
+    public void setup() {
+        counter = new FlushCounter();
+        ChannelHandler[] handlers = consolidate
+                ? new ChannelHandler[] {counter, new FlushConsolidationHandler(256, true), new BurstResponder(burst)}
+                : new ChannelHandler[] {counter, new BurstResponder(burst)};
+        channel = new EmbeddedChannel(handlers);
+    }
+
+    @TearDown
+    public void close() {
+        channel.finish();
+    }
+
+    @Benchmark
+    public void burstResponse(Flushes flushes) {
+        int before = counter.flushes;
+        channel.pipeline().fireChannelRead(new Object());
+        channel.pipeline().fireChannelReadComplete();
+        flushes.flushes += counter.flushes - before;
+
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+}
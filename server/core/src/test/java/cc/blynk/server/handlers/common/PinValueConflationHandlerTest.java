@@ -0,0 +1,135 @@
+package cc.blynk.server.handlers.common;
+
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class PinValueConflationHandlerTest {
+
+    private static ByteBuf body(String body) {
+        return Unpooled.copiedBuffer(body.replaceAll(" ", "\0"), CharsetUtil.UTF_8);
+    }
+
+    private static long key(int dashId, String body) {
+        ByteBuf buf = body(body);
+        try {
+            return PinValueConflationHandler.key(dashId, buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void assertNextValue(EmbeddedChannel channel, String expected) {
+        ByteBuf buf = (ByteBuf) channel.readOutbound();
+        assertNotNull(buf);
+        assertEquals(expected.replaceAll(" ", "\0"), buf.toString(CharsetUtil.UTF_8));
+        buf.release();
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals(key(1, "vw 1 100"), key(1, "vw 1 200"));
+        assertNotEquals(key(1, "vw 1 100"), key(2, "vw 1 100"));
+        assertNotEquals(key(1, "vw 1 100"), key(1, "dw 1 100"));
+        assertNotEquals(key(1, "vw 1 100"), key(1, "vw 2 100"));
+        assertEquals(PinValueConflationHandler.NO_KEY, key(1, "vr 1"));
+        assertEquals(PinValueConflationHandler.NO_KEY, key(1, "vw a 1"));
+        assertEquals(PinValueConflationHandler.NO_KEY, key(1, "pm 1 out"));
+    }
+
+    @Test
+    public void testOnlyLatestValueKeptWhileUnwritable() {
+        GlobalStats stats = new GlobalStats();
+        PinValueConflationHandler handler = new PinValueConflationHandler(stats, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        handler.write(key(1, "vw 1 1"), body("vw 1 1"));
+        assertNextValue(channel, "vw 1 1");
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        handler.write(key(1, "vw 1 2"), body("vw 1 2"));
+        handler.write(key(1, "vw 2 1"), body("vw 2 1"));
+        handler.write(key(1, "vw 1 3"), body("vw 1 3"));
+        assertNull(channel.readOutbound());
+        assertEquals(2, handler.pendingSize());
+        assertEquals(1, stats.appConflationCoalesced.sum());
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        channel.runPendingTasks();
+        assertNextValue(channel, "vw 1 3");
+        assertNextValue(channel, "vw 2 1");
+        assertNull(channel.readOutbound());
+        assertEquals(0, handler.pendingSize());
+    }
+
+    @Test
+    public void testMaxUpdateRate() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        PinValueConflationHandler handler = new PinValueConflationHandler(stats, 10);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        handler.write(key(1, "vw 1 1"), body("vw 1 1"));
+        handler.write(key(1, "vw 1 2"), body("vw 1 2"));
+        handler.write(key(1, "vw 1 3"), body("vw 1 3"));
+        //other pins are not limited
+        handler.write(key(1, "vw 2 1"), body("vw 2 1"));
+        assertNextValue(channel, "vw 1 1");
+        assertNextValue(channel, "vw 2 1");
+        assertNull(channel.readOutbound());
+        assertEquals(1, stats.appConflationCoalesced.sum());
+
+        Thread.sleep(150);
+        channel.runPendingTasks();
+        assertNextValue(channel, "vw 1 3");
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testMaxUpdateRateAboveThousand() throws Exception {
+        GlobalStats stats = new GlobalStats();
+        PinValueConflationHandler handler = new PinValueConflationHandler(stats, 1001);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        ByteBuf value1 = body("vw 1 1");
+        ByteBuf value2 = body("vw 1 2");
+
+        //warm up write path
+        handler.write(key(1, "vw 2 1"), body("vw 2 1"));
+        assertNextValue(channel, "vw 2 1");
+
+        handler.write(key(1, "vw 1 1"), value1);
+        handler.write(key(1, "vw 1 2"), value2);
+        assertNextValue(channel, "vw 1 1");
+        assertNull(channel.readOutbound());
+        assertEquals(1, handler.pendingSize());
+
+        Thread.sleep(5);
+        channel.runPendingTasks();
+        assertNextValue(channel, "vw 1 2");
+    }
+
+    @Test
+    public void testPendingReleasedOnClose() {
+        GlobalStats stats = new GlobalStats();
+        PinValueConflationHandler handler = new PinValueConflationHandler(stats, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        ByteBuf value = body("vw 1 1");
+        handler.write(key(1, "vw 1 1"), value);
+        channel.close();
+
+        assertEquals(0, value.refCnt());
+        assertEquals(1, stats.appConflationDropped.sum());
+    }
+
+}
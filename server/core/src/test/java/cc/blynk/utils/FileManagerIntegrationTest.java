@@ -1,11 +1,13 @@
 package cc.blynk.utils;
 
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.UserFileBatch;
 import cc.blynk.server.core.model.auth.User;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
@@ -34,6 +36,14 @@ public class FileManagerIntegrationTest {
 
         file = fileManager.generateFileName(user2.name);
         Files.deleteIfExists(file);
+
+        Files.deleteIfExists(tempFile(user1));
+        Files.deleteIfExists(tempFile(user2));
+    }
+
+    private Path tempFile(User user) {
+        Path file = fileManager.generateFileName(user.name);
+        return file.resolveSibling(file.getFileName() + ".tmp");
     }
 
     @Test
@@ -82,4 +92,43 @@ public class FileManagerIntegrationTest {
         assertNotNull(users.get(user1.name));
     }
 
+    @Test
+    public void testBatchCommit() throws IOException {
+        UserFileBatch batch = fileManager.newBatch();
+        batch.write(user1);
+        batch.write(user2);
+
+        //not committed yet
+        assertFalse(Files.exists(fileManager.generateFileName(user1.name)));
+
+        assertTrue(batch.commit().isEmpty());
+        fileManager.syncDataDir();
+
+        assertTrue(Files.exists(fileManager.generateFileName(user1.name)));
+        assertFalse(Files.exists(tempFile(user1)));
+
+        Map<String, User> users = fileManager.deserialize();
+        assertNotNull(users.get(user1.name));
+        assertNotNull(users.get(user2.name));
+    }
+
+    @Test
+    public void testUnfinishedSavesRecovered() throws IOException {
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+
+        //complete profile written before crash
+        user1.lastModifiedTs = 123;
+        Files.write(tempFile(user1), user1.toString().getBytes(StandardCharsets.UTF_8));
+        //crash during write
+        String profile = user2.toString();
+        Files.write(tempFile(user2), profile.substring(0, profile.length() / 2).getBytes(StandardCharsets.UTF_8));
+
+        Map<String, User> users = fileManager.deserialize();
+        assertEquals(123, users.get(user1.name).lastModifiedTs);
+        assertNotNull(users.get(user2.name));
+        assertFalse(Files.exists(tempFile(user1)));
+        assertFalse(Files.exists(tempFile(user2)));
+    }
+
 }
@@ -36,7 +36,8 @@ public class HttpsAdminServer extends BaseServer {
 
         final String rootPath = holder.props.getProperty("admin.rootPath", "/admin");
 
-        HandlerRegistry.register(rootPath, new UsersLogic(holder.userDao, holder.sessionDao, holder.fileManager, holder.profileSaverWorker));
+        HandlerRegistry.register(rootPath, new UsersLogic(holder.userDao, holder.sessionDao, holder.fileManager,
+                holder.profileSaverWorker, holder.pinStateDao));
         HandlerRegistry.register(rootPath, new StatsLogic(holder.userDao, holder.sessionDao, holder.stats));
         HandlerRegistry.register(rootPath, new ConfigsLogic(holder.blockingIOProcessor));
 
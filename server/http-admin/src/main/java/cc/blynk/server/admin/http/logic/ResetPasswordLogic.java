@@ -115,7 +115,7 @@ public class ResetPasswordLogic {
         }
 
         user.pass = password;
-        user.lastModifiedTs = System.currentTimeMillis();
+        user.markModified();
 
         log.info("{} password was reset.", user.name);
         tokensPool.removeToken(token);
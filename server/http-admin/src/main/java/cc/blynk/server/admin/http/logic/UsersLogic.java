@@ -2,6 +2,7 @@ package cc.blynk.server.admin.http.logic;
 
 import cc.blynk.server.admin.http.pojo.UserPassPojo;
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.auth.Session;
@@ -31,12 +32,15 @@ public class UsersLogic extends BaseLogic {
     private final SessionDao sessionDao;
     private final FileManager fileManager;
     private final ProfileSaverWorker profileSaverWorker;
+    private final PinStateDao pinStateDao;
 
-    public UsersLogic(UserDao userDao, SessionDao sessionDao, FileManager fileManager, ProfileSaverWorker profileSaverWorker) {
+    public UsersLogic(UserDao userDao, SessionDao sessionDao, FileManager fileManager,
+                      ProfileSaverWorker profileSaverWorker, PinStateDao pinStateDao) {
         this.userDao = userDao;
         this.fileManager = fileManager;
         this.sessionDao = sessionDao;
         this.profileSaverWorker = profileSaverWorker;
+        this.pinStateDao = pinStateDao;
     }
 
     @GET
@@ -91,7 +95,6 @@ public class UsersLogic extends BaseLogic {
         }
 
         userDao.add(updatedUser);
-        updatedUser.lastModifiedTs = System.currentTimeMillis();
         log.debug("Adding new user {}", updatedUser.name);
 
 
@@ -115,7 +118,7 @@ public class UsersLogic extends BaseLogic {
         }
 
         user.pass = userPassPojo.pass;
-        user.lastModifiedTs = System.currentTimeMillis();
+        user.markModified();
 
         return ok();
     }
@@ -127,6 +130,7 @@ public class UsersLogic extends BaseLogic {
         if (user == null) {
             return new Response(HTTP_1_1, NOT_FOUND);
         }
+        pinStateDao.remove(name);
 
         if (!fileManager.delete(name)) {
             return new Response(HTTP_1_1, NOT_FOUND);
@@ -4,6 +4,8 @@ import cc.blynk.server.Holder;
 import cc.blynk.server.api.http.pojo.EmailPojo;
 import cc.blynk.server.api.http.pojo.PushMessagePojo;
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.GraphReadProcessor;
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
@@ -11,6 +13,7 @@ import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.Pin;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.GraphType;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.notifications.Mail;
@@ -28,9 +31,13 @@ import org.apache.logging.log4j.Logger;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import static cc.blynk.server.core.protocol.enums.Command.*;
+import static cc.blynk.utils.ByteUtils.*;
 import static cc.blynk.server.handlers.http.rest.Response.*;
+import static java.util.concurrent.CompletableFuture.*;
 
 /**
  * The Blynk Project.
@@ -41,6 +48,9 @@ import static cc.blynk.server.handlers.http.rest.Response.*;
 public class HttpAPILogic {
 
     private static final Logger log = LogManager.getLogger(HttpAPILogic.class);
+    //limits response size per graph type : 6 hours of minute, 1 week of hourly and 1 year of daily records.
+    //same as retention suggested in server.properties, older records are read with 'from' and 'to'
+    private static final int[] HISTORY_MAX_RECORDS = {6 * 60, 7 * 24, 365};
 
     private final UserDao userDao;
     private final BlockingIOProcessor blockingIOProcessor;
@@ -49,20 +59,26 @@ public class HttpAPILogic {
     private final MailWrapper mailWrapper;
     private final GCMWrapper gcmWrapper;
     private final ReportingDao reportingDao;
+    private final GraphReadProcessor graphReadProcessor;
+    private final PinStateDao pinStateDao;
 
     public HttpAPILogic(Holder holder) {
-        this(holder.userDao, holder.sessionDao, holder.blockingIOProcessor, holder.mailWrapper, holder.gcmWrapper, holder.reportingDao, holder.stats);
+        this(holder.userDao, holder.sessionDao, holder.blockingIOProcessor, holder.graphReadProcessor,
+                holder.mailWrapper, holder.gcmWrapper, holder.reportingDao, holder.pinStateDao, holder.stats);
     }
 
     private HttpAPILogic(UserDao userDao, SessionDao sessionDao, BlockingIOProcessor blockingIOProcessor,
-                         MailWrapper mailWrapper, GCMWrapper gcmWrapper, ReportingDao reportingDao, GlobalStats globalStats) {
+                         GraphReadProcessor graphReadProcessor, MailWrapper mailWrapper, GCMWrapper gcmWrapper,
+                         ReportingDao reportingDao, PinStateDao pinStateDao, GlobalStats globalStats) {
         this.userDao = userDao;
         this.blockingIOProcessor = blockingIOProcessor;
+        this.graphReadProcessor = graphReadProcessor;
         this.sessionDao = sessionDao;
         this.globalStats = globalStats;
         this.mailWrapper = mailWrapper;
         this.gcmWrapper = gcmWrapper;
         this.reportingDao = reportingDao;
+        this.pinStateDao = pinStateDao;
     }
 
     @GET
@@ -183,6 +199,116 @@ public class HttpAPILogic {
         return ok(widget.getJsonValue());
     }
 
+    /**
+     * Records are read within graph read pool, as reporting files are read from disk.
+     */
+    @GET
+    @Path("{token}/pin/{pin}/history")
+    public CompletableFuture<Response> getPinHistoryData(@PathParam("token") String token,
+                                                         @PathParam("pin") String pinString,
+                                                         @QueryParam("type") String typeString,
+                                                         @QueryParam("from") Long from,
+                                                         @QueryParam("to") Long to,
+                                                         @QueryParam("count") Integer count) {
+
+        globalStats.mark(HTTP_GET_PIN_HISTORY);
+
+        User user = userDao.tokenManager.getUserByToken(token);
+
+        if (user == null) {
+            log.error("Requested token {} not found.", token);
+            return completedFuture(Response.badRequest("Invalid token."));
+        }
+
+        Integer dashId = user.getDashIdByToken(token);
+
+        if (dashId == null) {
+            log.error("Dash id for token {} not found. User {}", token, user.name);
+            return completedFuture(Response.badRequest("Didn't find dash id for token."));
+        }
+
+        PinType pinType;
+        byte pin;
+
+        try {
+            if (pinString.length() < 2) {
+                throw new NumberFormatException("Pin is too short.");
+            }
+            pinType = PinType.getPinType(pinString.charAt(0));
+            pin = Byte.parseByte(pinString.substring(1));
+        } catch (NumberFormatException e) {
+            log.error("Wrong pin format. {}", pinString);
+            return completedFuture(Response.badRequest("Wrong pin format."));
+        }
+
+        GraphType type = typeString == null || typeString.isEmpty()
+                ? GraphType.HOURLY
+                : GraphType.getPeriodByType(typeString.charAt(0));
+
+        if (type == null) {
+            log.error("Wrong graph type. {}", typeString);
+            return completedFuture(Response.badRequest("Wrong graph type. Expecting 'm', 'h' or 'd'."));
+        }
+
+        if (count != null && count <= 0) {
+            log.error("Wrong history records count. {}", count);
+            return completedFuture(Response.badRequest("Count should be positive."));
+        }
+
+        if (from != null && to != null && from > to) {
+            log.error("Wrong history range. {} - {}", from, to);
+            return completedFuture(Response.badRequest("'from' should not be after 'to'."));
+        }
+
+        int maxRecords = HISTORY_MAX_RECORDS[type.ordinal()];
+        int limit = count == null ? maxRecords : Math.min(count, maxRecords);
+        long fromTs = from == null ? Long.MIN_VALUE : from;
+        long toTs = to == null ? Long.MAX_VALUE : to;
+        String username = user.name;
+
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        boolean accepted = graphReadProcessor.execute(() -> {
+            try {
+                byte[] data = reportingDao.getAllFromDisk(username, dashId, pinType, pin, limit, type, fromTs, toTs);
+                result.complete(ok(toJson(data)));
+            } catch (Exception e) {
+                log.error("Error reading reporting data. For user {}", username, e);
+                result.complete(Response.serverError("Error reading pin history."));
+            }
+        });
+
+        if (!accepted) {
+            log.debug("Graph read queue is full. Rejecting history request for user {}.", username);
+            result.complete(Response.serviceUnavailable("Too many history requests."));
+        }
+
+        return result;
+    }
+
+    /**
+     * Converts reporting records to json array of [ts, value] pairs.
+     * NaN and infinite values are not valid json numbers, so they are written as null.
+     */
+    private static String toJson(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        StringBuilder sb = new StringBuilder(data.length * 2).append('[');
+        while (buf.remaining() >= REPORTING_RECORD_SIZE_BYTES) {
+            double value = buf.getDouble();
+            long ts = buf.getLong();
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('[').append(ts).append(',');
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                sb.append("null");
+            } else {
+                sb.append(value);
+            }
+            sb.append(']');
+        }
+        return sb.append(']').toString();
+    }
+
     @PUT
     @Path("{token}/pin/{pin}")
     @Consumes(value = MediaType.APPLICATION_JSON)
@@ -232,7 +358,7 @@ public class HttpAPILogic {
         if (widget == null) {
             body = Pin.makeHardwareBody(pinType, pin, pinValues);
         } else {
-            widget.updateIfSame(pin, pinType, pinValues);
+            pinStateDao.update(user, dashBoard, pin, pinType, pinValues);
             body = widget.makeHardwareBody();
         }
 
@@ -3,12 +3,16 @@ package cc.blynk.server.launcher;
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BaseServer;
 import cc.blynk.server.core.reporting.average.AverageAggregator;
+import cc.blynk.server.core.reporting.segment.SegmentSealer;
+import cc.blynk.server.workers.ReportingRetentionWorker;
 import cc.blynk.server.workers.ShutdownHookWorker;
 import cc.blynk.server.workers.StatsWorker;
 import cc.blynk.server.workers.StorageWorker;
+import cc.blynk.server.workers.UserSnapshotWorker;
 import cc.blynk.server.workers.timer.TimerWorker;
 import cc.blynk.utils.ReportingUtil;
 
+import java.nio.file.Paths;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -27,19 +31,58 @@ class JobLauncher {
 
         long startDelay;
 
+        String reportingFolder = ReportingUtil.getReportingFolder(holder.props.getProperty("data.folder"));
         StorageWorker storageWorker = new StorageWorker(
                 holder.averageAggregator,
-                ReportingUtil.getReportingFolder(holder.props.getProperty("data.folder")),
+                reportingFolder,
+                holder.reportingDao.channelCache,
+                holder.reportingDao.graphCache,
                 holder.dbManager
         );
 
+        //same thread as storage worker, so migration doesn't race with reporting files appends
+        if (holder.reportingDao.segmentFormat) {
+            scheduler.execute(() ->
+                    SegmentSealer.migrate(Paths.get(reportingFolder), holder.reportingDao.channelCache));
+        }
+
         //to start at the beggining of an minute
         startDelay = AverageAggregator.MINUTE - (System.currentTimeMillis() % AverageAggregator.MINUTE);
         scheduler.scheduleAtFixedRate(storageWorker, startDelay, AverageAggregator.MINUTE, TimeUnit.MILLISECONDS);
 
+        //same thread as storage worker and shifted from it, so checkpoint is taken between storage runs
+        long checkpointPeriod = TimeUnit.MINUTES.toMillis(holder.props.getIntProperty("aggregation.checkpoint.period", 5));
+        if (checkpointPeriod > 0) {
+            scheduler.scheduleAtFixedRate(holder.averageAggregator::checkpoint, startDelay + AverageAggregator.MINUTE / 4,
+                    checkpointPeriod, TimeUnit.MILLISECONDS);
+        }
+
+        long minuteRetention = TimeUnit.MINUTES.toMillis(holder.props.getIntProperty("reporting.retention.minute", 0));
+        long hourlyRetention = TimeUnit.HOURS.toMillis(holder.props.getIntProperty("reporting.retention.hourly", 0));
+        long dailyRetention = TimeUnit.DAYS.toMillis(holder.props.getIntProperty("reporting.retention.daily", 0));
+        if (minuteRetention > 0 || hourlyRetention > 0 || dailyRetention > 0) {
+            //retention runs on same thread as storage worker, so compacted files are never appended in parallel
+            ReportingRetentionWorker retentionWorker = new ReportingRetentionWorker(
+                    reportingFolder,
+                    holder.reportingDao.channelCache,
+                    holder.reportingDao.graphCache,
+                    holder.stats,
+                    minuteRetention,
+                    hourlyRetention,
+                    dailyRetention,
+                    holder.props.getIntProperty("reporting.retention.users.per.run", 500)
+            );
+            scheduler.scheduleAtFixedRate(retentionWorker, startDelay + AverageAggregator.MINUTE / 2,
+                    AverageAggregator.MINUTE, TimeUnit.MILLISECONDS);
+        }
+
         scheduler.scheduleAtFixedRate(holder.profileSaverWorker, 1000,
                 holder.props.getIntProperty("profile.save.worker.period"), TimeUnit.MILLISECONDS);
 
+        //pin values are written to mapped file on every change, here they are only forced to disk
+        scheduler.scheduleAtFixedRate(holder.pinStateDao::flush, 1000,
+                holder.props.getIntProperty("profile.save.worker.period"), TimeUnit.MILLISECONDS);
+
         StatsWorker statsWorker = new StatsWorker(holder.stats, holder.sessionDao, holder.userDao);
         scheduler.scheduleAtFixedRate(statsWorker, 1000,
                 holder.props.getIntProperty("stats.print.worker.period"), TimeUnit.MILLISECONDS);
@@ -51,9 +94,24 @@ class JobLauncher {
         Executors.newScheduledThreadPool(1).scheduleAtFixedRate(
                 new TimerWorker(holder.userDao, holder.sessionDao), startDelay, 1000, TimeUnit.MILLISECONDS);
 
+        //consolidated users snapshot for fast start, written periodically and on shutdown
+        UserSnapshotWorker snapshotWorker = null;
+        long snapshotPeriod = holder.props.getIntProperty("user.snapshot.period", 0);
+        if (snapshotPeriod > 0) {
+            snapshotWorker = new UserSnapshotWorker(holder.userDao, holder.fileManager);
+            scheduler.scheduleAtFixedRate(snapshotWorker, snapshotPeriod, snapshotPeriod, TimeUnit.MINUTES);
+        }
+
+        //separate thread for journal, so long storage and retention runs don't delay journal fsync
+        if (holder.userJournal.enabled) {
+            long journalPeriod = holder.props.getIntProperty("profile.journal.sync.period", 0);
+            Executors.newScheduledThreadPool(1).scheduleAtFixedRate(
+                    holder.profileSaverWorker::journal, journalPeriod, journalPeriod, TimeUnit.MILLISECONDS);
+        }
+
         //shutdown hook thread catcher
         Runtime.getRuntime().addShutdownHook(new Thread(
-                new ShutdownHookWorker(servers, holder, scheduler, holder.profileSaverWorker)
+                new ShutdownHookWorker(servers, holder, scheduler, holder.profileSaverWorker, snapshotWorker)
         ));
     }
 
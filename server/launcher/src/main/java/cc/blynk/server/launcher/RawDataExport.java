@@ -0,0 +1,53 @@
+package cc.blynk.server.launcher;
+
+import cc.blynk.server.core.reporting.raw.RawDataFile;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line tool that converts binary raw data journal files to CSV.
+ *
+ * Usage : java -cp server.jar cc.blynk.server.launcher.RawDataExport <dataFolder> <outFolder> [username]
+ *
+ * Where dataFolder is reporting folder with user folders inside ("data" within server data folder).
+ * CSV files are created within outFolder/username folder.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class RawDataExport {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage : RawDataExport <dataFolder> <outFolder> [username]");
+            return;
+        }
+
+        Path dataFolder = Paths.get(args[0]);
+        Path outFolder = Paths.get(args[1]);
+
+        if (args.length > 2) {
+            export(dataFolder.resolve(args[2]), outFolder);
+            return;
+        }
+
+        try (DirectoryStream<Path> userFolders = Files.newDirectoryStream(dataFolder, Files::isDirectory)) {
+            for (Path userFolder : userFolders) {
+                export(userFolder, outFolder);
+            }
+        }
+    }
+
+    private static void export(Path userFolder, Path outFolder) throws Exception {
+        Path userOutFolder = outFolder.resolve(userFolder.getFileName());
+        int files = RawDataFile.exportFolder(userFolder, userOutFolder);
+        if (files > 0) {
+            System.out.println("Exported " + files + " files of " + userFolder.getFileName() + " to " + userOutFolder);
+        }
+    }
+
+}
@@ -59,7 +59,8 @@ public class ServerLauncher {
     private static void start(ServerProperties serverProperties) {
         final Holder holder = new Holder(serverProperties);
 
-        holder.profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
+        holder.profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager,
+                holder.stats, holder.userJournal, serverProperties.getIntProperty("profile.save.worker.threads", 2));
 
         final BaseServer[] servers = new BaseServer[] {
                 new HardwareServer(holder),
@@ -0,0 +1,140 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.model.enums.GraphType;
+import cc.blynk.server.core.reporting.GraphCache;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
+import cc.blynk.server.core.reporting.ReportingRetention;
+import cc.blynk.server.core.stats.GlobalStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Worker that removes outdated records from per-pin reporting files.
+ * Every run compacts only limited slice of users, so full pass over all users
+ * is spread over many runs and never blocks storage thread for long.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class ReportingRetentionWorker implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(ReportingRetentionWorker.class);
+
+    private final Path reportingFolder;
+    private final ReportingChannelCache channelCache;
+    private final GraphCache graphCache;
+    private final GlobalStats stats;
+    //retention per graph type in millis, 0 means records are kept forever
+    private final long[] retention;
+    private final int usersPerRun;
+
+    private List<Path> userFolders = Collections.emptyList();
+    private int cursor;
+    private long cycleStart;
+
+    public ReportingRetentionWorker(String reportingPath, ReportingChannelCache channelCache, GraphCache graphCache,
+                                    GlobalStats stats, long minuteRetention, long hourlyRetention, long dailyRetention,
+                                    int usersPerRun) {
+        this.reportingFolder = Paths.get(reportingPath);
+        this.channelCache = channelCache;
+        this.graphCache = graphCache;
+        this.stats = stats;
+        this.retention = new long[GraphType.values().length];
+        this.retention[GraphType.MINUTE.ordinal()] = minuteRetention;
+        this.retention[GraphType.HOURLY.ordinal()] = hourlyRetention;
+        this.retention[GraphType.DAILY.ordinal()] = dailyRetention;
+        this.usersPerRun = Math.max(1, usersPerRun);
+    }
+
+    private static GraphType getType(String fileName) {
+        if (fileName.endsWith("_minute.bin")) {
+            return GraphType.MINUTE;
+        }
+        if (fileName.endsWith("_hourly.bin")) {
+            return GraphType.HOURLY;
+        }
+        if (fileName.endsWith("_daily.bin")) {
+            return GraphType.DAILY;
+        }
+        return null;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (cursor >= userFolders.size()) {
+                startCycle();
+            }
+
+            long now = System.currentTimeMillis();
+            int end = Math.min(userFolders.size(), cursor + usersPerRun);
+            for (; cursor < end; cursor++) {
+                compactUser(userFolders.get(cursor), now);
+                stats.retentionUsers.increment();
+            }
+
+            log.debug("Reporting retention. Processed {} of {} users.", cursor, userFolders.size());
+            if (cursor >= userFolders.size() && userFolders.size() > 0) {
+                stats.retentionCycles.increment();
+                log.info("Reporting retention pass over {} users finished. Time : {} ms.",
+                        userFolders.size(), now - cycleStart);
+            }
+        } catch (Exception e) {
+            log.error("Error during reporting retention.", e);
+        }
+    }
+
+    private void startCycle() {
+        cursor = 0;
+        cycleStart = System.currentTimeMillis();
+        userFolders = Collections.emptyList();
+        if (Files.notExists(reportingFolder)) {
+            return;
+        }
+
+        List<Path> folders = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(reportingFolder, Files::isDirectory)) {
+            for (Path userFolder : stream) {
+                folders.add(userFolder);
+            }
+        } catch (IOException e) {
+            log.error("Error listing reporting folder {}. Reason : {}", reportingFolder, e.getMessage());
+        }
+        userFolders = folders;
+    }
+
+    private void compactUser(Path userFolder, long now) {
+        try (DirectoryStream<Path> tailFiles = Files.newDirectoryStream(userFolder, "*.bin")) {
+            for (Path tailFile : tailFiles) {
+                GraphType type = getType(tailFile.getFileName().toString());
+                if (type == null || retention[type.ordinal()] == 0) {
+                    continue;
+                }
+                try {
+                    long reclaimed = ReportingRetention.compact(tailFile, now - retention[type.ordinal()], channelCache);
+                    if (reclaimed > 0) {
+                        graphCache.invalidate(tailFile);
+                        stats.retentionFiles.increment();
+                        stats.retentionReclaimedBytes.add(reclaimed);
+                    }
+                } catch (IOException e) {
+                    log.error("Error compacting reporting file {}. Reason : {}", tailFile, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            //user folder could be removed in between
+            log.debug("Error listing reporting folder {}. Reason : {}", userFolder, e.getMessage());
+        }
+    }
+
+}
@@ -17,14 +17,18 @@ public class ShutdownHookWorker implements Runnable {
     private final BaseServer[] servers;
     private final Holder holder;
     private final ProfileSaverWorker profileSaverWorker;
+    //null in case snapshot is disabled
+    private final UserSnapshotWorker snapshotWorker;
     private final ScheduledExecutorService scheduler;
 
     public ShutdownHookWorker(BaseServer[] servers, Holder holder,
                               ScheduledExecutorService scheduler,
-                              ProfileSaverWorker profileSaverWorker) {
+                              ProfileSaverWorker profileSaverWorker,
+                              UserSnapshotWorker snapshotWorker) {
         this.servers = servers;
         this.holder = holder;
         this.profileSaverWorker = profileSaverWorker;
+        this.snapshotWorker = snapshotWorker;
         this.scheduler = scheduler;
     }
 
@@ -43,11 +47,23 @@ public class ShutdownHookWorker implements Runnable {
         System.out.println("Saving user profiles...");
         profileSaverWorker.close();
 
+        if (snapshotWorker != null) {
+            System.out.println("Writing users snapshot...");
+            snapshotWorker.run();
+        }
+
+        System.out.println("Saving pin values...");
+        holder.pinStateDao.close();
+
         System.out.println("Stopping aggregator...");
         holder.averageAggregator.close();
 
+        System.out.println("Closing reporting files...");
+        holder.reportingDao.close();
+
         System.out.println("Stopping BlockingIOProcessor...");
         holder.blockingIOProcessor.close();
+        holder.graphReadProcessor.close();
 
         holder.dbManager.close();
 
@@ -1,19 +1,20 @@
 package cc.blynk.server.workers;
 
 import cc.blynk.server.core.model.enums.GraphType;
+import cc.blynk.server.core.reporting.GraphCache;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
 import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationMap;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregator;
+import cc.blynk.server.core.reporting.segment.SegmentSealer;
 import cc.blynk.server.db.DBManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.*;
 
@@ -22,6 +23,10 @@ import static cc.blynk.server.core.dao.ReportingDao.*;
 /**
  * Worker that runs once a minute. During run - stores all aggregated reporting data
  * to disk. Also sends all data in batches to RDBMS in case DBManager was initialized.
+ * Stored minutes are folded into hourly aggregation and stored hours into daily one.
+ * Reporting files are kept open between runs within {@link ReportingChannelCache}.
+ * Files that reached seal threshold are moved to compressed segments at the end of run.
+ * Stored records are appended to cached graph series, so {@link GraphCache} is never stale.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -34,84 +39,92 @@ public class StorageWorker implements Runnable {
 
     private final AverageAggregator averageAggregator;
     private final String reportingPath;
+    private final ReportingChannelCache channelCache;
+    private final GraphCache graphCache;
     private final DBManager dbManager;
 
-    public StorageWorker(AverageAggregator averageAggregator, String reportingPath, DBManager dbManager) {
+    public StorageWorker(AverageAggregator averageAggregator, String reportingPath,
+                         ReportingChannelCache channelCache, GraphCache graphCache, DBManager dbManager) {
         this.averageAggregator = averageAggregator;
         this.reportingPath = reportingPath;
+        this.channelCache = channelCache;
+        this.graphCache = graphCache;
         this.dbManager = dbManager;
     }
 
-    /**
-     * Simply writes single reporting entry to disk (16 bytes).
-     * Reporting entry is value (double) and timestamp (long)
-     *
-     * @param reportingPath - path to user specific reporting file
-     * @param value - sensor data
-     * @param ts - time when entry was created
-     * @throws IOException
-     */
-    public static void write(Path reportingPath, double value, long ts) throws IOException {
-        try (DataOutputStream dos = new DataOutputStream(
-                Files.newOutputStream(reportingPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
-            dos.writeDouble(value);
-            dos.writeLong(ts);
-            dos.flush();
-        }
-    }
-
     @Override
     public void run() {
         Map<AggregationKey, AggregationValue> removedKeys;
 
+        //order is important, closed minutes should be folded to hours before hours are stored
         removedKeys = process(averageAggregator.getMinute(), GraphType.MINUTE);
+        averageAggregator.rollUp(removedKeys, GraphType.MINUTE);
         dbManager.insertReporting(removedKeys, GraphType.MINUTE);
 
         removedKeys = process(averageAggregator.getHourly(), GraphType.HOURLY);
+        averageAggregator.rollUp(removedKeys, GraphType.HOURLY);
         dbManager.insertReporting(removedKeys, GraphType.HOURLY);
 
         removedKeys = process(averageAggregator.getDaily(), GraphType.DAILY);
         dbManager.insertReporting(removedKeys, GraphType.DAILY);
 
+        averageAggregator.stored();
+
         dbManager.cleanOldReportingRecords(Instant.now());
+
+        sealFullFiles();
+
+        log.debug("Reporting channels. Open {}, hits {}, misses {}, evictions {}.", channelCache.size(),
+                channelCache.hits.sum(), channelCache.misses.sum(), channelCache.evictions.sum());
     }
 
     /**
-     * Iterates over all reporting entries that were created during last minute.
-     * And stores all entries one by one to disk.
+     * Removes all reporting entries of finished periods from aggregator.
+     * Appends all entries to open reporting files and flushes them at once.
      *
      * @param map - reporting entires that were created during last minute.
      * @param type - type of reporting. Could be minute, hourly, daily.
      * @return - returns list of reporting entries that were successfully flushed to disk.
      */
-    private Map<AggregationKey, AggregationValue>  process(Map<AggregationKey, AggregationValue> map, GraphType type) {
+    private Map<AggregationKey, AggregationValue> process(AggregationMap map, GraphType type) {
         long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
 
-        List<AggregationKey> keys = new ArrayList<>(map.keySet());
-        Collections.sort(keys, AGGREGATION_KEY_COMPARATOR);
-
-        Map<AggregationKey, AggregationValue> removedKeys = new HashMap<>();
+        Map<AggregationKey, AggregationValue> removedKeys = map.removeOlderThan(nowTruncatedToPeriod);
+        //lowered to oldest bucket that failed, so it is restored from checkpoint after crash
+        long storedThrough = nowTruncatedToPeriod;
 
-        for (AggregationKey keyToRemove : keys) {
-            //if prev hour
-            if (keyToRemove.ts < nowTruncatedToPeriod) {
-                AggregationValue value = map.get(keyToRemove);
+        List<AggregationKey> keys = new ArrayList<>(removedKeys.keySet());
+        Collections.sort(keys, AGGREGATION_KEY_COMPARATOR);
 
-                try {
-                    final Path userReportFolder = Paths.get(reportingPath, keyToRemove.username);
-                    if (Files.notExists(userReportFolder)) {
-                        Files.createDirectories(userReportFolder);
-                    }
+        for (AggregationKey key : keys) {
+            AggregationValue value = removedKeys.get(key);
+            try {
+                channelCache.append(getPath(key, type), value.calcAverage(), key.ts * type.period);
+            } catch (IOException ioe) {
+                log.error("Error open user data reporting file. Reason : {}", ioe.getMessage());
+                //returning back to aggregator, will be retried during next run
+                map.merge(key, removedKeys.remove(key));
+                storedThrough = Math.min(storedThrough, key.ts);
+            }
+        }
 
-                    String fileName = generateFilename(keyToRemove.dashId, keyToRemove.pinType, keyToRemove.pin, type);
-                    Path filePath = Paths.get(userReportFolder.toString(), fileName);
+        Set<Path> failedPaths = channelCache.flush();
+        if (failedPaths.size() > 0) {
+            for (AggregationKey key : keys) {
+                if (removedKeys.containsKey(key) && failedPaths.contains(getPath(key, type))) {
+                    map.merge(key, removedKeys.remove(key));
+                    storedThrough = Math.min(storedThrough, key.ts);
+                }
+            }
+        }
 
-                    write(filePath, value.calcAverage(), keyToRemove.ts * type.period);
+        averageAggregator.stored(type, nowTruncatedToPeriod, storedThrough);
 
-                    final AggregationValue removedValue = map.remove(keyToRemove);
-                    removedKeys.put(keyToRemove, removedValue);
-                } catch (IOException ioe) {
-                    log.error("Error open user data reporting file. Reason : {}", ioe.getMessage());
+        if (graphCache.isEnabled()) {
+            for (AggregationKey key : keys) {
+                AggregationValue value = removedKeys.get(key);
+                if (value != null) {
+                    graphCache.append(getPath(key, type), value.calcAverage(), key.ts * type.period);
                 }
             }
         }
@@ -119,4 +132,18 @@ public class StorageWorker implements Runnable {
         return removedKeys;
     }
 
+    private void sealFullFiles() {
+        for (Path path : channelCache.drainFull()) {
+            try {
+                SegmentSealer.seal(path, channelCache);
+            } catch (IOException e) {
+                log.error("Error sealing reporting file {}. Reason : {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private Path getPath(AggregationKey key, GraphType type) {
+        return Paths.get(reportingPath, key.username, generateFilename(key.dashId, key.pinType, key.pin, type));
+    }
+
 }
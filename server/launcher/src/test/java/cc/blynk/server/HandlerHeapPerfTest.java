@@ -0,0 +1,82 @@
+package cc.blynk.server;
+
+import cc.blynk.server.application.handlers.main.AppHandler;
+import cc.blynk.server.application.handlers.main.AppLogicHolder;
+import cc.blynk.server.application.handlers.main.auth.AppStateHolder;
+import cc.blynk.server.application.handlers.main.auth.OsType;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.hardware.handlers.hardware.HardwareHandler;
+import cc.blynk.server.hardware.handlers.hardware.HardwareLogicHolder;
+import cc.blynk.utils.ServerProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap allocated per logged in connection. Run with "-prof gc" and compare gc.alloc.rate.norm,
+ * that is bytes allocated per created handler :
+ *
+ *  sharedLogic - handlers as they are created on login now, command logic comes from
+ *                {@link AppLogicHolder} / {@link HardwareLogicHolder} owned by server.
+ *  perConnectionLogic - same handlers with logic instantiated for every connection,
+ *                as it was done before logic holders were introduced.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HandlerHeapPerfTest {
+
+    private Holder holder;
+    private AppLogicHolder appLogic;
+    private HardwareLogicHolder hardwareLogic;
+    private User user;
+    private Session session;
+
+    @Setup
+    public void setup() throws Exception {
+        ServerProperties props = new ServerProperties();
+        props.setProperty("data.folder", Files.createTempDirectory("blynk_heap").toString());
+        holder = new Holder(props, null, null, null, null);
+        appLogic = new AppLogicHolder(holder);
+        hardwareLogic = new HardwareLogicHolder(holder);
+        user = new User("test@test.com", "pass");
+        session = new Session(null);
+    }
+
+    @TearDown
+    public void close() {
+        holder.blockingIOProcessor.close();
+        holder.graphReadProcessor.close();
+    }
+
+    @Benchmark
+    public AppHandler appSharedLogic() {
+        return new AppHandler(holder, session, new AppStateHolder(user, OsType.ANDROID, "1.15.2", false, false), appLogic);
+    }
+
+    @Benchmark
+    public AppHandler appPerConnectionLogic() {
+        return new AppHandler(holder, session, new AppStateHolder(user, OsType.ANDROID, "1.15.2", false, false), new AppLogicHolder(holder));
+    }
+
+    @Benchmark
+    public HardwareHandler hardwareSharedLogic() {
+        return new HardwareHandler(holder, session, new HardwareStateHolder(1, user, "token"), hardwareLogic);
+    }
+
+    @Benchmark
+    public HardwareHandler hardwarePerConnectionLogic() {
+        return new HardwareHandler(holder, session, new HardwareStateHolder(1, user, "token"), new HardwareLogicHolder(holder));
+    }
+
+}
@@ -1,8 +1,8 @@
 package cc.blynk.server.storage;
 
 import cc.blynk.server.core.model.graph.GraphKey;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
 import cc.blynk.server.core.reporting.average.AverageAggregator;
-import cc.blynk.server.workers.StorageWorker;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -41,8 +41,10 @@ public class StorageTest {
         Path path = Paths.get("/home/doom369/blynk/data/dmitriy@blynk.cc/daily_data.bin");
         //now - 365 days.
         long ts  = (System.currentTimeMillis() / AverageAggregator.DAY - 365);
-        for (int i = 0; i < 365; i++ ) {
-            StorageWorker.write(path, i, (ts + i) * AverageAggregator.DAY);
+        try (ReportingChannelCache cache = new ReportingChannelCache(1)) {
+            for (int i = 0; i < 365; i++ ) {
+                cache.append(path, i, (ts + i) * AverageAggregator.DAY);
+            }
         }
     }
 
@@ -53,8 +55,10 @@ public class StorageTest {
         Path path = Paths.get("/home/doom369/blynk/data/dmitriy@blynk.cc/hourly_data.bin");
         //now - 1 week.
         long ts  = (System.currentTimeMillis() / AverageAggregator.HOUR - count);
-        for (int i = 0; i < count; i++ ) {
-            StorageWorker.write(path, i, (ts + i) * AverageAggregator.HOUR);
+        try (ReportingChannelCache cache = new ReportingChannelCache(1)) {
+            for (int i = 0; i < count; i++ ) {
+                cache.append(path, i, (ts + i) * AverageAggregator.HOUR);
+            }
         }
     }
 
@@ -3,18 +3,29 @@ package cc.blynk.server.workers;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.dao.UserFileBatch;
+import cc.blynk.server.core.dao.UserJournal;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 /**
@@ -25,63 +36,217 @@ import static org.mockito.Mockito.*;
 @RunWith(MockitoJUnitRunner.class)
 public class ProfileSaverWorkerTest {
 
-    @Mock
-    private UserDao userDao;
-
     @Mock
     private FileManager fileManager;
 
     @Mock
-    private GlobalStats stats;
+    private UserFileBatch batch;
+
+    private GlobalStats stats = new GlobalStats();
 
     private BlockingIOProcessor blockingIOProcessor = new BlockingIOProcessor(1, 1, null);
 
+    private ProfileSaverWorker worker(UserDao userDao) {
+        UserJournal journal = new UserJournal(Paths.get(System.getProperty("java.io.tmpdir")), false);
+        return new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor), stats, journal, 2);
+    }
+
+    @Before
+    public void init() {
+        when(fileManager.newBatch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(Collections.emptyList());
+    }
+
     @Test
     public void testCorrectProfilesAreSaved() throws IOException {
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor));
+        UserDao userDao = new UserDao(new ConcurrentHashMap<>());
+        ProfileSaverWorker profileSaverWorker = worker(userDao);
 
         User user1 = new User("1", "");
         User user2 = new User("2", "");
         User user3 = new User("3", "");
         User user4 = new User("4", "");
 
-        Map<String, User> userMap = new HashMap<>();
-        userMap.put("1", user1);
-        userMap.put("2", user2);
-        userMap.put("3", user3);
-        userMap.put("4", user4);
+        userDao.add(user1);
+        userDao.add(user2);
+        userDao.add(user3);
+        userDao.add(user4);
+        assertEquals(4, userDao.dirtyUsers.size());
 
-        when(userDao.getUsers()).thenReturn(userMap);
         profileSaverWorker.run();
 
-        verify(fileManager, times(4)).overrideUserFile(any());
-        verify(fileManager).overrideUserFile(user1);
-        verify(fileManager).overrideUserFile(user2);
-        verify(fileManager).overrideUserFile(user3);
-        verify(fileManager).overrideUserFile(user4);
+        verify(batch, times(4)).write(any());
+        verify(batch).write(user1);
+        verify(batch).write(user2);
+        verify(batch).write(user3);
+        verify(batch).write(user4);
+        verify(fileManager).syncDataDir();
+        assertEquals(0, userDao.dirtyUsers.size());
+        assertEquals(4, stats.profileSaves.sum());
+
+        //nothing changed since last run
+        profileSaverWorker.run();
+        verify(batch, times(4)).write(any());
+        verify(fileManager).syncDataDir();
     }
 
     @Test
     public void testNoProfileChanges() throws Exception {
+        ConcurrentMap<String, User> userMap = new ConcurrentHashMap<>();
+        userMap.put("1", new User("1", ""));
+        userMap.put("2", new User("2", ""));
+        userMap.put("3", new User("3", ""));
+        userMap.put("4", new User("4", ""));
+
+        ProfileSaverWorker profileSaverWorker = worker(new UserDao(userMap));
+        profileSaverWorker.run();
+
+        verifyNoMoreInteractions(fileManager);
+    }
+
+    @Test
+    public void testModificationsCoalesced() throws Exception {
+        User user = new User("1", "");
+        ConcurrentMap<String, User> userMap = new ConcurrentHashMap<>();
+        userMap.put("1", user);
+        UserDao userDao = new UserDao(userMap);
+        ProfileSaverWorker profileSaverWorker = worker(userDao);
+
+        user.purchaseEnergy(100);
+        user.subtractEnergy(10, 1);
+        user.putToken(1, "token", user.dashTokens);
+        assertEquals(1, userDao.dirtyUsers.size());
+
+        profileSaverWorker.run();
+        verify(batch, times(1)).write(user);
+
+        //modified after save, so queued again
+        user.recycleEnergy(10);
+        assertEquals(1, userDao.dirtyUsers.size());
+        profileSaverWorker.run();
+        verify(batch, times(2)).write(user);
+    }
+
+    @Test
+    public void testFailedSaveIsRetried() throws Exception {
+        UserDao userDao = new UserDao(new ConcurrentHashMap<>());
+        ProfileSaverWorker profileSaverWorker = worker(userDao);
+        User user = new User("1", "");
+        userDao.add(user);
+
+        doThrow(new IOException()).doNothing().when(batch).write(user);
+
+        profileSaverWorker.run();
+        assertEquals(1, userDao.dirtyUsers.size());
+        assertEquals(1, stats.profileSaveErrors.sum());
+
+        profileSaverWorker.run();
+        assertEquals(0, userDao.dirtyUsers.size());
+        verify(batch, times(2)).write(user);
+    }
+
+    @Test
+    public void testFailedCommitIsRetried() throws Exception {
+        UserDao userDao = new UserDao(new ConcurrentHashMap<>());
+        ProfileSaverWorker profileSaverWorker = worker(userDao);
+        User user = new User("1", "");
+        userDao.add(user);
+
+        when(batch.commit()).thenReturn(Collections.singletonList(user)).thenReturn(Collections.emptyList());
+
+        profileSaverWorker.run();
+        assertEquals(1, userDao.dirtyUsers.size());
+        assertEquals(1, stats.profileSaveErrors.sum());
+
+        profileSaverWorker.run();
+        assertEquals(0, userDao.dirtyUsers.size());
+        verify(batch, times(2)).write(user);
+    }
+
+    @Test
+    public void testDeletedUserNotSaved() throws Exception {
+        UserDao userDao = new UserDao(new ConcurrentHashMap<>());
+        ProfileSaverWorker profileSaverWorker = worker(userDao);
+        User user = new User("1", "");
+        userDao.add(user);
+        userDao.delete(user.name);
+
+        profileSaverWorker.run();
+        verify(batch, never()).write(user);
+        assertEquals(0, userDao.dirtyUsers.size());
+    }
+
+    @Test
+    public void testJournaledUsersSnapshot() throws Exception {
+        Path dataDir = Files.createTempDirectory("journal");
+        UserJournal journal = new UserJournal(dataDir, true);
+        journal.open(new ConcurrentHashMap<>(), fileManager);
+
+        UserDao userDao = new UserDao(new ConcurrentHashMap<>());
+        ProfileSaverWorker profileSaverWorker =
+                new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor), stats, journal, 2);
         User user1 = new User("1", "");
         User user2 = new User("2", "");
-        User user3 = new User("3", "");
-        User user4 = new User("4", "");
+        userDao.add(user1);
+        userDao.add(user2);
 
-        Map<String, User> userMap = new HashMap<>();
-        userMap.put("1", user1);
-        userMap.put("2", user2);
-        userMap.put("3", user3);
-        userMap.put("4", user4);
+        assertTrue(profileSaverWorker.journal());
+        assertEquals(0, userDao.dirtyUsers.size());
+        verify(batch, never()).write(any());
 
-        Thread.sleep(1);
-
-        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor));
+        profileSaverWorker.run();
+        verify(batch).write(user1);
+        verify(batch).write(user2);
 
-        when(userDao.getUsers()).thenReturn(userMap);
+        //nothing journaled since snapshot
         profileSaverWorker.run();
+        verify(batch, times(2)).write(any());
 
-        verifyNoMoreInteractions(fileManager);
+        profileSaverWorker.close();
+        try (Stream<Path> files = Files.list(dataDir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.delete(dataDir);
+    }
+
+    @Test
+    public void testJournalNotBlockedBySnapshot() throws Exception {
+        Path dataDir = Files.createTempDirectory("journal");
+        UserJournal journal = new UserJournal(dataDir, true);
+        journal.open(new ConcurrentHashMap<>(), fileManager);
+
+        UserDao userDao = new UserDao(new ConcurrentHashMap<>());
+        ProfileSaverWorker profileSaverWorker =
+                new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor), stats, journal, 2);
+        User user = new User("1", "");
+        userDao.add(user);
+
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            saving.countDown();
+            release.await();
+            return null;
+        }).when(batch).write(user);
+
+        Thread snapshot = new Thread(profileSaverWorker);
+        snapshot.start();
+        assertTrue(saving.await(5, TimeUnit.SECONDS));
+
+        //modified while snapshot writes profile files
+        user.purchaseEnergy(100);
+        assertTrue(profileSaverWorker.journal());
+        assertEquals(0, userDao.dirtyUsers.size());
+
+        release.countDown();
+        snapshot.join(5000);
+        assertFalse(snapshot.isAlive());
+
+        profileSaverWorker.close();
+        try (Stream<Path> files = Files.list(dataDir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.delete(dataDir);
     }
 
 }
@@ -0,0 +1,114 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.model.enums.GraphType;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.GraphCache;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
+import cc.blynk.server.core.reporting.segment.SegmentFile;
+import cc.blynk.server.core.reporting.segment.SegmentSealer;
+import cc.blynk.server.core.stats.GlobalStats;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static cc.blynk.server.core.dao.ReportingDao.*;
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class ReportingRetentionWorkerTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    private Path reportingFolder;
+    private ReportingChannelCache channelCache;
+
+    @Before
+    public void init() throws Exception {
+        reportingFolder = Files.createTempDirectory("retention");
+        channelCache = new ReportingChannelCache(16);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        channelCache.close();
+        FileUtils.deleteDirectory(reportingFolder.toFile());
+    }
+
+    @Test
+    public void testTailTruncatedFromHead() throws Exception {
+        long now = System.currentTimeMillis();
+        Path minute = file("user", GraphType.MINUTE);
+        for (int i = 120; i > 0; i--) {
+            channelCache.append(minute, i, now - i * 60_000L);
+        }
+        channelCache.flush();
+
+        GlobalStats stats = new GlobalStats();
+        new ReportingRetentionWorker(reportingFolder.toString(), channelCache, new GraphCache(0, stats), stats,
+                60 * 60_000L - 30_000L, 0, 0, 10).run();
+
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(minute));
+        assertEquals(59 * 16, records.capacity());
+        assertEquals(59, records.getDouble(), 0);
+        assertEquals(61 * 16, stats.retentionReclaimedBytes.sum());
+
+        //cached channel was invalidated, so appends go to new file
+        channelCache.append(minute, 0, now);
+        channelCache.flush();
+        assertEquals(60 * 16, Files.size(minute));
+    }
+
+    @Test
+    public void testOutdatedRecordsRemovedInSlices() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int user = 0; user < 3; user++) {
+            Path hourly = file("user" + user, GraphType.HOURLY);
+            Path daily = file("user" + user, GraphType.DAILY);
+            //600 hours of hourly data, 512 oldest records are moved to segments
+            for (int i = 600; i > 0; i--) {
+                channelCache.append(hourly, i, now - i * HOUR);
+                channelCache.append(daily, i, now - i * HOUR);
+            }
+            channelCache.flush();
+            SegmentSealer.seal(hourly, channelCache);
+        }
+
+        GlobalStats stats = new GlobalStats();
+        ReportingRetentionWorker worker = new ReportingRetentionWorker(reportingFolder.toString(),
+                channelCache, new GraphCache(0, stats), stats, HOUR, 100 * HOUR - HOUR / 2, 0, 2);
+
+        worker.run();
+        assertEquals(2, stats.retentionUsers.sum());
+        assertEquals(0, stats.retentionCycles.sum());
+
+        worker.run();
+        assertEquals(3, stats.retentionUsers.sum());
+        assertEquals(1, stats.retentionCycles.sum());
+        assertEquals(3, stats.retentionFiles.sum());
+
+        for (int user = 0; user < 3; user++) {
+            Path hourly = file("user" + user, GraphType.HOURLY);
+            //segment with hours 600..345 is outdated, segment with hours 344..89 is partially within retention
+            assertEquals(1, SegmentFile.readIndex(SegmentFile.getSegmentPath(hourly)).size());
+            ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(hourly));
+            assertEquals(88 * 16, records.capacity());
+            assertEquals(88, records.getDouble(), 0);
+            //daily retention is disabled
+            assertEquals(600 * 16, Files.size(file("user" + user, GraphType.DAILY)));
+        }
+    }
+
+    private Path file(String username, GraphType type) {
+        return reportingFolder.resolve(username).resolve(generateFilename(1, PinType.VIRTUAL, (byte) 1, type));
+    }
+
+}
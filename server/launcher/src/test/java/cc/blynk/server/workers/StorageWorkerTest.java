@@ -4,9 +4,15 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.model.enums.GraphType;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.GraphCache;
+import cc.blynk.server.core.reporting.ReportingChannelCache;
+import cc.blynk.server.core.reporting.average.AggregationCheckpoint;
 import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationMap;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregator;
+import cc.blynk.server.core.reporting.average.UserIdTable;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.ReportingUtil;
 import cc.blynk.utils.ServerProperties;
@@ -14,6 +20,7 @@ import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -25,7 +32,7 @@ import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 
 import static cc.blynk.server.core.dao.ReportingDao.*;
 import static cc.blynk.utils.ReportingUtil.*;
@@ -64,9 +71,9 @@ public class StorageWorkerTest {
 
     @Test
     public void testStore() throws IOException {
-        StorageWorker storageWorker = new StorageWorker(averageAggregator, reportingFolder, new DBManager(blockingIOProcessor));
+        StorageWorker storageWorker = new StorageWorker(averageAggregator, reportingFolder, new ReportingChannelCache(2), new GraphCache(0, new GlobalStats()), new DBManager(blockingIOProcessor));
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationMap map = new AggregationMap(new UserIdTable());
 
         long ts = getTS() / AverageAggregator.HOUR;
 
@@ -80,13 +87,13 @@ public class StorageWorkerTest {
         AggregationValue aggregationValue3 = new AggregationValue();
         aggregationValue3.update(200);
 
-        map.put(aggregationKey, aggregationValue);
-        map.put(aggregationKey2, aggregationValue2);
-        map.put(aggregationKey3, aggregationValue3);
+        map.merge(aggregationKey, aggregationValue);
+        map.merge(aggregationKey2, aggregationValue2);
+        map.merge(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getMinute()).thenReturn(new AggregationMap(new UserIdTable()));
         when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getDaily()).thenReturn(new AggregationMap(new UserIdTable()));
 
         storageWorker.run();
 
@@ -114,9 +121,9 @@ public class StorageWorkerTest {
 
     @Test
     public void testStore2() throws IOException {
-        StorageWorker storageWorker = new StorageWorker(averageAggregator, reportingFolder, new DBManager(blockingIOProcessor));
+        StorageWorker storageWorker = new StorageWorker(averageAggregator, reportingFolder, new ReportingChannelCache(2), new GraphCache(0, new GlobalStats()), new DBManager(blockingIOProcessor));
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationMap map = new AggregationMap(new UserIdTable());
 
         long ts = getTS() / AverageAggregator.HOUR;
 
@@ -130,13 +137,13 @@ public class StorageWorkerTest {
         AggregationValue aggregationValue3 = new AggregationValue();
         aggregationValue3.update(200);
 
-        map.put(aggregationKey, aggregationValue);
-        map.put(aggregationKey2, aggregationValue2);
-        map.put(aggregationKey3, aggregationValue3);
+        map.merge(aggregationKey, aggregationValue);
+        map.merge(aggregationKey2, aggregationValue2);
+        map.merge(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getMinute()).thenReturn(new AggregationMap(new UserIdTable()));
         when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getDaily()).thenReturn(new AggregationMap(new UserIdTable()));
 
         storageWorker.run();
 
@@ -171,9 +178,9 @@ public class StorageWorkerTest {
 
     @Test
     public void testDeleteCommand() throws IOException {
-        StorageWorker storageWorker = new StorageWorker(averageAggregator, reportingFolder, new DBManager(blockingIOProcessor));
+        StorageWorker storageWorker = new StorageWorker(averageAggregator, reportingFolder, new ReportingChannelCache(2), new GraphCache(0, new GlobalStats()), new DBManager(blockingIOProcessor));
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationMap map = new AggregationMap(new UserIdTable());
 
         long ts = getTS() / AverageAggregator.HOUR;
 
@@ -187,13 +194,13 @@ public class StorageWorkerTest {
         AggregationValue aggregationValue3 = new AggregationValue();
         aggregationValue3.update(200);
 
-        map.put(aggregationKey, aggregationValue);
-        map.put(aggregationKey2, aggregationValue2);
-        map.put(aggregationKey3, aggregationValue3);
+        map.merge(aggregationKey, aggregationValue);
+        map.merge(aggregationKey2, aggregationValue2);
+        map.merge(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getMinute()).thenReturn(new AggregationMap(new UserIdTable()));
         when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getDaily()).thenReturn(new AggregationMap(new UserIdTable()));
         when(properties.getProperty("data.folder")).thenReturn(System.getProperty("java.io.tmpdir"));
 
         storageWorker.run();
@@ -201,10 +208,119 @@ public class StorageWorkerTest {
         assertTrue(Files.exists(Paths.get(reportingFolder, "test", generateFilename(1, PinType.ANALOG, (byte) 1, GraphType.HOURLY))));
         assertTrue(Files.exists(Paths.get(reportingFolder, "test2", generateFilename(2, PinType.ANALOG, (byte) 2, GraphType.HOURLY))));
 
-        new ReportingDao(reportingFolder, null, properties).delete("test", 1, PinType.ANALOG, (byte) 1);
+        new ReportingDao(reportingFolder, null, properties, new GlobalStats()).delete("test", 1, PinType.ANALOG, (byte) 1);
         assertFalse(Files.exists(Paths.get(reportingFolder, "test", generateFilename(1, PinType.ANALOG, (byte) 1, GraphType.HOURLY))));
     }
 
+    @Test
+    public void testMinutesRolledUpToHourlyAndDaily() throws IOException {
+        AverageAggregator realAggregator = new AverageAggregator("");
+        StorageWorker storageWorker = new StorageWorker(realAggregator, reportingFolder, new ReportingChannelCache(10), new GraphCache(0, new GlobalStats()), new DBManager(blockingIOProcessor));
+
+        long ts = getTS();
+        long hourStart = ts / AverageAggregator.HOUR * AverageAggregator.HOUR;
+        for (int minute = 0; minute < 3; minute++) {
+            realAggregator.collect("test", 1, PinType.ANALOG, (byte) 1, hourStart + minute * AverageAggregator.MINUTE, minute * 10);
+            realAggregator.collect("test", 1, PinType.ANALOG, (byte) 1, hourStart + minute * AverageAggregator.MINUTE, minute * 10 + 2);
+        }
+
+        storageWorker.run();
+
+        assertEquals(0, realAggregator.getMinute().size());
+        assertEquals(0, realAggregator.getHourly().size());
+        assertEquals(0, realAggregator.getDaily().size());
+
+        byte[] data = ReportingDao.getAllFromDisk(reportingFolder, "test", 1, PinType.ANALOG, (byte) 1, 10, GraphType.MINUTE);
+        assertEquals(48, data.length);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+        for (int minute = 0; minute < 3; minute++) {
+            assertEquals(minute * 10 + 1, byteBuffer.getDouble(), 0.001);
+            assertEquals(hourStart + minute * AverageAggregator.MINUTE, byteBuffer.getLong());
+        }
+
+        data = ReportingDao.getAllFromDisk(reportingFolder, "test", 1, PinType.ANALOG, (byte) 1, 10, GraphType.HOURLY);
+        assertEquals(16, data.length);
+        byteBuffer = ByteBuffer.wrap(data);
+        assertEquals(11, byteBuffer.getDouble(), 0.001);
+        assertEquals(hourStart, byteBuffer.getLong());
+
+        data = ReportingDao.getAllFromDisk(reportingFolder, "test", 1, PinType.ANALOG, (byte) 1, 10, GraphType.DAILY);
+        assertEquals(16, data.length);
+        byteBuffer = ByteBuffer.wrap(data);
+        assertEquals(11, byteBuffer.getDouble(), 0.001);
+        assertEquals(ts / AverageAggregator.DAY * AverageAggregator.DAY, byteBuffer.getLong());
+    }
+
+    @Test
+    public void testCheckpointNotStoredTwiceAfterRestarts() throws IOException {
+        Path dataFolder = Files.createTempDirectory("checkpoint");
+        DBManager dbManager = mock(DBManager.class);
+        long closedMinute = System.currentTimeMillis() - 2 * AverageAggregator.MINUTE;
+
+        AverageAggregator aggregator = new AverageAggregator(dataFolder.toString());
+        aggregator.collect("test", 1, PinType.ANALOG, (byte) 1, closedMinute, 10);
+        aggregator.checkpoint();
+        //crash
+
+        aggregator = new AverageAggregator(dataFolder.toString());
+        assertEquals(1, aggregator.getMinute().size());
+        Path checkpoint = dataFolder.resolve(AggregationCheckpoint.CHECKPOINT_FILENAME);
+        byte[] checkpointData = Files.readAllBytes(checkpoint);
+        new StorageWorker(aggregator, reportingFolder, new ReportingChannelCache(10), new GraphCache(0, new GlobalStats()), dbManager).run();
+        assertEquals(0, aggregator.getMinute().size());
+        //only stored buckets are written after run, checkpoint is kept as is
+        assertArrayEquals(checkpointData, Files.readAllBytes(checkpoint));
+        assertTrue(Files.exists(dataFolder.resolve(AggregationCheckpoint.STORED_FILENAME)));
+        //crash
+
+        aggregator = new AverageAggregator(dataFolder.toString());
+        assertEquals(0, aggregator.getMinute().size());
+        new StorageWorker(aggregator, reportingFolder, new ReportingChannelCache(10), new GraphCache(0, new GlobalStats()), dbManager).run();
+
+        verify(dbManager, times(1)).insertReporting(argThat(new ArgumentMatcher<Map<AggregationKey, AggregationValue>>() {
+            @Override
+            public boolean matches(Object argument) {
+                return !((Map<?, ?>) argument).isEmpty();
+            }
+        }), eq(GraphType.MINUTE));
+        byte[] data = ReportingDao.getAllFromDisk(reportingFolder, "test", 1, PinType.ANALOG, (byte) 1, 10, GraphType.MINUTE);
+        assertEquals(16, data.length);
+
+        FileUtils.deleteDirectory(dataFolder.toFile());
+    }
+
+    @Test
+    public void testRetriedMinuteDoesntReopenStoredHour() throws IOException {
+        AverageAggregator realAggregator = new AverageAggregator("");
+        long hourStart = getTS() / AverageAggregator.HOUR * AverageAggregator.HOUR;
+        Path minuteFile = Paths.get(reportingFolder, "test", generateFilename(1, PinType.ANALOG, (byte) 1, GraphType.MINUTE));
+
+        realAggregator.collect("test", 1, PinType.ANALOG, (byte) 1, hourStart, 10);
+        new StorageWorker(realAggregator, reportingFolder, new ReportingChannelCache(10), new GraphCache(0, new GlobalStats()), new DBManager(blockingIOProcessor)).run();
+
+        //minute of same hour fails to be written and is returned back to aggregator
+        Files.delete(minuteFile);
+        Files.createDirectory(minuteFile);
+        realAggregator.collect("test", 1, PinType.ANALOG, (byte) 1, hourStart + AverageAggregator.MINUTE, 20);
+        new StorageWorker(realAggregator, reportingFolder, new ReportingChannelCache(10), new GraphCache(0, new GlobalStats()), new DBManager(blockingIOProcessor)).run();
+        assertEquals(1, realAggregator.getMinute().size());
+
+        //retry succeeds, but hour is already stored
+        Files.delete(minuteFile);
+        new StorageWorker(realAggregator, reportingFolder, new ReportingChannelCache(10), new GraphCache(0, new GlobalStats()), new DBManager(blockingIOProcessor)).run();
+        assertEquals(0, realAggregator.getMinute().size());
+        assertEquals(0, realAggregator.getHourly().size());
+
+        byte[] data = ReportingDao.getAllFromDisk(reportingFolder, "test", 1, PinType.ANALOG, (byte) 1, 10, GraphType.MINUTE);
+        assertEquals(16, data.length);
+        assertEquals(20, ByteBuffer.wrap(data).getDouble(), 0.001);
+
+        data = ReportingDao.getAllFromDisk(reportingFolder, "test", 1, PinType.ANALOG, (byte) 1, 10, GraphType.HOURLY);
+        assertEquals(16, data.length);
+        assertEquals(10, ByteBuffer.wrap(data).getDouble(), 0.001);
+        assertEquals(hourStart, ByteBuffer.wrap(data).getLong(8));
+    }
+
     private long getTS() {
         SimpleDateFormat formatter = new SimpleDateFormat("MMM dd, yyyy HH:mm:ss");
         String dateInString = "Aug 10, 2015 12:10:56";
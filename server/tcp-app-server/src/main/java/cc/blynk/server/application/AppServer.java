@@ -2,12 +2,14 @@ package cc.blynk.server.application;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.AppChannelStateHandler;
+import cc.blynk.server.application.handlers.main.AppLogicHolder;
 import cc.blynk.server.application.handlers.main.auth.AppLoginHandler;
 import cc.blynk.server.application.handlers.main.auth.RegisterHandler;
 import cc.blynk.server.application.handlers.sharing.auth.AppShareLoginHandler;
 import cc.blynk.server.core.BaseServer;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.handlers.common.PinValueConflationHandler;
 import cc.blynk.server.handlers.common.UserNotLoggedHandler;
 import cc.blynk.utils.SslUtil;
 import io.netty.channel.ChannelInitializer;
@@ -33,9 +35,11 @@ public class AppServer extends BaseServer {
         super(holder.props.getIntProperty("app.ssl.port"));
 
         final RegisterHandler registerHandler = new RegisterHandler(holder.userDao, holder.props.getCommaSeparatedList("allowed.users.list"));
-        final AppLoginHandler appLoginHandler = new AppLoginHandler(holder);
+        //command logic is shared by all app channels
+        final AppLogicHolder appLogicHolder = new AppLogicHolder(holder);
+        final AppLoginHandler appLoginHandler = new AppLoginHandler(holder, appLogicHolder);
         final AppChannelStateHandler appChannelStateHandler = new AppChannelStateHandler(holder.sessionDao);
-        final AppShareLoginHandler appShareLoginHandler = new AppShareLoginHandler(holder);
+        final AppShareLoginHandler appShareLoginHandler = new AppShareLoginHandler(holder, appLogicHolder);
         final UserNotLoggedHandler userNotLoggedHandler = new UserNotLoggedHandler();
 
         final DomainNameMapping<SslContext> mappings = SslUtil.getDomainMappingsMutual(holder.props);
@@ -43,6 +47,8 @@ public class AppServer extends BaseServer {
         int appTimeoutSecs = holder.props.getIntProperty("app.socket.idle.timeout", 0);
         log.debug("app.socket.idle.timeout = {}", appTimeoutSecs);
 
+        int pinMaxUpdateRate = holder.props.getIntProperty("app.pin.max.update.rate", 0);
+
         this.channelInitializer = new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
@@ -54,9 +60,11 @@ public class AppServer extends BaseServer {
 
                 pipeline.addLast(
                         new SniHandler(mappings),
+                        holder.flushConsolidation.create(),
                         appChannelStateHandler,
                         new MessageDecoder(holder.stats),
                         new MessageEncoder(holder.stats),
+                        new PinValueConflationHandler(holder.stats, pinMaxUpdateRate),
                         registerHandler,
                         appLoginHandler,
                         appShareLoginHandler,
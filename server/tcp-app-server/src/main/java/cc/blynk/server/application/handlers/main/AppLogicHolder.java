@@ -0,0 +1,79 @@
+package cc.blynk.server.application.handlers.main;
+
+import cc.blynk.server.Holder;
+import cc.blynk.server.application.handlers.main.logic.*;
+import cc.blynk.server.application.handlers.main.logic.dashboard.CreateDashLogic;
+import cc.blynk.server.application.handlers.main.logic.dashboard.DeleteDashLogic;
+import cc.blynk.server.application.handlers.main.logic.dashboard.SaveDashLogic;
+import cc.blynk.server.application.handlers.main.logic.dashboard.widget.CreateWidgetLogic;
+import cc.blynk.server.application.handlers.main.logic.dashboard.widget.DeleteWidgetLogic;
+import cc.blynk.server.application.handlers.main.logic.dashboard.widget.UpdateWidgetLogic;
+import cc.blynk.server.application.handlers.main.logic.reporting.GetGraphDataLogic;
+import cc.blynk.server.application.handlers.main.logic.sharing.GetShareTokenLogic;
+import cc.blynk.server.application.handlers.main.logic.sharing.GetSharedDashLogic;
+import cc.blynk.server.application.handlers.main.logic.sharing.RefreshShareTokenLogic;
+import cc.blynk.server.application.handlers.main.logic.sharing.ShareLogic;
+import cc.blynk.server.application.handlers.sharing.logic.HardwareAppShareLogic;
+
+/**
+ * Logic of app commands shared by all app channels of server, both main and shared ones.
+ * Logic classes are stateless or hold only server-wide state, so there is no need
+ * to create them for every logged in app.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class AppLogicHolder {
+
+    public final GetTokenLogic token;
+    public final HardwareAppLogic hardwareApp;
+    public final HardwareAppShareLogic hardwareAppShare;
+    public final RefreshTokenLogic refreshToken;
+    public final GetGraphDataLogic graphData;
+    public final AppMailLogic appMail;
+    public final GetShareTokenLogic getShareToken;
+    public final RefreshShareTokenLogic refreshShareToken;
+    public final GetSharedDashLogic getSharedDash;
+    public final CreateDashLogic createDash;
+    public final SaveDashLogic saveDash;
+    public final ActivateDashboardLogic activateDashboard;
+    public final DeActivateDashboardLogic deActivateDashboard;
+    public final CreateWidgetLogic createWidget;
+    public final UpdateWidgetLogic updateWidget;
+    public final DeleteWidgetLogic deleteWidget;
+    public final DeleteDashLogic deleteDash;
+    public final ShareLogic share;
+    public final RedeemLogic redeem;
+    public final AddEnergyLogic addEnergy;
+
+    public AppLogicHolder(Holder holder) {
+        this.token = new GetTokenLogic(holder.userDao);
+        this.hardwareApp = new HardwareAppLogic(holder.sessionDao, holder.pinStateDao);
+        this.hardwareAppShare = new HardwareAppShareLogic(holder.sessionDao, holder.pinStateDao);
+        this.refreshToken = new RefreshTokenLogic(holder.userDao);
+        this.graphData = new GetGraphDataLogic(holder.reportingDao, holder.graphReadProcessor);
+        this.appMail = new AppMailLogic(holder.blockingIOProcessor, holder.mailWrapper);
+        this.getShareToken = new GetShareTokenLogic(holder.userDao);
+        this.refreshShareToken = new RefreshShareTokenLogic(holder.userDao, holder.sessionDao);
+        this.getSharedDash = new GetSharedDashLogic(holder.userDao);
+
+        final int profileMaxSize = holder.props.getIntProperty("user.profile.max.size", 10) * 1024;
+        this.createDash = new CreateDashLogic(holder.props.getIntProperty("user.dashboard.max.limit"), profileMaxSize);
+        this.saveDash = new SaveDashLogic(profileMaxSize, holder.pinStateDao);
+
+        this.activateDashboard = new ActivateDashboardLogic(holder.sessionDao);
+        this.deActivateDashboard = new DeActivateDashboardLogic(holder.sessionDao);
+
+        final int widgetSize = holder.props.getIntProperty("user.widget.max.size.limit", 10) * 1024;
+        this.createWidget = new CreateWidgetLogic(widgetSize);
+        this.updateWidget = new UpdateWidgetLogic(widgetSize, holder.pinStateDao);
+        this.deleteWidget = new DeleteWidgetLogic(holder.pinStateDao);
+        this.deleteDash = new DeleteDashLogic(holder.userDao, holder.pinStateDao);
+
+        this.share = new ShareLogic(holder.sessionDao);
+        this.redeem = new RedeemLogic(holder.dbManager, holder.blockingIOProcessor);
+        this.addEnergy = new AddEnergyLogic(holder.dbManager, holder.blockingIOProcessor);
+    }
+
+}
@@ -2,6 +2,7 @@ package cc.blynk.server.application.handlers.main.auth;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.AppHandler;
+import cc.blynk.server.application.handlers.main.AppLogicHolder;
 import cc.blynk.server.application.handlers.sharing.auth.AppShareLoginHandler;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
@@ -10,7 +11,6 @@ import cc.blynk.server.core.protocol.exceptions.UserNotAuthenticated;
 import cc.blynk.server.core.protocol.exceptions.UserNotRegistered;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.protocol.model.messages.appllication.LoginMessage;
-import cc.blynk.server.handlers.DefaultReregisterHandler;
 import cc.blynk.server.handlers.common.UserNotLoggedHandler;
 import io.netty.channel.*;
 
@@ -22,19 +22,32 @@ import static cc.blynk.utils.ByteBufUtil.*;
  * Handler responsible for managing apps login messages.
  * Initializes netty channel with a state tied with user.
  *
+ * Login body is "username\0pass\0os\0version" optionally followed by feature parts.
+ * {@link #FACEBOOK_FEATURE} means pass is facebook token. {@link #BINARY_VALUES_FEATURE}
+ * enables binary HARDWARE_VALUE messages for this app, otherwise numeric values are sent as text.
+ * {@link #BATCH_FEATURE} enables HARDWARE_BATCH messages, otherwise batch is sent as HARDWARE message per write.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/1/2015.
  *
  */
 @ChannelHandler.Sharable
-public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage> implements DefaultExceptionHandler, DefaultReregisterHandler {
+public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage> implements DefaultExceptionHandler {
+
+    public static final String FACEBOOK_FEATURE = "facebook";
+    public static final String BINARY_VALUES_FEATURE = "bin";
+    public static final String BATCH_FEATURE = "batch";
+    //features go after version
+    private static final int FEATURES_START = 4;
 
     private final Holder holder;
+    private final AppLogicHolder logic;
     private final FacebookLoginCheck facebookLoginCheck;
 
-    public AppLoginHandler(Holder holder) {
+    public AppLoginHandler(Holder holder, AppLogicHolder logic) {
         this.holder = holder;
+        this.logic = logic;
         this.facebookLoginCheck = new FacebookLoginCheck();
     }
 
@@ -50,15 +63,27 @@ public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage> i
         final String username = messageParts[0].toLowerCase();
         final OsType osType = messageParts.length > 3 ? OsType.parse(messageParts[2]) : OsType.OTHER;
         final String version = messageParts.length > 3 ? messageParts[3] : null;
+        final boolean binaryValues = hasFeature(messageParts, BINARY_VALUES_FEATURE);
+        final boolean batch = hasFeature(messageParts, BATCH_FEATURE);
 
-        if (messageParts.length == 5 && "facebook".equals(messageParts[4])) {
-            facebookLogin(ctx, message.id, username, messageParts[1], osType, version);
+        if (hasFeature(messageParts, FACEBOOK_FEATURE)) {
+            facebookLogin(ctx, message.id, username, messageParts[1], osType, version, binaryValues, batch);
         } else {
-            blynkLogin(ctx, message.id, username, messageParts[1], osType, version);
+            blynkLogin(ctx, message.id, username, messageParts[1], osType, version, binaryValues, batch);
+        }
+    }
+
+    static boolean hasFeature(String[] messageParts, String feature) {
+        for (int i = FEATURES_START; i < messageParts.length; i++) {
+            if (feature.equals(messageParts[i])) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private void facebookLogin(ChannelHandlerContext ctx, int messageId, String username, String token, OsType osType, String version) {
+    private void facebookLogin(ChannelHandlerContext ctx, int messageId, String username, String token, OsType osType, String version,
+                               boolean binaryValues, boolean batch) {
         holder.blockingIOProcessor.execute(() -> {
             try {
                 facebookLoginCheck.verify(username, token);
@@ -73,11 +98,12 @@ public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage> i
                 user = holder.userDao.addFacebookUser(username);
             }
 
-            login(ctx, messageId, user, osType, version);
+            login(ctx, messageId, user, osType, version, binaryValues, batch);
         });
     }
 
-    private void blynkLogin(ChannelHandlerContext ctx, int messageId, String username, String pass, OsType osType, String version) {
+    private void blynkLogin(ChannelHandlerContext ctx, int messageId, String username, String pass, OsType osType, String version,
+                            boolean binaryValues, boolean batch) {
         User user = holder.userDao.getByName(username);
 
         if (user == null) {
@@ -88,24 +114,21 @@ public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage> i
             throw new UserNotAuthenticated(String.format("User credentials are wrong. Username '%s', %s", username, ctx.channel().remoteAddress()), messageId);
         }
 
-        login(ctx, messageId, user, osType, version);
+        login(ctx, messageId, user, osType, version, binaryValues, batch);
     }
 
-    private void login(ChannelHandlerContext ctx, int messageId, User user, OsType osType, String version) {
-        AppStateHolder appStateHolder = new AppStateHolder(user, osType, version);
+    private void login(ChannelHandlerContext ctx, int messageId, User user, OsType osType, String version, boolean binaryValues, boolean batch) {
+        AppStateHolder appStateHolder = new AppStateHolder(user, osType, version, binaryValues, batch);
+
+        Session session = holder.sessionDao.getSessionByUser(user, ctx.channel().eventLoop());
 
         cleanPipeline(ctx.pipeline());
-        ctx.pipeline().addLast(new AppHandler(holder, appStateHolder));
+        ctx.pipeline().addLast(new AppHandler(holder, session, appStateHolder, logic));
 
-        Session session = holder.sessionDao.getSessionByUser(user, ctx.channel().eventLoop());
         user.lastLoggedAt = System.currentTimeMillis();
 
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
-            log.debug("Re registering app channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, user.name, messageId));
-        } else {
-            completeLogin(ctx.channel(), session, user.name, messageId);
-        }
+        //submitted before any message of new handler, so login is always completed first
+        session.execute(() -> completeLogin(ctx.channel(), session, user.name, messageId));
     }
 
     private void completeLogin(Channel channel, Session session, String userName, int msgId) {
@@ -12,15 +12,33 @@ public class AppStateHolder extends StateHolder {
 
     public final OsType osType;
     public final String version;
+    private final boolean binaryValues;
+    private final boolean batch;
 
-    public AppStateHolder(User user, OsType osType, String version) {
+    /**
+     * @param binaryValues - app requested HARDWARE_VALUE messages at login, see {@link AppLoginHandler}.
+     * @param batch - app requested HARDWARE_BATCH messages at login.
+     */
+    public AppStateHolder(User user, OsType osType, String version, boolean binaryValues, boolean batch) {
         super(user);
         this.osType = osType;
         this.version = version;
+        this.binaryValues = binaryValues;
+        this.batch = batch;
     }
 
     @Override
     public boolean contains(String sharedToken) {
         return true;
     }
+
+    @Override
+    public boolean supportsBinaryValues() {
+        return binaryValues;
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return batch;
+    }
 }
@@ -42,7 +42,7 @@ public class ActivateDashboardLogic {
         log.debug("Activating dash {} for user {}", dashBoardIdString, user.name);
         DashBoard dash = user.profile.getDashById(dashId, message.id);
         dash.activate();
-        user.lastModifiedTs = System.currentTimeMillis();
+        user.markModified();
 
         Session session = sessionDao.userSession.get(user);
 
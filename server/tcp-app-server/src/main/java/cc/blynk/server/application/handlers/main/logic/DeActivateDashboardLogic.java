@@ -41,7 +41,7 @@ public class DeActivateDashboardLogic {
                 dashBoard.deactivate();
             }
         }
-        user.lastModifiedTs = System.currentTimeMillis();
+        user.markModified();
 
         Session session = sessionDao.userSession.get(user);
         for (Channel appChannel : session.getAppChannels()) {
@@ -64,7 +64,7 @@ public class CreateDashLogic {
 
         user.subtractEnergy(newDash.energySum(), message.id);
         user.profile.dashBoards = ArrayUtil.add(user.profile.dashBoards, newDash);
-        user.lastModifiedTs = System.currentTimeMillis();
+        user.markModified();
 
         ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
     }
@@ -1,5 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard;
 
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
@@ -23,9 +24,11 @@ public class DeleteDashLogic {
     private static final Logger log = LogManager.getLogger(DeleteDashLogic.class);
 
     private final UserDao userDao;
+    private final PinStateDao pinStateDao;
 
-    public DeleteDashLogic(UserDao userDao) {
+    public DeleteDashLogic(UserDao userDao, PinStateDao pinStateDao) {
         this.userDao = userDao;
+        this.pinStateDao = pinStateDao;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
@@ -46,8 +49,9 @@ public class DeleteDashLogic {
 
         user.profile.dashBoards = ArrayUtil.remove(user.profile.dashBoards, index);
         userDao.deleteProject(user, dashId);
+        pinStateDao.remove(user, dashId);
 
-        user.lastModifiedTs = System.currentTimeMillis();
+        user.markModified();
 
         ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
     }
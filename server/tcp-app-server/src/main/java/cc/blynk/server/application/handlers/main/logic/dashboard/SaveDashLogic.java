@@ -1,5 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard;
 
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
@@ -24,9 +25,11 @@ public class SaveDashLogic {
     private static final Logger log = LogManager.getLogger(SaveDashLogic.class);
 
     private final int DASH_MAX_SIZE;
+    private final PinStateDao pinStateDao;
 
-    public SaveDashLogic(int maxDashSize) {
+    public SaveDashLogic(int maxDashSize, PinStateDao pinStateDao) {
         this.DASH_MAX_SIZE = maxDashSize;
+        this.pinStateDao = pinStateDao;
     }
 
     //todo should accept only dash info and ignore widgets.
@@ -64,7 +67,8 @@ public class SaveDashLogic {
         }
 
         user.profile.dashBoards[index] = updatedDash;
-        user.lastModifiedTs = System.currentTimeMillis();
+        pinStateDao.removeUnused(user, updatedDash);
+        user.markModified();
 
         ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
     }
@@ -64,7 +64,7 @@ public class CreateWidgetLogic {
         user.subtractEnergy(newWidget.getPrice(), message.id);
         dash.widgets = ArrayUtil.add(dash.widgets, newWidget);
         dash.updatedAt = System.currentTimeMillis();
-        user.lastModifiedTs = dash.updatedAt;
+        user.markModified();
 
         ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
     }
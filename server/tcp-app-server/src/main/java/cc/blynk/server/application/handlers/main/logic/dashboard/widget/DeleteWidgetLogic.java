@@ -1,5 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard.widget;
 
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.Widget;
@@ -27,7 +28,13 @@ public class DeleteWidgetLogic {
 
     private static final Logger log = LogManager.getLogger(DeleteWidgetLogic.class);
 
-    public static void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
+    private final PinStateDao pinStateDao;
+
+    public DeleteWidgetLogic(PinStateDao pinStateDao) {
+        this.pinStateDao = pinStateDao;
+    }
+
+    public void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
         String[] split = message.body.split(BODY_SEPARATOR_STRING, 2);
 
         if (split.length < 2) {
@@ -49,6 +56,7 @@ public class DeleteWidgetLogic {
 
         existingWidgetIndex = dash.getWidgetIndex(widgetId, message.id);
         deleteWidget(user, dash, existingWidgetIndex);
+        pinStateDao.removeUnused(user, dash);
 
         ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
     }
@@ -70,12 +78,16 @@ public class DeleteWidgetLogic {
         user.recycleEnergy(removedWidgetPrice);
         dash.widgets = zeroTabWidgets.toArray(new Widget[zeroTabWidgets.size()]);
         dash.updatedAt = System.currentTimeMillis();
+
+        user.markModified();
     }
 
     private static void deleteWidget(User user, DashBoard dash, int existingWidgetIndex) {
         user.recycleEnergy(dash.widgets[existingWidgetIndex].getPrice());
         dash.widgets = ArrayUtil.remove(dash.widgets, existingWidgetIndex);
         dash.updatedAt = System.currentTimeMillis();
+
+        user.markModified();
     }
 
 }
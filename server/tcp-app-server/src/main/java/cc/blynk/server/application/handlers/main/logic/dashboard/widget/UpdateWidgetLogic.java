@@ -1,5 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard.widget;
 
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.Widget;
@@ -26,9 +27,11 @@ public class UpdateWidgetLogic {
     private static final Logger log = LogManager.getLogger(UpdateWidgetLogic.class);
 
     private final int MAX_WIDGET_SIZE;
+    private final PinStateDao pinStateDao;
 
-    public UpdateWidgetLogic(int maxWidgetSize) {
+    public UpdateWidgetLogic(int maxWidgetSize, PinStateDao pinStateDao) {
         this.MAX_WIDGET_SIZE = maxWidgetSize;
+        this.pinStateDao = pinStateDao;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
@@ -69,7 +72,8 @@ public class UpdateWidgetLogic {
 
         dash.widgets[existingWidgetIndex] = newWidget;
         dash.updatedAt = System.currentTimeMillis();
-        user.lastModifiedTs = dash.updatedAt;
+        pinStateDao.removeUnused(user, dash);
+        user.markModified();
 
         ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
     }
@@ -1,6 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.reporting;
 
-import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.GraphReadProcessor;
 import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
@@ -9,14 +9,12 @@ import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import cc.blynk.server.core.reporting.GraphPinRequest;
-import cc.blynk.utils.ParseUtil;
+import cc.blynk.utils.BodyParser;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.Arrays;
-
 import static cc.blynk.server.core.protocol.enums.Command.*;
 import static cc.blynk.server.core.protocol.enums.Response.*;
 import static cc.blynk.utils.ByteBufUtil.*;
@@ -30,50 +28,62 @@ import static cc.blynk.utils.ByteUtils.*;
  */
 public class GetGraphDataLogic {
 
+    //marks request with time range : dashId r from to pinType pin count type ...
+    private static final String RANGE_MARKER = "r";
+
     private static final Logger log = LogManager.getLogger(GetGraphDataLogic.class);
 
-    private final BlockingIOProcessor blockingIOProcessor;
+    private final GraphReadProcessor graphReadProcessor;
     private final ReportingDao reportingDao;
 
-    public GetGraphDataLogic(ReportingDao reportingDao, BlockingIOProcessor blockingIOProcessor) {
+    public GetGraphDataLogic(ReportingDao reportingDao, GraphReadProcessor graphReadProcessor) {
         this.reportingDao = reportingDao;
-        this.blockingIOProcessor = blockingIOProcessor;
+        this.graphReadProcessor = graphReadProcessor;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, User user, StringMessage message) {
-        //warn: split may be optimized
         //todo remove space after app migration
-        String[] messageParts = message.body.split(" |\0");
+        BodyParser parser = BodyParser.get().parse(message.body, true);
 
-        if (messageParts.length < 3) {
+        if (parser.parts() < 3) {
             throw new IllegalCommandException("Wrong income message format.", message.id);
         }
 
         //special case for delete command
-        if (messageParts.length == 4) {
-            deleteGraphData(messageParts, user.name, message.id);
+        if (parser.parts() == 4) {
+            deleteGraphData(parser, user.name, message.id);
             ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
         } else {
-            int dashId = ParseUtil.parseInt(messageParts[0], message.id);
+            int dashId = parser.parseInt(0, message.id);
             user.profile.validateDashId(dashId, message.id);
-            process(ctx.channel(), dashId, Arrays.copyOfRange(messageParts, 1, messageParts.length), user, message.id, 4);
+            if (parser.partEquals(1, RANGE_MARKER)) {
+                if (parser.parts() < 8) {
+                    throw new IllegalCommandException("Wrong income message format.", message.id);
+                }
+                long from = parser.parseLong(2, message.id);
+                long to = parser.parseLong(3, message.id);
+                process(ctx.channel(), dashId, parser, 4, user, message.id, 4, from, to);
+            } else {
+                process(ctx.channel(), dashId, parser, 1, user, message.id, 4, Long.MIN_VALUE, Long.MAX_VALUE);
+            }
         }
     }
 
-    private void process(Channel channel, int dashId, String[] messageParts, User user, int msgId, int valuesPerPin) {
-        int numberOfPins = messageParts.length / valuesPerPin;
+    private void process(Channel channel, int dashId, BodyParser parser, int firstPart, User user, int msgId,
+                         int valuesPerPin, long from, long to) {
+        int numberOfPins = (parser.parts() - firstPart) / valuesPerPin;
 
         GraphPinRequest[] requestedPins = new GraphPinRequestData[numberOfPins];
 
         for (int i = 0; i < numberOfPins; i++) {
-            requestedPins[i] = new GraphPinRequestData(dashId, messageParts, i, msgId, valuesPerPin);
+            requestedPins[i] = new GraphPinRequestData(dashId, parser, firstPart, i, msgId, valuesPerPin, from, to);
         }
 
         readGraphData(channel, user.name, requestedPins, msgId);
     }
 
     private void readGraphData(Channel channel, String username, GraphPinRequest[] requestedPins, int msgId) {
-        blockingIOProcessor.execute(() -> {
+        boolean accepted = graphReadProcessor.execute(() -> {
             try {
                 byte[][] data = reportingDao.getAllFromDisk(username, requestedPins, msgId);
                 byte[] compressed = compress(requestedPins[0].dashId, data);
@@ -86,15 +96,19 @@ public class GetGraphDataLogic {
                 channel.writeAndFlush(makeResponse(channel, msgId, SERVER_EXCEPTION), channel.voidPromise());
             }
         });
+
+        if (!accepted) {
+            log.debug("Graph read queue is full. Rejecting request for user {}.", username);
+            channel.writeAndFlush(makeResponse(channel, msgId, QUOTA_LIMIT_EXCEPTION), channel.voidPromise());
+        }
     }
 
-    private void deleteGraphData(String[] messageParts, String username, int msgId) {
+    private void deleteGraphData(BodyParser parser, String username, int msgId) {
         try {
-            int dashBoardId = Integer.parseInt(messageParts[0]);
-            PinType pinType = PinType.getPinType(messageParts[1].charAt(0));
-            byte pin = Byte.parseByte(messageParts[2]);
-            String cmd = messageParts[3];
-            if (!"del".equals(cmd)) {
+            int dashBoardId = parser.parseInt(0, msgId);
+            PinType pinType = parser.pinType(1);
+            byte pin = parser.parseByte(2, msgId);
+            if (!parser.partEquals(3, "del")) {
                 throw new IllegalCommandBodyException("Wrong body format. Expecting 'del'.", msgId);
             }
             reportingDao.delete(username, dashBoardId, pinType, pin);
@@ -4,6 +4,7 @@ import cc.blynk.server.core.model.enums.GraphType;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.utils.BodyParser;
 
 /**
  * The Blynk Project.
@@ -12,13 +13,25 @@ import cc.blynk.server.core.reporting.GraphPinRequest;
  */
 public class GraphPinRequestData extends GraphPinRequest {
 
-    public GraphPinRequestData(int dashId, String[] messageParts, final int pinIndex, int msgId, int valuesPerPin) {
+    /**
+     * @param firstPart - part of parsed body where pins start.
+     */
+    public GraphPinRequestData(int dashId, BodyParser parser, int firstPart, final int pinIndex, int msgId,
+                               int valuesPerPin, long from, long to) {
+        this(dashId, parser, firstPart, pinIndex, msgId, valuesPerPin);
+        this.from = from;
+        this.to = to;
+    }
+
+    public GraphPinRequestData(int dashId, BodyParser parser, int firstPart, final int pinIndex, int msgId,
+                               int valuesPerPin) {
+        final int part = firstPart + pinIndex * valuesPerPin;
         try {
             this.dashId = dashId;
-            pinType = PinType.getPinType(messageParts[pinIndex * valuesPerPin].charAt(0));
-            pin = Byte.parseByte(messageParts[pinIndex * valuesPerPin + 1]);
-            count = Integer.parseInt(messageParts[pinIndex * valuesPerPin + 2]);
-            type = GraphType.getPeriodByType(messageParts[pinIndex * valuesPerPin + 3].charAt(0));
+            pinType = parser.pinType(part);
+            pin = parser.parseByte(part + 1, msgId);
+            count = parser.parseInt(part + 2, msgId);
+            type = GraphType.getPeriodByType(parser.charAt(part + 3, 0));
         } catch (NumberFormatException e) {
             throw new IllegalCommandException("HardwareLogic command body incorrect.", msgId);
         }
@@ -1,11 +1,11 @@
 package cc.blynk.server.application.handlers.sharing;
 
 import cc.blynk.server.Holder;
+import cc.blynk.server.application.handlers.main.AppLogicHolder;
 import cc.blynk.server.application.handlers.main.logic.AddPushLogic;
 import cc.blynk.server.application.handlers.main.logic.LoadProfileGzippedLogic;
-import cc.blynk.server.application.handlers.main.logic.reporting.GetGraphDataLogic;
 import cc.blynk.server.application.handlers.sharing.auth.AppShareStateHolder;
-import cc.blynk.server.application.handlers.sharing.logic.HardwareAppShareLogic;
+import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
 import cc.blynk.server.handlers.common.PingLogic;
@@ -23,14 +23,12 @@ import static cc.blynk.server.core.protocol.enums.Command.*;
 public class AppShareHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
 
     public final AppShareStateHolder state;
-    private final HardwareAppShareLogic hardwareApp;
-    private final GetGraphDataLogic graphData;
+    private final AppLogicHolder logic;
 
-    public AppShareHandler(Holder holder, AppShareStateHolder state) {
-        super(holder.props, state);
-        this.hardwareApp = new HardwareAppShareLogic(holder.sessionDao);
-        this.graphData = new GetGraphDataLogic(holder.reportingDao, holder.blockingIOProcessor);
+    public AppShareHandler(Holder holder, Session session, AppShareStateHolder state, AppLogicHolder logic) {
+        super(holder.props, session, state);
         this.state = state;
+        this.logic = logic;
     }
 
     @Override
@@ -38,7 +36,7 @@ public class AppShareHandler extends BaseSimpleChannelInboundHandler<StringMessa
         ThreadContext.put("user", state.user.name);
         switch (msg.command) {
             case HARDWARE:
-                hardwareApp.messageReceived(ctx, state, msg);
+                logic.hardwareAppShare.messageReceived(ctx, state, msg);
                 break;
             case LOAD_PROFILE_GZIPPED :
                 LoadProfileGzippedLogic.messageReceived(ctx, state.user, msg);
@@ -48,7 +46,7 @@ public class AppShareHandler extends BaseSimpleChannelInboundHandler<StringMessa
                 AddPushLogic.messageReceived(ctx, state, msg);
                 break;
             case GET_GRAPH_DATA :
-                graphData.messageReceived(ctx, state.user, msg);
+                logic.graphData.messageReceived(ctx, state.user, msg);
                 break;
             case PING :
                 PingLogic.messageReceived(ctx, msg.id);
@@ -1,6 +1,7 @@
 package cc.blynk.server.application.handlers.sharing.auth;
 
 import cc.blynk.server.Holder;
+import cc.blynk.server.application.handlers.main.AppLogicHolder;
 import cc.blynk.server.application.handlers.main.auth.AppLoginHandler;
 import cc.blynk.server.application.handlers.main.auth.OsType;
 import cc.blynk.server.application.handlers.main.auth.RegisterHandler;
@@ -11,7 +12,6 @@ import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.model.messages.appllication.sharing.ShareLoginMessage;
-import cc.blynk.server.handlers.DefaultReregisterHandler;
 import cc.blynk.server.handlers.common.UserNotLoggedHandler;
 import io.netty.channel.*;
 import org.apache.logging.log4j.LogManager;
@@ -29,14 +29,16 @@ import static cc.blynk.utils.ByteBufUtil.*;
  *
  */
 @ChannelHandler.Sharable
-public class AppShareLoginHandler extends SimpleChannelInboundHandler<ShareLoginMessage> implements DefaultReregisterHandler {
+public class AppShareLoginHandler extends SimpleChannelInboundHandler<ShareLoginMessage> {
 
     private static final Logger log = LogManager.getLogger(AppShareLoginHandler.class);
 
     private final Holder holder;
+    private final AppLogicHolder logic;
 
-    public AppShareLoginHandler(Holder holder) {
+    public AppShareLoginHandler(Holder holder, AppLogicHolder logic) {
         this.holder = holder;
+        this.logic = logic;
     }
 
     @Override
@@ -81,17 +83,12 @@ public class AppShareLoginHandler extends SimpleChannelInboundHandler<ShareLogin
             return;
         }
 
-        cleanPipeline(ctx.pipeline());
-        ctx.pipeline().addLast(new AppShareHandler(holder, new AppShareStateHolder(user, osType, version, token, dashId)));
-
         Session session = holder.sessionDao.getSessionByUser(user, ctx.channel().eventLoop());
 
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
-            log.debug("Re registering app channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, user.name, messageId));
-        } else {
-            completeLogin(ctx.channel(), session, user.name, messageId);
-        }
+        cleanPipeline(ctx.pipeline());
+        ctx.pipeline().addLast(new AppShareHandler(holder, session, new AppShareStateHolder(user, osType, version, token, dashId), logic));
+
+        session.execute(() -> completeLogin(ctx.channel(), session, user.name, messageId));
     }
 
     private void completeLogin(Channel channel, Session session, String userName, int msgId) {
@@ -15,7 +15,7 @@ public class AppShareStateHolder extends AppStateHolder {
     public final int dashId;
 
     public AppShareStateHolder(User user, OsType osType, String version, String token, int dashId) {
-        super(user, osType, version);
+        super(user, osType, version, false, false);
         this.token = token;
         this.dashId = dashId;
     }
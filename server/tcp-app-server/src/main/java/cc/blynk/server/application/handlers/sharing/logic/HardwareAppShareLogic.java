@@ -1,16 +1,16 @@
 package cc.blynk.server.application.handlers.sharing.logic;
 
 import cc.blynk.server.application.handlers.sharing.auth.AppShareStateHolder;
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.outputs.FrequencyWidget;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
+import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
-import cc.blynk.utils.ParseUtil;
-import cc.blynk.utils.StringUtils;
-import io.netty.channel.Channel;
+import cc.blynk.utils.BodyParser;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,16 +30,22 @@ public class HardwareAppShareLogic {
     private static final Logger log = LogManager.getLogger(HardwareAppShareLogic.class);
 
     private final SessionDao sessionDao;
+    private final PinStateDao pinStateDao;
 
-    public HardwareAppShareLogic(SessionDao sessionDao) {
+    public HardwareAppShareLogic(SessionDao sessionDao, PinStateDao pinStateDao) {
         this.sessionDao = sessionDao;
+        this.pinStateDao = pinStateDao;
     }
 
     public void messageReceived(ChannelHandlerContext ctx, AppShareStateHolder state, StringMessage message) {
         Session session = sessionDao.userSession.get(state.user);
 
-        String[] split = message.body.split(StringUtils.BODY_SEPARATOR_STRING, 2);
-        int dashId = ParseUtil.parseInt(split[0], message.id);
+        BodyParser parser = BodyParser.get().parse(message.body);
+        if (parser.parts() < 2) {
+            throw new IllegalCommandException("Hardware command is wrong.", message.id);
+        }
+        int dashId = parser.parseInt(0, message.id);
+        final String body = parser.from(1);
 
         DashBoard dashBoard = state.user.profile.getDashById(dashId, message.id);
 
@@ -55,36 +61,32 @@ public class HardwareAppShareLogic {
             return;
         }
 
-        char operation = split[1].charAt(1);
+        char operation = body.charAt(1);
         DashBoard dash = state.user.profile.getDashById(dashId, message.id);
 
         switch (operation) {
             case 'w':
-                dash.update(split[1], message.id);
+                pinStateDao.update(state.user, dash, body, message.id);
 
                 String sharedToken = state.user.dashShareTokens.get(dashId);
                 if (sharedToken != null) {
-                    for (Channel appChannel : session.getAppChannels()) {
-                        if (appChannel != ctx.channel() && Session.needSync(appChannel, sharedToken)) {
-                            appChannel.writeAndFlush(makeStringMessage(appChannel, SYNC, message.id, message.body), appChannel.voidPromise());
-                        }
-                    }
+                    session.sendToSharedApps(ctx.channel(), sharedToken, SYNC, message.id, message.body);
                 }
-                session.sendMessageToHardware(ctx, dashId, HARDWARE, message.id, split[1]);
+                session.sendMessageToHardware(ctx, dashId, HARDWARE, message.id, body);
                 break;
             case 'r':
-                Widget widget = dash.findWidgetByPin(split[1].split(StringUtils.BODY_SEPARATOR_STRING), message.id);
+                Widget widget = dash.findWidgetByPin(body, message.id);
                 if (widget == null) {
                     throw new IllegalCommandBodyException("No frequency widget for read command.", message.id);
                 }
 
                 if (widget instanceof FrequencyWidget) {
-                    if (((FrequencyWidget) widget).isTicked(split[1])) {
-                        session.sendMessageToHardware(ctx, dashId, HARDWARE, message.id, split[1]);
+                    if (((FrequencyWidget) widget).isTicked(body)) {
+                        session.sendMessageToHardware(ctx, dashId, HARDWARE, message.id, body);
                     }
                 } else {
                     //corner case for 3-d parties. sometimes users need to read pin state even from non-frequency widgets
-                    session.sendMessageToHardware(ctx, dashId, HARDWARE, message.id, split[1]);
+                    session.sendMessageToHardware(ctx, dashId, HARDWARE, message.id, body);
                 }
                 break;
         }
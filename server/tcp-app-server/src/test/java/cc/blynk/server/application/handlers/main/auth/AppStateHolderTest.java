@@ -0,0 +1,75 @@
+package cc.blynk.server.application.handlers.main.auth;
+
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareValueMessage;
+import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
+import cc.blynk.utils.ServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class AppStateHolderTest {
+
+    private static final ServerProperties props = new ServerProperties();
+
+    private static EmbeddedChannel appChannel(String loginBody) {
+        String[] parts = loginBody.split(" ");
+        AppStateHolder state = new AppStateHolder(new User("test", "pass"), OsType.parse(parts[2]), parts[3],
+                AppLoginHandler.hasFeature(parts, AppLoginHandler.BINARY_VALUES_FEATURE),
+                AppLoginHandler.hasFeature(parts, AppLoginHandler.BATCH_FEATURE));
+        return new EmbeddedChannel(new BaseSimpleChannelInboundHandler<MessageBase>(props, null, state) {
+            @Override
+            protected void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+            }
+        });
+    }
+
+    @Test
+    public void testFeaturesGoAfterVersion() {
+        assertTrue(AppLoginHandler.hasFeature("user pass Android 2.0.0 bin".split(" "), AppLoginHandler.BINARY_VALUES_FEATURE));
+        assertTrue(AppLoginHandler.hasFeature("user token iOS 1.0.0 facebook bin".split(" "), AppLoginHandler.BINARY_VALUES_FEATURE));
+        assertTrue(AppLoginHandler.hasFeature("user token iOS 1.0.0 bin facebook".split(" "), AppLoginHandler.FACEBOOK_FEATURE));
+        assertTrue(AppLoginHandler.hasFeature("user pass Android 2.0.0 bin batch".split(" "), AppLoginHandler.BATCH_FEATURE));
+        assertFalse(AppLoginHandler.hasFeature("user pass Android 2.0.0 bin".split(" "), AppLoginHandler.BATCH_FEATURE));
+        //new app version alone doesn't enable feature
+        assertFalse(AppLoginHandler.hasFeature("user pass Android 10.0.0".split(" "), AppLoginHandler.BINARY_VALUES_FEATURE));
+        //pass that equals to feature name
+        assertFalse(AppLoginHandler.hasFeature("user bin".split(" "), AppLoginHandler.BINARY_VALUES_FEATURE));
+    }
+
+    @Test
+    public void testBinaryValuesOnlyForOptedInApp() {
+        Session session = new Session(null);
+        EmbeddedChannel binaryApp = appChannel("test pass Android 2.0.0 bin");
+        EmbeddedChannel textApp = appChannel("test pass Android 2.0.0");
+        session.addAppChannel(binaryApp);
+        session.addAppChannel(textApp);
+
+        session.sendToApps(1, 10, new HardwareValueMessage(1, PinType.VIRTUAL, (byte) 5, 42L));
+
+        ByteBuf binary = (ByteBuf) binaryApp.readOutbound();
+        assertEquals(Command.HARDWARE_VALUE, binary.readUnsignedByte());
+        assertTrue(binary.release());
+
+        ByteBuf text = (ByteBuf) textApp.readOutbound();
+        assertEquals(Command.HARDWARE, text.readUnsignedByte());
+        assertEquals(1, text.readUnsignedShort());
+        text.readUnsignedShort();
+        assertEquals("10\0vw\0" + "5\0" + "42", text.toString(CharsetUtil.UTF_8));
+        assertTrue(text.release());
+    }
+
+}
@@ -38,8 +38,9 @@ public class HardwareServer extends BaseServer {
                 if (hardTimeoutSecs > 0) {
                     pipeline.addLast(new ReadTimeoutHandler(hardTimeoutSecs));
                 }
-                pipeline.addLast(hardwareChannelStateHandler,
-                        new MessageDecoder(holder.stats),
+                pipeline.addLast(holder.flushConsolidation.create(),
+                        hardwareChannelStateHandler,
+                        new MessageDecoder(holder.stats, true),
                         new MessageEncoder(holder.stats),
                         hardwareLoginHandler,
                         userNotLoggedHandler
@@ -6,14 +6,11 @@ import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
-import cc.blynk.server.core.protocol.enums.Command;
-import cc.blynk.server.core.protocol.model.messages.ResponseWithBodyMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.notifications.push.GCMMessage;
 import cc.blynk.server.notifications.push.GCMWrapper;
 import cc.blynk.server.notifications.push.android.AndroidGCMMessage;
 import cc.blynk.server.notifications.push.ios.IOSGCMMessage;
-import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -24,6 +21,7 @@ import org.apache.logging.log4j.Logger;
 import java.util.Map;
 
 import static cc.blynk.server.core.protocol.enums.Response.*;
+import static cc.blynk.utils.ByteBufUtil.*;
 import static cc.blynk.utils.StateHolderUtil.*;
 
 /**
@@ -56,7 +54,7 @@ public class HardwareChannelStateHandler extends ChannelInboundHandlerAdapter {
             if (session != null) {
                 session.removeHardChannel(ctx.channel());
                 log.trace("Hardware channel disconnect.");
-                sentOfflineMessage(state);
+                sentOfflineMessage(ctx, state);
             }
         }
     }
@@ -70,21 +68,14 @@ public class HardwareChannelStateHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private void sentOfflineMessage(HardwareStateHolder state) {
+    private void sentOfflineMessage(ChannelHandlerContext ctx, HardwareStateHolder state) {
         DashBoard dashBoard = state.user.profile.getDashById(state.dashId, 0);
         if (dashBoard.isActive) {
             Notification notification = dashBoard.getWidgetByType(Notification.class);
             if (notification == null || !notification.notifyWhenOffline) {
                 Session session = sessionDao.userSession.get(state.user);
-                if (session.getAppChannels().size() > 0) {
-                    for (Channel appChannel : session.getAppChannels()) {
-                        appChannel.writeAndFlush(
-                                new ResponseWithBodyMessage(
-                                        0, Command.RESPONSE, DEVICE_WENT_OFFLINE, state.dashId
-                                ),
-                                appChannel.voidPromise()
-                        );
-                    }
+                if (session.isAppConnected()) {
+                    session.sendToApps(makeResponse(ctx, 0, DEVICE_WENT_OFFLINE, state.dashId));
                 }
             } else {
                 String boardType = dashBoard.boardType;
@@ -0,0 +1,39 @@
+package cc.blynk.server.hardware.handlers.hardware;
+
+import cc.blynk.server.Holder;
+import cc.blynk.server.hardware.handlers.hardware.logic.*;
+
+/**
+ * Logic of hardware commands shared by all hardware channels of server.
+ * Logic classes hold only server-wide state, everything related to channel
+ * is kept in {@link cc.blynk.server.core.session.HardwareStateHolder}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class HardwareLogicHolder {
+
+    public final HardwareLogic hardware;
+    public final MailLogic email;
+    public final BridgeLogic bridge;
+    public final PushLogic push;
+    public final TwitLogic tweet;
+    public final SmsLogic sms;
+    public final HardwareSyncLogic sync;
+    public final HardwareInfoLogic info;
+
+    public HardwareLogicHolder(Holder holder) {
+        this.hardware = new HardwareLogic(holder.sessionDao, holder.reportingDao, holder.pinStateDao);
+        this.bridge = new BridgeLogic(holder.sessionDao);
+
+        final long defaultNotificationQuotaLimit = holder.props.getLongProperty("notifications.frequency.user.quota.limit") * 1000;
+        this.email = new MailLogic(holder.blockingIOProcessor, holder.mailWrapper, defaultNotificationQuotaLimit);
+        this.push = new PushLogic(holder.blockingIOProcessor, holder.gcmWrapper, defaultNotificationQuotaLimit);
+        this.tweet = new TwitLogic(holder.blockingIOProcessor, holder.twitterWrapper, defaultNotificationQuotaLimit);
+        this.sms = new SmsLogic(holder.blockingIOProcessor, holder.smsWrapper, defaultNotificationQuotaLimit);
+        this.sync = new HardwareSyncLogic();
+        this.info = new HardwareInfoLogic(holder.props.getIntProperty("hard.socket.idle.timeout", 0));
+    }
+
+}
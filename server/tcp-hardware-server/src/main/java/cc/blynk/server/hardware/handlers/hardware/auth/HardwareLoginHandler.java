@@ -10,9 +10,10 @@ import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import cc.blynk.server.core.protocol.model.messages.appllication.LoginMessage;
 import cc.blynk.server.core.protocol.model.messages.common.HardwareMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
-import cc.blynk.server.handlers.DefaultReregisterHandler;
 import cc.blynk.server.handlers.common.UserNotLoggedHandler;
 import cc.blynk.server.hardware.handlers.hardware.HardwareHandler;
+import cc.blynk.server.hardware.handlers.hardware.HardwareLogicHolder;
+import cc.blynk.utils.BodyParser;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -26,18 +27,25 @@ import static cc.blynk.utils.ByteBufUtil.*;
  * Handler responsible for managing hardware and apps login messages.
  * Initializes netty channel with a state tied with user.
  *
+ * Login body is token. Hardware may request binary numeric values by adding
+ * {@link #BINARY_VALUES_FEATURE} part : "token\0bin". OK response means feature is enabled.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/1/2015.
  *
  */
 @ChannelHandler.Sharable
-public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessage> implements DefaultExceptionHandler, DefaultReregisterHandler {
+public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessage> implements DefaultExceptionHandler {
+
+    public static final String BINARY_VALUES_FEATURE = "bin";
 
     private final Holder holder;
+    private final HardwareLogicHolder logic;
 
     public HardwareLoginHandler(Holder holder) {
         this.holder = holder;
+        this.logic = new HardwareLogicHolder(holder);
     }
 
     private static void completeLogin(Channel channel, Session session, User user, DashBoard dash, int msgId) {
@@ -63,7 +71,9 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, LoginMessage message) throws Exception {
-        String token = message.body.trim();
+        BodyParser parser = BodyParser.get().parse(message.body);
+        String token = parser.part(0).trim();
+        boolean binaryValues = parser.parts() > 1 && parser.partEquals(1, BINARY_VALUES_FEATURE);
         User user = holder.userDao.tokenManager.getUserByToken(token);
 
         if (user == null) {
@@ -81,18 +91,14 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
             return;
         }
 
+        Session session = holder.sessionDao.getSessionByUser(user, ctx.channel().eventLoop());
+
         ctx.pipeline().remove(this);
         ctx.pipeline().remove(UserNotLoggedHandler.class);
-        ctx.pipeline().addLast(new HardwareHandler(holder, new HardwareStateHolder(dashId, user, token)));
+        ctx.pipeline().addLast(new HardwareHandler(holder, session, new HardwareStateHolder(dashId, user, token, binaryValues), logic));
 
-        Session session = holder.sessionDao.getSessionByUser(user, ctx.channel().eventLoop());
-
-        if (session.initialEventLoop != ctx.channel().eventLoop()) {
-            log.debug("Re registering hard channel. {}", ctx.channel());
-            reRegisterChannel(ctx, session, channelFuture -> completeLogin(channelFuture.channel(), session, user, dash, message.id));
-        } else {
-            completeLogin(ctx.channel(), session, user, dash, message.id);
-        }
+        //submitted before any message of new handler, so login is always completed first
+        session.execute(() -> completeLogin(ctx.channel(), session, user, dash, message.id));
     }
 
     @Override
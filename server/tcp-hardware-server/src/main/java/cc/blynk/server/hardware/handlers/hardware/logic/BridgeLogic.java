@@ -6,21 +6,21 @@ import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NotAllowedException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
-import cc.blynk.utils.StringUtils;
+import cc.blynk.utils.BodyParser;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.HashMap;
 
 import static cc.blynk.server.core.protocol.enums.Response.*;
 import static cc.blynk.utils.ByteBufUtil.*;
-import static cc.blynk.utils.StateHolderUtil.*;
 
 /**
  * Bridge handler responsible for forwarding messages between different hardware via Blynk Server.
  * SendTo device defined by Auth Token.
  *
+ * Logic is shared by all hardware channels, bridge targets of channel are kept
+ * in {@link HardwareStateHolder#bridgeTokens}.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -30,54 +30,55 @@ import static cc.blynk.utils.StateHolderUtil.*;
 public class BridgeLogic {
 
     private final SessionDao sessionDao;
-    private final Map<String, String> sendToMap;
 
     public BridgeLogic(SessionDao sessionDao) {
         this.sessionDao = sessionDao;
-        this.sendToMap = new ConcurrentHashMap<>();
     }
 
-    private static boolean isInit(String body) {
-        return body.length() > 0 && body.charAt(0) == 'i';
+    private static boolean isInit(BodyParser parser) {
+        return parser.length(1) > 0 && parser.charAt(1, 0) == 'i';
     }
 
     public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, StringMessage message) {
         Session session = sessionDao.userSession.get(state.user);
-        String[] split = message.body.split(StringUtils.BODY_SEPARATOR_STRING);
+        BodyParser parser = BodyParser.get().parse(message.body);
 
-        if (split.length < 3) {
+        if (parser.parts() < 3) {
             throw new IllegalCommandException("Wrong bridge body.", message.id);
         }
 
-        if (isInit(split[1])) {
-            final String pin = split[0];
-            final String token = split[2];
+        if (isInit(parser)) {
+            final String pin = parser.part(0);
+            final String token = parser.part(2);
 
-            sendToMap.put(pin, token);
+            //state is accessed only within user mailbox
+            if (state.bridgeTokens == null) {
+                state.bridgeTokens = new HashMap<>();
+            }
+            state.bridgeTokens.put(pin, token);
 
             ctx.writeAndFlush(ok(ctx, message.id), ctx.voidPromise());
         } else {
-            final String pin = split[0];
-            final String token = sendToMap.get(pin);
+            final String pin = parser.part(0);
+            final String token = state.bridgeTokens == null ? null : state.bridgeTokens.get(pin);
 
-            if (sendToMap.size() == 0 || token == null) {
+            if (token == null) {
                 throw new NotAllowedException("Bridge not initialized.", message.id);
             }
 
-            if (session.getHardwareChannels().size() > 1) {
-                boolean messageWasSent = false;
-                message.body = message.body.substring(message.body.indexOf(StringUtils.BODY_SEPARATOR_STRING) + 1);
-                for (Channel channel : session.getHardwareChannels()) {
-                    HardwareStateHolder hardwareState = getHardState(channel);
-                    if (hardwareState != null && token.equals(hardwareState.token) && channel != ctx.channel()) {
-                        messageWasSent = true;
-                        channel.writeAndFlush(message, channel.voidPromise());
-                    }
+            boolean messageWasSent = false;
+            message.body = parser.from(1);
+            for (Channel channel : session.getHardwareChannelsByToken(token)) {
+                //closed channel stays in index till close listener is run on its event loop
+                if (!channel.isActive()) {
+                    continue;
                 }
-                if (!messageWasSent) {
-                    ctx.writeAndFlush(makeResponse(ctx, message.id, DEVICE_NOT_IN_NETWORK), ctx.voidPromise());
+                if (channel != ctx.channel()) {
+                    messageWasSent = true;
+                    channel.writeAndFlush(message, channel.voidPromise());
                 }
-            } else {
+            }
+            if (!messageWasSent) {
                 ctx.writeAndFlush(makeResponse(ctx, message.id, DEVICE_NOT_IN_NETWORK), ctx.voidPromise());
             }
         }
@@ -1,21 +1,22 @@
 package cc.blynk.server.hardware.handlers.hardware.logic;
 
+import cc.blynk.server.core.dao.PinStateDao;
 import cc.blynk.server.core.dao.ReportingDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
-import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareBatchMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareValueMessage;
+import cc.blynk.server.core.reporting.PinWriteBatch;
 import cc.blynk.server.core.session.HardwareStateHolder;
-import cc.blynk.utils.ParseUtil;
-import cc.blynk.utils.StringUtils;
+import cc.blynk.utils.BodyParser;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.Arrays;
-
 import static cc.blynk.server.core.protocol.enums.Command.*;
 import static cc.blynk.server.core.protocol.enums.Response.*;
 import static cc.blynk.utils.ByteBufUtil.*;
@@ -36,51 +37,118 @@ public class HardwareLogic {
 
     private final ReportingDao reportingDao;
     private final SessionDao sessionDao;
+    private final PinStateDao pinStateDao;
 
-    public HardwareLogic(SessionDao sessionDao, ReportingDao reportingDao) {
+    public HardwareLogic(SessionDao sessionDao, ReportingDao reportingDao, PinStateDao pinStateDao) {
         this.sessionDao = sessionDao;
         this.reportingDao = reportingDao;
+        this.pinStateDao = pinStateDao;
     }
 
-    private static boolean isWriteOperation(String body) {
-        return body.charAt(1) == 'w';
+    private static boolean isWriteOperation(HardwareMessage message) {
+        return message.charAt(1) == 'w';
     }
 
-    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, StringMessage message) {
+    /**
+     * Body is decoded to String only for write operations, that should be parsed.
+     * Message is forwarded to apps with original bytes.
+     */
+    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, HardwareMessage message) {
         Session session = sessionDao.userSession.get(state.user);
 
-        final String body = message.body;
-
         //minimum command - "ar 1"
-        if (body.length() < 4) {
+        if (message.length < 4) {
             throw new IllegalCommandException("HardwareLogic command body too short.", message.id);
         }
 
         int dashId = state.dashId;
         DashBoard dash = state.user.profile.getDashById(dashId, message.id);
 
-        if (isWriteOperation(body)) {
-            String[] splitBody = body.split(StringUtils.BODY_SEPARATOR_STRING);
+        if (isWriteOperation(message)) {
+            BodyParser body = BodyParser.get().parse(message.getBody());
 
-            if (splitBody.length < 3 || splitBody[0].length() == 0) {
+            if (body.parts() < 3 || body.length(0) == 0) {
                 throw new IllegalCommandException("Write command is wrong.", message.id);
             }
 
-            final PinType pinType = PinType.getPinType(splitBody[0].charAt(0));
-            final byte pin = ParseUtil.parseByte(splitBody[1], message.id);
-            final String[] values = Arrays.copyOfRange(splitBody, 2, splitBody.length);
+            final PinType pinType = body.pinType();
+            final byte pin = body.pin(message.id);
+            final String[] values = body.values(2);
+
+            reportingDao.process(state.user.name, dashId, pin, pinType, values);
+            pinStateDao.update(state.user, dash, pin, pinType, values);
+        }
 
-            //storing to DB and aggregating
-            if (values.length == 0) {
-                throw new IllegalCommandException("Hardware write command doesn't have value for pin.", message.id);
+        if (dash.isActive) {
+            session.sendToApps(HARDWARE, message.id, dashId, message.bodyBuf());
+        } else {
+            log.debug("No active dashboard.");
+            ctx.writeAndFlush(makeResponse(ctx, message.id, NO_ACTIVE_DASHBOARD), ctx.voidPromise());
+        }
+    }
+
+    /**
+     * Binary numeric write. Value is already parsed by decoder, so it goes to aggregation as is.
+     * Apps receive binary or text form depending on their version, see {@link Session#sendToApps(int, int, HardwareValueMessage)}.
+     */
+    public void valueReceived(ChannelHandlerContext ctx, HardwareStateHolder state, HardwareValueMessage message) {
+        if (!state.binaryValues) {
+            throw new IllegalCommandException("Binary values were not negotiated at login.", message.id);
+        }
+
+        Session session = sessionDao.userSession.get(state.user);
+
+        int dashId = state.dashId;
+        DashBoard dash = state.user.profile.getDashById(dashId, message.id);
+
+        final String value = message.valueString();
+        reportingDao.process(state.user.name, dashId, message.pin, message.pinType, message.value, value);
+        pinStateDao.update(state.user, dash, message.pin, message.pinType, new String[] {value});
+
+        if (dash.isActive) {
+            session.sendToApps(message.id, dashId, message);
+        } else {
+            log.debug("No active dashboard.");
+            ctx.writeAndFlush(makeResponse(ctx, message.id, NO_ACTIVE_DASHBOARD), ctx.voidPromise());
+        }
+    }
+
+    /**
+     * Batch is processed as a unit : all writes are validated before any of them is applied,
+     * reporting is updated with single call. Apps that negotiated batches receive whole batch as one message,
+     * see {@link Session#sendBatchToApps(int, int, String, PinWriteBatch)}.
+     */
+    public void batchReceived(ChannelHandlerContext ctx, HardwareStateHolder state, HardwareBatchMessage message) {
+        Session session = sessionDao.userSession.get(state.user);
+
+        int dashId = state.dashId;
+        DashBoard dash = state.user.profile.getDashById(dashId, message.id);
+
+        final String body = message.body;
+        PinWriteBatch batch = new PinWriteBatch(message.writes);
+        int from = 0;
+        for (int i = 0; i < message.writes; i++) {
+            int to = body.indexOf(HardwareBatchMessage.WRITE_SEPARATOR, from);
+            if (to == -1) {
+                to = body.length();
+            }
+            BodyParser parser = BodyParser.get().parse(body, from, to);
+            if (parser.parts() < 3 || parser.length(0) != 2 || parser.operation() != 'w') {
+                throw new IllegalCommandException("Batch command is wrong.", message.id);
             }
+            final PinType pinType = parser.pinType();
+            final byte pin = parser.pin(message.id);
+            batch.add(pinType, pin, parser.values(2));
+            from = to + 1;
+        }
 
-            reportingDao.process(state.user.name, dashId, pin, pinType, values);
-            dash.update(pin, pinType, values);
+        reportingDao.process(state.user.name, dashId, batch);
+        for (int i = 0; i < batch.size; i++) {
+            pinStateDao.update(state.user, dash, batch.pins[i], batch.pinTypes[i], batch.values[i]);
         }
 
         if (dash.isActive) {
-            session.sendToApps(HARDWARE, message.id, dashId + StringUtils.BODY_SEPARATOR_STRING + body);
+            session.sendBatchToApps(message.id, dashId, body, batch);
         } else {
             log.debug("No active dashboard.");
             ctx.writeAndFlush(makeResponse(ctx, message.id, NO_ACTIVE_DASHBOARD), ctx.voidPromise());
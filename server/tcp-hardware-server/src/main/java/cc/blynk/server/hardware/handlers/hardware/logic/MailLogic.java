@@ -32,7 +32,7 @@ public class MailLogic extends NotificationBase {
     private final MailWrapper mailWrapper;
 
     public MailLogic(BlockingIOProcessor blockingIOProcessor, MailWrapper mailWrapper, long notificationQuotaLimit) {
-        super(notificationQuotaLimit);
+        super(notificationQuotaLimit, MAIL);
         this.blockingIOProcessor = blockingIOProcessor;
         this.mailWrapper = mailWrapper;
     }
@@ -60,7 +60,7 @@ public class MailLogic extends NotificationBase {
         String subj = bodyParts[1];
         String body = bodyParts[2];
 
-        checkIfNotificationQuotaLimitIsNotReached(message.id);
+        checkIfNotificationQuotaLimitIsNotReached(state, message.id);
 
         log.trace("Sending Mail for user {}, with message : '{}'.", state.user.name, message.body);
         mail(ctx.channel(), state.user.name, to, subj, body, message.id);
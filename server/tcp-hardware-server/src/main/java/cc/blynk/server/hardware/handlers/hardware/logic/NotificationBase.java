@@ -1,28 +1,38 @@
 package cc.blynk.server.hardware.handlers.hardware.logic;
 
 import cc.blynk.server.core.protocol.exceptions.QuotaLimitException;
+import cc.blynk.server.core.session.HardwareStateHolder;
 
 /**
+ * Notification logic is shared by all hardware channels, so time of last sent notification
+ * is kept within channel state, one slot per notification type.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 29.07.15.
  */
 public abstract class NotificationBase {
 
+    static final int MAIL = 0;
+    static final int PUSH = 1;
+    static final int TWEET = 2;
+    static final int SMS = 3;
+
     private final long NOTIFICATION_QUOTA_LIMIT;
-    private long lastSentTs;
+    private final int type;
 
-    NotificationBase(long defaultNotificationQuotaLimit) {
+    NotificationBase(long defaultNotificationQuotaLimit, int type) {
         this.NOTIFICATION_QUOTA_LIMIT = defaultNotificationQuotaLimit;
+        this.type = type;
     }
 
-    void checkIfNotificationQuotaLimitIsNotReached(int msgId) {
+    void checkIfNotificationQuotaLimitIsNotReached(HardwareStateHolder state, int msgId) {
         long currentTs = System.currentTimeMillis();
-        long timePassedSinceLastMessage = (currentTs - lastSentTs);
+        long timePassedSinceLastMessage = (currentTs - state.notificationsLastSentTs[type]);
         if (timePassedSinceLastMessage < NOTIFICATION_QUOTA_LIMIT) {
             throw new QuotaLimitException(String.format("Only 1 notification per %s miliseconds is allowed", NOTIFICATION_QUOTA_LIMIT), msgId);
         }
-        this.lastSentTs = currentTs;
+        state.notificationsLastSentTs[type] = currentTs;
     }
 
 }
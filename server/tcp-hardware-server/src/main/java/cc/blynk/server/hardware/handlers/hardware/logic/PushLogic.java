@@ -38,7 +38,7 @@ public class PushLogic extends NotificationBase {
     private final GCMWrapper gcmWrapper;
 
     public PushLogic(BlockingIOProcessor blockingIOProcessor, GCMWrapper gcmWrapper, long notificationQuotaLimit) {
-        super(notificationQuotaLimit);
+        super(notificationQuotaLimit, PUSH);
         this.blockingIOProcessor = blockingIOProcessor;
         this.gcmWrapper = gcmWrapper;
     }
@@ -62,7 +62,7 @@ public class PushLogic extends NotificationBase {
             throw new NotifNotAuthorizedException("User has no access token provided.", message.id);
         }
 
-        checkIfNotificationQuotaLimitIsNotReached(message.id);
+        checkIfNotificationQuotaLimitIsNotReached(state, message.id);
 
         log.trace("Sending push for user {}, with message : '{}'.", state.user.name, message.body);
         push(ctx.channel(), state.user.name, widget, message.body, state.dashId, message.id);
@@ -35,7 +35,7 @@ public class SmsLogic extends NotificationBase {
     private final SMSWrapper smsWrapper;
 
     public SmsLogic(BlockingIOProcessor blockingIOProcessor, SMSWrapper smsWrapper, long notificationQuotaLimit) {
-        super(notificationQuotaLimit);
+        super(notificationQuotaLimit, SMS);
         this.blockingIOProcessor = blockingIOProcessor;
         this.smsWrapper = smsWrapper;
     }
@@ -53,7 +53,7 @@ public class SmsLogic extends NotificationBase {
             throw new NotifNotAuthorizedException("User has no access phone number provided.", message.id);
         }
 
-        checkIfNotificationQuotaLimitIsNotReached(message.id);
+        checkIfNotificationQuotaLimitIsNotReached(state, message.id);
 
         log.trace("Sending sms for user {}, with message : '{}'.", state.user.name, message.body);
         sms(ctx.channel(), state.user.name, smsWidget.to, message.body, message.id);
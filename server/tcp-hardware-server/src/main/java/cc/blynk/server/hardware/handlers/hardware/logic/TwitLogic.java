@@ -33,7 +33,7 @@ public class TwitLogic extends NotificationBase {
     private final TwitterWrapper twitterWrapper;
 
     public TwitLogic(BlockingIOProcessor blockingIOProcessor, TwitterWrapper twitterWrapper, long notificationQuotaLimit) {
-        super(notificationQuotaLimit);
+        super(notificationQuotaLimit, TWEET);
         this.blockingIOProcessor = blockingIOProcessor;
         this.twitterWrapper = twitterWrapper;
     }
@@ -52,7 +52,7 @@ public class TwitLogic extends NotificationBase {
             throw new NotifNotAuthorizedException("User has no access token provided.", message.id);
         }
 
-        checkIfNotificationQuotaLimitIsNotReached(message.id);
+        checkIfNotificationQuotaLimitIsNotReached(state, message.id);
 
         log.trace("Sending Twit for user {}, with message : '{}'.", state.user.name, message.body);
         twit(ctx.channel(), state.user.name, twitterWidget.token, twitterWidget.secret, message.body, message.id);
@@ -46,8 +46,9 @@ public class HardwareSSLServer extends BaseServer {
                 }
                 pipeline.addLast(
                         new SniHandler(mappings),
+                        holder.flushConsolidation.create(),
                         hardwareChannelStateHandler,
-                        new MessageDecoder(holder.stats),
+                        new MessageDecoder(holder.stats, true),
                         new MessageEncoder(holder.stats),
                         hardwareLoginHandler,
                         userNotLoggedHandler
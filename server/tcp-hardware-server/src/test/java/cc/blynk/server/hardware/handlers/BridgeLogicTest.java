@@ -0,0 +1,87 @@
+package cc.blynk.server.hardware.handlers;
+
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.enums.Response;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.hardware.BridgeMessage;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.hardware.handlers.hardware.logic.BridgeLogic;
+import cc.blynk.utils.ServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+public class BridgeLogicTest {
+
+    private static final ServerProperties props = new ServerProperties();
+
+    private final User user = new User("user", "pass");
+    private SessionDao sessionDao;
+    private HardwareStateHolder senderState;
+    private EmbeddedChannel sender;
+
+    private static ChannelHandler handler(HardwareStateHolder state) {
+        return new BaseSimpleChannelInboundHandler<MessageBase>(props, null, state) {
+            @Override
+            protected void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+            }
+        };
+    }
+
+    @Before
+    public void init() {
+        sessionDao = new SessionDao();
+        senderState = new HardwareStateHolder(1, user, "sender");
+        sender = new EmbeddedChannel(handler(senderState));
+        sessionDao.getSessionByUser(user, sender.eventLoop()).addHardChannel(sender);
+    }
+
+    private void bridge(String body) {
+        new BridgeLogic(sessionDao).messageReceived(sender.pipeline().firstContext(), senderState,
+                new BridgeMessage(1, body.replaceAll(" ", "\0")));
+    }
+
+    private void assertResponse(int code) {
+        ByteBuf response = (ByteBuf) sender.readOutbound();
+        assertEquals(Command.RESPONSE, response.readUnsignedByte());
+        assertEquals(1, response.readUnsignedShort());
+        assertEquals(code, response.readUnsignedShort());
+        response.release();
+    }
+
+    @Test
+    public void testClosedTargetIsNotInNetwork() {
+        //close listener of target isn't run yet, so it is still in index
+        EmbeddedChannel target = new EmbeddedChannel(handler(new HardwareStateHolder(1, user, "target"))) {
+            @Override
+            public boolean isActive() {
+                return false;
+            }
+        };
+        Session session = sessionDao.userSession.get(user);
+        session.addHardChannel(target);
+        assertEquals(1, session.getHardwareChannelsByToken("target").length);
+
+        bridge("1 i target");
+        assertResponse(Response.OK);
+
+        bridge("1 vw 1 100");
+        assertResponse(Response.DEVICE_NOT_IN_NETWORK);
+        assertNull(target.readOutbound());
+    }
+
+}
@@ -0,0 +1,143 @@
+package cc.blynk.server.hardware.handlers;
+
+import cc.blynk.server.core.dao.PinStateDao;
+import cc.blynk.server.core.dao.ReportingDao;
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareBatchMessage;
+import cc.blynk.server.core.reporting.PinWriteBatch;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.core.session.StateHolder;
+import cc.blynk.server.handlers.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.hardware.handlers.hardware.logic.HardwareLogic;
+import cc.blynk.utils.ServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 18.10.26.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HardwareBatchLogicTest {
+
+    private static final String SEP = String.valueOf(HardwareBatchMessage.WRITE_SEPARATOR);
+
+    @Mock
+    private ReportingDao reportingDao;
+
+    private HardwareLogic logic;
+    private HardwareStateHolder state;
+    private EmbeddedChannel hardChannel;
+    private EmbeddedChannel appChannel;
+    private EmbeddedChannel batchAppChannel;
+
+    @Before
+    public void init() {
+        SessionDao sessionDao = new SessionDao();
+        User user = new User("user", "pass");
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        dash.isActive = true;
+        user.profile.dashBoards = new DashBoard[] {dash};
+
+        hardChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        appChannel = new EmbeddedChannel();
+        Session session = sessionDao.getSessionByUser(user, hardChannel.eventLoop());
+        session.addAppChannel(appChannel);
+        batchAppChannel = new EmbeddedChannel(new BaseSimpleChannelInboundHandler<MessageBase>(new ServerProperties(), null,
+                new StateHolder(user) {
+                    @Override
+                    public boolean contains(String sharedToken) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean supportsBatch() {
+                        return true;
+                    }
+                }) {
+            @Override
+            protected void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+            }
+        });
+        session.addAppChannel(batchAppChannel);
+
+        state = new HardwareStateHolder(1, user, "token");
+        logic = new HardwareLogic(sessionDao, reportingDao, new PinStateDao(null, 0));
+    }
+
+    private static String write(String write) {
+        return write.replaceAll(" ", "\0");
+    }
+
+    @Test
+    public void testBatchProcessedAsUnit() {
+        String body = write("vw 1 100") + SEP + write("aw 2 1.5") + SEP + write("vw 3 a b");
+        HardwareBatchMessage message = new HardwareBatchMessage(5, body);
+        assertEquals(3, message.getQuotaWeight());
+
+        logic.batchReceived(hardChannel.pipeline().firstContext(), state, message);
+
+        ArgumentCaptor<PinWriteBatch> captor = ArgumentCaptor.forClass(PinWriteBatch.class);
+        verify(reportingDao).process(eq("user"), eq(1), captor.capture());
+        PinWriteBatch batch = captor.getValue();
+        assertEquals(3, batch.size);
+        assertEquals(PinType.ANALOG, batch.pinTypes[1]);
+        assertEquals(3, batch.pins[2]);
+        assertArrayEquals(new String[] {"a", "b"}, batch.values[2]);
+
+        //app didn't negotiate batches, so it receives write per message
+        assertMessage(appChannel, Command.HARDWARE, "1\0" + write("vw 1 100"));
+        assertMessage(appChannel, Command.HARDWARE, "1\0" + write("aw 2 1.5"));
+        assertMessage(appChannel, Command.HARDWARE, "1\0" + write("vw 3 a b"));
+        assertNull(appChannel.readOutbound());
+
+        assertMessage(batchAppChannel, Command.HARDWARE_BATCH, "1\0" + body);
+        assertNull(batchAppChannel.readOutbound());
+    }
+
+    private static void assertMessage(EmbeddedChannel channel, short cmd, String body) {
+        ByteBuf out = (ByteBuf) channel.readOutbound();
+        assertEquals(cmd, out.readUnsignedByte());
+        assertEquals(5, out.readUnsignedShort());
+        out.readUnsignedShort();
+        assertEquals(body, out.toString(CharsetUtil.UTF_8));
+        out.release();
+    }
+
+    @Test
+    public void testNothingAppliedWhenAnyWriteIsWrong() {
+        String body = write("vw 1 100") + SEP + write("vr 2");
+        try {
+            logic.batchReceived(hardChannel.pipeline().firstContext(), state, new HardwareBatchMessage(5, body));
+            fail();
+        } catch (IllegalCommandException e) {
+            //expected
+        }
+
+        verifyZeroInteractions(reportingDao);
+        assertNull(appChannel.readOutbound());
+        assertNull(batchAppChannel.readOutbound());
+    }
+
+}
@@ -48,13 +48,14 @@ public class WebSocketSSLServer extends BaseServer {
                 }
                 ch.pipeline().addLast(
                         new SniHandler(mappings),
+                        holder.flushConsolidation.create(),
                         new HttpServerCodec(),
                         new HttpObjectAggregator(65536),
                         new WebSocketHandler(true),
 
                         //hardware handlers
                         hardwareChannelStateHandler,
-                        new MessageDecoder(holder.stats),
+                        new MessageDecoder(holder.stats, true),
                         new WebSocketWrapperEncoder(),
                         new WebSocketEncoder(holder.stats),
                         hardwareLoginHandler,
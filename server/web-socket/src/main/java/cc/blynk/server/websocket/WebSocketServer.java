@@ -33,7 +33,6 @@ public class WebSocketServer extends BaseServer {
         final HardwareChannelStateHandler hardwareChannelStateHandler = new HardwareChannelStateHandler(holder.sessionDao, holder.blockingIOProcessor, holder.gcmWrapper);
         final UserNotLoggedHandler userNotLoggedHandler = new UserNotLoggedHandler();
 
-
         channelInitializer = new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
@@ -42,13 +41,14 @@ public class WebSocketServer extends BaseServer {
                     pipeline.addLast(new ReadTimeoutHandler(hardTimeoutSecs));
                 }
                 ch.pipeline().addLast(
+                        holder.flushConsolidation.create(),
                         new HttpServerCodec(),
                         new HttpObjectAggregator(65536),
                         new WebSocketHandler(false),
 
                         //hardware handlers
                         hardwareChannelStateHandler,
-                        new MessageDecoder(holder.stats),
+                        new MessageDecoder(holder.stats, true),
                         new WebSocketWrapperEncoder(),
                         new WebSocketEncoder(holder.stats),
                         hardwareLoginHandler,